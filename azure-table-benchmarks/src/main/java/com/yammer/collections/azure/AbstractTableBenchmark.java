@@ -0,0 +1,105 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.azure;
+
+import com.google.common.collect.ImmutableMap;
+import com.microsoft.windowsazure.services.table.client.CloudTableClient;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A table of rows x columns cells in an {@link InMemoryAzureTableCloudClient}, which waits for the given latency on every
+ * request, so that operations which make more round trips than needed stand out.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public abstract class AbstractTableBenchmark {
+    static final String TABLE_NAME = "benchmark";
+    @Param({"0", "1000"})
+    public long latencyInMicros;
+    @Param({"100"})
+    public int rows;
+    @Param({"10"})
+    public int columns;
+    protected Bytes[] rowKeys;
+    protected Bytes[] columnKeys;
+    protected Bytes value;
+    protected InMemoryAzureTableCloudClient client;
+    protected BaseAzureTable table;
+
+    @Setup(Level.Trial)
+    public void setUpTable() throws URISyntaxException {
+        rowKeys = keys("row", rows);
+        columnKeys = keys("column", columns);
+        value = new Bytes("a value of a benchmark cell".getBytes());
+        client = new InMemoryAzureTableCloudClient(latencyInMicros, TimeUnit.MICROSECONDS);
+        table = BaseAzureTable.builder(TABLE_NAME, new CloudTableClient(new URI("http://localhost/"), null)).build(client);
+        populate();
+    }
+
+    /**
+     * Writes the cells of the benchmark, and whatever else the benchmark needs, after the table is set up.
+     */
+    protected void populate() {
+        for (Bytes rowKey : rowKeys) {
+            table.updateRow(rowKey, rowOf(value), Collections.<Bytes>emptySet());
+        }
+    }
+
+    private static Bytes[] keys(String prefix, int count) {
+        Bytes[] keys = new Bytes[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = new Bytes((prefix + i).getBytes());
+        }
+        return keys;
+    }
+
+    protected Map<Bytes, Bytes> rowOf(Bytes cellValue) {
+        ImmutableMap.Builder<Bytes, Bytes> row = ImmutableMap.builder();
+        for (Bytes columnKey : columnKeys) {
+            row.put(columnKey, cellValue);
+        }
+        return row.build();
+    }
+
+    protected Bytes randomRowKey() {
+        return rowKeys[ThreadLocalRandom.current().nextInt(rowKeys.length)];
+    }
+
+    protected Bytes randomColumnKey() {
+        return columnKeys[ThreadLocalRandom.current().nextInt(columnKeys.length)];
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.azure;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Map;
+
+/**
+ * Reads and writes of {@link BaseAzureTable} and walks of its views.
+ */
+public class BaseAzureTableBenchmark extends AbstractTableBenchmark {
+    private Table<Bytes, Bytes, Bytes> cellsOfARow;
+
+    @Override
+    protected void populate() {
+        super.populate();
+        cellsOfARow = HashBasedTable.create();
+        for (Map.Entry<Bytes, Bytes> cell : rowOf(value).entrySet()) {
+            cellsOfARow.put(rowKeys[0], cell.getKey(), cell.getValue());
+        }
+    }
+
+    @Benchmark
+    public Bytes get() {
+        return table.get(randomRowKey(), randomColumnKey());
+    }
+
+    @Benchmark
+    public Bytes put() {
+        return table.put(randomRowKey(), randomColumnKey(), value);
+    }
+
+    @Benchmark
+    public void putAll() {
+        table.putAll(cellsOfARow);
+    }
+
+    @Benchmark
+    public void cellSetIteration(Blackhole blackhole) {
+        for (Table.Cell<Bytes, Bytes, Bytes> cell : table.cellSet()) {
+            blackhole.consume(cell);
+        }
+    }
+
+    @Benchmark
+    public void rowKeySetIteration(Blackhole blackhole) {
+        for (Bytes rowKey : table.rowKeySet()) {
+            blackhole.consume(rowKey);
+        }
+    }
+
+    @Benchmark
+    public void rowMapWalk(Blackhole blackhole) {
+        for (Map.Entry<Bytes, Map<Bytes, Bytes>> row : table.rowMap().entrySet()) {
+            for (Map.Entry<Bytes, Bytes> cell : row.getValue().entrySet()) {
+                blackhole.consume(cell.getValue());
+            }
+        }
+    }
+
+    @Benchmark
+    public void rowWalk(Blackhole blackhole) {
+        for (Map.Entry<Bytes, Bytes> cell : table.row(randomRowKey()).entrySet()) {
+            blackhole.consume(cell.getValue());
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.azure;
+
+import com.microsoft.windowsazure.services.core.storage.StorageException;
+import com.microsoft.windowsazure.services.table.client.EntityProperty;
+import com.microsoft.windowsazure.services.table.client.TableServiceEntity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing and reading a single entity, as the library does for every cell it puts or reads, with {@link AzureEntity}
+ * against {@link ReflectiveEntity}, which is bound the way entities were before they read and wrote their properties
+ * explicitly: instantiated by reflection and bound by the SDK's bean reflection, both when written and when read.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EntitySerializationBenchmark {
+    private static final String ROW_KEY = KeyCodec.BASE64.encode(new Bytes("row".getBytes()));
+    private static final String COLUMN_KEY = KeyCodec.BASE64.encode(new Bytes("column".getBytes()));
+    private static final String VALUE = AzureEntityUtil.encode(new Bytes("a value of a cell".getBytes()));
+    private static final String ETAG = "W/\"datetime'2014-01-01T00%3A00%3A00.0000000Z'\"";
+    private final Date timestamp = new Date();
+    private AzureEntity entity;
+    private ReflectiveEntity reflectiveEntity;
+    private HashMap<String, EntityProperty> readProperties;
+
+    @Setup
+    public void setUp() {
+        entity = new AzureEntity(ROW_KEY, COLUMN_KEY, VALUE);
+        reflectiveEntity = new ReflectiveEntity(ROW_KEY, COLUMN_KEY, VALUE);
+        readProperties = new HashMap<>();
+        readProperties.put(AzureEntity.VALUE, new EntityProperty(VALUE));
+    }
+
+    @Benchmark
+    public HashMap<String, EntityProperty> writeReflective() throws StorageException {
+        reflectiveEntity.setValue(VALUE);
+        return reflectiveEntity.writeEntity(null);
+    }
+
+    @Benchmark
+    public HashMap<String, EntityProperty> writeExplicit() {
+        entity.setValue(VALUE);
+        return entity.writeEntity(null);
+    }
+
+    @Benchmark
+    public ReflectiveEntity readReflective() throws ReflectiveOperationException, StorageException {
+        ReflectiveEntity read = ReflectiveEntity.class.newInstance();
+        read.setPartitionKey(ROW_KEY);
+        read.setRowKey(COLUMN_KEY);
+        read.setTimestamp(timestamp);
+        read.setEtag(ETAG);
+        read.readEntity(readProperties, null);
+        return read;
+    }
+
+    @Benchmark
+    public AzureEntity readExplicit() throws StorageException {
+        return EntityResolvers.ENTITY.resolve(ROW_KEY, COLUMN_KEY, timestamp, readProperties, ETAG);
+    }
+
+    /**
+     * {@link AzureEntity} as it was before it wrote its properties explicitly.
+     */
+    public static class ReflectiveEntity extends TableServiceEntity {
+        private String value;
+
+        public ReflectiveEntity() {
+        }
+
+        public ReflectiveEntity(String rowKey, String columnKey, String value) {
+            partitionKey = rowKey;
+            this.rowKey = columnKey;
+            this.value = value;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        public void setValue(String value) {
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,322 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.azure;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Maps;
+import com.microsoft.windowsazure.services.core.storage.ResultContinuation;
+import com.microsoft.windowsazure.services.core.storage.ResultContinuationType;
+import com.microsoft.windowsazure.services.core.storage.ResultSegment;
+import com.microsoft.windowsazure.services.core.storage.StorageException;
+import com.microsoft.windowsazure.services.table.client.EntityProperty;
+import com.microsoft.windowsazure.services.table.client.EntityResolver;
+import com.microsoft.windowsazure.services.table.client.QueryTableOperation;
+import com.microsoft.windowsazure.services.table.client.TableBatchOperation;
+import com.microsoft.windowsazure.services.table.client.TableEntity;
+import com.microsoft.windowsazure.services.table.client.TableOperation;
+import com.microsoft.windowsazure.services.table.client.TableQuery;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Stand-in for the table service which keeps the tables in memory, so that benchmarks measure the library rather
+ * than the network. Operations, entity group transactions and queries behave like they do against the service:
+ * conditional writes check ETags, transactions apply all of their operations or none, and queries are filtered
+ * (see {@link InMemoryFilter}), projected and returned in key order, in pages of at most 1000 entities which are
+ * followed with continuation tokens.
+ * <p/>
+ * Every request, i.e. every operation, transaction and page of a query, waits for the configured latency, and is
+ * counted, so that the number of round trips of an operation of the table shows.
+ */
+class InMemoryAzureTableCloudClient extends AzureTableCloudClient {
+    static final int MAX_PAGE_SIZE = 1000;
+    static final int MAX_BATCH_SIZE = 100;
+    private static final String ANY_ETAG = "*";
+    private final ConcurrentMap<String, InMemoryTable> tables = Maps.newConcurrentMap();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong versions = new AtomicLong();
+    private final long latencyInNanos;
+
+    InMemoryAzureTableCloudClient() {
+        this(0, TimeUnit.NANOSECONDS);
+    }
+
+    InMemoryAzureTableCloudClient(long latency, TimeUnit unit) {
+        super(null);
+        latencyInNanos = unit.toNanos(latency);
+    }
+
+    long getRequestCount() {
+        return requests.get();
+    }
+
+    @Override
+    AzureEntity execute(String tableName, TableOperation tableOperation) throws StorageException {
+        roundTrip();
+        InMemoryTable table = table(tableName);
+        if (tableOperation instanceof QueryTableOperation) {
+            QueryTableOperation retrieve = (QueryTableOperation) tableOperation;
+            StoredEntity stored = table.get(retrieve.getPartitionKey(), retrieve.getRowKey());
+            EntityResolver<?> resolver = retrieve.getResolver() == null ? EntityResolvers.ENTITY : retrieve.getResolver();
+            return stored == null ? null : (AzureEntity) stored.resolve(null, resolver);
+        }
+
+        synchronized (table) {
+            TableEntity entity = TableOperations.entityOf(tableOperation);
+            StoredEntity written = write(tableOperation, table.get(entity.getPartitionKey(), entity.getRowKey()));
+            table.put(entity.getPartitionKey(), entity.getRowKey(), written);
+            return (AzureEntity) entity;
+        }
+    }
+
+    @Override
+    void execute(String tableName, TableBatchOperation batchOperation) throws StorageException {
+        roundTrip();
+        if (batchOperation.isEmpty() || batchOperation.size() > MAX_BATCH_SIZE) {
+            throw new StorageException("InvalidInput", "a transaction has 1 to 100 operations", 400, null, null);
+        }
+        InMemoryTable table = table(tableName);
+        synchronized (table) {
+            // all operations of a transaction are of the same partition, the SDK checks that
+            String partitionKey = TableOperations.entityOf(batchOperation.get(0)).getPartitionKey();
+            Map<String, StoredEntity> written = new HashMap<>();
+            for (TableOperation operation : batchOperation) {
+                String rowKey = TableOperations.entityOf(operation).getRowKey();
+                if (written.containsKey(rowKey)) {
+                    throw new StorageException("InvalidInput", "an entity is changed more than once in a transaction", 400, null, null);
+                }
+                written.put(rowKey, write(operation, table.get(partitionKey, rowKey)));
+            }
+            for (Map.Entry<String, StoredEntity> entity : written.entrySet()) {
+                table.put(partitionKey, entity.getKey(), entity.getValue());
+            }
+        }
+    }
+
+    @Override
+    <R> Iterable<R> execute(final TableQuery<AzureEntity> query, final EntityResolver<R> resolver) {
+        return new Iterable<R>() {
+            @Override
+            public Iterator<R> iterator() {
+                return new AbstractIterator<R>() {
+                    private Iterator<R> page = Iterators.emptyIterator();
+                    private ResultContinuation continuation;
+                    private boolean lastPage;
+
+                    @Override
+                    protected R computeNext() {
+                        while (!page.hasNext()) {
+                            if (lastPage) {
+                                return endOfData();
+                            }
+                            try {
+                                ResultSegment<R> segment = executeSegmented(query, resolver, continuation);
+                                page = segment.getResults().iterator();
+                                continuation = segment.getContinuationToken();
+                                lastPage = continuation == null;
+                            } catch (StorageException e) {
+                                throw Throwables.propagate(e);
+                            }
+                        }
+                        return page.next();
+                    }
+                };
+            }
+        };
+    }
+
+    @Override
+    <R> ResultSegment<R> executeSegmented(TableQuery<AzureEntity> query, EntityResolver<R> resolver, ResultContinuation continuation)
+            throws StorageException {
+        roundTrip();
+        InMemoryFilter filter = InMemoryFilter.parse(query.getFilterString());
+        int pageSize = query.getTakeCount() == null ? MAX_PAGE_SIZE : Math.min(query.getTakeCount(), MAX_PAGE_SIZE);
+        String fromPartition = continuation == null ? null : continuation.getNextPartitionKey();
+        String fromRow = continuation == null ? null : continuation.getNextRowKey();
+
+        NavigableMap<String, NavigableMap<String, StoredEntity>> partitions = table(query.getSourceTableName()).partitions;
+        if (filter.partition() != null) {
+            partitions = partitions.subMap(filter.partition(), true, filter.partition(), true);
+        }
+        if (fromPartition != null) {
+            partitions = partitions.tailMap(fromPartition, true);
+        }
+
+        ArrayList<R> page = new ArrayList<>();
+        for (Map.Entry<String, NavigableMap<String, StoredEntity>> partition : partitions.entrySet()) {
+            NavigableMap<String, StoredEntity> rows = partition.getValue();
+            if (fromRow != null && partition.getKey().equals(fromPartition)) {
+                rows = rows.tailMap(fromRow, true);
+            }
+            for (StoredEntity stored : rows.values()) {
+                if (page.size() == pageSize) {
+                    return new ResultSegment<>(page, pageSize, continuationAt(stored));
+                }
+                if (filter.matches(stored.partitionKey, stored.rowKey, stored.properties)) {
+                    page.add(stored.resolve(query.getColumns(), resolver));
+                }
+            }
+        }
+        return new ResultSegment<>(page, pageSize, null);
+    }
+
+    private static ResultContinuation continuationAt(StoredEntity next) {
+        ResultContinuation continuation = new ResultContinuation();
+        continuation.setContinuationType(ResultContinuationType.TABLE);
+        continuation.setNextPartitionKey(next.partitionKey);
+        continuation.setNextRowKey(next.rowKey);
+        return continuation;
+    }
+
+    // the entity as written by the operation, or null if it is deleted
+    private StoredEntity write(TableOperation operation, StoredEntity existing) throws StorageException {
+        TableEntity entity = TableOperations.entityOf(operation);
+        String type = TableOperations.typeOf(operation);
+        switch (type) {
+            case "INSERT":
+                if (existing != null) {
+                    throw new StorageException("EntityAlreadyExists", "The specified entity already exists.", 409, null, null);
+                }
+                return stored(entity, entity.writeEntity(null));
+            case "INSERT_OR_REPLACE":
+                return stored(entity, entity.writeEntity(null));
+            case "INSERT_OR_MERGE":
+                return stored(entity, merged(existing, entity.writeEntity(null)));
+            case "REPLACE":
+                checkVersion(entity, existing);
+                return stored(entity, entity.writeEntity(null));
+            case "MERGE":
+                checkVersion(entity, existing);
+                return stored(entity, merged(existing, entity.writeEntity(null)));
+            case "DELETE":
+                checkVersion(entity, existing);
+                return null;
+            default:
+                throw new UnsupportedOperationException(type);
+        }
+    }
+
+    private static void checkVersion(TableEntity entity, StoredEntity existing) throws StorageException {
+        if (existing == null) {
+            throw new StorageException("ResourceNotFound", "The specified resource does not exist.", 404, null, null);
+        }
+        if (!ANY_ETAG.equals(entity.getEtag()) && !existing.etag.equals(entity.getEtag())) {
+            throw new StorageException("UpdateConditionNotSatisfied", "The update condition specified in the request was not satisfied.",
+                    412, null, null);
+        }
+    }
+
+    private static Map<String, EntityProperty> merged(StoredEntity existing, Map<String, EntityProperty> properties) {
+        if (existing == null) {
+            return properties;
+        }
+        Map<String, EntityProperty> merged = new HashMap<>(existing.properties);
+        merged.putAll(properties);
+        return merged;
+    }
+
+    // the service sends the new version back, which the SDK sets on the written entity
+    private StoredEntity stored(TableEntity entity, Map<String, EntityProperty> properties) {
+        Date timestamp = new Date();
+        String etag = "W/\"datetime'" + versions.incrementAndGet() + "'\"";
+        entity.setEtag(etag);
+        entity.setTimestamp(timestamp);
+        return new StoredEntity(entity.getPartitionKey(), entity.getRowKey(), new HashMap<>(properties), etag, timestamp);
+    }
+
+    private InMemoryTable table(String tableName) {
+        InMemoryTable table = tables.get(tableName);
+        if (table == null) {
+            InMemoryTable created = new InMemoryTable();
+            table = tables.putIfAbsent(tableName, created);
+            if (table == null) {
+                table = created;
+            }
+        }
+        return table;
+    }
+
+    private void roundTrip() {
+        requests.incrementAndGet();
+        long deadline = System.nanoTime() + latencyInNanos;
+        for (long remaining = latencyInNanos; remaining > 0; remaining = deadline - System.nanoTime()) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    private static final class InMemoryTable {
+        private final ConcurrentSkipListMap<String, NavigableMap<String, StoredEntity>> partitions = new ConcurrentSkipListMap<>();
+
+        StoredEntity get(String partitionKey, String rowKey) {
+            NavigableMap<String, StoredEntity> rows = partitions.get(partitionKey);
+            return rows == null ? null : rows.get(rowKey);
+        }
+
+        // callers hold the lock of the table, a null entity deletes
+        void put(String partitionKey, String rowKey, StoredEntity entity) {
+            NavigableMap<String, StoredEntity> rows = partitions.get(partitionKey);
+            if (entity == null) {
+                if (rows != null) {
+                    rows.remove(rowKey);
+                }
+                return;
+            }
+            if (rows == null) {
+                rows = new ConcurrentSkipListMap<>();
+                partitions.put(partitionKey, rows);
+            }
+            rows.put(rowKey, entity);
+        }
+    }
+
+    private static final class StoredEntity {
+        private final String partitionKey;
+        private final String rowKey;
+        private final Map<String, EntityProperty> properties;
+        private final String etag;
+        private final Date timestamp;
+
+        private StoredEntity(String partitionKey, String rowKey, Map<String, EntityProperty> properties, String etag, Date timestamp) {
+            this.partitionKey = partitionKey;
+            this.rowKey = rowKey;
+            this.properties = properties;
+            this.etag = etag;
+            this.timestamp = timestamp;
+        }
+
+        // only the selected properties are returned, all of them if none are selected
+        <R> R resolve(String[] columns, EntityResolver<R> resolver) throws StorageException {
+            HashMap<String, EntityProperty> returned = new HashMap<>(properties);
+            if (columns != null) {
+                returned.keySet().retainAll(Arrays.asList(columns));
+            }
+            return resolver.resolve(partitionKey, rowKey, timestamp, returned, etag);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.azure;
+
+import com.google.common.io.BaseEncoding;
+import com.microsoft.windowsazure.services.table.client.EdmType;
+import com.microsoft.windowsazure.services.table.client.EntityProperty;
+import com.microsoft.windowsazure.services.table.client.TableConstants;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Filter of a query, as built by {@link AzureTableRequestFactory}: comparisons of PartitionKey, RowKey or other string
+ * and binary properties with literals, combined with and / or. Comparisons of values of different types are false, as
+ * they are for the service.
+ */
+abstract class InMemoryFilter {
+    static final InMemoryFilter ALL = new InMemoryFilter() {
+        @Override
+        boolean matches(String partitionKey, String rowKey, Map<String, EntityProperty> properties) {
+            return true;
+        }
+    };
+
+    abstract boolean matches(String partitionKey, String rowKey, Map<String, EntityProperty> properties);
+
+    /**
+     * The only partition the filter can match, if it says so, so that queries of a row do not go through the whole table.
+     */
+    String partition() {
+        return null;
+    }
+
+    static InMemoryFilter parse(String filter) {
+        if (filter == null || filter.isEmpty()) {
+            return ALL;
+        }
+        Parser parser = new Parser(filter);
+        InMemoryFilter parsed = parser.expression();
+        checkArgument(parser.atEnd(), "unexpected input at %s of %s", parser.position, filter);
+        return parsed;
+    }
+
+    private static final class Parser {
+        private final String filter;
+        private int position;
+
+        private Parser(String filter) {
+            this.filter = filter;
+        }
+
+        // operands are parenthesized by TableQuery.combineFilters, so and / or apply left to right
+        InMemoryFilter expression() {
+            InMemoryFilter left = operand();
+            while (true) {
+                skipSpaces();
+                if (consume("and")) {
+                    left = and(left, operand());
+                } else if (consume("or")) {
+                    left = or(left, operand());
+                } else {
+                    return left;
+                }
+            }
+        }
+
+        private InMemoryFilter operand() {
+            skipSpaces();
+            if (consume("(")) {
+                InMemoryFilter inner = expression();
+                skipSpaces();
+                checkArgument(consume(")"), "missing ) at %s of %s", position, filter);
+                return inner;
+            }
+            String property = word();
+            skipSpaces();
+            String operator = word();
+            skipSpaces();
+            if (filter.startsWith("X'", position)) {
+                position++;
+                return comparison(property, operator, BaseEncoding.base16().decode(quoted().toUpperCase()));
+            }
+            return comparison(property, operator, quoted());
+        }
+
+        private String word() {
+            int start = position;
+            while (position < filter.length() && Character.isLetterOrDigit(filter.charAt(position))) {
+                position++;
+            }
+            checkArgument(position > start, "expected a name at %s of %s", start, filter);
+            return filter.substring(start, position);
+        }
+
+        // single quotes within literals are doubled
+        private String quoted() {
+            checkArgument(consume("'"), "expected a literal at %s of %s", position, filter);
+            StringBuilder literal = new StringBuilder();
+            while (true) {
+                checkArgument(position < filter.length(), "unterminated literal in %s", filter);
+                char c = filter.charAt(position++);
+                if (c == '\'') {
+                    if (!consume("'")) {
+                        return literal.toString();
+                    }
+                }
+                literal.append(c);
+            }
+        }
+
+        private boolean consume(String token) {
+            if (filter.startsWith(token, position)) {
+                position += token.length();
+                return true;
+            }
+            return false;
+        }
+
+        private void skipSpaces() {
+            while (position < filter.length() && filter.charAt(position) == ' ') {
+                position++;
+            }
+        }
+
+        boolean atEnd() {
+            skipSpaces();
+            return position == filter.length();
+        }
+    }
+
+    private static InMemoryFilter and(final InMemoryFilter left, final InMemoryFilter right) {
+        return new InMemoryFilter() {
+            @Override
+            boolean matches(String partitionKey, String rowKey, Map<String, EntityProperty> properties) {
+                return left.matches(partitionKey, rowKey, properties) && right.matches(partitionKey, rowKey, properties);
+            }
+
+            @Override
+            String partition() {
+                return left.partition() != null ? left.partition() : right.partition();
+            }
+        };
+    }
+
+    private static InMemoryFilter or(final InMemoryFilter left, final InMemoryFilter right) {
+        return new InMemoryFilter() {
+            @Override
+            boolean matches(String partitionKey, String rowKey, Map<String, EntityProperty> properties) {
+                return left.matches(partitionKey, rowKey, properties) || right.matches(partitionKey, rowKey, properties);
+            }
+        };
+    }
+
+    private static InMemoryFilter comparison(final String property, final String operator, final String literal) {
+        return new InMemoryFilter() {
+            @Override
+            boolean matches(String partitionKey, String rowKey, Map<String, EntityProperty> properties) {
+                String value;
+                if (TableConstants.PARTITION_KEY.equals(property)) {
+                    value = partitionKey;
+                } else if (TableConstants.ROW_KEY.equals(property)) {
+                    value = rowKey;
+                } else {
+                    EntityProperty entityProperty = properties.get(property);
+                    if (entityProperty == null || entityProperty.getEdmType() != EdmType.STRING) {
+                        return false;
+                    }
+                    value = entityProperty.getValueAsString();
+                }
+                return value != null && compares(operator, value.compareTo(literal));
+            }
+
+            @Override
+            String partition() {
+                return TableConstants.PARTITION_KEY.equals(property) && "eq".equals(operator) ? literal : null;
+            }
+        };
+    }
+
+    private static InMemoryFilter comparison(final String property, final String operator, final byte[] literal) {
+        checkArgument("eq".equals(operator) || "ne".equals(operator), "binary properties can only be compared for equality");
+        return new InMemoryFilter() {
+            @Override
+            boolean matches(String partitionKey, String rowKey, Map<String, EntityProperty> properties) {
+                EntityProperty entityProperty = properties.get(property);
+                if (entityProperty == null || entityProperty.getEdmType() != EdmType.BINARY) {
+                    return false;
+                }
+                return Arrays.equals(entityProperty.getValueAsByteArray(), literal) == "eq".equals(operator);
+            }
+        };
+    }
+
+    private static boolean compares(String operator, int comparison) {
+        switch (operator) {
+            case "eq":
+                return comparison == 0;
+            case "ne":
+                return comparison != 0;
+            case "gt":
+                return comparison > 0;
+            case "ge":
+                return comparison >= 0;
+            case "lt":
+                return comparison < 0;
+            case "le":
+                return comparison <= 0;
+            default:
+                throw new IllegalArgumentException("unknown comparison " + operator);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.azure;
+
+import com.google.common.collect.Table;
+import com.yammer.collections.azure.serialization.json.JsonSerializingTable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Map;
+
+/**
+ * The same operations through {@link JsonSerializingTable}, whose transforming views add JSON serialization on top of
+ * {@link BaseAzureTable}.
+ */
+public class JsonSerializingTableBenchmark extends AbstractTableBenchmark {
+    private Table<String, String, String> jsonTable;
+    private String[] jsonRowKeys;
+    private String[] jsonColumnKeys;
+
+    // the cells are written through the JSON table, so that they can be read back through it
+    @Override
+    protected void populate() {
+        jsonTable = JsonSerializingTable.create(table, String.class, String.class, String.class);
+        jsonRowKeys = new String[rows];
+        jsonColumnKeys = new String[columns];
+        for (int i = 0; i < rows; i++) {
+            jsonRowKeys[i] = "row" + i;
+        }
+        for (int i = 0; i < columns; i++) {
+            jsonColumnKeys[i] = "column" + i;
+        }
+        for (String jsonRowKey : jsonRowKeys) {
+            for (String jsonColumnKey : jsonColumnKeys) {
+                jsonTable.put(jsonRowKey, jsonColumnKey, "a value of a benchmark cell");
+            }
+        }
+    }
+
+    @Benchmark
+    public String get() {
+        return jsonTable.get(jsonRowKeys[rows / 2], jsonColumnKeys[columns / 2]);
+    }
+
+    @Benchmark
+    public String put() {
+        return jsonTable.put(jsonRowKeys[rows / 2], jsonColumnKeys[columns / 2], "another value of a benchmark cell");
+    }
+
+    @Benchmark
+    public void cellSetIteration(Blackhole blackhole) {
+        for (Table.Cell<String, String, String> cell : jsonTable.cellSet()) {
+            blackhole.consume(cell);
+        }
+    }
+
+    @Benchmark
+    public void rowMapWalk(Blackhole blackhole) {
+        for (Map.Entry<String, Map<String, String>> row : jsonTable.rowMap().entrySet()) {
+            for (String cellValue : row.getValue().values()) {
+                blackhole.consume(cellValue);
+            }
+        }
+    }
+}
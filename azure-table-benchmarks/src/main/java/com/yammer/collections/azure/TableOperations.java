@@ -0,0 +1,63 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.azure;
+
+import com.google.common.base.Throwables;
+import com.microsoft.windowsazure.services.table.client.TableEntity;
+import com.microsoft.windowsazure.services.table.client.TableOperation;
+
+import java.lang.reflect.Field;
+
+/**
+ * What the SDK keeps to itself about operations, for services which execute them in process. The SDK jar is signed,
+ * so its package cannot be shared, and the fields are read by reflection, looked up once.
+ */
+final class TableOperations {
+    private static final Field ENTITY = accessible("entity");
+    private static final Field OPERATION_TYPE = accessible("opType");
+
+    private TableOperations() {
+    }
+
+    /**
+     * One of INSERT, DELETE, REPLACE, RETRIEVE, MERGE, INSERT_OR_REPLACE and INSERT_OR_MERGE.
+     */
+    static String typeOf(TableOperation operation) {
+        return ((Enum<?>) get(OPERATION_TYPE, operation)).name();
+    }
+
+    static TableEntity entityOf(TableOperation operation) {
+        return (TableEntity) get(ENTITY, operation);
+    }
+
+    private static Object get(Field field, TableOperation operation) {
+        try {
+            return field.get(operation);
+        } catch (IllegalAccessException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    private static Field accessible(String name) {
+        try {
+            Field field = TableOperation.class.getDeclaredField(name);
+            field.setAccessible(true);
+            return field;
+        } catch (NoSuchFieldException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.azure;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Tables;
+import com.microsoft.windowsazure.services.table.client.CloudTableClient;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Collections;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class InMemoryAzureTableCloudClientTest {
+    private static final String TABLE_NAME = "secretie_table";
+    private static final Bytes ROW_KEY_1 = bytes("row1");
+    private static final Bytes ROW_KEY_2 = bytes("row2");
+    private static final Bytes COLUMN_KEY_1 = bytes("column1");
+    private static final Bytes COLUMN_KEY_2 = bytes("column2");
+    private static final Bytes VALUE_1 = bytes("value1");
+    private static final Bytes VALUE_2 = bytes("value2");
+    private InMemoryAzureTableCloudClient client;
+    private CloudTableClient cloudTableClient;
+
+    private static Bytes bytes(String string) {
+        return new Bytes(string.getBytes());
+    }
+
+    @Before
+    public void setUp() throws URISyntaxException {
+        client = new InMemoryAzureTableCloudClient();
+        cloudTableClient = new CloudTableClient(new URI("http://localhost/"), null);
+    }
+
+    private BaseAzureTable table() {
+        return BaseAzureTable.builder(TABLE_NAME, cloudTableClient).build(client);
+    }
+
+    @Test
+    public void cells_are_written_read_and_deleted() {
+        BaseAzureTable table = table();
+
+        table.put(ROW_KEY_1, COLUMN_KEY_1, VALUE_1);
+
+        assertThat(table.get(ROW_KEY_1, COLUMN_KEY_1), is(equalTo(VALUE_1)));
+        assertThat(table.remove(ROW_KEY_1, COLUMN_KEY_1), is(equalTo(VALUE_1)));
+        assertThat(table.get(ROW_KEY_1, COLUMN_KEY_1), is(nullValue()));
+    }
+
+    @Test
+    public void queries_are_filtered_by_keys_and_values_in_either_format() {
+        BaseAzureTable table = table();
+        BaseAzureTable binaryTable = BaseAzureTable.builder(TABLE_NAME, cloudTableClient).withBinaryValues().build(client);
+        table.put(ROW_KEY_1, COLUMN_KEY_1, VALUE_1);
+        binaryTable.put(ROW_KEY_2, COLUMN_KEY_2, VALUE_2);
+
+        assertThat(table.row(ROW_KEY_1).keySet(), contains(COLUMN_KEY_1));
+        assertThat(table.column(COLUMN_KEY_2).keySet(), contains(ROW_KEY_2));
+        assertThat(table.containsValue(VALUE_1), is(equalTo(true)));
+        assertThat(table.containsValue(VALUE_2), is(equalTo(true)));
+        assertThat(table.row(ROW_KEY_1).containsValue(VALUE_2), is(equalTo(false)));
+    }
+
+    @Test
+    public void scans_follow_continuations_page_by_page() {
+        BaseAzureTable table = table();
+        int cells = InMemoryAzureTableCloudClient.MAX_PAGE_SIZE + 1;
+        for (int i = 0; i < cells; i++) {
+            table.put(bytes("row" + i), COLUMN_KEY_1, VALUE_1);
+        }
+        long requestsBefore = client.getRequestCount();
+
+        assertThat(Iterators.size(table.cellSet().iterator()), is(equalTo(cells)));
+        assertThat(client.getRequestCount() - requestsBefore, is(equalTo(2L)));
+    }
+
+    @Test
+    public void conditional_writes_check_existence_and_versions() {
+        BaseAzureTable table = table();
+
+        assertThat(table.putIfAbsent(ROW_KEY_1, COLUMN_KEY_1, VALUE_1), is(nullValue()));
+        assertThat(table.putIfAbsent(ROW_KEY_1, COLUMN_KEY_1, VALUE_2), is(equalTo(VALUE_1)));
+        VersionedValue versioned = table.getVersioned(ROW_KEY_1, COLUMN_KEY_1);
+        table.put(ROW_KEY_1, COLUMN_KEY_1, VALUE_1);
+
+        assertThat(table.replace(ROW_KEY_1, COLUMN_KEY_1, versioned.getEtag(), VALUE_2), is(equalTo(false)));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void row_updates_are_applied_as_transactions() {
+        BaseAzureTable table = table();
+        table.put(ROW_KEY_1, COLUMN_KEY_1, VALUE_1);
+
+        table.updateRow(ROW_KEY_1, ImmutableMap.of(COLUMN_KEY_2, VALUE_2), Collections.singleton(COLUMN_KEY_1));
+
+        assertThat(table.cellSet(), containsInAnyOrder(Tables.immutableCell(ROW_KEY_1, COLUMN_KEY_2, VALUE_2)));
+    }
+}
@@ -16,46 +16,64 @@
 package com.yammer.collections.azure;
 
 
-import com.google.common.base.Function;
 import com.google.common.collect.Iterables;
 
 import java.util.AbstractCollection;
 import java.util.Collection;
 import java.util.Iterator;
 
-abstract class AbstractCollectionView<E> extends AbstractCollection<E> {
-    private final Function<AzureEntity, E> typeExtractor;
-
-    AbstractCollectionView(Function<AzureEntity, E> typeExtractor) {
-        this.typeExtractor = typeExtractor;
-    }
+/**
+ * Read-only collection of the results of a query. Subclasses resolve the results of their queries straight to the
+ * elements, see {@link EntityResolvers}, and size and emptiness are answered by queries of the keys only.
+ */
+abstract class AbstractCollectionView<E> extends AbstractCollection<E> implements LimitableView<E> {
 
     @Override
     public int size() {
-        return Iterables.size(getBackingIterable());
+        return Iterables.size(getKeysBackingIterable());
     }
 
     @Override
     public boolean isEmpty() {
-        return !iterator().hasNext();
+        return !getKeysBackingIterable(1).iterator().hasNext();
     }
 
     @Override
     public boolean contains(Object o) {
-        return o != null &&
-                Iterables.contains(
-                        Iterables.transform(getBackingIterable(), typeExtractor),
-                        o);
+        return o != null && Iterables.contains(getBackingIterable(), o);
+    }
+
+    protected abstract Iterable<E> getBackingIterable();
+
+    /**
+     * One result per element of {@link #getBackingIterable()}, which are only counted, so views can avoid transferring
+     * and resolving the values.
+     */
+    protected Iterable<?> getKeysBackingIterable() {
+        return getBackingIterable();
     }
 
-    protected abstract Iterable<AzureEntity> getBackingIterable();
+    /**
+     * The first elements of {@link #getBackingIterable()}. Views whose queries can be limited override this,
+     * so that they do not fetch more entities than needed.
+     */
+    protected Iterable<E> getBackingIterable(int limit) {
+        return Iterables.limit(getBackingIterable(), limit);
+    }
+
+    protected Iterable<?> getKeysBackingIterable(int limit) {
+        return Iterables.limit(getKeysBackingIterable(), limit);
+    }
+
+    @Override
+    public Iterable<E> limit(int limit) {
+        return getBackingIterable(limit);
+    }
 
     @SuppressWarnings("NullableProblems")
     @Override
     public Iterator<E> iterator() {
-        return Iterables.transform(
-                getBackingIterable(),
-                typeExtractor).iterator();
+        return getBackingIterable().iterator();
     }
 
     @Override
@@ -0,0 +1,132 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.azure;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Table;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Runs the operations of a table on an executor and returns futures of their results.
+ * The underlying azure client blocks a thread per request, so the number of requests in flight
+ * is bounded by the size of the executor. On top of that, at most maxInFlight operations are accepted
+ * at a time: callers block once that many are pending, which keeps the executor queue from growing without bound.
+ * The executor is owned by the caller, it is not shut down by this class. An operation holds its permit until its future
+ * is done, so the tasks returned by {@link ExecutorService#shutdownNow()} have to be cancelled to release theirs.
+ */
+public class AsyncAzureTable {
+    private final Table<Bytes, Bytes, Bytes> table;
+    private final ListeningExecutorService executor;
+    private final Semaphore inFlightPermits;
+    private final Runnable releaseInFlightPermit = new Runnable() {
+        @Override
+        public void run() {
+            inFlightPermits.release();
+        }
+    };
+
+    AsyncAzureTable(Table<Bytes, Bytes, Bytes> table, ListeningExecutorService executor, int maxInFlight) {
+        this.table = table;
+        this.executor = executor;
+        inFlightPermits = new Semaphore(maxInFlight);
+    }
+
+    public static AsyncAzureTable create(Table<Bytes, Bytes, Bytes> table, ExecutorService executor, int maxInFlight) {
+        checkArgument(maxInFlight > 0, "maxInFlight has to be positive");
+        return new AsyncAzureTable(
+                checkNotNull(table),
+                MoreExecutors.listeningDecorator(checkNotNull(executor)),
+                maxInFlight);
+    }
+
+    public ListenableFuture<Bytes> getAsync(final Bytes row, final Bytes column) {
+        return submit(new Callable<Bytes>() {
+            @Override
+            public Bytes call() {
+                return table.get(row, column);
+            }
+        });
+    }
+
+    public ListenableFuture<Bytes> putAsync(final Bytes row, final Bytes column, final Bytes value) {
+        checkNotNull(row);
+        checkNotNull(column);
+        checkNotNull(value);
+        return submit(new Callable<Bytes>() {
+            @Override
+            public Bytes call() {
+                return table.put(row, column, value);
+            }
+        });
+    }
+
+    public ListenableFuture<Bytes> removeAsync(final Bytes row, final Bytes column) {
+        return submit(new Callable<Bytes>() {
+            @Override
+            public Bytes call() {
+                return table.remove(row, column);
+            }
+        });
+    }
+
+    /**
+     * Unlike {@link Table#row(Object)}, the result is not a view, but a snapshot of the row read in full.
+     */
+    public ListenableFuture<Map<Bytes, Bytes>> rowAsync(final Bytes row) {
+        checkNotNull(row);
+        return submit(new Callable<Map<Bytes, Bytes>>() {
+            @Override
+            public Map<Bytes, Bytes> call() {
+                return ImmutableMap.copyOf(table.row(row));
+            }
+        });
+    }
+
+    // the permit is returned once the future is done, which includes futures cancelled before their operation ran
+    private <T> ListenableFuture<T> submit(Callable<T> operation) {
+        acquireInFlightPermit();
+        ListenableFuture<T> future;
+        try {
+            future = executor.submit(operation);
+        } catch (RejectedExecutionException e) {
+            inFlightPermits.release();
+            throw e;
+        }
+        future.addListener(releaseInFlightPermit, MoreExecutors.sameThreadExecutor());
+        return future;
+    }
+
+    private void acquireInFlightPermit() {
+        try {
+            inFlightPermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(e);
+        }
+    }
+}
@@ -15,16 +15,28 @@
  */
 package com.yammer.collections.azure;
 
+import com.microsoft.windowsazure.services.core.storage.OperationContext;
+import com.microsoft.windowsazure.services.table.client.EdmType;
+import com.microsoft.windowsazure.services.table.client.EntityProperty;
 import com.microsoft.windowsazure.services.table.client.TableServiceEntity;
 
+import java.util.HashMap;
+
 /**
- * Internal class, not to be used outside. Requires to be public with a public constructor due to the Azure library using reflection for
- * serialization/deserialization,
+ * Internal class, not to be used outside. Requires to be public with a public constructor as the Azure library takes the class of
+ * the entities of queries and operations.
+ * <p/>
+ * The properties are read and written explicitly rather than by the library's bean reflection. The property map is built on the
+ * first write and kept until the value changes, so reads never build it and writes of the same entity reuse it. An entity can be
+ * reused for further operations by setting its keys and value.
  */
 public class AzureEntity extends TableServiceEntity {
     public static final String VALUE = "Value";
+    private HashMap<String, EntityProperty> properties;
     @SuppressWarnings("InstanceVariableMayNotBeInitialized")
     private String value; // cannot be final
+    @SuppressWarnings("InstanceVariableMayNotBeInitialized")
+    private byte[] binaryValue;
 
     public AzureEntity() { // needed by azure java api
     }
@@ -41,5 +53,52 @@ public class AzureEntity extends TableServiceEntity {
 
     public void setValue(String value) {
         this.value = value;
+        properties = null;
+    }
+
+    // set instead of the string value for values stored as Edm.Binary, see BinaryAzureEntity
+    byte[] getBinaryValue() {
+        return binaryValue;
+    }
+
+    void setBinaryValue(byte[] binaryValue) {
+        this.binaryValue = binaryValue;
+        properties = null;
+    }
+
+    /**
+     * Reads the value in either of the formats it can be stored in, see {@link ValueFormat}.
+     */
+    @Override
+    public void readEntity(HashMap<String, EntityProperty> properties, OperationContext opContext) {
+        EntityProperty valueProperty = properties.get(VALUE);
+        if (valueProperty == null || valueProperty.getIsNull()) {
+            value = null;
+            binaryValue = null;
+        } else if (valueProperty.getEdmType() == EdmType.BINARY) {
+            value = null;
+            binaryValue = valueProperty.getValueAsByteArray();
+        } else {
+            value = valueProperty.getValueAsString();
+            binaryValue = null;
+        }
+        this.properties = null;
+    }
+
+    /**
+     * Returns the property map of the entity itself, which the library only reads, so it is not to be modified.
+     */
+    @Override
+    public HashMap<String, EntityProperty> writeEntity(OperationContext opContext) {
+        if (properties == null) {
+            properties = new HashMap<>(2);
+            // the binary value takes precedence, as when the value is decoded
+            if (binaryValue != null) {
+                properties.put(VALUE, new EntityProperty(binaryValue));
+            } else if (value != null) {
+                properties.put(VALUE, new EntityProperty(value));
+            }
+        }
+        return properties;
     }
-}
\ No newline at end of file
+}
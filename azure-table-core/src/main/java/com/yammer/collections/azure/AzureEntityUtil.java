@@ -22,13 +22,24 @@ final class AzureEntityUtil {
     static final Function<AzureEntity, Bytes> EXTRACT_VALUE = new Function<AzureEntity, Bytes>() {
         @Override
         public Bytes apply(AzureEntity input) {
-            return decode(input.getValue());
+            return decodeValue(input);
         }
     };
 
+    private static final String ANY_ETAG = "*";
+
     private AzureEntityUtil() {
     }
 
+    /**
+     * Entity that matches the stored one regardless of its version, for unconditional deletes.
+     */
+    static AzureEntity anyVersionOf(String rowKey, String columnKey) {
+        AzureEntity entity = new AzureEntity(rowKey, columnKey, null);
+        entity.setEtag(ANY_ETAG);
+        return entity;
+    }
+
     static String encode(Bytes bytesToBeEncoded) {
         return Base64.encode(bytesToBeEncoded.getBytes());
     }
@@ -37,4 +48,8 @@ final class AzureEntityUtil {
         return new Bytes(Base64.decode(stringToBeDecoded));
     }
 
+    static Bytes decodeValue(AzureEntity entity) {
+        return entity.getBinaryValue() != null ? new Bytes(entity.getBinaryValue()) : decode(entity.getValue());
+    }
+
 }
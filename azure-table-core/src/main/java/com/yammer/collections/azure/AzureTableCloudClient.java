@@ -15,11 +15,19 @@
  */
 package com.yammer.collections.azure;
 
+import com.google.common.base.Throwables;
+import com.microsoft.windowsazure.services.core.storage.ResultContinuation;
+import com.microsoft.windowsazure.services.core.storage.ResultSegment;
 import com.microsoft.windowsazure.services.core.storage.StorageException;
 import com.microsoft.windowsazure.services.table.client.CloudTableClient;
+import com.microsoft.windowsazure.services.table.client.EntityResolver;
+import com.microsoft.windowsazure.services.table.client.TableBatchOperation;
 import com.microsoft.windowsazure.services.table.client.TableOperation;
 import com.microsoft.windowsazure.services.table.client.TableQuery;
 
+import java.io.IOException;
+import java.net.URISyntaxException;
+
 class AzureTableCloudClient {
     private final CloudTableClient delegate;
 
@@ -31,7 +39,31 @@ class AzureTableCloudClient {
         return delegate.execute(tableName, tableOperation).getResultAsType();
     }
 
+    void execute(String tableName, TableBatchOperation batchOperation) throws StorageException {
+        delegate.execute(tableName, batchOperation);
+    }
+
+    /**
+     * Results are resolved by {@link EntityResolvers#ENTITY}, not bound by reflection.
+     */
     Iterable<AzureEntity> execute(TableQuery<AzureEntity> query) {
-        return delegate.execute(query);
+        return execute(query, EntityResolvers.ENTITY);
+    }
+
+    <R> Iterable<R> execute(TableQuery<AzureEntity> query, EntityResolver<R> resolver) {
+        return delegate.execute(query, resolver);
+    }
+
+    ResultSegment<AzureEntity> executeSegmented(TableQuery<AzureEntity> query, ResultContinuation continuation) throws StorageException {
+        return executeSegmented(query, EntityResolvers.ENTITY, continuation);
+    }
+
+    <R> ResultSegment<R> executeSegmented(TableQuery<AzureEntity> query, EntityResolver<R> resolver, ResultContinuation continuation)
+            throws StorageException {
+        try {
+            return delegate.executeSegmented(query, resolver, continuation);
+        } catch (IOException | URISyntaxException e) {
+            throw Throwables.propagate(e);
+        }
     }
 }
@@ -15,44 +15,164 @@
  */
 package com.yammer.collections.azure;
 
+import com.google.common.base.Optional;
+import com.microsoft.windowsazure.services.core.storage.utils.Base64;
+import com.microsoft.windowsazure.services.table.client.TableBatchOperation;
 import com.microsoft.windowsazure.services.table.client.TableConstants;
 import com.microsoft.windowsazure.services.table.client.TableOperation;
 import com.microsoft.windowsazure.services.table.client.TableQuery;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 @SuppressWarnings("MethodMayBeStatic")
 class AzureTableRequestFactory {
+    private static final String[] KEY_COLUMNS = {TableConstants.PARTITION_KEY, TableConstants.ROW_KEY};
+    // the service does not return more than 1000 entities at once
+    private static final int MAX_TAKE_COUNT = 1000;
+
     TableOperation put(String rowString, String columnString, String value) {
         AzureEntity secretieEntity = new AzureEntity(rowString, columnString, value);
-        return TableOperation.insertOrReplace(secretieEntity);
+        return put(secretieEntity);
+    }
+
+    TableOperation put(AzureEntity entity) {
+        return TableOperation.insertOrReplace(entity);
+    }
+
+    // fails with a conflict if the entity exists
+    TableOperation insert(AzureEntity entity) {
+        return TableOperation.insert(entity);
+    }
+
+    // fails with a failed precondition unless the etag of the entity matches the stored one
+    TableOperation replace(AzureEntity entity) {
+        return TableOperation.replace(entity);
+    }
+
+    TableBatchOperation putBatch(Iterable<AzureEntity> entities) {
+        TableBatchOperation batchOperation = new TableBatchOperation();
+        for (AzureEntity entity : entities) {
+            batchOperation.insertOrReplace(entity);
+        }
+        return batchOperation;
+    }
+
+    // cells of a single row written and deleted in one entity group transaction
+    TableBatchOperation updateBatch(Iterable<AzureEntity> entitiesToBePut, Iterable<AzureEntity> entitiesToBeDeleted) {
+        TableBatchOperation batchOperation = putBatch(entitiesToBePut);
+        for (AzureEntity entity : entitiesToBeDeleted) {
+            batchOperation.delete(entity);
+        }
+        return batchOperation;
     }
 
     TableOperation retrieve(String row, String column) {
-        return TableOperation.retrieve(row, column, AzureEntity.class);
+        return TableOperation.retrieve(row, column, EntityResolvers.ENTITY);
     }
 
     TableOperation delete(AzureEntity entityToBeDeleted) {
         return TableOperation.delete(entityToBeDeleted);
     }
 
+    TableOperation delete(String row, String column) {
+        return TableOperation.delete(AzureEntityUtil.anyVersionOf(row, column));
+    }
+
+    TableBatchOperation deleteBatch(Iterable<AzureEntity> entitiesToBeDeleted) {
+        TableBatchOperation batchOperation = new TableBatchOperation();
+        for (AzureEntity entity : entitiesToBeDeleted) {
+            batchOperation.delete(entity);
+        }
+        return batchOperation;
+    }
+
     TableQuery<AzureEntity> selectAll(String tableName) {
         return TableQuery.from(tableName, AzureEntity.class);
     }
 
+    TableQuery<AzureEntity> selectPage(String tableName, int pageSize) {
+        return selectAll(tableName).take(pageSize);
+    }
+
+    /**
+     * Limits the pages of the query to the given number of entities, so that reading the first entities does not
+     * transfer a full page. Iterating the query still goes on to the next pages.
+     */
+    TableQuery<AzureEntity> take(TableQuery<AzureEntity> query, int count) {
+        return query.take(Math.min(count, MAX_TAKE_COUNT));
+    }
+
+    // entities returned by the key queries do not carry values
+    TableQuery<AzureEntity> selectAllKeys(String tableName) {
+        return selectAll(tableName).select(KEY_COLUMNS);
+    }
+
+    TableQuery<AzureEntity> selectAll(String tableName, PartitionRange range) {
+        TableQuery<AzureEntity> query = selectAll(tableName);
+        String rangeFilter = generatePartitionRangeFilter(range);
+        return rangeFilter == null ? query : query.where(rangeFilter);
+    }
+
+    TableQuery<AzureEntity> selectAllKeys(String tableName, PartitionRange range) {
+        return selectAll(tableName, range).select(KEY_COLUMNS);
+    }
+
+    // the first key at or above the given partition key, or the first key of the table if there is no lower bound
+    TableQuery<AzureEntity> selectFirstKey(String tableName, Optional<String> lowerInclusive) {
+        String lowerFilter = generateRangeFilter(TableConstants.PARTITION_KEY, lowerInclusive, Optional.<String>absent());
+        TableQuery<AzureEntity> query = lowerFilter == null ? selectAll(tableName) : selectAll(tableName).where(lowerFilter);
+        return query.select(KEY_COLUMNS).take(1);
+    }
+
+    // the value queries only check for existence, hence they do not fetch values
     TableQuery<AzureEntity> containsValueQuery(String tableName, String value) {
-        return selectAll(tableName).where(generateValueFilter(value));
+        return selectAll(tableName).where(generateValueFilter(value)).select(KEY_COLUMNS);
     }
 
     TableQuery<AzureEntity> selectAllForRow(String tableName, String rowKey) {
         return selectAll(tableName).where(generatePartitionFilter(rowKey));
     }
 
+    TableQuery<AzureEntity> selectKeysForRow(String tableName, String rowKey) {
+        return selectAllForRow(tableName, rowKey).select(KEY_COLUMNS);
+    }
+
+    // the caller keeps the number of columns within the limits of a filter
+    TableQuery<AzureEntity> selectColumnsForRow(String tableName, String rowKey, Iterable<String> columnKeys) {
+        String columnsFilter = null;
+        for (String columnKey : columnKeys) {
+            String columnFilter = generateColumnFilter(columnKey);
+            columnsFilter = columnsFilter == null
+                    ? columnFilter
+                    : TableQuery.combineFilters(columnsFilter, TableQuery.Operators.OR, columnFilter);
+        }
+        checkArgument(columnsFilter != null, "at least one column has to be selected");
+        return selectAll(tableName).where(TableQuery.combineFilters(generatePartitionFilter(rowKey), TableQuery.Operators.AND, columnsFilter));
+    }
+
+    /**
+     * Selects the entities of the row whose column keys are in [lowerInclusive, upperExclusive), where an absent bound
+     * is unbounded. Only meaningful for keys encoded with {@link KeyCodec#ORDER_PRESERVING}.
+     */
+    TableQuery<AzureEntity> selectRangeForRow(String tableName, String rowKey, Optional<String> lowerInclusive, Optional<String> upperExclusive) {
+        String columnRangeFilter = generateRangeFilter(TableConstants.ROW_KEY, lowerInclusive, upperExclusive);
+        String filter = columnRangeFilter == null
+                ? generatePartitionFilter(rowKey)
+                : TableQuery.combineFilters(generatePartitionFilter(rowKey), TableQuery.Operators.AND, columnRangeFilter);
+        return selectAll(tableName).where(filter);
+    }
+
+    TableQuery<AzureEntity> selectKeysInRangeForRow(String tableName, String rowKey, Optional<String> lowerInclusive, Optional<String> upperExclusive) {
+        return selectRangeForRow(tableName, rowKey, lowerInclusive, upperExclusive).select(KEY_COLUMNS);
+    }
+
     TableQuery<AzureEntity> containsValueForRowQuery(String tableName, String rowKey, String value) {
         String rowValueFilter = TableQuery.combineFilters(
                 generatePartitionFilter(rowKey),
                 TableQuery.Operators.AND,
                 generateValueFilter(value)
                 );
-        return selectAll(tableName).where(rowValueFilter);
+        return selectAll(tableName).where(rowValueFilter).select(KEY_COLUMNS);
     }
 
 
@@ -60,13 +180,17 @@ class AzureTableRequestFactory {
         return selectAll(tableName).where(generateColumnFilter(columnKey));
     }
 
+    TableQuery<AzureEntity> selectKeysForColumn(String tableName, String columnKey) {
+        return selectAllForColumn(tableName, columnKey).select(KEY_COLUMNS);
+    }
+
     TableQuery<AzureEntity> containsValueForColumnQuery(String tableName, String columnKey, String value) {
         String columnValueFilter = TableQuery.combineFilters(
                 generateColumnFilter(columnKey),
                 TableQuery.Operators.AND,
                 generateValueFilter(value)
         );
-        return selectAll(tableName).where(columnValueFilter);
+        return selectAll(tableName).where(columnValueFilter).select(KEY_COLUMNS);
     }
 
     private static String generatePartitionFilter(String rowKey) {
@@ -76,6 +200,30 @@ class AzureTableRequestFactory {
                 rowKey);
     }
 
+    private static String generatePartitionRangeFilter(PartitionRange range) {
+        return generateRangeFilter(TableConstants.PARTITION_KEY, range.getLowerInclusive(), range.getUpperExclusive());
+    }
+
+    // null if the range is not bounded at all
+    private static String generateRangeFilter(String key, Optional<String> lowerInclusive, Optional<String> upperExclusive) {
+        String lowerFilter = lowerInclusive.isPresent()
+                ? TableQuery.generateFilterCondition(
+                        key,
+                        TableQuery.QueryComparisons.GREATER_THAN_OR_EQUAL,
+                        lowerInclusive.get())
+                : null;
+        String upperFilter = upperExclusive.isPresent()
+                ? TableQuery.generateFilterCondition(
+                        key,
+                        TableQuery.QueryComparisons.LESS_THAN,
+                        upperExclusive.get())
+                : null;
+        if (lowerFilter == null || upperFilter == null) {
+            return lowerFilter == null ? upperFilter : lowerFilter;
+        }
+        return TableQuery.combineFilters(lowerFilter, TableQuery.Operators.AND, upperFilter);
+    }
+
     private static String generateColumnFilter(String columnKey) {
         return TableQuery.generateFilterCondition(
                 TableConstants.ROW_KEY,
@@ -83,11 +231,18 @@ class AzureTableRequestFactory {
                 columnKey);
     }
 
+    // the value may be stored in either format, see ValueFormat
     private static String generateValueFilter(String value) {
-        return TableQuery.generateFilterCondition(
-                AzureEntity.VALUE,
-                TableQuery.QueryComparisons.EQUAL,
-                value);
+        return TableQuery.combineFilters(
+                TableQuery.generateFilterCondition(
+                        AzureEntity.VALUE,
+                        TableQuery.QueryComparisons.EQUAL,
+                        value),
+                TableQuery.Operators.OR,
+                TableQuery.generateFilterCondition(
+                        AzureEntity.VALUE,
+                        TableQuery.QueryComparisons.EQUAL,
+                        Base64.decode(value)));
     }
 
 }
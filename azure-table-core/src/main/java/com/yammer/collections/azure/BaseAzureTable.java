@@ -16,65 +16,199 @@
 package com.yammer.collections.azure;
 
 import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.base.Predicate;
 import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableTable;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.common.collect.Table;
+import com.google.common.collect.Tables;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.microsoft.windowsazure.services.core.storage.ResultContinuation;
+import com.microsoft.windowsazure.services.core.storage.ResultSegment;
 import com.microsoft.windowsazure.services.core.storage.StorageErrorCode;
 import com.microsoft.windowsazure.services.core.storage.StorageException;
 import com.microsoft.windowsazure.services.table.client.CloudTableClient;
+import com.microsoft.windowsazure.services.table.client.EntityResolver;
 import com.microsoft.windowsazure.services.table.client.TableOperation;
 import com.microsoft.windowsazure.services.table.client.TableQuery;
 
+import java.util.AbstractCollection;
+import java.util.ArrayDeque;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
-import static com.yammer.collections.azure.AzureEntityUtil.EXTRACT_VALUE;
-import static com.yammer.collections.azure.AzureEntityUtil.decode;
+import static com.google.common.base.Preconditions.checkState;
+import static com.yammer.collections.azure.AzureEntityUtil.anyVersionOf;
+import static com.yammer.collections.azure.AzureEntityUtil.decodeValue;
 import static com.yammer.collections.azure.AzureEntityUtil.encode;
 
 @SuppressWarnings("ClassWithTooManyMethods")
 public class BaseAzureTable implements Table<Bytes, Bytes, Bytes> {
-    private static final Function<AzureEntity, Bytes> COLUMN_KEY_EXTRACTOR = new Function<AzureEntity, Bytes>() {
+    private static final Function<Map<String, AzureEntity>, Iterable<AzureEntity>> PARTITION_ENTITIES =
+            new Function<Map<String, AzureEntity>, Iterable<AzureEntity>>() {
+                @Override
+                public Iterable<AzureEntity> apply(Map<String, AzureEntity> input) {
+                    return input.values();
+                }
+            };
+    private static final int MAX_BATCHES_IN_FLIGHT = 32;
+    static final int MAX_COMPUTE_ATTEMPTS = 10;
+    private static final long INITIAL_COMPUTE_BACKOFF_IN_MILLIS = 10;
+    private static final long MAX_COMPUTE_BACKOFF_IN_MILLIS = 1000;
+    // the service does not return more than 1000 entities at once
+    private static final int MAX_PAGE_SIZE = 1000;
+    static final long DEFAULT_DISTINCT_MEMORY_BUDGET_IN_BYTES = 64 * 1024 * 1024;
+    // the service evaluates at most 15 comparisons per filter, one of them is taken by the partition key
+    static final int MAX_COLUMNS_PER_QUERY = 14;
+    // keeps the query string well below the URL length limit, also when every key character has to be escaped
+    private static final int MAX_COLUMNS_FILTER_LENGTH = 4 * 1024;
+    private static final int COLUMN_FILTER_OVERHEAD = 24;
+    // every comparison of a filter is evaluated against the partition, point reads of many columns are cheaper
+    static final int MAX_QUERIES_PER_MULTI_GET = 8;
+    // candidates of a lookup by value are read a page at a time, so that a lookup which stops early reads few cells
+    static final int VALUE_CANDIDATES_PER_PAGE = 100;
+    // index rebuilds group the entries of this many scanned cells into batches at a time
+    static final int MAX_INDEX_ENTRIES_IN_MEMORY = 10 * 1000;
+    // cells of an indexed column are read for a page of index entries at a time
+    static final int INDEXED_COLUMN_PAGE_SIZE = 100;
+    // bulk deletes on a table with a column index delete the entries of this many entities at a time
+    private static final int MAX_REMOVALS_PER_INDEX_UPDATE = 1000;
+    private final Function<List<AzureEntity>, Callable<Void>> putBatch = new Function<List<AzureEntity>, Callable<Void>>() {
         @Override
-        public Bytes apply(AzureEntity input) {
-            return decode(input.getRowKey());
+        public Callable<Void> apply(final List<AzureEntity> batch) {
+            return new Callable<Void>() {
+                @Override
+                public Void call() throws StorageException {
+                    azureTableCloudClient.execute(tableName, azureTableRequestFactory.putBatch(batch));
+                    return null;
+                }
+            };
         }
     };
-    private static final Function<AzureEntity, Bytes> ROW_KEY_EXTRACTOR = new Function<AzureEntity, Bytes>() {
+    private final Function<List<AzureEntity>, Callable<Deletion>> deleteBatch = new Function<List<AzureEntity>, Callable<Deletion>>() {
         @Override
-        public Bytes apply(AzureEntity input) {
-            return decode(input.getPartitionKey());
+        public Callable<Deletion> apply(final List<AzureEntity> batch) {
+            return new Callable<Deletion>() {
+                @Override
+                public Deletion call() throws StorageException {
+                    return deleteInBatch(batch);
+                }
+            };
         }
     };
     private final String tableName;
     private final AzureTableCloudClient azureTableCloudClient;
     private final AzureTableRequestFactory azureTableRequestFactory;
+    private final ListeningExecutorService batchExecutor;
+    private final long distinctMemoryBudgetInBytes;
+    private final TableScanner tableScanner;
+    private final ValueFormat valueFormat;
+    private final KeyCodec keyCodec;
+    private final Optional<ValueIndex> valueIndex;
+    private final Optional<ColumnIndex> columnIndex;
 
     // internal and test use only
     BaseAzureTable(String tableName, AzureTableCloudClient azureTableCloudClient, AzureTableRequestFactory azureTableRequestFactory) {
+        this(tableName, azureTableCloudClient, azureTableRequestFactory, MoreExecutors.sameThreadExecutor(), DEFAULT_DISTINCT_MEMORY_BUDGET_IN_BYTES,
+                new TableScanner(tableName, azureTableCloudClient, azureTableRequestFactory), ValueFormat.BASE64_STRING, KeyCodec.BASE64,
+                Optional.<ValueIndex>absent(), Optional.<ColumnIndex>absent());
+    }
+
+    // internal and test use only, the scanner and the value index have to use the same key codec as the table
+    BaseAzureTable(String tableName,
+                   AzureTableCloudClient azureTableCloudClient,
+                   AzureTableRequestFactory azureTableRequestFactory,
+                   ListeningExecutorService batchExecutor,
+                   long distinctMemoryBudgetInBytes,
+                   TableScanner tableScanner,
+                   ValueFormat valueFormat,
+                   KeyCodec keyCodec,
+                   Optional<ValueIndex> valueIndex,
+                   Optional<ColumnIndex> columnIndex) {
         this.tableName = tableName;
         this.azureTableCloudClient = azureTableCloudClient;
         this.azureTableRequestFactory = azureTableRequestFactory;
+        this.batchExecutor = batchExecutor;
+        this.distinctMemoryBudgetInBytes = distinctMemoryBudgetInBytes;
+        this.tableScanner = tableScanner;
+        this.valueFormat = valueFormat;
+        this.keyCodec = keyCodec;
+        this.valueIndex = valueIndex;
+        this.columnIndex = columnIndex;
     }
 
-    public static Table<Bytes, Bytes, Bytes> create(String tableName, CloudTableClient cloudTableClient) {
-        return new BaseAzureTable(
-                checkNotNull(tableName),
-                new AzureTableCloudClient(checkNotNull(cloudTableClient)),
-                new AzureTableRequestFactory()
-        );
+    public static BaseAzureTable create(String tableName, CloudTableClient cloudTableClient) {
+        return builder(tableName, cloudTableClient).build();
+    }
+
+    /**
+     * Creates a table which submits the batches of bulk operations, such as {@link #putAll(Table)}, on the given executor,
+     * so that different partitions are written concurrently. The executor is not shut down by the table.
+     */
+    public static BaseAzureTable create(String tableName, CloudTableClient cloudTableClient, ExecutorService batchExecutor) {
+        return builder(tableName, cloudTableClient).withBatchExecutor(batchExecutor).build();
+    }
+
+    public static Builder builder(String tableName, CloudTableClient cloudTableClient) {
+        return new Builder(checkNotNull(tableName), checkNotNull(cloudTableClient));
+    }
+
+    /**
+     * Returns the first elements of a collection returned by the table or its views, such as {@link #values()},
+     * {@link #cellSet()} or the key set of {@link #row(Bytes)}. Where possible, the query asks the service for no more
+     * entities than that, instead of a full page of 1000. Views of distinct keys are only truncated, as are other iterables.
+     */
+    @SuppressWarnings("unchecked")
+    public static <E> Iterable<E> limit(Iterable<E> view, int limit) {
+        checkNotNull(view);
+        checkArgument(limit >= 0, "limit cannot be negative");
+        if (limit == 0) {
+            return Collections.emptyList();
+        }
+        return view instanceof LimitableView ? ((LimitableView<E>) view).limit(limit) : Iterables.limit(view, limit);
     }
 
     private static Bytes entityToValue(AzureEntity azureEntity) {
-        return azureEntity == null ? null : decode(azureEntity.getValue());
+        return azureEntity == null ? null : decodeValue(azureEntity);
     }
 
-    private static boolean notFound(StorageException e) {
+    static boolean notFound(StorageException e) {
         return StorageErrorCode.RESOURCE_NOT_FOUND.toString().equals(e.getErrorCode())
                 || "ResourceNotFound".equals(e.getErrorCode());
     }
 
+    private static boolean alreadyExists(StorageException e) {
+        return StorageErrorCode.RESOURCE_ALREADY_EXISTS.toString().equals(e.getErrorCode())
+                || "EntityAlreadyExists".equals(e.getErrorCode());
+    }
+
+    static boolean preconditionFailed(StorageException e) {
+        return StorageErrorCode.CONDITION_FAILED.toString().equals(e.getErrorCode())
+                || "UpdateConditionNotSatisfied".equals(e.getErrorCode());
+    }
+
     @Override
     public boolean contains(Object row, Object column) {
         return get(row, column) != null;
@@ -96,8 +230,169 @@ public class BaseAzureTable implements Table<Bytes, Bytes, Bytes> {
             return false;
         }
 
+        if (valueIndex.isPresent()) {
+            return !Iterables.isEmpty(cellsWithValue((Bytes) value, Optional.<Bytes>absent()));
+        }
+
         TableQuery<AzureEntity> valueQuery = azureTableRequestFactory.containsValueQuery(tableName, encode((Bytes) value));
-        return azureTableCloudClient.execute(valueQuery).iterator().hasNext();
+        return azureTableCloudClient.execute(azureTableRequestFactory.take(valueQuery, 1)).iterator().hasNext();
+    }
+
+    /**
+     * Returns the cells holding the value. The cells are looked up in the value index, and the candidates it returns
+     * are then read with {@link #getAll(Iterable)}, a page at a time, to drop the ones that no longer hold the value.
+     *
+     * @throws IllegalStateException if the table was not built with {@link Builder#withValueIndex(String)}
+     */
+    public Set<Cell<Bytes, Bytes, Bytes>> findByValue(Bytes value) {
+        checkNotNull(value);
+        checkState(valueIndex.isPresent(), "finding cells by value requires a table built with a value index");
+        return ImmutableSet.copyOf(cellsWithValue(value, Optional.<Bytes>absent()));
+    }
+
+    /**
+     * The cells holding the value, optionally only the ones of the given column, looked up in the value index. The
+     * candidates are read lazily, a page at a time, so that a caller which stops at the first cell reads no more.
+     */
+    Iterable<Cell<Bytes, Bytes, Bytes>> cellsWithValue(final Bytes value, final Optional<Bytes> column) {
+        Iterable<Cell<Bytes, Bytes, AzureEntity>> candidates = valueIndex.get().candidates(value);
+        if (column.isPresent()) {
+            candidates = Iterables.filter(candidates, new Predicate<Cell<Bytes, Bytes, AzureEntity>>() {
+                @Override
+                public boolean apply(Cell<Bytes, Bytes, AzureEntity> candidate) {
+                    return column.get().equals(candidate.getColumnKey());
+                }
+            });
+        }
+        return Iterables.concat(Iterables.transform(Iterables.partition(candidates, VALUE_CANDIDATES_PER_PAGE),
+                new Function<List<Cell<Bytes, Bytes, AzureEntity>>, Iterable<Cell<Bytes, Bytes, Bytes>>>() {
+                    @Override
+                    public Iterable<Cell<Bytes, Bytes, Bytes>> apply(List<Cell<Bytes, Bytes, AzureEntity>> page) {
+                        return confirmedCells(value, page);
+                    }
+                }));
+    }
+
+    private List<Cell<Bytes, Bytes, Bytes>> confirmedCells(Bytes value, List<Cell<Bytes, Bytes, AzureEntity>> candidates) {
+        ImmutableTable<Bytes, Bytes, Bytes> candidateCells = getAll(candidates);
+        List<Cell<Bytes, Bytes, Bytes>> cells = Lists.newArrayList();
+        for (Cell<Bytes, Bytes, AzureEntity> candidate : candidates) {
+            Bytes candidateValue = candidateCells.get(candidate.getRowKey(), candidate.getColumnKey());
+            if (value.equals(candidateValue)) {
+                cells.add(Tables.immutableCell(candidate.getRowKey(), candidate.getColumnKey(), value));
+            } else if (candidateValue == null || !ValueIndex.partitionOf(candidateValue).equals(ValueIndex.partitionOf(value))) {
+                // unless the hashes of the values collide, or the write of the cell has yet to land, the entry is stale
+                valueIndex.get().removeStale(candidate.getValue());
+            }
+        }
+        return cells;
+    }
+
+    /**
+     * Rewrites the value index from a scan of the table, e.g. after enabling the index on a table with data.
+     * The index is cleared first, so lookups by value which run concurrently can miss cells.
+     *
+     * @throws IllegalStateException if the table was not built with {@link Builder#withValueIndex(String)}
+     */
+    public void rebuildValueIndex() {
+        checkState(valueIndex.isPresent(), "the table was not built with a value index");
+        valueIndex.get().clear();
+        for (Iterable<AzureEntity> entries : indexEntriesOfScan(new Function<AzureEntity, AzureEntity>() {
+            @Override
+            public AzureEntity apply(AzureEntity entity) {
+                return ValueIndex.entryOf(entity.getPartitionKey(), entity.getRowKey(), decodeValue(entity));
+            }
+        })) {
+            executeBatches(valueIndex.get().addBatches(entries));
+        }
+    }
+
+    // the index entries of a scan of the table, grouped by partition a bounded number of cells at a time
+    private Iterable<Iterable<AzureEntity>> indexEntriesOfScan(final Function<AzureEntity, AzureEntity> entryOf) {
+        return Iterables.transform(Iterables.partition(tableScanner.entities(), MAX_INDEX_ENTRIES_IN_MEMORY),
+                new Function<List<AzureEntity>, Iterable<AzureEntity>>() {
+                    @Override
+                    public Iterable<AzureEntity> apply(List<AzureEntity> entities) {
+                        Map<String, Map<String, AzureEntity>> entriesByPartition = Maps.newLinkedHashMap();
+                        for (AzureEntity entity : entities) {
+                            AzureEntity entry = entryOf.apply(entity);
+                            partitionOf(entriesByPartition, entry.getPartitionKey()).put(entry.getRowKey(), entry);
+                        }
+                        return Iterables.concat(Iterables.transform(entriesByPartition.values(), PARTITION_ENTITIES));
+                    }
+                });
+    }
+
+    boolean hasValueIndex() {
+        return valueIndex.isPresent();
+    }
+
+    /**
+     * Rewrites the column index from a scan of the table, e.g. after enabling the index on a table with data, or after
+     * writes which failed half way left it out of step with the table. The index is cleared first, so column views
+     * which are read concurrently can miss cells.
+     *
+     * @throws IllegalStateException if the table was not built with {@link Builder#withColumnIndex(String)}
+     */
+    public void rebuildColumnIndex() {
+        checkState(columnIndex.isPresent(), "the table was not built with a column index");
+        columnIndex.get().clear();
+        for (Iterable<AzureEntity> entries : indexEntriesOfScan(new Function<AzureEntity, AzureEntity>() {
+            @Override
+            public AzureEntity apply(AzureEntity entity) {
+                return ColumnIndex.entryOf(entity.getPartitionKey(), entity.getRowKey());
+            }
+        })) {
+            executeBatches(columnIndex.get().putBatches(entries));
+        }
+    }
+
+    Optional<ColumnIndex> getColumnIndex() {
+        return columnIndex;
+    }
+
+    /**
+     * The cells of the column, read from the table for the keys listed in the column index, a page of entries at a
+     * time. Entries whose cell is gone are dropped, conditionally on the version of the entry which was read.
+     */
+    Iterable<AzureEntity> indexedColumn(String columnAsString) {
+        return indexedColumnPages(columnAsString, INDEXED_COLUMN_PAGE_SIZE);
+    }
+
+    Iterable<AzureEntity> indexedColumn(String columnAsString, int limit) {
+        return Iterables.limit(indexedColumnPages(columnAsString, Math.min(limit, INDEXED_COLUMN_PAGE_SIZE)), limit);
+    }
+
+    private Iterable<AzureEntity> indexedColumnPages(final String columnAsString, int pageSize) {
+        return Iterables.concat(Iterables.transform(Iterables.partition(columnIndex.get().entriesOf(columnAsString, pageSize), pageSize),
+                new Function<List<AzureEntity>, Iterable<AzureEntity>>() {
+                    @Override
+                    public Iterable<AzureEntity> apply(List<AzureEntity> entries) {
+                        return cellsOfEntries(columnAsString, entries);
+                    }
+                }));
+    }
+
+    private List<AzureEntity> cellsOfEntries(String columnAsString, List<AzureEntity> entries) {
+        Map<String, Set<String>> columnsByRow = Maps.newLinkedHashMap();
+        for (AzureEntity entry : entries) {
+            columnsByRow.put(entry.getRowKey(), Collections.singleton(columnAsString));
+        }
+        Map<String, AzureEntity> cellsByRow = Maps.newHashMap();
+        for (AzureEntity cell : readEntities(columnsByRow)) {
+            cellsByRow.put(cell.getPartitionKey(), cell);
+        }
+
+        List<AzureEntity> cells = Lists.newArrayListWithCapacity(entries.size());
+        for (AzureEntity entry : entries) {
+            AzureEntity cell = cellsByRow.get(entry.getRowKey());
+            if (cell == null) {
+                columnIndex.get().removeStale(entry);
+            } else {
+                cells.add(cell);
+            }
+        }
+        return cells;
     }
 
     @Override
@@ -110,8 +405,8 @@ public class BaseAzureTable implements Table<Bytes, Bytes, Bytes> {
             return null;
         }
 
-        String rowAsString = encode((Bytes) row);
-        String columnAsString = encode((Bytes) column);
+        String rowAsString = keyCodec.encode((Bytes) row);
+        String columnAsString = keyCodec.encode((Bytes) column);
 
         TableOperation retrieveEntityOperation = azureTableRequestFactory.retrieve(rowAsString, columnAsString);
 
@@ -122,6 +417,122 @@ public class BaseAzureTable implements Table<Bytes, Bytes, Bytes> {
         }
     }
 
+    /**
+     * Reads the given columns of a row. Rather than a request per column, the columns are read with partition queries
+     * of up to 14 columns each, or with point reads when there are too many columns for a few queries. The requests
+     * are submitted to the batch executor, see {@link Builder#withBatchExecutor(ExecutorService)}.
+     *
+     * @return the values of the columns that exist
+     */
+    public Map<Bytes, Bytes> getAll(Bytes row, Iterable<Bytes> columns) {
+        checkNotNull(row);
+        checkNotNull(columns);
+        Set<String> columnsAsStrings = Sets.newLinkedHashSet();
+        for (Bytes column : columns) {
+            columnsAsStrings.add(keyCodec.encode(checkNotNull(column)));
+        }
+
+        ImmutableMap.Builder<Bytes, Bytes> values = ImmutableMap.builder();
+        for (List<AzureEntity> entities : executeBatches(columnLookups(keyCodec.encode(row), columnsAsStrings))) {
+            for (AzureEntity entity : entities) {
+                values.put(keyCodec.decode(entity.getRowKey()), decodeValue(entity));
+            }
+        }
+        return values.build();
+    }
+
+    /**
+     * Reads the given cells, which can span many rows. Columns of the same row are read together as in
+     * {@link #getAll(Bytes, Iterable)}, cells alone in their row with point reads. At most 32 of these requests are
+     * in flight at a time, submitted to the batch executor, see {@link Builder#withBatchExecutor(ExecutorService)}.
+     * The values of the given cells are ignored.
+     *
+     * @return the cells that exist
+     */
+    public ImmutableTable<Bytes, Bytes, Bytes> getAll(Iterable<? extends Cell<? extends Bytes, ? extends Bytes, ?>> cells) {
+        checkNotNull(cells);
+        Map<String, Set<String>> columnsByRow = Maps.newLinkedHashMap();
+        for (Cell<? extends Bytes, ? extends Bytes, ?> cell : cells) {
+            String rowAsString = keyCodec.encode(checkNotNull(cell.getRowKey()));
+            Set<String> columns = columnsByRow.get(rowAsString);
+            if (columns == null) {
+                columns = Sets.newLinkedHashSet();
+                columnsByRow.put(rowAsString, columns);
+            }
+            columns.add(keyCodec.encode(checkNotNull(cell.getColumnKey())));
+        }
+
+        ImmutableTable.Builder<Bytes, Bytes, Bytes> values = ImmutableTable.builder();
+        for (AzureEntity entity : readEntities(columnsByRow)) {
+            values.put(keyCodec.cellExtractor().apply(entity));
+        }
+        return values.build();
+    }
+
+    private Iterable<AzureEntity> readEntities(Map<String, Set<String>> columnsByRow) {
+        List<Callable<List<AzureEntity>>> lookups = Lists.newArrayList();
+        for (Map.Entry<String, Set<String>> rowColumns : columnsByRow.entrySet()) {
+            lookups.addAll(columnLookups(rowColumns.getKey(), rowColumns.getValue()));
+        }
+        return Iterables.concat(executeBatches(lookups));
+    }
+
+    private List<Callable<List<AzureEntity>>> columnLookups(String rowAsString, Collection<String> columnsAsStrings) {
+        List<Callable<List<AzureEntity>>> lookups = Lists.newArrayList();
+        List<List<String>> queryColumns = splitColumnsIntoQueries(columnsAsStrings);
+        if (columnsAsStrings.size() == 1 || queryColumns.size() > MAX_QUERIES_PER_MULTI_GET) {
+            for (String columnAsString : columnsAsStrings) {
+                lookups.add(pointRead(rowAsString, columnAsString));
+            }
+        } else {
+            for (List<String> columns : queryColumns) {
+                lookups.add(columnsQuery(rowAsString, columns));
+            }
+        }
+        return lookups;
+    }
+
+    private static List<List<String>> splitColumnsIntoQueries(Collection<String> columnsAsStrings) {
+        List<List<String>> queryColumns = Lists.newArrayList();
+        List<String> columns = Lists.newArrayList();
+        int filterLength = 0;
+        for (String columnAsString : columnsAsStrings) {
+            int columnFilterLength = 3 * columnAsString.length() + COLUMN_FILTER_OVERHEAD;
+            if (!columns.isEmpty()
+                    && (columns.size() == MAX_COLUMNS_PER_QUERY || filterLength + columnFilterLength > MAX_COLUMNS_FILTER_LENGTH)) {
+                queryColumns.add(columns);
+                columns = Lists.newArrayList();
+                filterLength = 0;
+            }
+            columns.add(columnAsString);
+            filterLength += columnFilterLength;
+        }
+        if (!columns.isEmpty()) {
+            queryColumns.add(columns);
+        }
+        return queryColumns;
+    }
+
+    private Callable<List<AzureEntity>> pointRead(final String rowAsString, final String columnAsString) {
+        return new Callable<List<AzureEntity>>() {
+            @Override
+            public List<AzureEntity> call() throws StorageException {
+                AzureEntity entity = azureTableCloudClient.execute(tableName, azureTableRequestFactory.retrieve(rowAsString, columnAsString));
+                return entity == null ? Collections.<AzureEntity>emptyList() : Collections.singletonList(entity);
+            }
+        };
+    }
+
+    private Callable<List<AzureEntity>> columnsQuery(final String rowAsString, final List<String> columnsAsStrings) {
+        return new Callable<List<AzureEntity>>() {
+            @Override
+            public List<AzureEntity> call() {
+                return ImmutableList.copyOf(azureTableCloudClient.execute(
+                        azureTableRequestFactory.selectColumnsForRow(tableName, rowAsString, columnsAsStrings)));
+            }
+        };
+    }
+
     @Override
     public boolean isEmpty() {
         return cellSet().isEmpty();
@@ -132,10 +543,61 @@ public class BaseAzureTable implements Table<Bytes, Bytes, Bytes> {
         return cellSet().size();
     }
 
+    /**
+     * Deletes the entities returned by a scan of the table in batches, without reading them again.
+     */
     @Override
     public void clear() {
-        for (Cell<Bytes, Bytes, Bytes> cell : cellSet()) {
-            remove(cell.getRowKey(), cell.getColumnKey());
+        deleteEntities(tableScanner.entities());
+        if (columnIndex.isPresent()) {
+            columnIndex.get().clear();
+        }
+    }
+
+    /**
+     * Passes every cell of the table to the sink, in no particular order. Unlike iterating {@link #cellSet()},
+     * a table built with {@link Builder#withParallelScan(ExecutorService, int)} calls the sink concurrently
+     * from the threads of the scan executor, so the sink has to be thread safe.
+     */
+    public void forEachCell(final CellSink sink) {
+        checkNotNull(sink);
+        tableScanner.forEach(EntityResolvers.cells(keyCodec), new TableScanner.Sink<Cell<Bytes, Bytes, Bytes>>() {
+            @Override
+            public void accept(Cell<Bytes, Bytes, Bytes> cell) {
+                sink.accept(cell);
+            }
+        });
+    }
+
+    /**
+     * Returns the first page of a scan of the table, in key order. Unlike iterating {@link #cellSet()}, the scan can be
+     * resumed from the page's continuation token with {@link #getPage(int, ContinuationToken)}, e.g. after a failure.
+     *
+     * @param pageSize the maximum number of cells in the page, at most 1000
+     */
+    public CellPage getPage(int pageSize) {
+        return getPage(pageSize, null);
+    }
+
+    /**
+     * Returns the page of a scan of the table which starts at the given token, which was returned with a previous page.
+     */
+    public CellPage getPage(int pageSize, ContinuationToken continuation) {
+        checkArgument(pageSize > 0 && pageSize <= MAX_PAGE_SIZE, "pageSize has to be between 1 and %s", MAX_PAGE_SIZE);
+        TableQuery<AzureEntity> pageQuery = azureTableRequestFactory.selectPage(tableName, pageSize);
+        try {
+            ResultSegment<Cell<Bytes, Bytes, Bytes>> segment = azureTableCloudClient.executeSegmented(
+                    pageQuery,
+                    EntityResolvers.cells(keyCodec),
+                    continuation == null ? null : continuation.toResultContinuation());
+            ResultContinuation next = segment.getContinuationToken();
+            return new CellPage(
+                    ImmutableList.copyOf(segment.getResults()),
+                    next == null || !next.hasContinuation()
+                            ? Optional.<ContinuationToken>absent()
+                            : Optional.of(ContinuationToken.from(next)));
+        } catch (StorageException e) {
+            throw Throwables.propagate(e);
         }
     }
 
@@ -144,20 +606,507 @@ public class BaseAzureTable implements Table<Bytes, Bytes, Bytes> {
         checkNotNull(row);
         checkNotNull(column);
         checkNotNull(value);
-        TableOperation putStringieOperation = azureTableRequestFactory.put(encode(row), encode(column), encode(value));
+        String rowAsString = keyCodec.encode(row);
+        String columnAsString = keyCodec.encode(column);
+        addToValueIndex(rowAsString, columnAsString, value);
+        TableOperation putStringieOperation = valueFormat.put(azureTableRequestFactory, rowAsString, columnAsString, value);
+
+        try {
+            Bytes previousValue = entityToValue(azureTableCloudClient.execute(tableName, putStringieOperation));
+            addToColumnIndex(rowAsString, columnAsString);
+            return previousValue;
+        } catch (StorageException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * Writes the value like {@link #put(Bytes, Bytes, Bytes)} does, for callers which do not need a return value.
+     */
+    public void set(Bytes row, Bytes column, Bytes value) {
+        checkNotNull(row);
+        checkNotNull(column);
+        checkNotNull(value);
+        String rowAsString = keyCodec.encode(row);
+        String columnAsString = keyCodec.encode(column);
+        addToValueIndex(rowAsString, columnAsString, value);
+        TableOperation putOperation = valueFormat.put(azureTableRequestFactory, rowAsString, columnAsString, value);
+
+        try {
+            azureTableCloudClient.execute(tableName, putOperation);
+            addToColumnIndex(rowAsString, columnAsString);
+        } catch (StorageException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    // the entry goes in before the cell, so that the index never misses a cell
+    private void addToValueIndex(String rowAsString, String columnAsString, Bytes value) {
+        if (valueIndex.isPresent()) {
+            valueIndex.get().add(rowAsString, columnAsString, value);
+        }
+    }
+
+    // the column index is updated once the cell was written or deleted, see Builder#withColumnIndex
+    private void addToColumnIndex(String rowAsString, String columnAsString) {
+        if (columnIndex.isPresent()) {
+            columnIndex.get().add(rowAsString, columnAsString);
+        }
+    }
+
+    private void removeFromColumnIndex(String rowAsString, String columnAsString) {
+        if (columnIndex.isPresent()) {
+            columnIndex.get().remove(rowAsString, columnAsString);
+        }
+    }
+
+    /**
+     * Reads the value of the cell together with its ETag, for {@link #replace(Bytes, Bytes, String, Bytes)}.
+     *
+     * @return the versioned value, or null if there is no such cell
+     */
+    public VersionedValue getVersioned(Bytes row, Bytes column) {
+        checkNotNull(row);
+        checkNotNull(column);
+        AzureEntity entity = rawGet(row, column);
+        return entity == null ? null : new VersionedValue(decodeValue(entity), entity.getEtag());
+    }
+
+    /**
+     * Writes the value unless the cell exists, with a single insert request instead of a read and a write.
+     *
+     * @return null if the value was written, otherwise the value of the cell
+     */
+    public Bytes putIfAbsent(Bytes row, Bytes column, Bytes value) {
+        checkNotNull(row);
+        checkNotNull(column);
+        checkNotNull(value);
+        String rowAsString = keyCodec.encode(row);
+        String columnAsString = keyCodec.encode(column);
+        while (!insert(rowAsString, columnAsString, value)) {
+            Bytes presentValue = get(row, column);
+            // otherwise the cell was deleted since the insert failed, so try again
+            if (presentValue != null) {
+                return presentValue;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Writes the value only if the cell still has the version of the given ETag, see {@link #getVersioned(Bytes, Bytes)}.
+     *
+     * @return true if the value was written, false if the cell has changed or is gone
+     */
+    public boolean replace(Bytes row, Bytes column, String expectedEtag, Bytes value) {
+        checkNotNull(row);
+        checkNotNull(column);
+        checkNotNull(expectedEtag);
+        checkNotNull(value);
+        return replaceVersion(keyCodec.encode(row), keyCodec.encode(column), expectedEtag, value);
+    }
 
+    /**
+     * Replaces the value of the cell with the result of the function, which gets the current value, or null if there
+     * is no such cell. A null result deletes the cell. The write is conditional on the version that was read, and when
+     * the cell changes in between, it is read again and the function is applied again, after a randomized exponential
+     * backoff. The function therefore has to be free of side effects.
+     *
+     * @return the new value, null if the cell was deleted
+     * @throws ConcurrentModificationException if the cell kept changing for 10 attempts
+     */
+    public Bytes compute(Bytes row, Bytes column, Function<? super Bytes, ? extends Bytes> remappingFunction) {
+        checkNotNull(row);
+        checkNotNull(column);
+        checkNotNull(remappingFunction);
+        String rowAsString = keyCodec.encode(row);
+        String columnAsString = keyCodec.encode(column);
+        long backoffInMillis = INITIAL_COMPUTE_BACKOFF_IN_MILLIS;
+        for (int attempt = 1; ; attempt++) {
+            AzureEntity current = rawGet(row, column);
+            Bytes newValue = remappingFunction.apply(entityToValue(current));
+            if (writeVersion(current, rowAsString, columnAsString, newValue)) {
+                return newValue;
+            }
+            if (attempt == MAX_COMPUTE_ATTEMPTS) {
+                throw new ConcurrentModificationException("cell kept changing for " + MAX_COMPUTE_ATTEMPTS + " attempts");
+            }
+            sleep(ThreadLocalRandom.current().nextLong(backoffInMillis) + 1);
+            backoffInMillis = Math.min(backoffInMillis * 2, MAX_COMPUTE_BACKOFF_IN_MILLIS);
+        }
+    }
+
+    private boolean writeVersion(AzureEntity current, String rowAsString, String columnAsString, Bytes newValue) {
+        if (newValue == null) {
+            return current == null || deleteVersion(current);
+        }
+        return current == null
+                ? insert(rowAsString, columnAsString, newValue)
+                : replaceVersion(rowAsString, columnAsString, current.getEtag(), newValue);
+    }
+
+    // the value index entry goes in before the conditional write, so that the index never misses the cell, and is left
+    // for readers to drop if the write fails; the column index is updated only once the write went through
+    private boolean insert(String rowAsString, String columnAsString, Bytes value) {
+        addToValueIndex(rowAsString, columnAsString, value);
         try {
-            return entityToValue(azureTableCloudClient.execute(tableName, putStringieOperation));
+            azureTableCloudClient.execute(tableName, azureTableRequestFactory.insert(valueFormat.toEntity(rowAsString, columnAsString, value)));
         } catch (StorageException e) {
+            if (alreadyExists(e)) {
+                return false;
+            }
             throw Throwables.propagate(e);
         }
+        addToColumnIndex(rowAsString, columnAsString);
+        return true;
     }
 
+    private boolean replaceVersion(String rowAsString, String columnAsString, String etag, Bytes value) {
+        addToValueIndex(rowAsString, columnAsString, value);
+        AzureEntity entity = valueFormat.toEntity(rowAsString, columnAsString, value);
+        entity.setEtag(etag);
+        try {
+            azureTableCloudClient.execute(tableName, azureTableRequestFactory.replace(entity));
+        } catch (StorageException e) {
+            if (notFound(e) || preconditionFailed(e)) {
+                return false;
+            }
+            throw Throwables.propagate(e);
+        }
+        addToColumnIndex(rowAsString, columnAsString);
+        return true;
+    }
+
+    private boolean deleteVersion(AzureEntity entity) {
+        try {
+            if (!deleteEntity(entity)) {
+                return false;
+            }
+        } catch (StorageException e) {
+            throw Throwables.propagate(e);
+        }
+        removeFromColumnIndex(entity.getPartitionKey(), entity.getRowKey());
+        return true;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * Deletes the cell unconditionally. Unlike {@link #remove(Object, Object)} it does not read the cell first,
+     * so it costs a single request, but it cannot return the removed value.
+     *
+     * @return true if a cell was deleted, false if there was no such cell
+     */
+    public boolean delete(Bytes row, Bytes column) {
+        checkNotNull(row);
+        checkNotNull(column);
+        String rowAsString = keyCodec.encode(row);
+        String columnAsString = keyCodec.encode(column);
+        TableOperation deleteOperation = azureTableRequestFactory.delete(rowAsString, columnAsString);
+
+        try {
+            azureTableCloudClient.execute(tableName, deleteOperation);
+        } catch (StorageException e) {
+            if (notFound(e)) {
+                return false;
+            }
+            throw Throwables.propagate(e);
+        }
+        removeFromColumnIndex(rowAsString, columnAsString);
+        return true;
+    }
+
+    /**
+     * Writes and removes cells of a row as a single entity group transaction, so that readers see either all of the
+     * changes or none of them. A transaction holds at most 100 changes and 4MB, larger updates are split into several
+     * transactions, each of which is atomic on its own. Removing a column which does not exist is not an error.
+     *
+     * @param puts    the columns to write, with their values
+     * @param removes the columns to remove, none of which may be written as well
+     */
+    public void updateRow(Bytes row, Map<? extends Bytes, ? extends Bytes> puts, Iterable<? extends Bytes> removes) {
+        checkNotNull(row);
+        checkNotNull(puts);
+        checkNotNull(removes);
+        final String rowAsString = keyCodec.encode(row);
+        Map<String, AzureEntity> entitiesToPut = Maps.newLinkedHashMap();
+        Map<String, Map<String, AzureEntity>> indexEntriesByPartition = Maps.newLinkedHashMap();
+        for (Map.Entry<? extends Bytes, ? extends Bytes> put : puts.entrySet()) {
+            String columnAsString = keyCodec.encode(checkNotNull(put.getKey()));
+            Bytes value = checkNotNull(put.getValue());
+            entitiesToPut.put(columnAsString, valueFormat.toEntity(rowAsString, columnAsString, value));
+            if (valueIndex.isPresent()) {
+                AzureEntity entry = ValueIndex.entryOf(rowAsString, columnAsString, value);
+                partitionOf(indexEntriesByPartition, entry.getPartitionKey()).put(entry.getRowKey(), entry);
+            }
+        }
+        Map<String, AzureEntity> entitiesToDelete = Maps.newLinkedHashMap();
+        for (Bytes column : removes) {
+            String columnAsString = keyCodec.encode(checkNotNull(column));
+            // the service rejects transactions which touch an entity twice
+            checkArgument(!entitiesToPut.containsKey(columnAsString), "column is both written and removed: %s", column);
+            entitiesToDelete.put(columnAsString, anyVersionOf(rowAsString, columnAsString));
+        }
+
+        if (valueIndex.isPresent()) {
+            executeBatches(valueIndex.get().addBatches(
+                    Iterables.concat(Iterables.transform(indexEntriesByPartition.values(), PARTITION_ENTITIES))));
+        }
+        executeBatches(rowTransactions(rowAsString, entitiesToPut.values(), entitiesToDelete.values()));
+        if (columnIndex.isPresent()) {
+            List<AzureEntity> columnEntries = Lists.newArrayList();
+            for (String columnAsString : entitiesToPut.keySet()) {
+                columnEntries.add(ColumnIndex.entryOf(rowAsString, columnAsString));
+            }
+            executeBatches(Iterables.concat(columnIndex.get().putBatches(columnEntries), columnIndex.get().removeBatches(entitiesToDelete.values())));
+        }
+    }
+
+    private List<Callable<Void>> rowTransactions(String rowAsString, Collection<AzureEntity> entitiesToPut, Collection<AzureEntity> entitiesToDelete) {
+        List<Callable<Void>> transactions = Lists.newArrayList();
+        List<AzureEntity> puts = Lists.newArrayList();
+        List<AzureEntity> deletes = Lists.newArrayList();
+        int payloadSize = 0;
+        int position = 0;
+        for (AzureEntity entity : Iterables.concat(entitiesToPut, entitiesToDelete)) {
+            int entitySize = EntityBatches.estimatedSize(entity);
+            if (puts.size() + deletes.size() == EntityBatches.MAX_BATCH_ENTITIES
+                    || (payloadSize > 0 && payloadSize + entitySize > EntityBatches.MAX_BATCH_PAYLOAD_IN_BYTES)) {
+                transactions.add(rowTransaction(rowAsString, puts, deletes));
+                puts = Lists.newArrayList();
+                deletes = Lists.newArrayList();
+                payloadSize = 0;
+            }
+            (position++ < entitiesToPut.size() ? puts : deletes).add(entity);
+            payloadSize += entitySize;
+        }
+        if (!puts.isEmpty() || !deletes.isEmpty()) {
+            transactions.add(rowTransaction(rowAsString, puts, deletes));
+        }
+        return transactions;
+    }
+
+    private Callable<Void> rowTransaction(final String rowAsString, final List<AzureEntity> puts, final List<AzureEntity> deletes) {
+        return new Callable<Void>() {
+            @Override
+            public Void call() throws StorageException {
+                List<AzureEntity> existingDeletes = deletes;
+                while (true) {
+                    try {
+                        azureTableCloudClient.execute(tableName, azureTableRequestFactory.updateBatch(puts, existingDeletes));
+                        return null;
+                    } catch (StorageException e) {
+                        if (!notFound(e) || existingDeletes.isEmpty()) {
+                            throw e;
+                        }
+                        // a removed column does not exist, which fails the whole transaction, so only remove the ones which do
+                        List<AzureEntity> stillExisting = existingOf(rowAsString, existingDeletes);
+                        if (stillExisting.size() == existingDeletes.size()) {
+                            throw e;
+                        }
+                        existingDeletes = stillExisting;
+                    }
+                }
+            }
+        };
+    }
+
+    private List<AzureEntity> existingOf(String rowAsString, List<AzureEntity> entities) {
+        Set<String> existingColumns = Sets.newHashSet();
+        for (AzureEntity entity : azureTableCloudClient.execute(azureTableRequestFactory.selectKeysForRow(tableName, rowAsString))) {
+            existingColumns.add(entity.getRowKey());
+        }
+        List<AzureEntity> existing = Lists.newArrayList();
+        for (AzureEntity entity : entities) {
+            if (existingColumns.contains(entity.getRowKey())) {
+                existing.add(entity);
+            }
+        }
+        return existing;
+    }
+
+    /**
+     * Writes the cells as entity group transactions, one or more per row, instead of issuing a request per cell.
+     * Batches are not atomic with respect to each other, so a failure can leave the table partially updated.
+     */
     @Override
     public void putAll(Table<? extends Bytes, ? extends Bytes, ? extends Bytes> table) {
         checkNotNull(table);
-        for (Cell<? extends Bytes, ? extends Bytes, ? extends Bytes> cell : table.cellSet()) {
-            put(cell.getRowKey(), cell.getColumnKey(), cell.getValue());
+        putCells(table.cellSet());
+    }
+
+    // if the same cell occurs more than once the last value wins, as it would with consecutive puts
+    void putCells(Iterable<? extends Cell<? extends Bytes, ? extends Bytes, ? extends Bytes>> cells) {
+        Map<String, Map<String, AzureEntity>> entitiesByPartition = Maps.newLinkedHashMap();
+        Map<String, Map<String, AzureEntity>> indexEntriesByPartition = Maps.newLinkedHashMap();
+        Map<String, Map<String, AzureEntity>> columnEntriesByPartition = Maps.newLinkedHashMap();
+        for (Cell<? extends Bytes, ? extends Bytes, ? extends Bytes> cell : cells) {
+            String rowAsString = keyCodec.encode(checkNotNull(cell.getRowKey()));
+            String columnAsString = keyCodec.encode(checkNotNull(cell.getColumnKey()));
+            Bytes value = checkNotNull(cell.getValue());
+            partitionOf(entitiesByPartition, rowAsString).put(columnAsString, valueFormat.toEntity(rowAsString, columnAsString, value));
+            if (valueIndex.isPresent()) {
+                AzureEntity entry = ValueIndex.entryOf(rowAsString, columnAsString, value);
+                partitionOf(indexEntriesByPartition, entry.getPartitionKey()).put(entry.getRowKey(), entry);
+            }
+            if (columnIndex.isPresent()) {
+                partitionOf(columnEntriesByPartition, columnAsString).put(rowAsString, ColumnIndex.entryOf(rowAsString, columnAsString));
+            }
+        }
+
+        if (valueIndex.isPresent()) {
+            executeBatches(valueIndex.get().addBatches(
+                    Iterables.concat(Iterables.transform(indexEntriesByPartition.values(), PARTITION_ENTITIES))));
+        }
+        executeBatches(Iterables.transform(
+                EntityBatches.partitionBatches(Iterables.concat(Iterables.transform(entitiesByPartition.values(), PARTITION_ENTITIES))),
+                putBatch));
+        if (columnIndex.isPresent()) {
+            executeBatches(columnIndex.get().putBatches(
+                    Iterables.concat(Iterables.transform(columnEntriesByPartition.values(), PARTITION_ENTITIES))));
+        }
+    }
+
+    private <T> List<T> executeBatches(Iterable<Callable<T>> batches) {
+        List<T> results = Lists.newArrayList();
+        Deque<ListenableFuture<T>> batchesInFlight = new ArrayDeque<>();
+        for (Callable<T> batch : batches) {
+            if (batchesInFlight.size() >= MAX_BATCHES_IN_FLIGHT) {
+                results.add(waitFor(batchesInFlight.removeFirst()));
+            }
+            batchesInFlight.addLast(batchExecutor.submit(batch));
+        }
+        while (!batchesInFlight.isEmpty()) {
+            results.add(waitFor(batchesInFlight.removeFirst()));
+        }
+        return results;
+    }
+
+    private static <T> T waitFor(ListenableFuture<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(e);
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    /**
+     * Deletes the given entities using batch operations, honouring their etags. The entities should be ordered by
+     * partition key, as they are when returned from a query, otherwise the batches get small.
+     *
+     * @return the number of deleted entities
+     */
+    int removeEntities(Iterable<AzureEntity> entities) {
+        if (!columnIndex.isPresent()) {
+            return deleteEntities(entities);
+        }
+
+        // the entities are read once, for both the table and the column index, and the ones which were deleted or were
+        // already gone leave the index, while the ones which changed in the meantime stay in it
+        int removed = 0;
+        for (List<AzureEntity> chunk : Iterables.partition(entities, MAX_REMOVALS_PER_INDEX_UPDATE)) {
+            List<AzureEntity> gone = Lists.newArrayList();
+            for (Deletion deletion : executeBatches(Iterables.transform(EntityBatches.partitionBatches(chunk), deleteBatch))) {
+                gone.addAll(deletion.deleted);
+                gone.addAll(deletion.notFound);
+                removed += deletion.deleted.size();
+            }
+            executeBatches(columnIndex.get().removeBatches(gone));
+        }
+        return removed;
+    }
+
+    private int deleteEntities(Iterable<AzureEntity> entities) {
+        int removed = 0;
+        for (Deletion deletion : executeBatches(Iterables.transform(EntityBatches.partitionBatches(entities), deleteBatch))) {
+            removed += deletion.deleted.size();
+        }
+        return removed;
+    }
+
+    /**
+     * Deletes the given cells, regardless of their values, without reading them first.
+     *
+     * @return the number of deleted cells
+     */
+    int removeCells(Iterable<?> cells) {
+        Map<String, Map<String, AzureEntity>> entitiesByPartition = Maps.newLinkedHashMap();
+        for (Object o : cells) {
+            if (!(o instanceof Cell)) {
+                continue;
+            }
+            Cell<?, ?, ?> cell = (Cell<?, ?, ?>) o;
+            if (!(cell.getRowKey() instanceof Bytes && cell.getColumnKey() instanceof Bytes)) {
+                continue;
+            }
+            String rowAsString = keyCodec.encode((Bytes) cell.getRowKey());
+            String columnAsString = keyCodec.encode((Bytes) cell.getColumnKey());
+            partitionOf(entitiesByPartition, rowAsString).put(columnAsString, anyVersionOf(rowAsString, columnAsString));
+        }
+        return removeEntities(Iterables.concat(Iterables.transform(entitiesByPartition.values(), PARTITION_ENTITIES)));
+    }
+
+    private static Map<String, AzureEntity> partitionOf(Map<String, Map<String, AzureEntity>> entitiesByPartition, String partitionKey) {
+        Map<String, AzureEntity> partition = entitiesByPartition.get(partitionKey);
+        if (partition == null) {
+            partition = Maps.newLinkedHashMap();
+            entitiesByPartition.put(partitionKey, partition);
+        }
+        return partition;
+    }
+
+    private Deletion deleteInBatch(List<AzureEntity> batch) throws StorageException {
+        try {
+            azureTableCloudClient.execute(tableName, azureTableRequestFactory.deleteBatch(batch));
+            return new Deletion(batch, Collections.<AzureEntity>emptyList());
+        } catch (StorageException e) {
+            if (!(notFound(e) || preconditionFailed(e))) {
+                throw e;
+            }
+            if (batch.size() == 1) {
+                return notFound(e)
+                        ? new Deletion(Collections.<AzureEntity>emptyList(), batch)
+                        : new Deletion(Collections.<AzureEntity>emptyList(), Collections.<AzureEntity>emptyList());
+            }
+        }
+
+        // a batch fails as a whole when one of its entities is gone or has changed, so delete the rest one by one
+        List<AzureEntity> deleted = Lists.newArrayList();
+        List<AzureEntity> notFound = Lists.newArrayList();
+        for (AzureEntity entity : batch) {
+            try {
+                azureTableCloudClient.execute(tableName, azureTableRequestFactory.delete(entity));
+                deleted.add(entity);
+            } catch (StorageException e) {
+                if (notFound(e)) {
+                    notFound.add(entity);
+                } else if (!preconditionFailed(e)) {
+                    throw e;
+                }
+            }
+        }
+        return new Deletion(deleted, notFound);
+    }
+
+    private boolean deleteEntity(AzureEntity entity) throws StorageException {
+        try {
+            azureTableCloudClient.execute(tableName, azureTableRequestFactory.delete(entity));
+            return true;
+        } catch (StorageException e) {
+            if (notFound(e) || preconditionFailed(e)) {
+                return false;
+            }
+            throw e;
         }
     }
 
@@ -172,7 +1121,9 @@ public class BaseAzureTable implements Table<Bytes, Bytes, Bytes> {
         TableOperation deleteStringieOperation = azureTableRequestFactory.delete(entityToBeDeleted);
 
         try {
-            return entityToValue(azureTableCloudClient.execute(tableName, deleteStringieOperation));
+            Bytes removedValue = entityToValue(azureTableCloudClient.execute(tableName, deleteStringieOperation));
+            removeFromColumnIndex(entityToBeDeleted.getPartitionKey(), entityToBeDeleted.getRowKey());
+            return removedValue;
         } catch (StorageException e) {
             if (notFound(e)) {
                 return null;
@@ -181,45 +1132,73 @@ public class BaseAzureTable implements Table<Bytes, Bytes, Bytes> {
         }
     }
 
+    /**
+     * For a table built with {@link Builder#withOrderPreservingKeys()}, the returned map is the {@link SortedMap}
+     * returned by {@link #sortedRow(Bytes)}.
+     */
     @Override
     public Map<Bytes, Bytes> row(Bytes row) {
         checkNotNull(row);
-        return new ColumnView(this, row, azureTableCloudClient, azureTableRequestFactory);
+        if (keyCodec.isOrderPreserving()) {
+            return sortedRow(row);
+        }
+        return new ColumnView(this, row, azureTableCloudClient, azureTableRequestFactory, keyCodec);
+    }
+
+    /**
+     * Returns the columns of the row ordered by their unsigned bytes. The maps returned by subMap, headMap and tailMap
+     * only query their range of columns, so reading a slice of a wide row does not scan the whole row.
+     * firstKey is answered from the first page of the range, lastKey reads the keys of the whole range.
+     *
+     * @throws IllegalStateException if the table was not built with {@link Builder#withOrderPreservingKeys()}
+     */
+    public SortedMap<Bytes, Bytes> sortedRow(Bytes row) {
+        checkNotNull(row);
+        checkState(keyCodec.isOrderPreserving(), "sorted rows require a table built with order preserving keys");
+        return new SortedColumnView(this, row, azureTableCloudClient, azureTableRequestFactory, keyCodec);
     }
 
     @Override
     public Map<Bytes, Bytes> column(Bytes column) {
         checkNotNull(column);
-        return new RowView(this, column, azureTableCloudClient, azureTableRequestFactory);
+        return new RowView(this, column, azureTableCloudClient, azureTableRequestFactory, keyCodec);
     }
 
     @Override
     public Set<Cell<Bytes, Bytes, Bytes>> cellSet() {
-        return new CellSetMutableView(this, azureTableCloudClient, azureTableRequestFactory);
+        return new CellSetMutableView(this, tableScanner, keyCodec);
     }
 
     @Override
     public Set<Bytes> rowKeySet() {
-        return SetView.fromCollectionView(
-                new TableCollectionView<>(this, ROW_KEY_EXTRACTOR, azureTableCloudClient, azureTableRequestFactory)
+        return SetView.fromGroupedCollectionView(
+                new TableKeyCollectionView(EntityResolvers.rowKeys(keyCodec), tableScanner)
         );
     }
 
     @Override
     public Set<Bytes> columnKeySet() {
         return SetView.fromCollectionView(
-                new TableCollectionView<>(this, COLUMN_KEY_EXTRACTOR, azureTableCloudClient, azureTableRequestFactory)
+                new TableKeyCollectionView(EntityResolvers.columnKeys(keyCodec), tableScanner),
+                distinctMemoryBudgetInBytes
         );
     }
 
     @Override
     public Collection<Bytes> values() {
-        return new TableCollectionView<>(this, EXTRACT_VALUE, azureTableCloudClient, azureTableRequestFactory);
+        return new TableCollectionView<>(EntityResolvers.VALUE, false, tableScanner);
     }
 
+    /**
+     * The values and entries of the returned map are read with a single scan of the table. Each row holds the cells
+     * that were scanned, except for rows of more than 1000 cells, whose first iteration goes on with the scan, as long
+     * as the scan has not moved on to the next row, and which are read again otherwise.
+     */
     @Override
     public Map<Bytes, Map<Bytes, Bytes>> rowMap() {
-        return new RowMapView(this);
+        Iterable<Map.Entry<Bytes, Map<Bytes, Bytes>>> scannedRows =
+                new ScannedRows(this, tableScanner.entities(), keyCodec, ScannedRows.DEFAULT_MAX_CELLS_PER_ROW);
+        return new RowMapView<>(this, Optional.of(scannedRows));
     }
 
     @Override
@@ -231,22 +1210,212 @@ public class BaseAzureTable implements Table<Bytes, Bytes, Bytes> {
         return tableName;
     }
 
-    private static final class TableCollectionView<E> extends AbstractCollectionView<E> {
-        private final BaseAzureTable baseAzureTable;
-        private final AzureTableCloudClient azureTableCloudClient;
-        private final AzureTableRequestFactory azureTableRequestFactory;
+    /**
+     * The entities of a batch which were deleted, and the ones which were already gone. Entities which changed since
+     * they were read are in neither.
+     */
+    private static final class Deletion {
+        private final List<AzureEntity> deleted;
+        private final List<AzureEntity> notFound;
+
+        private Deletion(List<AzureEntity> deleted, List<AzureEntity> notFound) {
+            this.deleted = deleted;
+            this.notFound = notFound;
+        }
+    }
+
+    /**
+     * Results of scans of the table, which are resolved straight to the elements of the collection.
+     */
+    private static class TableCollectionView<E> extends AbstractCollection<E> implements LimitableView<E> {
+        private final EntityResolver<E> resolver;
+        private final boolean keysOnly;
+        private final TableScanner tableScanner;
 
-        public TableCollectionView(BaseAzureTable baseAzureTable, Function<AzureEntity, E> typeExtractor, AzureTableCloudClient azureTableCloudClient, AzureTableRequestFactory azureTableRequestFactory) {
-            super(typeExtractor);
-            this.baseAzureTable = baseAzureTable;
-            this.azureTableCloudClient = azureTableCloudClient;
-            this.azureTableRequestFactory = azureTableRequestFactory;
+        TableCollectionView(EntityResolver<E> resolver, boolean keysOnly, TableScanner tableScanner) {
+            this.resolver = resolver;
+            this.keysOnly = keysOnly;
+            this.tableScanner = tableScanner;
         }
 
         @Override
-        protected Iterable<AzureEntity> getBackingIterable() {
-            TableQuery<AzureEntity> query = azureTableRequestFactory.selectAll(baseAzureTable.getTableName());
-            return azureTableCloudClient.execute(query);
+        public int size() {
+            return tableScanner.count();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return tableScanner.isEmpty();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return o != null && Iterables.contains(tableScanner.scan(resolver, keysOnly), o);
+        }
+
+        @SuppressWarnings("NullableProblems")
+        @Override
+        public Iterator<E> iterator() {
+            return tableScanner.scan(resolver, keysOnly).iterator();
+        }
+
+        @Override
+        public Iterable<E> limit(int limit) {
+            return tableScanner.scan(resolver, keysOnly, limit);
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean removeAll(Collection<?> c) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean retainAll(Collection<?> c) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void clear() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    // keys are read with key scans, which do not transfer the values
+    private static final class TableKeyCollectionView extends TableCollectionView<Bytes> {
+        TableKeyCollectionView(EntityResolver<Bytes> keyResolver, TableScanner tableScanner) {
+            super(keyResolver, true, tableScanner);
+        }
+    }
+
+    /**
+     * Receives the cells of {@link #forEachCell(CellSink)}.
+     */
+    public interface CellSink {
+        void accept(Cell<Bytes, Bytes, Bytes> cell);
+    }
+
+    public static class Builder {
+        private final String tableName;
+        private final CloudTableClient cloudTableClient;
+        private ListeningExecutorService batchExecutor = MoreExecutors.sameThreadExecutor();
+        private long distinctMemoryBudgetInBytes = DEFAULT_DISTINCT_MEMORY_BUDGET_IN_BYTES;
+        private ListeningExecutorService scanExecutor = MoreExecutors.sameThreadExecutor();
+        private int scanRanges = 1;
+        private ValueFormat valueFormat = ValueFormat.BASE64_STRING;
+        private KeyCodec keyCodec = KeyCodec.BASE64;
+        private Optional<String> valueIndexTableName = Optional.absent();
+        private Optional<String> columnIndexTableName = Optional.absent();
+
+        private Builder(String tableName, CloudTableClient cloudTableClient) {
+            this.tableName = tableName;
+            this.cloudTableClient = cloudTableClient;
+        }
+
+        /**
+         * See {@link BaseAzureTable#create(String, CloudTableClient, ExecutorService)}.
+         */
+        public Builder withBatchExecutor(ExecutorService batchExecutor) {
+            this.batchExecutor = MoreExecutors.listeningDecorator(checkNotNull(batchExecutor));
+            return this;
+        }
+
+        /**
+         * Bounds the heap used to skip duplicates while iterating {@link BaseAzureTable#columnKeySet()}, which has to
+         * remember every column seen so far. Beyond the budget, seen columns are spilled to temporary files, which are
+         * deleted at the end of the iteration. Iterators which are abandoned before that implement {@link java.io.Closeable},
+         * closing them deletes their files.
+         */
+        public Builder withDistinctMemoryBudget(long memoryBudgetInBytes) {
+            checkArgument(memoryBudgetInBytes > 0, "memory budget has to be positive");
+            distinctMemoryBudgetInBytes = memoryBudgetInBytes;
+            return this;
+        }
+
+        /**
+         * Splits full table scans into the given number of partition key ranges, at most 64, which are queried
+         * concurrently on the executor. The executor is not shut down by the table.
+         */
+        public Builder withParallelScan(ExecutorService scanExecutor, int ranges) {
+            checkArgument(ranges > 0 && ranges <= PartitionRange.MAX_RANGES, "ranges has to be between 1 and %s", PartitionRange.MAX_RANGES);
+            this.scanExecutor = MoreExecutors.listeningDecorator(checkNotNull(scanExecutor));
+            scanRanges = ranges;
+            return this;
+        }
+
+        /**
+         * Writes values as Edm.Binary properties instead of base64 encoded strings, which allows for values of up to 64KB.
+         * Values written either way are read, but readers older than this option only understand string values.
+         */
+        public Builder withBinaryValues() {
+            valueFormat = ValueFormat.BINARY;
+            return this;
+        }
+
+        /**
+         * Encodes keys so that the service orders them like their unsigned bytes, which makes {@link BaseAzureTable#sortedRow(Bytes)}
+         * available. The encoding differs from the default base64 one, so it cannot be switched on for a table which already has data.
+         */
+        public Builder withOrderPreservingKeys() {
+            keyCodec = KeyCodec.ORDER_PRESERVING;
+            return this;
+        }
+
+        /**
+         * Keeps an index from values to cells in the given table, which has to exist, so that {@link BaseAzureTable#containsValue(Object)}
+         * and {@link BaseAzureTable#findByValue(Bytes)} are partition queries instead of table scans. Every write also writes
+         * an index entry. Entries of overwritten and deleted cells are dropped lazily, when lookups come across them, once
+         * they are older than ten times the request timeout of the client, and at least five minutes, so that the write
+         * of a cell does not land after its entry was dropped. The retry policy of the client should give up on a write
+         * before that. For a table which already has data, see {@link BaseAzureTable#rebuildValueIndex()}.
+         */
+        public Builder withValueIndex(String indexTableName) {
+            valueIndexTableName = Optional.of(checkNotNull(indexTableName));
+            return this;
+        }
+
+        /**
+         * Keeps the keys of the table in the given table, which has to exist, transposed so that the cells of a column
+         * share a partition. {@link BaseAzureTable#column(Bytes)} then lists the rows of the column with a partition query
+         * of the index instead of scanning every partition of the table, and reads their cells from the table, also for
+         * its keys and size, so that entries whose cell is gone are neither listed nor counted. Every write and delete
+         * also updates the index once the table was updated. A write which fails half way, or a put racing with a delete
+         * of the same cell, can leave a cell out of the index, and writes made without the index are not in it either,
+         * see {@link BaseAzureTable#rebuildColumnIndex()}.
+         */
+        public Builder withColumnIndex(String indexTableName) {
+            columnIndexTableName = Optional.of(checkNotNull(indexTableName));
+            return this;
+        }
+
+        public BaseAzureTable build() {
+            return build(new AzureTableCloudClient(cloudTableClient));
+        }
+
+        // internal and benchmark use only, e.g. with a client which does not talk to the service
+        BaseAzureTable build(AzureTableCloudClient azureTableCloudClient) {
+            AzureTableRequestFactory azureTableRequestFactory = new AzureTableRequestFactory();
+            return new BaseAzureTable(
+                    tableName,
+                    azureTableCloudClient,
+                    azureTableRequestFactory,
+                    batchExecutor,
+                    distinctMemoryBudgetInBytes,
+                    new TableScanner(tableName, azureTableCloudClient, azureTableRequestFactory, scanExecutor, scanRanges, keyCodec),
+                    valueFormat,
+                    keyCodec,
+                    valueIndexTableName.isPresent()
+                            ? Optional.of(new ValueIndex(valueIndexTableName.get(), azureTableCloudClient, azureTableRequestFactory, keyCodec,
+                                    ValueIndex.gracePeriodInMillis(cloudTableClient.getTimeoutInMs())))
+                            : Optional.<ValueIndex>absent(),
+                    columnIndexTableName.isPresent()
+                            ? Optional.of(new ColumnIndex(columnIndexTableName.get(), azureTableCloudClient, azureTableRequestFactory))
+                            : Optional.<ColumnIndex>absent()
+            );
         }
     }
 }
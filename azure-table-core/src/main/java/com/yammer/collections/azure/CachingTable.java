@@ -0,0 +1,878 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.azure;
+
+import com.google.common.base.Function;
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.Collections2;
+import com.google.common.collect.ForwardingCollection;
+import com.google.common.collect.ForwardingIterator;
+import com.google.common.collect.ForwardingMap;
+import com.google.common.collect.ForwardingMapEntry;
+import com.google.common.collect.ForwardingSet;
+import com.google.common.collect.ForwardingTable;
+import com.google.common.collect.Table;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Caches the values read by get and contains, including the absence of a value, for at most the given time.
+ * The cache is bounded by the approximate size of the cached keys and values in bytes and evicts the least recently
+ * used entries first.
+ * <p/>
+ * Writes through this table, its rows and columns, its row and column maps, the views of all of them and its cell set
+ * invalidate the affected entries.
+ * A read which runs concurrently with a write of the same cell does not cache what it read, as it may have missed the
+ * write. Writes through other views, other instances or other processes are only seen once the entries expire.
+ */
+@SuppressWarnings("ClassWithTooManyMethods")
+public class CachingTable extends ForwardingTable<Bytes, Bytes, Bytes> {
+    // rough heap footprint of a cache entry, its key and the wrappers around the byte arrays
+    private static final int ENTRY_OVERHEAD_IN_BYTES = 160;
+    private static final int GENERATION_STRIPES = 64;
+    private static final Weigher<CellKey, Optional<Bytes>> CELL_WEIGHER = new Weigher<CellKey, Optional<Bytes>>() {
+        @Override
+        public int weigh(CellKey key, Optional<Bytes> value) {
+            return ENTRY_OVERHEAD_IN_BYTES
+                    + key.row.getBytes().length
+                    + key.column.getBytes().length
+                    + (value.isPresent() ? value.get().getBytes().length : 0);
+        }
+    };
+    private final Table<Bytes, Bytes, Bytes> backingTable;
+    private final Cache<CellKey, Optional<Bytes>> cache;
+    // every invalidation bumps the generation of the cell's stripe, guarded by the stripe's lock
+    private final Object[] stripeLocks;
+    private final long[] generations;
+
+    private CachingTable(Table<Bytes, Bytes, Bytes> backingTable, long maximumSizeInBytes, long expireAfterWrite, TimeUnit unit) {
+        this.backingTable = backingTable;
+        cache = CacheBuilder.newBuilder()
+                .maximumWeight(maximumSizeInBytes)
+                .weigher(CELL_WEIGHER)
+                .expireAfterWrite(expireAfterWrite, unit)
+                .build();
+        stripeLocks = new Object[GENERATION_STRIPES];
+        for (int i = 0; i < GENERATION_STRIPES; i++) {
+            stripeLocks[i] = new Object();
+        }
+        generations = new long[GENERATION_STRIPES];
+    }
+
+    public static CachingTable create(Table<Bytes, Bytes, Bytes> backingTable, long maximumSizeInBytes, long expireAfterWrite, TimeUnit unit) {
+        checkArgument(maximumSizeInBytes > 0, "maximumSizeInBytes has to be positive");
+        checkArgument(expireAfterWrite > 0, "expireAfterWrite has to be positive");
+        return new CachingTable(checkNotNull(backingTable), maximumSizeInBytes, expireAfterWrite, checkNotNull(unit));
+    }
+
+    private static int stripeOf(CellKey key) {
+        return (key.hashCode() & Integer.MAX_VALUE) % GENERATION_STRIPES;
+    }
+
+    @Override
+    protected Table<Bytes, Bytes, Bytes> delegate() {
+        return backingTable;
+    }
+
+    @Override
+    public Bytes get(Object row, Object column) {
+        if (!(row instanceof Bytes && column instanceof Bytes)) {
+            return null;
+        }
+
+        CellKey key = new CellKey((Bytes) row, (Bytes) column);
+        Optional<Bytes> cached = cache.getIfPresent(key);
+        if (cached != null) {
+            return cached.orNull();
+        }
+
+        int stripe = stripeOf(key);
+        long generation;
+        synchronized (stripeLocks[stripe]) {
+            generation = generations[stripe];
+        }
+        Optional<Bytes> loaded = Optional.fromNullable(backingTable.get(row, column));
+        synchronized (stripeLocks[stripe]) {
+            // otherwise a write went through while the cell was read, which the read may have missed
+            if (generations[stripe] == generation) {
+                cache.put(key, loaded);
+            }
+        }
+        return loaded.orNull();
+    }
+
+    @Override
+    public boolean contains(Object row, Object column) {
+        return get(row, column) != null;
+    }
+
+    @Override
+    public Bytes put(Bytes row, Bytes column, Bytes value) {
+        try {
+            return backingTable.put(row, column, value);
+        } finally {
+            invalidate(row, column);
+        }
+    }
+
+    @Override
+    public void putAll(Table<? extends Bytes, ? extends Bytes, ? extends Bytes> table) {
+        try {
+            backingTable.putAll(table);
+        } finally {
+            for (Cell<? extends Bytes, ? extends Bytes, ? extends Bytes> cell : table.cellSet()) {
+                invalidate(cell.getRowKey(), cell.getColumnKey());
+            }
+        }
+    }
+
+    @Override
+    public Bytes remove(Object row, Object column) {
+        try {
+            return backingTable.remove(row, column);
+        } finally {
+            invalidate(row, column);
+        }
+    }
+
+    @Override
+    public void clear() {
+        try {
+            backingTable.clear();
+        } finally {
+            invalidateAllCells();
+        }
+    }
+
+    @Override
+    public Set<Cell<Bytes, Bytes, Bytes>> cellSet() {
+        return new InvalidatingCellSet(backingTable.cellSet());
+    }
+
+    @Override
+    public Map<Bytes, Bytes> row(Bytes row) {
+        return cachingRow(row, backingTable.row(row));
+    }
+
+    @Override
+    public Map<Bytes, Bytes> column(Bytes column) {
+        return cachingColumn(column, backingTable.column(column));
+    }
+
+    @Override
+    public Map<Bytes, Map<Bytes, Bytes>> rowMap() {
+        return new CachingMapOfMaps(backingTable.rowMap()) {
+            @Override
+            protected Map<Bytes, Bytes> wrap(Bytes row, Map<Bytes, Bytes> backingRow) {
+                return cachingRow(row, backingRow);
+            }
+
+            @Override
+            protected CellKey cellOf(Bytes row, Bytes column) {
+                return new CellKey(row, column);
+            }
+        };
+    }
+
+    @Override
+    public Map<Bytes, Map<Bytes, Bytes>> columnMap() {
+        return new CachingMapOfMaps(backingTable.columnMap()) {
+            @Override
+            protected Map<Bytes, Bytes> wrap(Bytes column, Map<Bytes, Bytes> backingColumn) {
+                return cachingColumn(column, backingColumn);
+            }
+
+            @Override
+            protected CellKey cellOf(Bytes column, Bytes row) {
+                return new CellKey(row, column);
+            }
+        };
+    }
+
+    private Map<Bytes, Bytes> cachingRow(final Bytes row, Map<Bytes, Bytes> backingRow) {
+        return new CachingMap(backingRow) {
+            @Override
+            protected CellKey cellOf(Bytes column) {
+                return new CellKey(row, column);
+            }
+        };
+    }
+
+    private Map<Bytes, Bytes> cachingColumn(final Bytes column, Map<Bytes, Bytes> backingColumn) {
+        return new CachingMap(backingColumn) {
+            @Override
+            protected CellKey cellOf(Bytes row) {
+                return new CellKey(row, column);
+            }
+        };
+    }
+
+    // called once the write went through, so that reads which started before it do not cache what they read
+    private void invalidate(Object row, Object column) {
+        if (row instanceof Bytes && column instanceof Bytes) {
+            invalidate(new CellKey((Bytes) row, (Bytes) column));
+        }
+    }
+
+    private void invalidate(CellKey key) {
+        int stripe = stripeOf(key);
+        synchronized (stripeLocks[stripe]) {
+            generations[stripe]++;
+            cache.invalidate(key);
+        }
+    }
+
+    private void invalidateAll(Collection<?> cells) {
+        for (Object o : cells) {
+            if (o instanceof Cell) {
+                Cell<?, ?, ?> cell = (Cell<?, ?, ?>) o;
+                invalidate(cell.getRowKey(), cell.getColumnKey());
+            }
+        }
+    }
+
+    private void invalidateAllCells() {
+        for (int stripe = 0; stripe < GENERATION_STRIPES; stripe++) {
+            synchronized (stripeLocks[stripe]) {
+                generations[stripe]++;
+            }
+        }
+        cache.invalidateAll();
+    }
+
+    private static final class CellKey {
+        private final Bytes row;
+        private final Bytes column;
+
+        private CellKey(Bytes row, Bytes column) {
+            this.row = row;
+            this.column = column;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            CellKey cellKey = (CellKey) o;
+
+            return row.equals(cellKey.row) && column.equals(cellKey.column);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(row, column);
+        }
+    }
+
+    private final class InvalidatingCellSet extends ForwardingSet<Cell<Bytes, Bytes, Bytes>> {
+        private final Set<Cell<Bytes, Bytes, Bytes>> backingSet;
+
+        private InvalidatingCellSet(Set<Cell<Bytes, Bytes, Bytes>> backingSet) {
+            this.backingSet = backingSet;
+        }
+
+        @Override
+        protected Set<Cell<Bytes, Bytes, Bytes>> delegate() {
+            return backingSet;
+        }
+
+        @Override
+        public boolean add(Cell<Bytes, Bytes, Bytes> cell) {
+            try {
+                return backingSet.add(cell);
+            } finally {
+                invalidate(cell.getRowKey(), cell.getColumnKey());
+            }
+        }
+
+        @Override
+        public boolean addAll(Collection<? extends Cell<Bytes, Bytes, Bytes>> cells) {
+            try {
+                return backingSet.addAll(cells);
+            } finally {
+                invalidateAll(cells);
+            }
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            try {
+                return backingSet.remove(o);
+            } finally {
+                invalidateAll(Collections.singleton(o));
+            }
+        }
+
+        @Override
+        public boolean removeAll(Collection<?> cells) {
+            try {
+                return backingSet.removeAll(cells);
+            } finally {
+                invalidateAll(cells);
+            }
+        }
+
+        @Override
+        public boolean retainAll(Collection<?> cells) {
+            try {
+                return backingSet.retainAll(cells);
+            } finally {
+                invalidateAllCells();
+            }
+        }
+
+        @Override
+        public void clear() {
+            try {
+                backingSet.clear();
+            } finally {
+                invalidateAllCells();
+            }
+        }
+    }
+
+    /**
+     * The rows or the columns of the table, see {@link #rowMap()} and {@link #columnMap()}, handed out as
+     * {@link CachingMap}s. Puts invalidate the cells they write, and so does putAll, while removals of whole rows or
+     * columns and puts which replace them, whose cells are not known, invalidate the whole cache.
+     */
+    private abstract class CachingMapOfMaps extends ForwardingMap<Bytes, Map<Bytes, Bytes>> {
+        private final Map<Bytes, Map<Bytes, Bytes>> backingMap;
+
+        private CachingMapOfMaps(Map<Bytes, Map<Bytes, Bytes>> backingMap) {
+            this.backingMap = backingMap;
+        }
+
+        protected abstract Map<Bytes, Bytes> wrap(Bytes key, Map<Bytes, Bytes> backingValue);
+
+        protected abstract CellKey cellOf(Bytes key, Bytes valueKey);
+
+        @Override
+        protected Map<Bytes, Map<Bytes, Bytes>> delegate() {
+            return backingMap;
+        }
+
+        private Map<Bytes, Bytes> wrapIfPresent(Object key, Map<Bytes, Bytes> backingValue) {
+            return backingValue == null || !(key instanceof Bytes) ? backingValue : wrap((Bytes) key, backingValue);
+        }
+
+        @Override
+        public Map<Bytes, Bytes> get(Object key) {
+            return wrapIfPresent(key, backingMap.get(key));
+        }
+
+        @Override
+        public Map<Bytes, Bytes> put(Bytes key, Map<Bytes, Bytes> value) {
+            try {
+                return wrapIfPresent(key, backingMap.put(key, value));
+            } finally {
+                invalidateAllCells();
+            }
+        }
+
+        @Override
+        public void putAll(Map<? extends Bytes, ? extends Map<Bytes, Bytes>> map) {
+            try {
+                backingMap.putAll(map);
+            } finally {
+                for (Entry<? extends Bytes, ? extends Map<Bytes, Bytes>> entry : map.entrySet()) {
+                    for (Bytes valueKey : entry.getValue().keySet()) {
+                        invalidate(cellOf(entry.getKey(), valueKey));
+                    }
+                }
+            }
+        }
+
+        @Override
+        public Map<Bytes, Bytes> remove(Object key) {
+            try {
+                return wrapIfPresent(key, backingMap.remove(key));
+            } finally {
+                invalidateAllCells();
+            }
+        }
+
+        @Override
+        public void clear() {
+            try {
+                backingMap.clear();
+            } finally {
+                invalidateAllCells();
+            }
+        }
+
+        @Override
+        public Set<Bytes> keySet() {
+            return new InvalidatingSet<>(backingMap.keySet());
+        }
+
+        @Override
+        public Collection<Map<Bytes, Bytes>> values() {
+            return Collections2.transform(entrySet(), new Function<Entry<Bytes, Map<Bytes, Bytes>>, Map<Bytes, Bytes>>() {
+                @Override
+                public Map<Bytes, Bytes> apply(Entry<Bytes, Map<Bytes, Bytes>> entry) {
+                    return entry.getValue();
+                }
+            });
+        }
+
+        @Override
+        public Set<Entry<Bytes, Map<Bytes, Bytes>>> entrySet() {
+            return new InvalidatingSet<Entry<Bytes, Map<Bytes, Bytes>>>(backingMap.entrySet()) {
+                @Override
+                protected Entry<Bytes, Map<Bytes, Bytes>> wrap(final Entry<Bytes, Map<Bytes, Bytes>> backingEntry) {
+                    return new ForwardingMapEntry<Bytes, Map<Bytes, Bytes>>() {
+                        @Override
+                        protected Entry<Bytes, Map<Bytes, Bytes>> delegate() {
+                            return backingEntry;
+                        }
+
+                        @Override
+                        public Map<Bytes, Bytes> getValue() {
+                            return wrapIfPresent(backingEntry.getKey(), backingEntry.getValue());
+                        }
+
+                        @Override
+                        public Map<Bytes, Bytes> setValue(Map<Bytes, Bytes> value) {
+                            try {
+                                return wrapIfPresent(backingEntry.getKey(), backingEntry.setValue(value));
+                            } finally {
+                                invalidateAllCells();
+                            }
+                        }
+                    };
+                }
+            };
+        }
+    }
+
+    /**
+     * Keys or entries of {@link CachingMapOfMaps}, whose removals delete whole rows or columns and hence invalidate the
+     * whole cache. Elements are handed out through {@link #wrap(Object)}, also by toArray.
+     */
+    private class InvalidatingSet<E> extends ForwardingSet<E> {
+        private final Set<E> backingSet;
+
+        private InvalidatingSet(Set<E> backingSet) {
+            this.backingSet = backingSet;
+        }
+
+        protected E wrap(E backingElement) {
+            return backingElement;
+        }
+
+        @Override
+        protected Set<E> delegate() {
+            return backingSet;
+        }
+
+        @Override
+        public Iterator<E> iterator() {
+            final Iterator<E> elements = backingSet.iterator();
+            return new ForwardingIterator<E>() {
+                @Override
+                protected Iterator<E> delegate() {
+                    return elements;
+                }
+
+                @Override
+                public E next() {
+                    return wrap(elements.next());
+                }
+
+                @Override
+                public void remove() {
+                    try {
+                        elements.remove();
+                    } finally {
+                        invalidateAllCells();
+                    }
+                }
+            };
+        }
+
+        @Override
+        public Object[] toArray() {
+            return standardToArray();
+        }
+
+        @Override
+        public <T> T[] toArray(T[] array) {
+            return standardToArray(array);
+        }
+
+        @Override
+        public boolean remove(Object element) {
+            try {
+                return backingSet.remove(element);
+            } finally {
+                invalidateAllCells();
+            }
+        }
+
+        @Override
+        public boolean removeAll(Collection<?> elements) {
+            try {
+                return backingSet.removeAll(elements);
+            } finally {
+                invalidateAllCells();
+            }
+        }
+
+        @Override
+        public boolean retainAll(Collection<?> elements) {
+            try {
+                return backingSet.retainAll(elements);
+            } finally {
+                invalidateAllCells();
+            }
+        }
+
+        @Override
+        public void clear() {
+            try {
+                backingSet.clear();
+            } finally {
+                invalidateAllCells();
+            }
+        }
+    }
+
+    /**
+     * A row or a column of the table. Single cell reads go through the cache, writes through the map, its views and
+     * its entries invalidate the cells they write, and writes whose cells are not known, such as clear or removals of
+     * values, invalidate the whole cache.
+     */
+    private abstract class CachingMap extends ForwardingMap<Bytes, Bytes> {
+        private final Map<Bytes, Bytes> backingMap;
+
+        private CachingMap(Map<Bytes, Bytes> backingMap) {
+            this.backingMap = backingMap;
+        }
+
+        protected abstract CellKey cellOf(Bytes key);
+
+        @Override
+        protected Map<Bytes, Bytes> delegate() {
+            return backingMap;
+        }
+
+        private void invalidateKey(Object key) {
+            if (key instanceof Bytes) {
+                invalidate(cellOf((Bytes) key));
+            }
+        }
+
+        private void invalidateKeys(Collection<?> keys) {
+            for (Object key : keys) {
+                invalidateKey(key);
+            }
+        }
+
+        @Override
+        public Bytes get(Object key) {
+            if (!(key instanceof Bytes)) {
+                return null;
+            }
+            CellKey cell = cellOf((Bytes) key);
+            return CachingTable.this.get(cell.row, cell.column);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public Bytes put(Bytes key, Bytes value) {
+            try {
+                return backingMap.put(key, value);
+            } finally {
+                invalidateKey(key);
+            }
+        }
+
+        @Override
+        public void putAll(Map<? extends Bytes, ? extends Bytes> map) {
+            try {
+                backingMap.putAll(map);
+            } finally {
+                invalidateKeys(map.keySet());
+            }
+        }
+
+        @Override
+        public Bytes remove(Object key) {
+            try {
+                return backingMap.remove(key);
+            } finally {
+                invalidateKey(key);
+            }
+        }
+
+        @Override
+        public void clear() {
+            try {
+                backingMap.clear();
+            } finally {
+                invalidateAllCells();
+            }
+        }
+
+        @Override
+        public Set<Bytes> keySet() {
+            return new ForwardingSet<Bytes>() {
+                @Override
+                protected Set<Bytes> delegate() {
+                    return backingMap.keySet();
+                }
+
+                @Override
+                public Iterator<Bytes> iterator() {
+                    final Iterator<Bytes> keys = backingMap.keySet().iterator();
+                    return new ForwardingIterator<Bytes>() {
+                        private Bytes last;
+
+                        @Override
+                        protected Iterator<Bytes> delegate() {
+                            return keys;
+                        }
+
+                        @Override
+                        public Bytes next() {
+                            last = keys.next();
+                            return last;
+                        }
+
+                        @Override
+                        public void remove() {
+                            try {
+                                keys.remove();
+                            } finally {
+                                invalidateKey(last);
+                            }
+                        }
+                    };
+                }
+
+                @Override
+                public boolean remove(Object key) {
+                    try {
+                        return backingMap.keySet().remove(key);
+                    } finally {
+                        invalidateKey(key);
+                    }
+                }
+
+                @Override
+                public boolean removeAll(Collection<?> keys) {
+                    try {
+                        return backingMap.keySet().removeAll(keys);
+                    } finally {
+                        invalidateKeys(keys);
+                    }
+                }
+
+                @Override
+                public boolean retainAll(Collection<?> keys) {
+                    try {
+                        return backingMap.keySet().retainAll(keys);
+                    } finally {
+                        invalidateAllCells();
+                    }
+                }
+
+                @Override
+                public void clear() {
+                    CachingMap.this.clear();
+                }
+            };
+        }
+
+        @Override
+        public Collection<Bytes> values() {
+            return new ForwardingCollection<Bytes>() {
+                @Override
+                protected Collection<Bytes> delegate() {
+                    return backingMap.values();
+                }
+
+                @Override
+                public Iterator<Bytes> iterator() {
+                    final Iterator<Bytes> values = backingMap.values().iterator();
+                    return new ForwardingIterator<Bytes>() {
+                        @Override
+                        protected Iterator<Bytes> delegate() {
+                            return values;
+                        }
+
+                        @Override
+                        public void remove() {
+                            try {
+                                values.remove();
+                            } finally {
+                                invalidateAllCells();
+                            }
+                        }
+                    };
+                }
+
+                @Override
+                public boolean remove(Object value) {
+                    try {
+                        return backingMap.values().remove(value);
+                    } finally {
+                        invalidateAllCells();
+                    }
+                }
+
+                @Override
+                public boolean removeAll(Collection<?> values) {
+                    try {
+                        return backingMap.values().removeAll(values);
+                    } finally {
+                        invalidateAllCells();
+                    }
+                }
+
+                @Override
+                public boolean retainAll(Collection<?> values) {
+                    try {
+                        return backingMap.values().retainAll(values);
+                    } finally {
+                        invalidateAllCells();
+                    }
+                }
+
+                @Override
+                public void clear() {
+                    CachingMap.this.clear();
+                }
+            };
+        }
+
+        @Override
+        public Set<Entry<Bytes, Bytes>> entrySet() {
+            return new ForwardingSet<Entry<Bytes, Bytes>>() {
+                @Override
+                protected Set<Entry<Bytes, Bytes>> delegate() {
+                    return backingMap.entrySet();
+                }
+
+                @Override
+                public Iterator<Entry<Bytes, Bytes>> iterator() {
+                    final Iterator<Entry<Bytes, Bytes>> entries = backingMap.entrySet().iterator();
+                    return new ForwardingIterator<Entry<Bytes, Bytes>>() {
+                        private Entry<Bytes, Bytes> last;
+
+                        @Override
+                        protected Iterator<Entry<Bytes, Bytes>> delegate() {
+                            return entries;
+                        }
+
+                        @Override
+                        public Entry<Bytes, Bytes> next() {
+                            last = entries.next();
+                            return new InvalidatingEntry(last);
+                        }
+
+                        @Override
+                        public void remove() {
+                            try {
+                                entries.remove();
+                            } finally {
+                                invalidateKey(last.getKey());
+                            }
+                        }
+                    };
+                }
+
+                @Override
+                public boolean remove(Object entry) {
+                    try {
+                        return backingMap.entrySet().remove(entry);
+                    } finally {
+                        if (entry instanceof Entry) {
+                            invalidateKey(((Entry<?, ?>) entry).getKey());
+                        }
+                    }
+                }
+
+                @Override
+                public boolean removeAll(Collection<?> entries) {
+                    try {
+                        return backingMap.entrySet().removeAll(entries);
+                    } finally {
+                        for (Object entry : entries) {
+                            if (entry instanceof Entry) {
+                                invalidateKey(((Entry<?, ?>) entry).getKey());
+                            }
+                        }
+                    }
+                }
+
+                @Override
+                public boolean retainAll(Collection<?> entries) {
+                    try {
+                        return backingMap.entrySet().retainAll(entries);
+                    } finally {
+                        invalidateAllCells();
+                    }
+                }
+
+                @Override
+                public void clear() {
+                    CachingMap.this.clear();
+                }
+            };
+        }
+
+        private final class InvalidatingEntry extends ForwardingMapEntry<Bytes, Bytes> {
+            private final Entry<Bytes, Bytes> backingEntry;
+
+            private InvalidatingEntry(Entry<Bytes, Bytes> backingEntry) {
+                this.backingEntry = backingEntry;
+            }
+
+            @Override
+            protected Entry<Bytes, Bytes> delegate() {
+                return backingEntry;
+            }
+
+            @Override
+            public Bytes setValue(Bytes value) {
+                try {
+                    return backingEntry.setValue(value);
+                } finally {
+                    invalidateKey(backingEntry.getKey());
+                }
+            }
+        }
+    }
+}
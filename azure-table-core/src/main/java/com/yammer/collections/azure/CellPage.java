@@ -0,0 +1,49 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.azure;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Table;
+
+import java.util.List;
+
+/**
+ * A page of cells of a paged scan, see {@link BaseAzureTable#getPage(int, ContinuationToken)}.
+ */
+public final class CellPage {
+    private final List<Table.Cell<Bytes, Bytes, Bytes>> cells;
+    private final Optional<ContinuationToken> continuation;
+
+    CellPage(List<Table.Cell<Bytes, Bytes, Bytes>> cells, Optional<ContinuationToken> continuation) {
+        this.cells = cells;
+        this.continuation = continuation;
+    }
+
+    /**
+     * The service may return fewer cells than requested, or none at all, and still have more to return.
+     * Use {@link #getContinuation()} to tell whether the scan is complete.
+     */
+    public List<Table.Cell<Bytes, Bytes, Bytes>> getCells() {
+        return cells;
+    }
+
+    /**
+     * The position to resume the scan from, absent on the last page.
+     */
+    public Optional<ContinuationToken> getContinuation() {
+        return continuation;
+    }
+}
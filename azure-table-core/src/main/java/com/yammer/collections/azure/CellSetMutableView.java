@@ -16,54 +16,49 @@
 package com.yammer.collections.azure;
 
 
-import com.google.common.base.Function;
-import com.google.common.collect.Iterables;
 import com.google.common.collect.Table;
-import com.google.common.collect.Tables;
-import com.microsoft.windowsazure.services.table.client.TableQuery;
+import com.microsoft.windowsazure.services.table.client.EntityResolver;
 
 import java.util.AbstractSet;
 import java.util.Collection;
 import java.util.Iterator;
 
 import static com.google.common.base.Preconditions.checkNotNull;
-import static com.yammer.collections.azure.AzureEntityUtil.decode;
 
 /**
  * This class implements the set interface, however it does not enforce it as it only a view.
  */
 /* package */
-class CellSetMutableView extends AbstractSet<Table.Cell<Bytes, Bytes, Bytes>> {
-    private static final Function<AzureEntity, Table.Cell<Bytes, Bytes, Bytes>> TABLE_CELL_CREATOR =
-            new Function<AzureEntity, Table.Cell<Bytes, Bytes, Bytes>>() {
-                @Override
-                public Table.Cell<Bytes, Bytes, Bytes> apply(AzureEntity input) {
-                    return Tables.immutableCell(
-                            decode(input.getPartitionKey()),
-                            decode(input.getRowKey()),
-                            decode(input.getValue()));
-                }
-            };
+class CellSetMutableView extends AbstractSet<Table.Cell<Bytes, Bytes, Bytes>> implements LimitableView<Table.Cell<Bytes, Bytes, Bytes>> {
     private final BaseAzureTable baseAzureTable;
-    private final AzureTableCloudClient stringCloudTableClient;
-    private final AzureTableRequestFactory azureTableRequestFactory;
+    private final TableScanner tableScanner;
+    private final EntityResolver<Table.Cell<Bytes, Bytes, Bytes>> cellResolver;
 
     CellSetMutableView(BaseAzureTable azureTable,
                        AzureTableCloudClient stringCloudTableClient,
                        AzureTableRequestFactory azureTableRequestFactory) {
+        this(azureTable, new TableScanner(azureTable.getTableName(), stringCloudTableClient, azureTableRequestFactory), KeyCodec.BASE64);
+    }
+
+    CellSetMutableView(BaseAzureTable azureTable, TableScanner tableScanner, KeyCodec keyCodec) {
         baseAzureTable = azureTable;
-        this.stringCloudTableClient = stringCloudTableClient;
-        this.azureTableRequestFactory = azureTableRequestFactory;
+        this.tableScanner = tableScanner;
+        cellResolver = EntityResolvers.cells(keyCodec);
     }
 
     @Override
     public int size() {
-        return Iterables.size(getBackingIterable());
+        return tableScanner.count();
     }
 
     @Override
     public boolean isEmpty() {
-        return !iterator().hasNext();
+        return tableScanner.isEmpty();
+    }
+
+    @Override
+    public Iterable<Table.Cell<Bytes, Bytes, Bytes>> limit(int limit) {
+        return tableScanner.scan(cellResolver, false, limit);
     }
 
     @Override
@@ -76,17 +71,10 @@ class CellSetMutableView extends AbstractSet<Table.Cell<Bytes, Bytes, Bytes>> {
         return false;
     }
 
-    private Iterable<AzureEntity> getBackingIterable() {
-        TableQuery<AzureEntity> query = azureTableRequestFactory.selectAll(baseAzureTable.getTableName());
-        return stringCloudTableClient.execute(query);
-    }
-
     @SuppressWarnings("NullableProblems")
     @Override
     public Iterator<Table.Cell<Bytes, Bytes, Bytes>> iterator() {
-        return Iterables.transform(
-                getBackingIterable(),
-                TABLE_CELL_CREATOR).iterator();
+        return tableScanner.scan(cellResolver, false).iterator();
     }
 
     @Override
@@ -126,36 +114,27 @@ class CellSetMutableView extends AbstractSet<Table.Cell<Bytes, Bytes, Bytes>> {
         return true;
     }
 
+    /**
+     * The cells are written in batches, without reading the previous values first, hence this method
+     * returns true whenever the collection is not empty, even if the table already contained all of the given cells.
+     */
     @SuppressWarnings("NullableProblems")
     @Override
     public boolean addAll(Collection<? extends Table.Cell<Bytes, Bytes, Bytes>> c) {
         checkNotNull(c);
-        boolean change = false;
-        for (Table.Cell<Bytes, Bytes, Bytes> cell : c) {
-            if (add(cell)) {
-                change = true;
-            }
-        }
-
-        return change;
+        baseAzureTable.putCells(c);
+        return !c.isEmpty();
     }
 
     @Override
     public boolean removeAll(Collection<?> c) {
         checkNotNull(c);
-        boolean change = false;
-        for (Object o : c) {
-            if (remove(o)) {
-                change = true;
-            }
-        }
-
-        return change;
+        return baseAzureTable.removeCells(c) > 0;
     }
 
     @Override
     public void clear() {
-        removeAll(this); // this works, because the iterator is only a view onto a remote collection
+        baseAzureTable.clear();
     }
 
     @Override
@@ -0,0 +1,215 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.azure;
+
+import com.google.common.base.Function;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.microsoft.windowsazure.services.core.storage.StorageException;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import static com.yammer.collections.azure.AzureEntityUtil.anyVersionOf;
+import static com.yammer.collections.azure.BaseAzureTable.notFound;
+
+/**
+ * Keys of the cells of a table in a companion table, transposed so that the encoded column key is the partition key and
+ * the encoded row key is the row key. Listing the rows of a column is then a partition query on the index instead of a
+ * scan of every partition of the table.
+ * <p/>
+ * Entries hold no value, the values of a column are read from the table for the keys listed in the index, so the two
+ * cannot disagree on a value. Entries are written after their cells and deleted after them, so a write which fails
+ * half way, or a put racing with a delete of the same cell, can leave an entry without a cell, which readers check
+ * for and drop, or a cell without an entry, which {@link BaseAzureTable#rebuildColumnIndex()} restores.
+ */
+final class ColumnIndex {
+    private static final String NO_VALUE = "";
+    private static final Function<AzureEntity, AzureEntity> TRANSPOSE = new Function<AzureEntity, AzureEntity>() {
+        @Override
+        public AzureEntity apply(AzureEntity input) {
+            // the etag of an entry says nothing about the version of its cell
+            return anyVersionOf(input.getRowKey(), input.getPartitionKey());
+        }
+    };
+    private final String indexTableName;
+    private final AzureTableCloudClient azureTableCloudClient;
+    private final AzureTableRequestFactory azureTableRequestFactory;
+    private final Function<List<AzureEntity>, Callable<Void>> putBatch = new Function<List<AzureEntity>, Callable<Void>>() {
+        @Override
+        public Callable<Void> apply(final List<AzureEntity> batch) {
+            return new Callable<Void>() {
+                @Override
+                public Void call() throws StorageException {
+                    azureTableCloudClient.execute(indexTableName, azureTableRequestFactory.putBatch(batch));
+                    return null;
+                }
+            };
+        }
+    };
+    private final Function<List<AzureEntity>, Callable<Void>> deleteBatch = new Function<List<AzureEntity>, Callable<Void>>() {
+        @Override
+        public Callable<Void> apply(final List<AzureEntity> batch) {
+            return new Callable<Void>() {
+                @Override
+                public Void call() throws StorageException {
+                    deleteInBatch(batch);
+                    return null;
+                }
+            };
+        }
+    };
+
+    ColumnIndex(String indexTableName,
+                AzureTableCloudClient azureTableCloudClient,
+                AzureTableRequestFactory azureTableRequestFactory) {
+        this.indexTableName = indexTableName;
+        this.azureTableCloudClient = azureTableCloudClient;
+        this.azureTableRequestFactory = azureTableRequestFactory;
+    }
+
+    String getIndexTableName() {
+        return indexTableName;
+    }
+
+    static AzureEntity entryOf(String rowAsString, String columnAsString) {
+        return new AzureEntity(columnAsString, rowAsString, NO_VALUE);
+    }
+
+    void add(String rowAsString, String columnAsString) {
+        try {
+            azureTableCloudClient.execute(indexTableName, azureTableRequestFactory.put(entryOf(rowAsString, columnAsString)));
+        } catch (StorageException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    void remove(String rowAsString, String columnAsString) {
+        try {
+            deleteEntry(columnAsString, rowAsString);
+        } catch (StorageException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * Deletes an entry, as read by {@link #entriesOf(String, int)}, whose cell was found to be gone, unless the entry
+     * changed since it was read, which means that the cell was written again. Failures are ignored, as the entry is
+     * dropped by the next reader to come across it.
+     */
+    void removeStale(AzureEntity entry) {
+        try {
+            azureTableCloudClient.execute(indexTableName, azureTableRequestFactory.delete(entry));
+        } catch (StorageException ignored) {
+            // the entry is gone, was written again or will be dropped by the next reader to come across it
+        }
+    }
+
+    /**
+     * Writes of the given entries, see {@link #entryOf(String, String)}, one per entity group transaction.
+     * The entries should be grouped by column.
+     */
+    Iterable<Callable<Void>> putBatches(Iterable<AzureEntity> entries) {
+        return Iterables.transform(EntityBatches.partitionBatches(entries), putBatch);
+    }
+
+    /**
+     * Deletes of the entries of the given cells, one per entity group transaction. The cells are grouped by column
+     * in memory, so this is meant for a bounded number of cells.
+     */
+    Iterable<Callable<Void>> removeBatches(Iterable<AzureEntity> cells) {
+        Map<String, List<AzureEntity>> entriesByColumn = Maps.newLinkedHashMap();
+        for (AzureEntity cell : cells) {
+            List<AzureEntity> entries = entriesByColumn.get(cell.getRowKey());
+            if (entries == null) {
+                entries = Lists.newArrayList();
+                entriesByColumn.put(cell.getRowKey(), entries);
+            }
+            entries.add(anyVersionOf(cell.getRowKey(), cell.getPartitionKey()));
+        }
+        return Iterables.transform(EntityBatches.partitionBatches(Iterables.concat(entriesByColumn.values())), deleteBatch);
+    }
+
+    /**
+     * The entries of the column as they are stored, with the encoded column key as partition key and with their ETags,
+     * read lazily, the given number at a time.
+     */
+    Iterable<AzureEntity> entriesOf(String columnAsString, int pageSize) {
+        return azureTableCloudClient.execute(azureTableRequestFactory.take(azureTableRequestFactory.selectKeysForRow(indexTableName, columnAsString), pageSize));
+    }
+
+    /**
+     * The keys of the cells of the column, as entities of the table which match any version. Entries are not checked
+     * against the table, so cells whose entry is stale are listed as well, e.g. for deleting the column.
+     */
+    Iterable<AzureEntity> keysOf(String columnAsString) {
+        return Iterables.transform(azureTableCloudClient.execute(azureTableRequestFactory.selectKeysForRow(indexTableName, columnAsString)), TRANSPOSE);
+    }
+
+    /**
+     * Deletes all entries, one entity group transaction at a time.
+     */
+    void clear() {
+        for (List<AzureEntity> batch : EntityBatches.partitionBatches(azureTableCloudClient.execute(azureTableRequestFactory.selectAllKeys(indexTableName)))) {
+            try {
+                deleteInBatch(anyVersionsOf(batch));
+            } catch (StorageException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+    }
+
+    private void deleteEntry(String columnAsString, String rowAsString) throws StorageException {
+        try {
+            azureTableCloudClient.execute(indexTableName, azureTableRequestFactory.delete(columnAsString, rowAsString));
+        } catch (StorageException e) {
+            if (!notFound(e)) {
+                throw e;
+            }
+        }
+    }
+
+    // a batch fails as a whole when one of its entries is gone, so the rest are deleted one by one
+    private void deleteInBatch(List<AzureEntity> batch) throws StorageException {
+        try {
+            azureTableCloudClient.execute(indexTableName, azureTableRequestFactory.deleteBatch(batch));
+            return;
+        } catch (StorageException e) {
+            if (!notFound(e)) {
+                throw e;
+            }
+        }
+
+        if (batch.size() == 1) {
+            return;
+        }
+
+        for (AzureEntity entry : batch) {
+            deleteEntry(entry.getPartitionKey(), entry.getRowKey());
+        }
+    }
+
+    private static List<AzureEntity> anyVersionsOf(List<AzureEntity> entries) {
+        List<AzureEntity> anyVersions = Lists.newArrayListWithCapacity(entries.size());
+        for (AzureEntity entry : entries) {
+            anyVersions.add(anyVersionOf(entry.getPartitionKey(), entry.getRowKey()));
+        }
+        return anyVersions;
+    }
+}
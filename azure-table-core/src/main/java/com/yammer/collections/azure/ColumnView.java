@@ -17,41 +17,48 @@ package com.yammer.collections.azure;
 
 
 import com.google.common.base.Function;
+import com.google.common.collect.Iterables;
+import com.microsoft.windowsazure.services.table.client.EntityResolver;
 import com.microsoft.windowsazure.services.table.client.TableQuery;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Map;
 import java.util.Set;
 
-import static com.yammer.collections.azure.AzureEntityUtil.EXTRACT_VALUE;
-import static com.yammer.collections.azure.AzureEntityUtil.decode;
 import static com.yammer.collections.azure.AzureEntityUtil.encode;
 
 class ColumnView implements Map<Bytes, Bytes> {
-    private static final Function<AzureEntity, Bytes> EXTRACT_COLUMN_KEY = new Function<AzureEntity, Bytes>() {
-        @Override
-        public Bytes apply(AzureEntity input) {
-            return decode(input.getRowKey());
-        }
-    };
     private final Function<AzureEntity, Entry<Bytes, Bytes>> extractEntry;
     private final BaseAzureTable baseAzureTable;
     private final Bytes rowKey;
+    private final String encodedRowKey;
     private final AzureTableCloudClient azureTableCloudClient;
     private final AzureTableRequestFactory azureTableRequestFactory;
+    private final KeyCodec keyCodec;
 
-    public ColumnView(final BaseAzureTable baseAzureTable,
-                      final Bytes rowKey,
+    public ColumnView(BaseAzureTable baseAzureTable,
+                      Bytes rowKey,
                       AzureTableCloudClient azureTableCloudClient,
                       AzureTableRequestFactory azureTableRequestFactory) {
+        this(baseAzureTable, rowKey, azureTableCloudClient, azureTableRequestFactory, KeyCodec.BASE64);
+    }
+
+    ColumnView(final BaseAzureTable baseAzureTable,
+               final Bytes rowKey,
+               AzureTableCloudClient azureTableCloudClient,
+               AzureTableRequestFactory azureTableRequestFactory,
+               final KeyCodec keyCodec) {
         this.baseAzureTable = baseAzureTable;
         this.rowKey = rowKey;
         this.azureTableCloudClient = azureTableCloudClient;
         this.azureTableRequestFactory = azureTableRequestFactory;
+        this.keyCodec = keyCodec;
+        encodedRowKey = keyCodec.encode(rowKey);
         extractEntry = new Function<AzureEntity, Entry<Bytes, Bytes>>() {
             @Override
             public Entry<Bytes, Bytes> apply(AzureEntity input) {
-                return new ColumnMapEntry(rowKey, decode(input.getRowKey()), baseAzureTable);
+                return ScannedCellEntry.columnEntry(baseAzureTable, rowKey, keyCodec.decode(input.getRowKey()), input);
             }
         };
     }
@@ -77,9 +84,9 @@ class ColumnView implements Map<Bytes, Bytes> {
             return false;
         }
 
-        TableQuery<AzureEntity> valueQuery = azureTableRequestFactory.containsValueForRowQuery(baseAzureTable.getTableName(), encode(rowKey),
+        TableQuery<AzureEntity> valueQuery = azureTableRequestFactory.containsValueForRowQuery(baseAzureTable.getTableName(), encodedRowKey,
                 encode((Bytes) value));
-        return azureTableCloudClient.execute(valueQuery).iterator().hasNext();
+        return azureTableCloudClient.execute(azureTableRequestFactory.take(valueQuery, 1)).iterator().hasNext();
     }
 
     @Override
@@ -97,29 +104,29 @@ class ColumnView implements Map<Bytes, Bytes> {
         return baseAzureTable.remove(rowKey, key);
     }
 
+    /**
+     * Writes the entries as one entity group transaction, see {@link BaseAzureTable#updateRow(Bytes, Map, Iterable)}.
+     */
     @SuppressWarnings("NullableProblems")
     @Override
     public void putAll(Map<? extends Bytes, ? extends Bytes> m) {
-        for (Entry<? extends Bytes, ? extends Bytes> entry : m.entrySet()) {
-            put(entry.getKey(), entry.getValue());
-        }
+        baseAzureTable.updateRow(rowKey, m, Collections.<Bytes>emptySet());
     }
 
     @Override
     public void clear() {
-        for (Bytes columnKey : keySet()) {
-            remove(columnKey);
-        }
+        TableQuery<AzureEntity> query = azureTableRequestFactory.selectAllForRow(baseAzureTable.getTableName(), encodedRowKey);
+        baseAzureTable.removeEntities(azureTableCloudClient.execute(query));
     }
 
     @SuppressWarnings("NullableProblems")
     @Override
     public Set<Bytes> keySet() {
         return SetView.fromSetCollectionView(
-                new ColumnMapSetView<>(
+                new ColumnKeySetView(
                         baseAzureTable,
-                        rowKey,
-                        EXTRACT_COLUMN_KEY,
+                        encodedRowKey,
+                        EntityResolvers.columnKeys(keyCodec),
                         azureTableCloudClient,
                         azureTableRequestFactory
                 )
@@ -129,67 +136,81 @@ class ColumnView implements Map<Bytes, Bytes> {
     @SuppressWarnings("NullableProblems")
     @Override
     public Collection<Bytes> values() {
-        return new ColumnMapSetView<>(baseAzureTable, rowKey, EXTRACT_VALUE, azureTableCloudClient, azureTableRequestFactory);
+        return new ColumnMapSetView<>(baseAzureTable, encodedRowKey, EntityResolvers.VALUE, azureTableCloudClient, azureTableRequestFactory);
     }
 
     @SuppressWarnings("NullableProblems")
     @Override
     public Set<Entry<Bytes, Bytes>> entrySet() {
         return SetView.fromSetCollectionView(
-                new ColumnMapSetView<>(baseAzureTable, rowKey, extractEntry, azureTableCloudClient, azureTableRequestFactory)
+                // entries hold on to their entity, so that values are only decoded when they are asked for
+                new ColumnMapSetView<>(baseAzureTable, encodedRowKey, EntityResolvers.entitiesThen(extractEntry), azureTableCloudClient,
+                        azureTableRequestFactory)
         );
     }
 
-    private static class ColumnMapEntry implements Entry<Bytes, Bytes> {
-        private final Bytes columnKey;
-        private final Bytes rowKey;
-        private final BaseAzureTable azureTable;
+    private static class ColumnMapSetView<E> extends AbstractCollectionView<E> {
+        private final BaseAzureTable baseAzureTable;
+        private final String encodedRowKey;
+        private final EntityResolver<E> resolver;
+        private final AzureTableCloudClient azureTableCloudClient;
+        private final AzureTableRequestFactory azureTableRequestFactory;
 
-        private ColumnMapEntry(Bytes rowKey, Bytes columnKey, BaseAzureTable azureTable) {
-            this.rowKey = rowKey;
-            this.columnKey = columnKey;
-            this.azureTable = azureTable;
+        public ColumnMapSetView(
+                BaseAzureTable baseAzureTable,
+                String encodedRowKey,
+                EntityResolver<E> resolver,
+                AzureTableCloudClient azureTableCloudClient,
+                AzureTableRequestFactory azureTableRequestFactory) {
+            this.baseAzureTable = baseAzureTable;
+            this.encodedRowKey = encodedRowKey;
+            this.resolver = resolver;
+            this.azureTableCloudClient = azureTableCloudClient;
+            this.azureTableRequestFactory = azureTableRequestFactory;
+        }
+
+        protected TableQuery<AzureEntity> query() {
+            return azureTableRequestFactory.selectAllForRow(baseAzureTable.getTableName(), encodedRowKey);
+        }
+
+        protected final TableQuery<AzureEntity> keysQuery() {
+            return azureTableRequestFactory.selectKeysForRow(baseAzureTable.getTableName(), encodedRowKey);
         }
 
         @Override
-        public Bytes getKey() {
-            return columnKey;
+        protected Iterable<E> getBackingIterable() {
+            return azureTableCloudClient.execute(query(), resolver);
         }
 
         @Override
-        public Bytes getValue() {
-            return azureTable.get(rowKey, columnKey);
+        protected Iterable<?> getKeysBackingIterable() {
+            return azureTableCloudClient.execute(keysQuery(), EntityResolvers.PRESENCE);
         }
 
         @Override
-        public Bytes setValue(Bytes value) {
-            return azureTable.put(rowKey, columnKey, value);
+        protected Iterable<E> getBackingIterable(int limit) {
+            return Iterables.limit(azureTableCloudClient.execute(azureTableRequestFactory.take(query(), limit), resolver), limit);
         }
-    }
 
-    private static class ColumnMapSetView<E> extends AbstractCollectionView<E> {
-        private final BaseAzureTable baseAzureTable;
-        private final Bytes rowKey;
-        private final AzureTableCloudClient azureTableCloudClient;
-        private final AzureTableRequestFactory azureTableRequestFactory;
+        @Override
+        protected Iterable<?> getKeysBackingIterable(int limit) {
+            return Iterables.limit(azureTableCloudClient.execute(azureTableRequestFactory.take(keysQuery(), limit), EntityResolvers.PRESENCE), limit);
+        }
+    }
 
-        public ColumnMapSetView(
+    private static final class ColumnKeySetView extends ColumnMapSetView<Bytes> {
+        public ColumnKeySetView(
                 BaseAzureTable baseAzureTable,
-                Bytes rowKey,
-                Function<AzureEntity, E> typeExtractor,
+                String encodedRowKey,
+                EntityResolver<Bytes> columnKeyResolver,
                 AzureTableCloudClient azureTableCloudClient,
                 AzureTableRequestFactory azureTableRequestFactory) {
-            super(typeExtractor);
-            this.baseAzureTable = baseAzureTable;
-            this.rowKey = rowKey;
-            this.azureTableCloudClient = azureTableCloudClient;
-            this.azureTableRequestFactory = azureTableRequestFactory;
+            super(baseAzureTable, encodedRowKey, columnKeyResolver, azureTableCloudClient, azureTableRequestFactory);
         }
 
         @Override
-        protected Iterable<AzureEntity> getBackingIterable() {
-            TableQuery<AzureEntity> selectAllForRowQuery = azureTableRequestFactory.selectAllForRow(baseAzureTable.getTableName(), encode(rowKey));
-            return azureTableCloudClient.execute(selectAllForRowQuery);
+        protected TableQuery<AzureEntity> query() {
+            return keysQuery();
         }
     }
 }
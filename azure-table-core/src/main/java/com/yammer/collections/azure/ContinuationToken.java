@@ -0,0 +1,97 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.azure;
+
+import com.google.common.base.Objects;
+import com.microsoft.windowsazure.services.core.storage.ResultContinuation;
+import com.microsoft.windowsazure.services.core.storage.ResultContinuationType;
+
+import java.io.Serializable;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Position of a paged scan, see {@link BaseAzureTable#getPage(int, ContinuationToken)}. Tokens can be stored,
+ * either serialized or in their {@link #asString()} form, and used to resume the scan later, from another process.
+ */
+public final class ContinuationToken implements Serializable {
+    private static final long serialVersionUID = 1L;
+    // not part of the base64 alphabet the keys are encoded with
+    private static final char SEPARATOR = ':';
+    private final String nextPartitionKey;
+    private final String nextRowKey;
+
+    private ContinuationToken(String nextPartitionKey, String nextRowKey) {
+        this.nextPartitionKey = nextPartitionKey;
+        this.nextRowKey = nextRowKey;
+    }
+
+    public static ContinuationToken parse(String token) {
+        int separator = checkNotNull(token).indexOf(SEPARATOR);
+        checkArgument(separator >= 0, "not a continuation token: %s", token);
+        return new ContinuationToken(token.substring(0, separator), token.substring(separator + 1));
+    }
+
+    static ContinuationToken from(ResultContinuation continuation) {
+        return new ContinuationToken(
+                nullToEmpty(continuation.getNextPartitionKey()),
+                nullToEmpty(continuation.getNextRowKey()));
+    }
+
+    private static String nullToEmpty(String string) {
+        return string == null ? "" : string;
+    }
+
+    private static String emptyToNull(String string) {
+        return string.isEmpty() ? null : string;
+    }
+
+    public String asString() {
+        return nextPartitionKey + SEPARATOR + nextRowKey;
+    }
+
+    ResultContinuation toResultContinuation() {
+        ResultContinuation continuation = new ResultContinuation();
+        continuation.setContinuationType(ResultContinuationType.TABLE);
+        continuation.setNextPartitionKey(emptyToNull(nextPartitionKey));
+        continuation.setNextRowKey(emptyToNull(nextRowKey));
+        return continuation;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        ContinuationToken that = (ContinuationToken) o;
+
+        return nextPartitionKey.equals(that.nextPartitionKey) && nextRowKey.equals(that.nextRowKey);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(nextPartitionKey, nextRowKey);
+    }
+
+    @Override
+    public String toString() {
+        return "ContinuationToken{" +
+                "nextPartitionKey='" + nextPartitionKey + '\'' +
+                ", nextRowKey='" + nextRowKey + '\'' +
+                '}';
+    }
+}
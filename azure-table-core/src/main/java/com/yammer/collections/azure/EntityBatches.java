@@ -0,0 +1,92 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.azure;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Splits a stream of entities into chunks that can be submitted as a single entity group transaction:
+ * all entities of a chunk share a partition key, and a chunk never exceeds the batch limits of the service.
+ * Only adjacent entities are grouped, so the input should already be ordered (or grouped) by partition key.
+ */
+final class EntityBatches {
+    static final int MAX_BATCH_ENTITIES = 100;
+    static final int MAX_BATCH_PAYLOAD_IN_BYTES = 4 * 1024 * 1024;
+    // rough size of the atom envelope around every entity in a batch request
+    private static final int ENTITY_OVERHEAD_IN_BYTES = 1024;
+
+    private EntityBatches() {
+    }
+
+    static Iterable<List<AzureEntity>> partitionBatches(final Iterable<AzureEntity> entities) {
+        return new Iterable<List<AzureEntity>>() {
+            @Override
+            public Iterator<List<AzureEntity>> iterator() {
+                return new BatchIterator(Iterators.peekingIterator(entities.iterator()));
+            }
+        };
+    }
+
+    static int estimatedSize(AzureEntity entity) {
+        return ENTITY_OVERHEAD_IN_BYTES
+                + length(entity.getPartitionKey())
+                + length(entity.getRowKey())
+                + length(entity.getValue())
+                // binary values are sent base64 encoded
+                + (entity.getBinaryValue() == null ? 0 : entity.getBinaryValue().length * 4 / 3 + 4);
+    }
+
+    private static int length(String string) {
+        return string == null ? 0 : string.length();
+    }
+
+    private static final class BatchIterator extends AbstractIterator<List<AzureEntity>> {
+        private final PeekingIterator<AzureEntity> entities;
+
+        private BatchIterator(PeekingIterator<AzureEntity> entities) {
+            this.entities = entities;
+        }
+
+        @Override
+        protected List<AzureEntity> computeNext() {
+            if (!entities.hasNext()) {
+                return endOfData();
+            }
+
+            List<AzureEntity> batch = new ArrayList<>();
+            String partitionKey = entities.peek().getPartitionKey();
+            int payloadSize = 0;
+            while (entities.hasNext() && batch.size() < MAX_BATCH_ENTITIES) {
+                AzureEntity candidate = entities.peek();
+                int candidateSize = estimatedSize(candidate);
+                if (!partitionKey.equals(candidate.getPartitionKey())
+                        || (!batch.isEmpty() && payloadSize + candidateSize > MAX_BATCH_PAYLOAD_IN_BYTES)) {
+                    break;
+                }
+                batch.add(entities.next());
+                payloadSize += candidateSize;
+            }
+
+            return batch;
+        }
+    }
+}
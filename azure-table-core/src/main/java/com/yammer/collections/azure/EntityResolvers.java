@@ -0,0 +1,139 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.azure;
+
+import com.google.common.base.Function;
+import com.google.common.collect.Table;
+import com.google.common.collect.Tables;
+import com.microsoft.windowsazure.services.core.storage.StorageException;
+import com.microsoft.windowsazure.services.table.client.EdmType;
+import com.microsoft.windowsazure.services.table.client.EntityProperty;
+import com.microsoft.windowsazure.services.table.client.EntityResolver;
+
+import java.util.Date;
+import java.util.HashMap;
+
+import static com.yammer.collections.azure.AzureEntityUtil.decode;
+
+/**
+ * Resolvers which build the results of queries straight from the properties returned by the service, instead of
+ * binding every result to an {@link AzureEntity} by reflection first. Each resolver only decodes what its result
+ * holds, e.g. the row key resolver never touches the value.
+ */
+final class EntityResolvers {
+    /**
+     * Resolves results to entities, for the reads which write or delete the entities again.
+     */
+    static final EntityResolver<AzureEntity> ENTITY = new EntityResolver<AzureEntity>() {
+        @Override
+        public AzureEntity resolve(String partitionKey, String rowKey, Date timestamp, HashMap<String, EntityProperty> properties,
+                                   String etag) {
+            AzureEntity entity = new AzureEntity(partitionKey, rowKey, null);
+            entity.readEntity(properties, null);
+            entity.setTimestamp(timestamp);
+            entity.setEtag(etag);
+            return entity;
+        }
+    };
+    static final EntityResolver<Bytes> VALUE = new EntityResolver<Bytes>() {
+        @Override
+        public Bytes resolve(String partitionKey, String rowKey, Date timestamp, HashMap<String, EntityProperty> properties,
+                             String etag) {
+            return valueOf(properties);
+        }
+    };
+    static final EntityResolver<String> PARTITION_KEY = new EntityResolver<String>() {
+        @Override
+        public String resolve(String partitionKey, String rowKey, Date timestamp, HashMap<String, EntityProperty> properties,
+                              String etag) {
+            return partitionKey;
+        }
+    };
+    /**
+     * Resolves every result to the same object, for scans which only count the results.
+     */
+    static final EntityResolver<Boolean> PRESENCE = new EntityResolver<Boolean>() {
+        @Override
+        public Boolean resolve(String partitionKey, String rowKey, Date timestamp, HashMap<String, EntityProperty> properties,
+                               String etag) {
+            return Boolean.TRUE;
+        }
+    };
+
+    private EntityResolvers() {
+    }
+
+    /**
+     * Resolves results to entities and applies the function to them, for results which hold on to their entity.
+     */
+    static <E> EntityResolver<E> entitiesThen(final Function<AzureEntity, E> function) {
+        return new EntityResolver<E>() {
+            @Override
+            public E resolve(String partitionKey, String rowKey, Date timestamp, HashMap<String, EntityProperty> properties,
+                             String etag) throws StorageException {
+                return function.apply(ENTITY.resolve(partitionKey, rowKey, timestamp, properties, etag));
+            }
+        };
+    }
+
+    static EntityResolver<Bytes> rowKeys(final KeyCodec keyCodec) {
+        return new EntityResolver<Bytes>() {
+            @Override
+            public Bytes resolve(String partitionKey, String rowKey, Date timestamp, HashMap<String, EntityProperty> properties,
+                                 String etag) {
+                return keyCodec.decode(partitionKey);
+            }
+        };
+    }
+
+    static EntityResolver<Bytes> columnKeys(final KeyCodec keyCodec) {
+        return new EntityResolver<Bytes>() {
+            @Override
+            public Bytes resolve(String partitionKey, String rowKey, Date timestamp, HashMap<String, EntityProperty> properties,
+                                 String etag) {
+                return keyCodec.decode(rowKey);
+            }
+        };
+    }
+
+    static EntityResolver<Table.Cell<Bytes, Bytes, Bytes>> cells(final KeyCodec keyCodec) {
+        return new EntityResolver<Table.Cell<Bytes, Bytes, Bytes>>() {
+            @Override
+            public Table.Cell<Bytes, Bytes, Bytes> resolve(String partitionKey, String rowKey, Date timestamp,
+                                                           HashMap<String, EntityProperty> properties, String etag) {
+                return Tables.immutableCell(keyCodec.decode(partitionKey), keyCodec.decode(rowKey), valueOf(properties));
+            }
+        };
+    }
+
+    /**
+     * Decodes the value in either of the formats it can be stored in, see {@link ValueFormat}, or returns null for results
+     * of key queries, which do not carry it.
+     */
+    static Bytes valueOf(HashMap<String, EntityProperty> properties) {
+        EntityProperty valueProperty = properties.get(AzureEntity.VALUE);
+        if (!isPresent(valueProperty)) {
+            return null;
+        }
+        return valueProperty.getEdmType() == EdmType.BINARY
+                ? new Bytes(valueProperty.getValueAsByteArray())
+                : decode(valueProperty.getValueAsString());
+    }
+
+    private static boolean isPresent(EntityProperty property) {
+        return property != null && !property.getIsNull();
+    }
+}
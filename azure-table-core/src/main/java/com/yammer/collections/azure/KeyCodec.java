@@ -0,0 +1,178 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.azure;
+
+import com.google.common.base.Function;
+import com.google.common.collect.Table;
+import com.google.common.collect.Tables;
+import com.google.common.primitives.UnsignedBytes;
+import com.microsoft.windowsazure.services.core.storage.utils.Base64;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.yammer.collections.azure.AzureEntityUtil.decodeValue;
+
+/**
+ * Encodes row and column keys as the partition and row keys of entities. Values are always encoded as base64,
+ * see {@link ValueFormat}.
+ */
+enum KeyCodec {
+    /**
+     * Standard base64, which the service does not order like the bytes it encodes.
+     */
+    BASE64("+/0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz", false) {
+        @Override
+        String encode(Bytes key) {
+            return Base64.encode(key.getBytes());
+        }
+
+        @Override
+        Bytes decode(String encodedKey) {
+            return new Bytes(Base64.decode(encodedKey));
+        }
+    },
+    /**
+     * Six bits per character, most significant first, over an alphabet listed in ascending character order and
+     * without padding. Encoded keys compare as strings exactly like the bytes compare as unsigned numbers, so key
+     * ranges can be queried. The number of bytes follows from the length of the encoded key.
+     */
+    ORDER_PRESERVING("-0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ_abcdefghijklmnopqrstuvwxyz", true) {
+        @Override
+        String encode(Bytes key) {
+            byte[] bytes = key.getBytes();
+            StringBuilder encoded = new StringBuilder((bytes.length * 8 + 5) / 6);
+            int buffer = 0;
+            int bufferedBits = 0;
+            for (byte b : bytes) {
+                buffer = (buffer << 8) | (b & 0xff);
+                bufferedBits += 8;
+                while (bufferedBits >= 6) {
+                    bufferedBits -= 6;
+                    encoded.append(getSortedAlphabet().charAt((buffer >> bufferedBits) & 0x3f));
+                }
+                buffer &= (1 << bufferedBits) - 1;
+            }
+            if (bufferedBits > 0) {
+                encoded.append(getSortedAlphabet().charAt((buffer << (6 - bufferedBits)) & 0x3f));
+            }
+            return encoded.toString();
+        }
+
+        @Override
+        Bytes decode(String encodedKey) {
+            checkArgument(encodedKey.length() % 4 != 1, "not an order preserving key: %s", encodedKey);
+            byte[] bytes = new byte[encodedKey.length() * 6 / 8];
+            int buffer = 0;
+            int bufferedBits = 0;
+            int decoded = 0;
+            for (int i = 0; i < encodedKey.length() && decoded < bytes.length; i++) {
+                buffer = (buffer << 6) | sixBitsOf(encodedKey.charAt(i));
+                bufferedBits += 6;
+                if (bufferedBits >= 8) {
+                    bufferedBits -= 8;
+                    bytes[decoded++] = (byte) (buffer >> bufferedBits);
+                    buffer &= (1 << bufferedBits) - 1;
+                }
+            }
+            return new Bytes(bytes);
+        }
+    };
+
+    /**
+     * Unsigned lexicographical order of the bytes, which is the order of keys encoded with {@link #ORDER_PRESERVING}.
+     */
+    static final Comparator<Bytes> BYTES_ORDER = new Comparator<Bytes>() {
+        private final Comparator<byte[]> lexicographicalComparator = UnsignedBytes.lexicographicalComparator();
+
+        @Override
+        public int compare(Bytes o1, Bytes o2) {
+            return lexicographicalComparator.compare(o1.getBytes(), o2.getBytes());
+        }
+    };
+    private static final int[] ORDER_PRESERVING_SIX_BITS = new int[128];
+
+    static {
+        Arrays.fill(ORDER_PRESERVING_SIX_BITS, -1);
+        for (int i = 0; i < ORDER_PRESERVING.sortedAlphabet.length(); i++) {
+            ORDER_PRESERVING_SIX_BITS[ORDER_PRESERVING.sortedAlphabet.charAt(i)] = i;
+        }
+    }
+
+    private final String sortedAlphabet;
+    private final boolean orderPreserving;
+    private final Function<AzureEntity, Bytes> extractRowKey = new Function<AzureEntity, Bytes>() {
+        @Override
+        public Bytes apply(AzureEntity input) {
+            return decode(input.getPartitionKey());
+        }
+    };
+    private final Function<AzureEntity, Bytes> extractColumnKey = new Function<AzureEntity, Bytes>() {
+        @Override
+        public Bytes apply(AzureEntity input) {
+            return decode(input.getRowKey());
+        }
+    };
+    private final Function<AzureEntity, Table.Cell<Bytes, Bytes, Bytes>> extractCell =
+            new Function<AzureEntity, Table.Cell<Bytes, Bytes, Bytes>>() {
+                @Override
+                public Table.Cell<Bytes, Bytes, Bytes> apply(AzureEntity input) {
+                    return Tables.immutableCell(
+                            decode(input.getPartitionKey()),
+                            decode(input.getRowKey()),
+                            decodeValue(input));
+                }
+            };
+
+    KeyCodec(String sortedAlphabet, boolean orderPreserving) {
+        this.sortedAlphabet = sortedAlphabet;
+        this.orderPreserving = orderPreserving;
+    }
+
+    private static int sixBitsOf(char c) {
+        int sixBits = c < ORDER_PRESERVING_SIX_BITS.length ? ORDER_PRESERVING_SIX_BITS[c] : -1;
+        checkArgument(sixBits >= 0, "not an order preserving key character: %s", c);
+        return sixBits;
+    }
+
+    abstract String encode(Bytes key);
+
+    abstract Bytes decode(String encodedKey);
+
+    /**
+     * The characters encoded keys can start with, in the ordinal order in which the service compares keys.
+     */
+    String getSortedAlphabet() {
+        return sortedAlphabet;
+    }
+
+    boolean isOrderPreserving() {
+        return orderPreserving;
+    }
+
+    Function<AzureEntity, Bytes> rowKeyExtractor() {
+        return extractRowKey;
+    }
+
+    Function<AzureEntity, Bytes> columnKeyExtractor() {
+        return extractColumnKey;
+    }
+
+    Function<AzureEntity, Table.Cell<Bytes, Bytes, Bytes>> cellExtractor() {
+        return extractCell;
+    }
+}
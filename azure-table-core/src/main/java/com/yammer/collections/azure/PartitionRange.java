@@ -0,0 +1,152 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.azure;
+
+import com.google.common.base.Optional;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Half-open range of partition keys, [lowerInclusive, upperExclusive), where an absent bound is unbounded.
+ * Partition keys are encoded row keys, so ranges made of characters of the key codec's alphabet cover the whole table.
+ */
+final class PartitionRange {
+    // both key codecs have 64 characters
+    static final int MAX_RANGES = 64;
+    private static final int ALPHABET_SIZE = 64;
+    // characters past the common prefix of the lowest and the highest key which tell the bounds of a split apart
+    static final int SPLIT_DIGITS = 3;
+    static final PartitionRange ALL = new PartitionRange(Optional.<String>absent(), Optional.<String>absent());
+    private final Optional<String> lowerInclusive;
+    private final Optional<String> upperExclusive;
+
+    private PartitionRange(Optional<String> lowerInclusive, Optional<String> upperExclusive) {
+        this.lowerInclusive = lowerInclusive;
+        this.upperExclusive = upperExclusive;
+    }
+
+    /**
+     * Splits the key space into the given number of adjacent ranges, in key order.
+     */
+    static List<PartitionRange> split(int ranges) {
+        return split(ranges, KeyCodec.BASE64);
+    }
+
+    /**
+     * Splits the space of keys encoded with the given codec into the given number of adjacent ranges, in key order.
+     */
+    static List<PartitionRange> split(int ranges, KeyCodec keyCodec) {
+        String sortedAlphabet = keyCodec.getSortedAlphabet();
+        checkArgument(ranges > 0 && ranges <= MAX_RANGES, "number of ranges has to be between 1 and %s", MAX_RANGES);
+        List<PartitionRange> split = new ArrayList<>(ranges);
+        Optional<String> lower = Optional.absent();
+        for (int i = 1; i <= ranges; i++) {
+            Optional<String> upper = i == ranges
+                    ? Optional.<String>absent()
+                    : Optional.of(String.valueOf(sortedAlphabet.charAt(i * MAX_RANGES / ranges)));
+            split.add(new PartitionRange(lower, upper));
+            lower = upper;
+        }
+        return split;
+    }
+
+    /**
+     * Splits the keys between the lowest and the highest key of a table into the given number of adjacent ranges of
+     * about the same width, in key order. Keys often share a prefix, e.g. encoded textual keys, so the bounds are taken
+     * from the characters past the prefix the two keys share rather than from the first character. The first and the last
+     * range are unbounded, so that the ranges cover keys outside of the observed ones as well. Keys which are too close to
+     * each other to be told apart give fewer ranges.
+     *
+     * @param highestKey the highest key, or a prefix of it
+     */
+    static List<PartitionRange> split(int ranges, KeyCodec keyCodec, String lowestKey, String highestKey) {
+        checkArgument(ranges > 0 && ranges <= MAX_RANGES, "number of ranges has to be between 1 and %s", MAX_RANGES);
+        String sortedAlphabet = keyCodec.getSortedAlphabet();
+        int prefixLength = commonPrefixLength(lowestKey, highestKey);
+        String prefix = lowestKey.substring(0, prefixLength);
+        long lowest = digitsOf(lowestKey, prefixLength, sortedAlphabet);
+        long highest = digitsOf(highestKey, prefixLength, sortedAlphabet);
+        List<PartitionRange> split = new ArrayList<>(ranges);
+        Optional<String> lower = Optional.absent();
+        long previousBound = -1;
+        for (int i = 1; i < ranges; i++) {
+            long bound = lowest + (highest - lowest) * i / ranges;
+            if (bound == lowest || bound == previousBound) {
+                continue;
+            }
+            Optional<String> upper = Optional.of(prefix + keyOf(bound, sortedAlphabet));
+            split.add(new PartitionRange(lower, upper));
+            lower = upper;
+            previousBound = bound;
+        }
+        split.add(new PartitionRange(lower, Optional.<String>absent()));
+        return split;
+    }
+
+    private static int commonPrefixLength(String first, String second) {
+        int length = 0;
+        while (length < first.length() && length < second.length() && first.charAt(length) == second.charAt(length)) {
+            length++;
+        }
+        return length;
+    }
+
+    // the characters past the prefix as a number, where characters outside of the alphabet count as the closest one below
+    private static long digitsOf(String key, int prefixLength, String sortedAlphabet) {
+        long digits = 0;
+        for (int i = prefixLength; i < prefixLength + SPLIT_DIGITS; i++) {
+            digits = digits * ALPHABET_SIZE + (i < key.length() ? floorDigitOf(key.charAt(i), sortedAlphabet) : 0);
+        }
+        return digits;
+    }
+
+    private static int floorDigitOf(char c, String sortedAlphabet) {
+        int digit = 0;
+        while (digit + 1 < sortedAlphabet.length() && sortedAlphabet.charAt(digit + 1) <= c) {
+            digit++;
+        }
+        return digit;
+    }
+
+    private static String keyOf(long digits, String sortedAlphabet) {
+        char[] key = new char[SPLIT_DIGITS];
+        long remaining = digits;
+        for (int i = SPLIT_DIGITS - 1; i >= 0; i--) {
+            key[i] = sortedAlphabet.charAt((int) (remaining % ALPHABET_SIZE));
+            remaining /= ALPHABET_SIZE;
+        }
+        return new String(key);
+    }
+
+    Optional<String> getLowerInclusive() {
+        return lowerInclusive;
+    }
+
+    Optional<String> getUpperExclusive() {
+        return upperExclusive;
+    }
+
+    @Override
+    public String toString() {
+        return "PartitionRange{" +
+                "lowerInclusive=" + lowerInclusive +
+                ", upperExclusive=" + upperExclusive +
+                '}';
+    }
+}
@@ -16,10 +16,13 @@
 package com.yammer.collections.azure;
 
 import com.google.common.base.Function;
+import com.google.common.base.Optional;
 import com.google.common.collect.Collections2;
 import com.google.common.collect.Table;
 
+import java.util.AbstractCollection;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 
@@ -28,11 +31,21 @@ import static com.google.common.base.Preconditions.checkNotNull;
 /* package */
 class RowMapView<R, C, V> implements Map<R, Map<C, V>> {
     private final Table<R, C, V> backingTable;
+    // rows read with a single scan, instead of a query per row key
+    private final Optional<Iterable<Entry<R, Map<C, V>>>> scannedRows;
     private final Function<R, Map<C, V>> valueCreator;
     private final Function<R, Entry<R, Map<C, V>>> entryCreator;
 
-    RowMapView(final Table<R, C, V> backingTable) {
+    RowMapView(Table<R, C, V> backingTable) {
+        this(backingTable, Optional.<Iterable<Entry<R, Map<C, V>>>>absent());
+    }
+
+    /**
+     * The values and entries of the view iterate the given rows, in which every row key occurs once.
+     */
+    RowMapView(final Table<R, C, V> backingTable, Optional<Iterable<Entry<R, Map<C, V>>>> scannedRows) {
         this.backingTable = backingTable;
+        this.scannedRows = scannedRows;
         valueCreator = new Function<R, Map<C, V>>() {
             @Override
             public Map<C, V> apply(R key) {
@@ -147,6 +160,17 @@ class RowMapView<R, C, V> implements Map<R, Map<C, V>> {
     @SuppressWarnings("NullableProblems")
     @Override
     public Collection<Map<C, V>> values() {
+        if (scannedRows.isPresent()) {
+            return Collections2.transform(
+                    scannedEntries(),
+                    new Function<Entry<R, Map<C, V>>, Map<C, V>>() {
+                        @Override
+                        public Map<C, V> apply(Entry<R, Map<C, V>> input) {
+                            return input.getValue();
+                        }
+                    }
+            );
+        }
         return Collections2.transform(
                 keySet(),
                 valueCreator
@@ -156,6 +180,9 @@ class RowMapView<R, C, V> implements Map<R, Map<C, V>> {
     @SuppressWarnings("NullableProblems")
     @Override
     public Set<Entry<R, Map<C, V>>> entrySet() {
+        if (scannedRows.isPresent()) {
+            return SetView.fromSetCollectionView(scannedEntries());
+        }
         return SetView.fromSetCollectionView(
                 Collections2.transform(
                         keySet(),
@@ -163,6 +190,25 @@ class RowMapView<R, C, V> implements Map<R, Map<C, V>> {
                 ));
     }
 
+    private Collection<Entry<R, Map<C, V>>> scannedEntries() {
+        return new AbstractCollection<Entry<R, Map<C, V>>>() {
+            @Override
+            public Iterator<Entry<R, Map<C, V>>> iterator() {
+                return scannedRows.get().iterator();
+            }
+
+            @Override
+            public int size() {
+                return RowMapView.this.size();
+            }
+
+            @Override
+            public boolean isEmpty() {
+                return RowMapView.this.isEmpty();
+            }
+        };
+    }
+
     private static final class RowMapViewEntry<R, C, V> implements Entry<R, Map<C, V>> {
         private final Table<R, C, V> backingTable;
         private final Map<R, Map<C, V>> backingMap;
@@ -17,6 +17,9 @@ package com.yammer.collections.azure;
 
 
 import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.collect.Iterables;
+import com.microsoft.windowsazure.services.table.client.EntityResolver;
 import com.microsoft.windowsazure.services.table.client.TableQuery;
 
 import java.util.Collection;
@@ -24,35 +27,41 @@ import java.util.Map;
 import java.util.Set;
 
 import static com.yammer.collections.azure.AzureEntityUtil.EXTRACT_VALUE;
-import static com.yammer.collections.azure.AzureEntityUtil.decode;
 import static com.yammer.collections.azure.AzureEntityUtil.encode;
 
 class RowView implements Map<Bytes, Bytes> {
-    private static final Function<AzureEntity, Bytes> EXTRACT_ROW_KEY = new Function<AzureEntity, Bytes>() {
-        @Override
-        public Bytes apply(AzureEntity input) {
-            return decode(input.getPartitionKey());
-        }
-    };
     private final BaseAzureTable baseAzureTable;
     private final Bytes columnKey;
+    private final String encodedColumnKey;
     private final AzureTableCloudClient azureTableCloudClient;
     private final AzureTableRequestFactory azureTableRequestFactory;
+    private final KeyCodec keyCodec;
     private final Function<AzureEntity, Entry<Bytes, Bytes>> extractEntry;
 
+    RowView(
+            BaseAzureTable baseAzureTable,
+            Bytes columnKey,
+            AzureTableCloudClient azureTableCloudClient,
+            AzureTableRequestFactory azureTableRequestFactory) {
+        this(baseAzureTable, columnKey, azureTableCloudClient, azureTableRequestFactory, KeyCodec.BASE64);
+    }
+
     RowView(
             final BaseAzureTable baseAzureTable,
             final Bytes columnKey,
             AzureTableCloudClient azureTableCloudClient,
-            AzureTableRequestFactory azureTableRequestFactory) {
+            AzureTableRequestFactory azureTableRequestFactory,
+            final KeyCodec keyCodec) {
         this.baseAzureTable = baseAzureTable;
         this.columnKey = columnKey;
         this.azureTableCloudClient = azureTableCloudClient;
         this.azureTableRequestFactory = azureTableRequestFactory;
+        this.keyCodec = keyCodec;
+        encodedColumnKey = keyCodec.encode(columnKey);
         extractEntry = new Function<AzureEntity, Entry<Bytes, Bytes>>() {
             @Override
             public Entry<Bytes, Bytes> apply(AzureEntity input) {
-                return new RowMapEntry(decode(input.getPartitionKey()), columnKey, baseAzureTable);
+                return ScannedCellEntry.rowEntry(baseAzureTable, keyCodec.decode(input.getPartitionKey()), columnKey, input);
             }
         };
     }
@@ -78,9 +87,14 @@ class RowView implements Map<Bytes, Bytes> {
             return false;
         }
 
-        TableQuery<AzureEntity> valueQuery = azureTableRequestFactory.containsValueForColumnQuery(baseAzureTable.getTableName(), encode(columnKey),
+        // without an index the column is scanned across all partitions
+        if (baseAzureTable.hasValueIndex()) {
+            return !Iterables.isEmpty(baseAzureTable.cellsWithValue((Bytes) value, Optional.of(columnKey)));
+        }
+
+        TableQuery<AzureEntity> valueQuery = azureTableRequestFactory.containsValueForColumnQuery(baseAzureTable.getTableName(), encodedColumnKey,
                 encode((Bytes) value));
-        return azureTableCloudClient.execute(valueQuery).iterator().hasNext();
+        return azureTableCloudClient.execute(azureTableRequestFactory.take(valueQuery, 1)).iterator().hasNext();
     }
 
     @Override
@@ -108,83 +122,134 @@ class RowView implements Map<Bytes, Bytes> {
 
     @Override
     public void clear() {
-        for (Bytes rowKey : keySet()) {
-            remove(rowKey);
+        Optional<ColumnIndex> columnIndex = baseAzureTable.getColumnIndex();
+        if (columnIndex.isPresent()) {
+            // entries whose cell is already gone are removed along with the others
+            baseAzureTable.removeEntities(columnIndex.get().keysOf(encodedColumnKey));
+            return;
         }
+
+        TableQuery<AzureEntity> query = azureTableRequestFactory.selectAllForColumn(baseAzureTable.getTableName(), encodedColumnKey);
+        baseAzureTable.removeEntities(azureTableCloudClient.execute(query));
     }
 
     @SuppressWarnings("NullableProblems")
     @Override
     public Set<Bytes> keySet() {
         return SetView.fromSetCollectionView(
-                new RowMapSetView<>(baseAzureTable, columnKey, EXTRACT_ROW_KEY, azureTableCloudClient, azureTableRequestFactory)
+                new RowKeySetView(baseAzureTable, encodedColumnKey, keyCodec.rowKeyExtractor(), EntityResolvers.rowKeys(keyCodec),
+                        azureTableCloudClient, azureTableRequestFactory)
         );
     }
 
     @SuppressWarnings("NullableProblems")
     @Override
     public Collection<Bytes> values() {
-        return new RowMapSetView<>(baseAzureTable, columnKey, EXTRACT_VALUE, azureTableCloudClient, azureTableRequestFactory);
+        return new RowMapSetView<>(baseAzureTable, encodedColumnKey, EXTRACT_VALUE, EntityResolvers.VALUE, azureTableCloudClient,
+                azureTableRequestFactory);
     }
 
     @SuppressWarnings("NullableProblems")
     @Override
     public Set<Entry<Bytes, Bytes>> entrySet() {
         return SetView.fromSetCollectionView(
-                new RowMapSetView<>(baseAzureTable, columnKey, extractEntry, azureTableCloudClient, azureTableRequestFactory)
+                // entries hold on to their entity, so that values are only decoded when they are asked for
+                new RowMapSetView<>(baseAzureTable, encodedColumnKey, extractEntry, EntityResolvers.entitiesThen(extractEntry),
+                        azureTableCloudClient, azureTableRequestFactory)
         );
     }
 
-    private static class RowMapEntry implements Entry<Bytes, Bytes> {
-        private final Bytes columnKey;
-        private final Bytes rowKey;
-        private final BaseAzureTable azureTable;
+    private static class RowMapSetView<E> extends AbstractCollectionView<E> {
+        private final BaseAzureTable baseAzureTable;
+        private final String encodedColumnKey;
+        // the entities of the column index are already read, so they are converted instead of resolved
+        private final Function<AzureEntity, E> indexedExtractor;
+        private final EntityResolver<E> resolver;
+        private final AzureTableCloudClient azureTableCloudClient;
+        private final AzureTableRequestFactory azureTableRequestFactory;
+        // lists the column in the column index, if the table has one, instead of scanning all partitions
+        private final Optional<ColumnIndex> columnIndex;
+
+        public RowMapSetView(
+                BaseAzureTable baseAzureTable,
+                String encodedColumnKey,
+                Function<AzureEntity, E> indexedExtractor,
+                EntityResolver<E> resolver,
+                AzureTableCloudClient azureTableCloudClient,
+                AzureTableRequestFactory azureTableRequestFactory) {
+            this.baseAzureTable = baseAzureTable;
+            this.encodedColumnKey = encodedColumnKey;
+            this.indexedExtractor = indexedExtractor;
+            this.resolver = resolver;
+            this.azureTableCloudClient = azureTableCloudClient;
+            this.azureTableRequestFactory = azureTableRequestFactory;
+            columnIndex = baseAzureTable.getColumnIndex();
+        }
+
+        protected Iterable<AzureEntity> indexed() {
+            return baseAzureTable.indexedColumn(encodedColumnKey);
+        }
+
+        protected Iterable<AzureEntity> indexed(int limit) {
+            return baseAzureTable.indexedColumn(encodedColumnKey, limit);
+        }
+
+        protected TableQuery<AzureEntity> query() {
+            return azureTableRequestFactory.selectAllForColumn(baseAzureTable.getTableName(), encodedColumnKey);
+        }
 
-        private RowMapEntry(Bytes rowKey, Bytes columnKey, BaseAzureTable azureTable) {
-            this.rowKey = rowKey;
-            this.columnKey = columnKey;
-            this.azureTable = azureTable;
+        protected final TableQuery<AzureEntity> keysQuery() {
+            return azureTableRequestFactory.selectKeysForColumn(baseAzureTable.getTableName(), encodedColumnKey);
         }
 
         @Override
-        public Bytes getKey() {
-            return rowKey;
+        protected Iterable<E> getBackingIterable() {
+            if (columnIndex.isPresent()) {
+                return Iterables.transform(indexed(), indexedExtractor);
+            }
+            return azureTableCloudClient.execute(query(), resolver);
         }
 
+        // keys are counted from the cells of the index entries too, so that entries whose cell is gone are not counted
         @Override
-        public Bytes getValue() {
-            return azureTable.get(rowKey, columnKey);
+        protected Iterable<?> getKeysBackingIterable() {
+            if (columnIndex.isPresent()) {
+                return indexed();
+            }
+            return azureTableCloudClient.execute(keysQuery(), EntityResolvers.PRESENCE);
         }
 
         @Override
-        public Bytes setValue(Bytes value) {
-            return azureTable.put(rowKey, columnKey, value);
+        protected Iterable<E> getBackingIterable(int limit) {
+            if (columnIndex.isPresent()) {
+                return Iterables.transform(indexed(limit), indexedExtractor);
+            }
+            return Iterables.limit(azureTableCloudClient.execute(azureTableRequestFactory.take(query(), limit), resolver), limit);
         }
-    }
 
-    private static class RowMapSetView<E> extends AbstractCollectionView<E> {
-        private final BaseAzureTable baseAzureTable;
-        private final Bytes columnKey;
-        private final AzureTableCloudClient azureTableCloudClient;
-        private final AzureTableRequestFactory azureTableRequestFactory;
+        @Override
+        protected Iterable<?> getKeysBackingIterable(int limit) {
+            if (columnIndex.isPresent()) {
+                return indexed(limit);
+            }
+            return Iterables.limit(azureTableCloudClient.execute(azureTableRequestFactory.take(keysQuery(), limit), EntityResolvers.PRESENCE), limit);
+        }
+    }
 
-        public RowMapSetView(
+    private static final class RowKeySetView extends RowMapSetView<Bytes> {
+        public RowKeySetView(
                 BaseAzureTable baseAzureTable,
-                Bytes columnKey,
-                Function<AzureEntity, E> typeExtractor,
+                String encodedColumnKey,
+                Function<AzureEntity, Bytes> rowKeyExtractor,
+                EntityResolver<Bytes> rowKeyResolver,
                 AzureTableCloudClient azureTableCloudClient,
                 AzureTableRequestFactory azureTableRequestFactory) {
-            super(typeExtractor);
-            this.baseAzureTable = baseAzureTable;
-            this.columnKey = columnKey;
-            this.azureTableCloudClient = azureTableCloudClient;
-            this.azureTableRequestFactory = azureTableRequestFactory;
+            super(baseAzureTable, encodedColumnKey, rowKeyExtractor, rowKeyResolver, azureTableCloudClient, azureTableRequestFactory);
         }
 
         @Override
-        protected Iterable<AzureEntity> getBackingIterable() {
-            TableQuery<AzureEntity> selectAllForRowQuery = azureTableRequestFactory.selectAllForColumn(baseAzureTable.getTableName(), encode(columnKey));
-            return azureTableCloudClient.execute(selectAllForRowQuery);
+        protected TableQuery<AzureEntity> query() {
+            return keysQuery();
         }
     }
 
@@ -0,0 +1,102 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.azure;
+
+import com.google.common.base.Objects;
+
+import java.util.Map;
+
+import static com.yammer.collections.azure.AzureEntityUtil.decodeValue;
+
+/**
+ * Entry of a row or column view which holds the entity it was scanned from. The value is decoded from the entity the
+ * first time it is asked for, so iterating the entries of a view costs the pages of its query and nothing more.
+ * The value is the one of the scan, to read the current value use the get method of the view.
+ */
+final class ScannedCellEntry implements Map.Entry<Bytes, Bytes> {
+    private final BaseAzureTable baseAzureTable;
+    private final Bytes rowKey;
+    private final Bytes columnKey;
+    private final boolean keyedByColumn;
+    private AzureEntity entity;
+    private Bytes value;
+    // the value of a key only entry is read from the table, and is null if the cell was deleted in the meantime
+    private boolean loaded;
+
+    private ScannedCellEntry(BaseAzureTable baseAzureTable, Bytes rowKey, Bytes columnKey, boolean keyedByColumn, AzureEntity entity) {
+        this.baseAzureTable = baseAzureTable;
+        this.rowKey = rowKey;
+        this.columnKey = columnKey;
+        this.keyedByColumn = keyedByColumn;
+        this.entity = entity;
+    }
+
+    /**
+     * Entry of the row view of {@link BaseAzureTable#row(Bytes)}, keyed by column.
+     */
+    static ScannedCellEntry columnEntry(BaseAzureTable baseAzureTable, Bytes rowKey, Bytes columnKey, AzureEntity entity) {
+        return new ScannedCellEntry(baseAzureTable, rowKey, columnKey, true, entity);
+    }
+
+    /**
+     * Entry of the column view of {@link BaseAzureTable#column(Bytes)}, keyed by row.
+     */
+    static ScannedCellEntry rowEntry(BaseAzureTable baseAzureTable, Bytes rowKey, Bytes columnKey, AzureEntity entity) {
+        return new ScannedCellEntry(baseAzureTable, rowKey, columnKey, false, entity);
+    }
+
+    @Override
+    public Bytes getKey() {
+        return keyedByColumn ? columnKey : rowKey;
+    }
+
+    @Override
+    public Bytes getValue() {
+        if (!loaded) {
+            // entities of key only queries carry no value
+            value = entity.getValue() == null && entity.getBinaryValue() == null
+                    ? baseAzureTable.get(rowKey, columnKey)
+                    : decodeValue(entity);
+            entity = null;
+            loaded = true;
+        }
+        return value;
+    }
+
+    @Override
+    public Bytes setValue(Bytes newValue) {
+        Bytes previousValue = baseAzureTable.put(rowKey, columnKey, newValue);
+        value = newValue;
+        entity = null;
+        loaded = true;
+        return previousValue;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Map.Entry)) {
+            return false;
+        }
+        Map.Entry<?, ?> other = (Map.Entry<?, ?>) o;
+        return Objects.equal(getKey(), other.getKey()) && Objects.equal(getValue(), other.getValue());
+    }
+
+    @Override
+    public int hashCode() {
+        Bytes entryValue = getValue();
+        return getKey().hashCode() ^ (entryValue == null ? 0 : entryValue.hashCode());
+    }
+}
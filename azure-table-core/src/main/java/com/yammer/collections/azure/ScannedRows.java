@@ -0,0 +1,339 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.azure;
+
+import com.google.common.base.Function;
+import com.google.common.base.Predicate;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ForwardingMap;
+import com.google.common.collect.ForwardingMapEntry;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
+
+import java.util.AbstractMap;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkState;
+import static com.yammer.collections.azure.AzureEntityUtil.decodeValue;
+
+/**
+ * Rows of a table read with a single scan. The service returns entities ordered by partition key, so the entities of
+ * a row are adjacent and are grouped into a map of the row as the scan goes, one row at a time.
+ * <p/>
+ * Rows with more cells than a given number are not kept in memory: the first iteration of such a row goes on with
+ * the scan, as long as the scan has not moved on to the next row, and any other read of the row goes to the table.
+ * Removals and new values of entries of a row are written to the table.
+ */
+final class ScannedRows implements Iterable<Map.Entry<Bytes, Map<Bytes, Bytes>>> {
+    // a page of the scan
+    static final int DEFAULT_MAX_CELLS_PER_ROW = 1000;
+    private final BaseAzureTable baseAzureTable;
+    private final Iterable<AzureEntity> entities;
+    private final KeyCodec keyCodec;
+    private final int maxCellsPerRow;
+
+    ScannedRows(BaseAzureTable baseAzureTable, Iterable<AzureEntity> entities, KeyCodec keyCodec, int maxCellsPerRow) {
+        this.baseAzureTable = baseAzureTable;
+        this.entities = entities;
+        this.keyCodec = keyCodec;
+        this.maxCellsPerRow = maxCellsPerRow;
+    }
+
+    @Override
+    public Iterator<Map.Entry<Bytes, Map<Bytes, Bytes>>> iterator() {
+        return new RowIterator(Iterators.peekingIterator(entities.iterator()));
+    }
+
+    private final class RowIterator extends AbstractIterator<Map.Entry<Bytes, Map<Bytes, Bytes>>> {
+        private final PeekingIterator<AzureEntity> entities;
+        // the row whose remaining cells are still ahead in the scan, if any
+        private StreamedRow streamedRow;
+
+        private RowIterator(PeekingIterator<AzureEntity> entities) {
+            this.entities = entities;
+        }
+
+        @Override
+        protected Map.Entry<Bytes, Map<Bytes, Bytes>> computeNext() {
+            if (streamedRow != null) {
+                String skippedPartitionKey = streamedRow.partitionKey;
+                streamedRow = null;
+                while (inPartition(skippedPartitionKey)) {
+                    entities.next();
+                }
+            }
+            if (!entities.hasNext()) {
+                return endOfData();
+            }
+
+            String partitionKey = entities.peek().getPartitionKey();
+            Map<Bytes, Bytes> cells = new LinkedHashMap<>();
+            String lastColumnAsString = null;
+            while (cells.size() < maxCellsPerRow && inPartition(partitionKey)) {
+                AzureEntity entity = entities.next();
+                lastColumnAsString = entity.getRowKey();
+                cells.put(keyCodec.decode(lastColumnAsString), decodeValue(entity));
+            }
+
+            Bytes rowKey = keyCodec.decode(partitionKey);
+            if (!inPartition(partitionKey)) {
+                return new RowEntry(rowKey, new ScannedRow(baseAzureTable, rowKey, cells));
+            }
+            streamedRow = new StreamedRow(rowKey, partitionKey, cells, lastColumnAsString);
+            return new RowEntry(rowKey, streamedRow);
+        }
+
+        private boolean inPartition(String partitionKey) {
+            return entities.hasNext() && partitionKey.equals(entities.peek().getPartitionKey());
+        }
+
+        /**
+         * A row with more cells than are kept in memory, see the class comment. The cells which were scanned before the
+         * row was handed out are kept, so that its first iteration does not read them again.
+         */
+        private final class StreamedRow extends ForwardingMap<Bytes, Bytes> {
+            private final Bytes rowKey;
+            private final String partitionKey;
+            private final Map<Bytes, Bytes> firstCells;
+            private final String lastFirstColumnAsString;
+            private boolean remainderAvailable = true;
+
+            private StreamedRow(Bytes rowKey, String partitionKey, Map<Bytes, Bytes> firstCells, String lastFirstColumnAsString) {
+                this.rowKey = rowKey;
+                this.partitionKey = partitionKey;
+                this.firstCells = firstCells;
+                this.lastFirstColumnAsString = lastFirstColumnAsString;
+            }
+
+            @Override
+            protected Map<Bytes, Bytes> delegate() {
+                return baseAzureTable.row(rowKey);
+            }
+
+            @Override
+            public Set<Entry<Bytes, Bytes>> entrySet() {
+                return new StandardEntrySet() {
+                    @Override
+                    public Iterator<Entry<Bytes, Bytes>> iterator() {
+                        return new WriteThroughIterator(baseAzureTable, rowKey, entryIterator(), false);
+                    }
+                };
+            }
+
+            @Override
+            public Set<Bytes> keySet() {
+                return new StandardKeySet();
+            }
+
+            @Override
+            public Collection<Bytes> values() {
+                return new StandardValues();
+            }
+
+            private Iterator<Entry<Bytes, Bytes>> entryIterator() {
+                if (!remainderAvailable) {
+                    return copiesOf(delegate().entrySet().iterator());
+                }
+                remainderAvailable = false;
+                return Iterators.concat(firstCells.entrySet().iterator(), new AbstractIterator<Entry<Bytes, Bytes>>() {
+                    private String lastColumnAsString = lastFirstColumnAsString;
+                    // the rest of the row, read from the table if the scan moved on before the row was iterated
+                    private Iterator<Entry<Bytes, Bytes>> rest;
+
+                    @Override
+                    protected Entry<Bytes, Bytes> computeNext() {
+                        if (rest == null) {
+                            if (streamedRow == StreamedRow.this) {
+                                if (!inPartition(partitionKey)) {
+                                    return endOfData();
+                                }
+                                AzureEntity entity = entities.next();
+                                lastColumnAsString = entity.getRowKey();
+                                return new AbstractMap.SimpleEntry<>(keyCodec.decode(lastColumnAsString), decodeValue(entity));
+                            }
+                            rest = Iterators.filter(copiesOf(delegate().entrySet().iterator()), new Predicate<Entry<Bytes, Bytes>>() {
+                                @Override
+                                public boolean apply(Entry<Bytes, Bytes> entry) {
+                                    // the service returns the cells of a row ordered by their encoded column keys
+                                    return keyCodec.encode(entry.getKey()).compareTo(lastColumnAsString) > 0;
+                                }
+                            });
+                        }
+                        return rest.hasNext() ? rest.next() : endOfData();
+                    }
+                });
+            }
+        }
+    }
+
+    private static Iterator<Map.Entry<Bytes, Bytes>> copiesOf(Iterator<Map.Entry<Bytes, Bytes>> entries) {
+        return Iterators.transform(entries, new Function<Map.Entry<Bytes, Bytes>, Map.Entry<Bytes, Bytes>>() {
+            @Override
+            public Map.Entry<Bytes, Bytes> apply(Map.Entry<Bytes, Bytes> entry) {
+                return new AbstractMap.SimpleEntry<>(entry);
+            }
+        });
+    }
+
+    private final class RowEntry implements Map.Entry<Bytes, Map<Bytes, Bytes>> {
+        private final Bytes rowKey;
+        private final Map<Bytes, Bytes> row;
+
+        private RowEntry(Bytes rowKey, Map<Bytes, Bytes> row) {
+            this.rowKey = rowKey;
+            this.row = row;
+        }
+
+        @Override
+        public Bytes getKey() {
+            return rowKey;
+        }
+
+        @Override
+        public Map<Bytes, Bytes> getValue() {
+            return row;
+        }
+
+        @Override
+        public Map<Bytes, Bytes> setValue(Map<Bytes, Bytes> value) {
+            return baseAzureTable.rowMap().put(rowKey, value);
+        }
+    }
+
+    /**
+     * The cells of a row as they were scanned. Reads are served from the scanned cells, writes go to the table as well.
+     */
+    private static final class ScannedRow extends ForwardingMap<Bytes, Bytes> {
+        private final BaseAzureTable baseAzureTable;
+        private final Bytes rowKey;
+        private final Map<Bytes, Bytes> cells;
+
+        private ScannedRow(BaseAzureTable baseAzureTable, Bytes rowKey, Map<Bytes, Bytes> cells) {
+            this.baseAzureTable = baseAzureTable;
+            this.rowKey = rowKey;
+            this.cells = cells;
+        }
+
+        @Override
+        protected Map<Bytes, Bytes> delegate() {
+            return Collections.unmodifiableMap(cells);
+        }
+
+        @Override
+        public Bytes put(Bytes key, Bytes value) {
+            Bytes previousValue = baseAzureTable.put(rowKey, key, value);
+            cells.put(key, value);
+            return previousValue;
+        }
+
+        @Override
+        public Bytes remove(Object key) {
+            Bytes removedValue = baseAzureTable.remove(rowKey, key);
+            cells.remove(key);
+            return removedValue;
+        }
+
+        @Override
+        public void putAll(Map<? extends Bytes, ? extends Bytes> map) {
+            baseAzureTable.updateRow(rowKey, map, Collections.<Bytes>emptySet());
+            cells.putAll(map);
+        }
+
+        @Override
+        public void clear() {
+            baseAzureTable.row(rowKey).clear();
+            cells.clear();
+        }
+
+        @Override
+        public Set<Entry<Bytes, Bytes>> entrySet() {
+            return new StandardEntrySet() {
+                @Override
+                public Iterator<Entry<Bytes, Bytes>> iterator() {
+                    return new WriteThroughIterator(baseAzureTable, rowKey, cells.entrySet().iterator(), true);
+                }
+            };
+        }
+
+        @Override
+        public Set<Bytes> keySet() {
+            return new StandardKeySet();
+        }
+
+        @Override
+        public Collection<Bytes> values() {
+            return new StandardValues();
+        }
+    }
+
+    /**
+     * Iterates the entries of a row, removing an entry or setting its value writes to the table before the entry is
+     * updated, and, if the entries are held in memory, removed.
+     */
+    private static final class WriteThroughIterator implements Iterator<Map.Entry<Bytes, Bytes>> {
+        private final BaseAzureTable baseAzureTable;
+        private final Bytes rowKey;
+        private final Iterator<Map.Entry<Bytes, Bytes>> entries;
+        private final boolean removeFromEntries;
+        private Map.Entry<Bytes, Bytes> current;
+
+        private WriteThroughIterator(BaseAzureTable baseAzureTable, Bytes rowKey, Iterator<Map.Entry<Bytes, Bytes>> entries, boolean removeFromEntries) {
+            this.baseAzureTable = baseAzureTable;
+            this.rowKey = rowKey;
+            this.entries = entries;
+            this.removeFromEntries = removeFromEntries;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return entries.hasNext();
+        }
+
+        @Override
+        public Map.Entry<Bytes, Bytes> next() {
+            final Map.Entry<Bytes, Bytes> entry = entries.next();
+            current = entry;
+            return new ForwardingMapEntry<Bytes, Bytes>() {
+                @Override
+                protected Map.Entry<Bytes, Bytes> delegate() {
+                    return entry;
+                }
+
+                @Override
+                public Bytes setValue(Bytes value) {
+                    Bytes previousValue = baseAzureTable.put(rowKey, entry.getKey(), value);
+                    entry.setValue(value);
+                    return previousValue;
+                }
+            };
+        }
+
+        @Override
+        public void remove() {
+            checkState(current != null, "no entry to remove");
+            baseAzureTable.remove(rowKey, current.getKey());
+            if (removeFromEntries) {
+                entries.remove();
+            }
+            current = null;
+        }
+    }
+}
@@ -16,6 +16,10 @@
 package com.yammer.collections.azure;
 
 import com.google.common.base.Optional;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
 
 import java.util.AbstractSet;
 import java.util.Collection;
@@ -24,7 +28,7 @@ import java.util.Iterator;
 import java.util.NoSuchElementException;
 import java.util.Set;
 
-class SetView<E> extends AbstractSet<E> {
+class SetView<E> extends AbstractSet<E> implements LimitableView<E> {
     private final Collection<E> collectionView;
 
     private SetView(Collection<E> collectionView) {
@@ -39,6 +43,22 @@ class SetView<E> extends AbstractSet<E> {
         return new NonSetCollectionBasedSetView<>(collection);
     }
 
+    /**
+     * For collections whose iteration order places equal elements next to each other, such as partition keys
+     * of a table scan, which the service returns sorted. Iteration then only has to remember the last element.
+     */
+    static <E> SetView<E> fromGroupedCollectionView(Collection<E> collection) {
+        return new GroupedCollectionBasedSetView<>(collection);
+    }
+
+    /**
+     * Like {@link #fromCollectionView(Collection)}, but duplicates are tracked in at most about the given amount of heap,
+     * beyond which they are spilled to temporary files, see {@link SpillingDistinctIterator}.
+     */
+    static SetView<Bytes> fromCollectionView(Collection<Bytes> collection, long memoryBudgetInBytes) {
+        return new SpillingCollectionBasedSetView(collection, memoryBudgetInBytes);
+    }
+
     @Override
     public int size() {
         return collectionView.size();
@@ -54,6 +74,14 @@ class SetView<E> extends AbstractSet<E> {
         return collectionView.contains(o);
     }
 
+    @SuppressWarnings("unchecked")
+    @Override
+    public Iterable<E> limit(int limit) {
+        return collectionView instanceof LimitableView
+                ? ((LimitableView<E>) collectionView).limit(limit)
+                : Iterables.limit(collectionView, limit);
+    }
+
     @SuppressWarnings("NullableProblems")
     @Override
     public Iterator<E> iterator() {
@@ -98,6 +126,12 @@ class SetView<E> extends AbstractSet<E> {
             return size;
         }
 
+        // duplicates are skipped, so the view cannot tell how many entities its first elements take
+        @Override
+        public Iterable<E> limit(int limit) {
+            return Iterables.limit(this, limit);
+        }
+
         @SuppressWarnings("NullableProblems")
         @Override
         public Iterator<E> iterator() {
@@ -105,6 +139,109 @@ class SetView<E> extends AbstractSet<E> {
         }
     }
 
+    private static class GroupedCollectionBasedSetView<E> extends SetView<E> {
+        private final Collection<E> collectionView;
+
+        public GroupedCollectionBasedSetView(Collection<E> collectionView) {
+            super(collectionView);
+            this.collectionView = collectionView;
+        }
+
+        @Override
+        public int size() {
+            return Iterators.size(iterator());
+        }
+
+        @Override
+        public Iterable<E> limit(int limit) {
+            return Iterables.limit(this, limit);
+        }
+
+        @SuppressWarnings("NullableProblems")
+        @Override
+        public Iterator<E> iterator() {
+            return new AdjacentUniqueIterator<>(Iterators.peekingIterator(collectionView.iterator()));
+        }
+    }
+
+    private static class SpillingCollectionBasedSetView extends SetView<Bytes> {
+        private final Collection<Bytes> collectionView;
+        private final long memoryBudgetInBytes;
+
+        public SpillingCollectionBasedSetView(Collection<Bytes> collectionView, long memoryBudgetInBytes) {
+            super(collectionView);
+            this.collectionView = collectionView;
+            this.memoryBudgetInBytes = memoryBudgetInBytes;
+        }
+
+        @Override
+        public int size() {
+            return Iterators.size(iterator());
+        }
+
+        // the iterators are closed once they reach the limit, which deletes the runs they may have spilled
+        @Override
+        public Iterable<Bytes> limit(final int limit) {
+            return new Iterable<Bytes>() {
+                @Override
+                public Iterator<Bytes> iterator() {
+                    return new ClosingLimitIterator(new SpillingDistinctIterator(collectionView.iterator(), memoryBudgetInBytes), limit);
+                }
+            };
+        }
+
+        /**
+         * The returned iterator implements {@link java.io.Closeable}, see {@link SpillingDistinctIterator}.
+         */
+        @SuppressWarnings("NullableProblems")
+        @Override
+        public Iterator<Bytes> iterator() {
+            return new SpillingDistinctIterator(collectionView.iterator(), memoryBudgetInBytes);
+        }
+    }
+
+    private static final class ClosingLimitIterator extends AbstractIterator<Bytes> {
+        private final SpillingDistinctIterator baseIterator;
+        private int remaining;
+
+        private ClosingLimitIterator(SpillingDistinctIterator baseIterator, int limit) {
+            this.baseIterator = baseIterator;
+            remaining = limit;
+        }
+
+        @Override
+        protected Bytes computeNext() {
+            if (remaining == 0 || !baseIterator.hasNext()) {
+                baseIterator.close();
+                return endOfData();
+            }
+            remaining--;
+            return baseIterator.next();
+        }
+    }
+
+    // constant memory, but only skips duplicates that directly follow each other
+    private static class AdjacentUniqueIterator<E> extends AbstractIterator<E> {
+        private final PeekingIterator<E> baseIterator;
+
+        private AdjacentUniqueIterator(PeekingIterator<E> baseIterator) {
+            this.baseIterator = baseIterator;
+        }
+
+        @Override
+        protected E computeNext() {
+            if (!baseIterator.hasNext()) {
+                return endOfData();
+            }
+
+            E next = baseIterator.next();
+            while (baseIterator.hasNext() && baseIterator.peek().equals(next)) {
+                baseIterator.next();
+            }
+            return next;
+        }
+    }
+
     // this iterator has memory impact (maintains the occurences set) but allows for not loading the full set into memory immidiately
     private static class UniequeIterator<E> implements Iterator<E> {
         private final Iterator<E> baseIterator;
@@ -0,0 +1,275 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.azure;
+
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.collect.Iterables;
+import com.microsoft.windowsazure.services.table.client.TableQuery;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.yammer.collections.azure.AzureEntityUtil.decodeValue;
+import static com.yammer.collections.azure.KeyCodec.BYTES_ORDER;
+
+/**
+ * Columns of a row, in key order, of a table whose keys are encoded with {@link KeyCodec#ORDER_PRESERVING}.
+ * A view covers the columns in [lowerInclusive, upperExclusive), which its queries pass on to the service as RowKey
+ * filters, so sub maps of a wide row only read their own columns.
+ */
+class SortedColumnView extends AbstractMap<Bytes, Bytes> implements SortedMap<Bytes, Bytes> {
+    private final BaseAzureTable baseAzureTable;
+    private final Bytes rowKey;
+    private final String encodedRowKey;
+    private final Optional<Bytes> lowerInclusive;
+    private final Optional<Bytes> upperExclusive;
+    private final AzureTableCloudClient azureTableCloudClient;
+    private final AzureTableRequestFactory azureTableRequestFactory;
+    private final KeyCodec keyCodec;
+    private final Function<AzureEntity, Entry<Bytes, Bytes>> extractEntry = new Function<AzureEntity, Entry<Bytes, Bytes>>() {
+        @Override
+        public Entry<Bytes, Bytes> apply(AzureEntity input) {
+            return new ColumnEntry(keyCodec.decode(input.getRowKey()), decodeValue(input));
+        }
+    };
+
+    SortedColumnView(BaseAzureTable baseAzureTable,
+                     Bytes rowKey,
+                     AzureTableCloudClient azureTableCloudClient,
+                     AzureTableRequestFactory azureTableRequestFactory,
+                     KeyCodec keyCodec) {
+        this(baseAzureTable, rowKey, Optional.<Bytes>absent(), Optional.<Bytes>absent(), azureTableCloudClient, azureTableRequestFactory,
+                keyCodec);
+    }
+
+    private SortedColumnView(BaseAzureTable baseAzureTable,
+                             Bytes rowKey,
+                             Optional<Bytes> lowerInclusive,
+                             Optional<Bytes> upperExclusive,
+                             AzureTableCloudClient azureTableCloudClient,
+                             AzureTableRequestFactory azureTableRequestFactory,
+                             KeyCodec keyCodec) {
+        this.baseAzureTable = baseAzureTable;
+        this.rowKey = rowKey;
+        this.lowerInclusive = lowerInclusive;
+        this.upperExclusive = upperExclusive;
+        this.azureTableCloudClient = azureTableCloudClient;
+        this.azureTableRequestFactory = azureTableRequestFactory;
+        this.keyCodec = keyCodec;
+        encodedRowKey = keyCodec.encode(rowKey);
+    }
+
+    @Override
+    public Comparator<? super Bytes> comparator() {
+        return BYTES_ORDER;
+    }
+
+    @SuppressWarnings("NullableProblems")
+    @Override
+    public SortedMap<Bytes, Bytes> subMap(Bytes fromKey, Bytes toKey) {
+        checkArgument(BYTES_ORDER.compare(checkNotNull(fromKey), checkNotNull(toKey)) <= 0, "fromKey is greater than toKey");
+        return withRange(Optional.of(fromKey), Optional.of(toKey));
+    }
+
+    @SuppressWarnings("NullableProblems")
+    @Override
+    public SortedMap<Bytes, Bytes> headMap(Bytes toKey) {
+        return withRange(lowerInclusive, Optional.of(checkNotNull(toKey)));
+    }
+
+    @SuppressWarnings("NullableProblems")
+    @Override
+    public SortedMap<Bytes, Bytes> tailMap(Bytes fromKey) {
+        return withRange(Optional.of(checkNotNull(fromKey)), upperExclusive);
+    }
+
+    private SortedColumnView withRange(Optional<Bytes> newLowerInclusive, Optional<Bytes> newUpperExclusive) {
+        checkArgument(!newLowerInclusive.isPresent() || withinBounds(newLowerInclusive.get()), "fromKey out of range");
+        checkArgument(!newUpperExclusive.isPresent() || withinBounds(newUpperExclusive.get()), "toKey out of range");
+        return new SortedColumnView(baseAzureTable, rowKey, newLowerInclusive, newUpperExclusive, azureTableCloudClient,
+                azureTableRequestFactory, keyCodec);
+    }
+
+    // bounds of sub maps may be equal to the bounds of this view, including the exclusive one
+    private boolean withinBounds(Bytes key) {
+        return (!lowerInclusive.isPresent() || BYTES_ORDER.compare(key, lowerInclusive.get()) >= 0)
+                && (!upperExclusive.isPresent() || BYTES_ORDER.compare(key, upperExclusive.get()) <= 0);
+    }
+
+    private boolean inRange(Object key) {
+        return key instanceof Bytes
+                && (!lowerInclusive.isPresent() || BYTES_ORDER.compare((Bytes) key, lowerInclusive.get()) >= 0)
+                && (!upperExclusive.isPresent() || BYTES_ORDER.compare((Bytes) key, upperExclusive.get()) < 0);
+    }
+
+    @Override
+    public Bytes firstKey() {
+        Iterator<AzureEntity> keys = keys(1).iterator();
+        if (!keys.hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return keyCodec.decode(keys.next().getRowKey());
+    }
+
+    @Override
+    public Bytes lastKey() {
+        return Iterables.getLast(keySet());
+    }
+
+    @Override
+    public int size() {
+        return Iterables.size(keys());
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return !keys(1).iterator().hasNext();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public Bytes get(Object key) {
+        return inRange(key) ? baseAzureTable.get(rowKey, key) : null;
+    }
+
+    @Override
+    public Bytes put(Bytes key, Bytes value) {
+        checkArgument(inRange(checkNotNull(key)), "key out of range");
+        return baseAzureTable.put(rowKey, key, value);
+    }
+
+    /**
+     * Writes the entries as one entity group transaction, see {@link BaseAzureTable#updateRow(Bytes, Map, Iterable)}.
+     */
+    @Override
+    public void putAll(Map<? extends Bytes, ? extends Bytes> m) {
+        for (Bytes key : m.keySet()) {
+            checkArgument(inRange(checkNotNull(key)), "key out of range");
+        }
+        baseAzureTable.updateRow(rowKey, m, Collections.<Bytes>emptySet());
+    }
+
+    @Override
+    public Bytes remove(Object key) {
+        return inRange(key) ? baseAzureTable.remove(rowKey, key) : null;
+    }
+
+    @Override
+    public void clear() {
+        baseAzureTable.removeEntities(entities());
+    }
+
+    @SuppressWarnings("NullableProblems")
+    @Override
+    public Set<Bytes> keySet() {
+        return new AbstractSet<Bytes>() {
+            @Override
+            public Iterator<Bytes> iterator() {
+                return Iterables.transform(keys(), keyCodec.columnKeyExtractor()).iterator();
+            }
+
+            @Override
+            public int size() {
+                return SortedColumnView.this.size();
+            }
+
+            @Override
+            public boolean isEmpty() {
+                return SortedColumnView.this.isEmpty();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return containsKey(o);
+            }
+
+            @Override
+            public boolean remove(Object o) {
+                return SortedColumnView.this.remove(o) != null;
+            }
+        };
+    }
+
+    @SuppressWarnings("NullableProblems")
+    @Override
+    public Set<Entry<Bytes, Bytes>> entrySet() {
+        return new AbstractSet<Entry<Bytes, Bytes>>() {
+            @Override
+            public Iterator<Entry<Bytes, Bytes>> iterator() {
+                return Iterables.transform(entities(), extractEntry).iterator();
+            }
+
+            @Override
+            public int size() {
+                return SortedColumnView.this.size();
+            }
+
+            @Override
+            public boolean isEmpty() {
+                return SortedColumnView.this.isEmpty();
+            }
+        };
+    }
+
+    private Iterable<AzureEntity> entities() {
+        TableQuery<AzureEntity> query = azureTableRequestFactory.selectRangeForRow(
+                baseAzureTable.getTableName(), encodedRowKey, encoded(lowerInclusive), encoded(upperExclusive));
+        return azureTableCloudClient.execute(query);
+    }
+
+    // entities returned by the key query do not carry values
+    private Iterable<AzureEntity> keys() {
+        TableQuery<AzureEntity> query = azureTableRequestFactory.selectKeysInRangeForRow(
+                baseAzureTable.getTableName(), encodedRowKey, encoded(lowerInclusive), encoded(upperExclusive));
+        return azureTableCloudClient.execute(query);
+    }
+
+    private Iterable<AzureEntity> keys(int limit) {
+        TableQuery<AzureEntity> query = azureTableRequestFactory.selectKeysInRangeForRow(
+                baseAzureTable.getTableName(), encodedRowKey, encoded(lowerInclusive), encoded(upperExclusive));
+        return Iterables.limit(azureTableCloudClient.execute(azureTableRequestFactory.take(query, limit)), limit);
+    }
+
+    private Optional<String> encoded(Optional<Bytes> bound) {
+        return bound.isPresent() ? Optional.of(keyCodec.encode(bound.get())) : Optional.<String>absent();
+    }
+
+    private final class ColumnEntry extends SimpleEntry<Bytes, Bytes> {
+        private ColumnEntry(Bytes columnKey, Bytes value) {
+            super(columnKey, value);
+        }
+
+        @Override
+        public Bytes setValue(Bytes value) {
+            put(getKey(), value);
+            return super.setValue(value);
+        }
+    }
+}
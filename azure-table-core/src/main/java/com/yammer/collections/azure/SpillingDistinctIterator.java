@@ -0,0 +1,255 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.azure;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import static com.yammer.collections.azure.KeyCodec.BYTES_ORDER;
+
+/**
+ * Skips repeated elements of an iterator in bounded memory.
+ * <p/>
+ * Distinct elements are collected in an in-memory set and returned as they are first seen. Once the set outgrows the
+ * memory budget, it is written to a temporary file as a sorted run and cleared. From then on nothing more is returned
+ * until the base iterator is exhausted, after which all runs are merged and the elements not returned before are
+ * streamed in byte order. Run files are deleted as soon as the merge has opened them, where the file system allows that,
+ * and otherwise once the merge completes. An iterator which is abandoned before that has to be closed to delete its runs.
+ */
+final class SpillingDistinctIterator extends AbstractIterator<Bytes> implements Closeable {
+    // rough heap footprint of a set entry, the Bytes wrapper and the array header
+    static final int ELEMENT_OVERHEAD_IN_BYTES = 96;
+    private static final String RUN_FILE_PREFIX = "azure-table-distinct";
+    private final Iterator<Bytes> baseIterator;
+    private final long memoryBudgetInBytes;
+    // null for the default temporary directory
+    private final File runDirectory;
+    private final Set<Bytes> inMemory;
+    private final List<File> runs;
+    private long inMemorySizeInBytes;
+    private MergingIterator mergedRuns;
+    private boolean closed;
+
+    SpillingDistinctIterator(Iterator<Bytes> baseIterator, long memoryBudgetInBytes) {
+        this(baseIterator, memoryBudgetInBytes, null);
+    }
+
+    // internal and test use only
+    SpillingDistinctIterator(Iterator<Bytes> baseIterator, long memoryBudgetInBytes, File runDirectory) {
+        this.baseIterator = baseIterator;
+        this.memoryBudgetInBytes = memoryBudgetInBytes;
+        this.runDirectory = runDirectory;
+        inMemory = new HashSet<>();
+        runs = new ArrayList<>();
+    }
+
+    private static long sizeOf(Bytes element) {
+        return ELEMENT_OVERHEAD_IN_BYTES + element.getBytes().length;
+    }
+
+    @Override
+    protected Bytes computeNext() {
+        if (closed) {
+            return endOfData();
+        }
+        if (mergedRuns != null) {
+            return mergedRuns.hasNext() ? mergedRuns.next() : endOfData();
+        }
+
+        while (baseIterator.hasNext()) {
+            Bytes candidate = baseIterator.next();
+            if (!inMemory.add(candidate)) {
+                continue;
+            }
+            // the first run holds exactly the elements returned immediately, later ones wait for the merge
+            boolean returnImmediately = runs.isEmpty();
+            inMemorySizeInBytes += sizeOf(candidate);
+            if (inMemorySizeInBytes > memoryBudgetInBytes) {
+                spill();
+            }
+            if (returnImmediately) {
+                return candidate;
+            }
+        }
+
+        if (runs.isEmpty()) {
+            return endOfData();
+        }
+        if (!inMemory.isEmpty()) {
+            spill();
+        }
+        mergedRuns = new MergingIterator(runs);
+        return computeNext();
+    }
+
+    private void spill() {
+        List<Bytes> sorted = new ArrayList<>(inMemory);
+        Collections.sort(sorted, BYTES_ORDER);
+        try {
+            File run = File.createTempFile(RUN_FILE_PREFIX, ".run", runDirectory);
+            runs.add(run);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run)))) {
+                for (Bytes element : sorted) {
+                    out.writeInt(element.getBytes().length);
+                    out.write(element.getBytes());
+                }
+            }
+        } catch (IOException e) {
+            deleteRuns(runs);
+            throw Throwables.propagate(e);
+        }
+        inMemory.clear();
+        inMemorySizeInBytes = 0;
+    }
+
+    /**
+     * Deletes the runs spilled so far, after which the iterator has no more elements.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (mergedRuns != null) {
+            mergedRuns.close();
+        }
+        deleteRuns(runs);
+        inMemory.clear();
+    }
+
+    // files which are gone already are skipped, so this is safe to call again
+    private static void deleteRuns(List<File> runs) {
+        for (File run : runs) {
+            //noinspection ResultOfMethodCallIgnored
+            run.delete();
+        }
+    }
+
+    // k-way merge of the sorted runs, skipping elements of the first run, which have already been returned
+    private static final class MergingIterator extends AbstractIterator<Bytes> implements Closeable {
+        private final List<File> runFiles;
+        private final PriorityQueue<RunReader> readers;
+        private final RunReader alreadyReturned;
+
+        private MergingIterator(List<File> runFiles) {
+            this.runFiles = runFiles;
+            readers = new PriorityQueue<>(runFiles.size(), new Comparator<RunReader>() {
+                @Override
+                public int compare(RunReader o1, RunReader o2) {
+                    return BYTES_ORDER.compare(o1.peek(), o2.peek());
+                }
+            });
+            List<RunReader> opened = new ArrayList<>();
+            for (File runFile : runFiles) {
+                RunReader reader = new RunReader(runFile);
+                opened.add(reader);
+                if (reader.hasNext()) {
+                    readers.add(reader);
+                }
+            }
+            alreadyReturned = opened.get(0);
+            // open files stay readable once deleted on most file systems, elsewhere the delete is repeated at the end
+            deleteRuns(runFiles);
+        }
+
+        @Override
+        protected Bytes computeNext() {
+            while (!readers.isEmpty()) {
+                Bytes smallest = readers.peek().peek();
+                boolean returnedBefore = false;
+                while (!readers.isEmpty() && readers.peek().peek().equals(smallest)) {
+                    RunReader reader = readers.poll();
+                    returnedBefore |= reader == alreadyReturned;
+                    reader.next();
+                    if (reader.hasNext()) {
+                        readers.add(reader);
+                    } else {
+                        reader.close();
+                    }
+                }
+                if (!returnedBefore) {
+                    return smallest;
+                }
+            }
+
+            close();
+            return endOfData();
+        }
+
+        @Override
+        public void close() {
+            for (RunReader reader : readers) {
+                reader.close();
+            }
+            readers.clear();
+            deleteRuns(runFiles);
+        }
+    }
+
+    private static final class RunReader extends AbstractIterator<Bytes> implements Closeable {
+        private final DataInputStream in;
+
+        private RunReader(File run) {
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(run)));
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+
+        @Override
+        protected Bytes computeNext() {
+            try {
+                int length = in.readInt();
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                return Bytes.of(bytes);
+            } catch (EOFException ignored) {
+                close();
+                return endOfData();
+            } catch (IOException e) {
+                close();
+                throw Throwables.propagate(e);
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+                // nothing left to read
+            }
+        }
+    }
+}
@@ -0,0 +1,416 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.azure;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.microsoft.windowsazure.services.core.storage.ResultContinuation;
+import com.microsoft.windowsazure.services.core.storage.ResultSegment;
+import com.microsoft.windowsazure.services.core.storage.StorageException;
+import com.microsoft.windowsazure.services.table.client.EntityResolver;
+import com.microsoft.windowsazure.services.table.client.TableQuery;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the full table scans of a table.
+ * <p/>
+ * With a single range, a scan is one query which follows the continuation tokens one page at a time.
+ * With more ranges, the partition key space is split into adjacent {@link PartitionRange}s which are queried
+ * concurrently on the executor. The ranges split the keys between the lowest and the highest key of the table, which are
+ * found with a few single key queries, and are derived again every few minutes as the keys of the table change.
+ * Iterators still return the entities in key order: they go through the ranges
+ * one after the other, while every range keeps fetching a few pages ahead. As pages are fetched by the executor
+ * and only buffered, an iterator which is abandoned half way does not hold on to any thread.
+ * <p/>
+ * Results are built by an {@link EntityResolver} straight from the properties returned by the service, so scans for
+ * cells, keys or values do not build entities first.
+ */
+class TableScanner {
+    static final int PREFETCH_PAGES = 2;
+    private static final long SPLIT_EXPIRATION_IN_MINUTES = 5;
+    // keys sharing longer prefixes than this are not told apart, which leaves a single range
+    private static final int MAX_PROBED_KEY_LENGTH = 64;
+    private final String tableName;
+    private final AzureTableCloudClient azureTableCloudClient;
+    private final AzureTableRequestFactory azureTableRequestFactory;
+    private final ListeningExecutorService executor;
+    private final int rangeCount;
+    private final KeyCodec keyCodec;
+    private final Supplier<List<PartitionRange>> ranges;
+
+    TableScanner(String tableName, AzureTableCloudClient azureTableCloudClient, AzureTableRequestFactory azureTableRequestFactory) {
+        this(tableName, azureTableCloudClient, azureTableRequestFactory, MoreExecutors.sameThreadExecutor(), 1);
+    }
+
+    TableScanner(String tableName,
+                 AzureTableCloudClient azureTableCloudClient,
+                 AzureTableRequestFactory azureTableRequestFactory,
+                 ListeningExecutorService executor,
+                 int ranges) {
+        this(tableName, azureTableCloudClient, azureTableRequestFactory, executor, ranges, KeyCodec.BASE64);
+    }
+
+    TableScanner(String tableName,
+                 AzureTableCloudClient azureTableCloudClient,
+                 AzureTableRequestFactory azureTableRequestFactory,
+                 ListeningExecutorService executor,
+                 int ranges,
+                 KeyCodec keyCodec) {
+        this.tableName = tableName;
+        this.azureTableCloudClient = azureTableCloudClient;
+        this.azureTableRequestFactory = azureTableRequestFactory;
+        this.executor = executor;
+        rangeCount = ranges;
+        this.keyCodec = keyCodec;
+        this.ranges = Suppliers.memoizeWithExpiration(new Supplier<List<PartitionRange>>() {
+            @Override
+            public List<PartitionRange> get() {
+                return splitObservedKeys();
+            }
+        }, SPLIT_EXPIRATION_IN_MINUTES, TimeUnit.MINUTES);
+    }
+
+    Iterable<AzureEntity> entities() {
+        return scan(EntityResolvers.ENTITY, false);
+    }
+
+    // entities returned by the key scans do not carry values
+    Iterable<AzureEntity> keys() {
+        return scan(EntityResolvers.ENTITY, true);
+    }
+
+    /**
+     * The first entities of a scan, read with a single query whose pages hold no more entities than needed.
+     */
+    Iterable<AzureEntity> entities(int limit) {
+        return scan(EntityResolvers.ENTITY, false, limit);
+    }
+
+    Iterable<AzureEntity> keys(int limit) {
+        return scan(EntityResolvers.ENTITY, true, limit);
+    }
+
+    boolean isEmpty() {
+        return !scan(EntityResolvers.PRESENCE, true, 1).iterator().hasNext();
+    }
+
+    int count() {
+        final AtomicInteger count = new AtomicInteger();
+        forEach(EntityResolvers.PRESENCE, true, new Sink<Boolean>() {
+            @Override
+            public void accept(Boolean present) {
+                count.incrementAndGet();
+            }
+        });
+        return count.get();
+    }
+
+    /**
+     * Passes the result of every entity of the table to the sink, in no particular order. With more than one range,
+     * the sink is called concurrently from the threads of the executor.
+     */
+    <T> void forEach(EntityResolver<T> resolver, Sink<? super T> sink) {
+        forEach(resolver, false, sink);
+    }
+
+    /**
+     * Scans the table in key order.
+     *
+     * @param keysOnly whether the values are left out of the results, in which case the resolver does not get them
+     */
+    <T> Iterable<T> scan(final EntityResolver<T> resolver, final boolean keysOnly) {
+        if (isSequential()) {
+            return azureTableCloudClient.execute(keysOnly
+                    ? azureTableRequestFactory.selectAllKeys(tableName)
+                    : azureTableRequestFactory.selectAll(tableName), resolver);
+        }
+
+        return new Iterable<T>() {
+            @Override
+            public Iterator<T> iterator() {
+                List<PartitionRange> split = ranges.get();
+                List<RangeCursor<T>> cursors = new ArrayList<>(split.size());
+                for (PartitionRange range : split) {
+                    RangeCursor<T> cursor = new RangeCursor<>(query(range, keysOnly), resolver);
+                    cursor.prefetch();
+                    cursors.add(cursor);
+                }
+                return new OrderedRangesIterator<>(cursors.iterator());
+            }
+        };
+    }
+
+    /**
+     * The first results of a scan, read with a single query whose pages hold no more entities than needed.
+     */
+    <T> Iterable<T> scan(EntityResolver<T> resolver, boolean keysOnly, int limit) {
+        TableQuery<AzureEntity> query = keysOnly
+                ? azureTableRequestFactory.selectAllKeys(tableName)
+                : azureTableRequestFactory.selectAll(tableName);
+        return Iterables.limit(azureTableCloudClient.execute(azureTableRequestFactory.take(query, limit), resolver), limit);
+    }
+
+    private boolean isSequential() {
+        return rangeCount == 1;
+    }
+
+    private List<PartitionRange> splitObservedKeys() {
+        Optional<String> lowestKey = firstKeyFrom(Optional.<String>absent());
+        if (!lowestKey.isPresent()) {
+            // there are no keys to split yet
+            return PartitionRange.split(rangeCount, keyCodec);
+        }
+        return PartitionRange.split(rangeCount, keyCodec, lowestKey.get(), highestKeyPrefix(lowestKey.get()));
+    }
+
+    /**
+     * The first characters of the highest key, down to a few characters past the prefix it shares with the lowest key.
+     * The service cannot return the highest key directly, so it is found character by character, with queries for the
+     * first key at or above a candidate prefix: while the prefix is shared with the lowest key a single query tells
+     * whether the next character is shared as well, otherwise the character is found by bisecting the alphabet.
+     */
+    private String highestKeyPrefix(String lowestKey) {
+        String sortedAlphabet = keyCodec.getSortedAlphabet();
+        StringBuilder prefix = new StringBuilder();
+        int digitsPastLowestKey = 0;
+        while (digitsPastLowestKey < PartitionRange.SPLIT_DIGITS && prefix.length() < MAX_PROBED_KEY_LENGTH) {
+            String knownPrefix = prefix.toString();
+            int lowestDigit = lowestKey.startsWith(knownPrefix) && lowestKey.length() > knownPrefix.length()
+                    ? sortedAlphabet.indexOf(lowestKey.charAt(knownPrefix.length()))
+                    : -1;
+            int digit;
+            if (lowestDigit >= 0) {
+                // the highest key is not below the lowest one, so it continues with the same character unless there are keys above it
+                digit = lowestDigit + 1 < sortedAlphabet.length() && hasKeyFrom(knownPrefix + sortedAlphabet.charAt(lowestDigit + 1))
+                        ? highestDigit(knownPrefix, lowestDigit + 1)
+                        : lowestDigit;
+            } else if (hasKeyFrom(knownPrefix + sortedAlphabet.charAt(0))) {
+                digit = highestDigit(knownPrefix, 0);
+            } else {
+                // the highest key is the prefix itself
+                break;
+            }
+            prefix.append(sortedAlphabet.charAt(digit));
+            if (!lowestKey.startsWith(prefix.toString())) {
+                digitsPastLowestKey++;
+            }
+        }
+        return prefix.toString();
+    }
+
+    // the highest digit, at least the given one, for which there are keys at or above the prefix followed by it
+    private int highestDigit(String prefix, int atLeast) {
+        String sortedAlphabet = keyCodec.getSortedAlphabet();
+        int low = atLeast;
+        int high = sortedAlphabet.length() - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (hasKeyFrom(prefix + sortedAlphabet.charAt(middle))) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    private boolean hasKeyFrom(String lowerInclusive) {
+        return firstKeyFrom(Optional.of(lowerInclusive)).isPresent();
+    }
+
+    private Optional<String> firstKeyFrom(Optional<String> lowerInclusive) {
+        Iterator<String> keys = azureTableCloudClient.execute(
+                azureTableRequestFactory.selectFirstKey(tableName, lowerInclusive), EntityResolvers.PARTITION_KEY).iterator();
+        return keys.hasNext() ? Optional.of(keys.next()) : Optional.<String>absent();
+    }
+
+    private TableQuery<AzureEntity> query(PartitionRange range, boolean keysOnly) {
+        return keysOnly
+                ? azureTableRequestFactory.selectAllKeys(tableName, range)
+                : azureTableRequestFactory.selectAll(tableName, range);
+    }
+
+    private <T> void forEach(EntityResolver<T> resolver, boolean keysOnly, final Sink<? super T> sink) {
+        if (isSequential()) {
+            for (T result : scan(resolver, keysOnly)) {
+                sink.accept(result);
+            }
+            return;
+        }
+
+        List<PartitionRange> split = ranges.get();
+        List<ListenableFuture<Void>> rangeScans = new ArrayList<>(split.size());
+        for (PartitionRange range : split) {
+            final Iterable<T> rangeScan = azureTableCloudClient.execute(query(range, keysOnly), resolver);
+            rangeScans.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    for (T result : rangeScan) {
+                        sink.accept(result);
+                    }
+                    return null;
+                }
+            }));
+        }
+
+        ListenableFuture<List<Void>> allScans = Futures.allAsList(rangeScans);
+        try {
+            allScans.get();
+        } catch (InterruptedException e) {
+            allScans.cancel(true);
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(e);
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    interface Sink<T> {
+        void accept(T result);
+    }
+
+    private static final class OrderedRangesIterator<T> extends AbstractIterator<T> {
+        private final Iterator<RangeCursor<T>> cursors;
+        private RangeCursor<T> currentCursor;
+        private Iterator<T> currentPage;
+
+        private OrderedRangesIterator(Iterator<RangeCursor<T>> cursors) {
+            this.cursors = cursors;
+            currentPage = Iterators.emptyIterator();
+        }
+
+        @Override
+        protected T computeNext() {
+            while (!currentPage.hasNext()) {
+                if (currentCursor == null) {
+                    if (!cursors.hasNext()) {
+                        return endOfData();
+                    }
+                    currentCursor = cursors.next();
+                }
+                List<T> page = currentCursor.takePage();
+                if (page == null) {
+                    currentCursor = null;
+                } else {
+                    currentPage = page.iterator();
+                }
+            }
+            return currentPage.next();
+        }
+    }
+
+    // pages of a single range, fetched ahead on the executor
+    private final class RangeCursor<T> {
+        private final TableQuery<AzureEntity> query;
+        private final EntityResolver<T> resolver;
+        private final Deque<List<T>> pages;
+        private ResultContinuation continuation;
+        private boolean fetching;
+        private boolean exhausted;
+        private Throwable failure;
+
+        private RangeCursor(TableQuery<AzureEntity> query, EntityResolver<T> resolver) {
+            this.query = query;
+            this.resolver = resolver;
+            pages = new ArrayDeque<>();
+        }
+
+        synchronized void prefetch() {
+            if (fetching || exhausted || failure != null || pages.size() >= PREFETCH_PAGES) {
+                return;
+            }
+
+            fetching = true;
+            final ResultContinuation from = continuation;
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        fetchPage(from);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                onFailure(e);
+            }
+        }
+
+        private void fetchPage(ResultContinuation from) {
+            try {
+                ResultSegment<T> segment = azureTableCloudClient.executeSegmented(query, resolver, from);
+                onPage(segment.getResults(), segment.getContinuationToken());
+            } catch (StorageException | RuntimeException e) {
+                onFailure(e);
+            }
+        }
+
+        private synchronized void onPage(List<T> page, ResultContinuation next) {
+            pages.addLast(page);
+            continuation = next;
+            exhausted = next == null || !next.hasContinuation();
+            fetching = false;
+            notifyAll();
+            prefetch();
+        }
+
+        private synchronized void onFailure(Throwable cause) {
+            failure = cause;
+            fetching = false;
+            notifyAll();
+        }
+
+        // the next page of the range, or null once the range is exhausted
+        synchronized List<T> takePage() {
+            prefetch();
+            while (pages.isEmpty() && failure == null && !exhausted) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw Throwables.propagate(e);
+                }
+            }
+
+            if (!pages.isEmpty()) {
+                List<T> page = pages.removeFirst();
+                prefetch();
+                return page;
+            }
+            if (failure != null) {
+                throw Throwables.propagate(failure);
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.azure;
+
+import com.microsoft.windowsazure.services.table.client.TableOperation;
+
+import static com.yammer.collections.azure.AzureEntityUtil.encode;
+
+/**
+ * How values are written. Both formats are always read, so a table can switch to binary values without migrating
+ * the values written before.
+ */
+enum ValueFormat {
+    /**
+     * The value is base64 encoded into a string property. Strings are limited to 32K characters, which limits values
+     * to about 24KB.
+     */
+    BASE64_STRING {
+        @Override
+        TableOperation put(AzureTableRequestFactory azureTableRequestFactory, String row, String column, Bytes value) {
+            return azureTableRequestFactory.put(row, column, encode(value));
+        }
+
+        @Override
+        AzureEntity toEntity(String row, String column, Bytes value) {
+            return new AzureEntity(row, column, encode(value));
+        }
+    },
+    /**
+     * The value is stored as an Edm.Binary property, which skips encoding the value in this library and allows
+     * values of up to 64KB.
+     */
+    BINARY {
+        @Override
+        TableOperation put(AzureTableRequestFactory azureTableRequestFactory, String row, String column, Bytes value) {
+            return azureTableRequestFactory.put(toEntity(row, column, value));
+        }
+
+        @Override
+        AzureEntity toEntity(String row, String column, Bytes value) {
+            return new BinaryAzureEntity(row, column, value.getBytes());
+        }
+    };
+
+    abstract TableOperation put(AzureTableRequestFactory azureTableRequestFactory, String row, String column, Bytes value);
+
+    abstract AzureEntity toEntity(String row, String column, Bytes value);
+}
@@ -0,0 +1,215 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.azure;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Table;
+import com.google.common.collect.Tables;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.microsoft.windowsazure.services.core.storage.StorageException;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.yammer.collections.azure.BaseAzureTable.notFound;
+
+/**
+ * Index from values to the cells holding them, kept in a companion table. An entry has the hash of the value as
+ * partition key, so the cells that may hold a value are read with a single partition query. Its row key is a hash of
+ * the encoded row and column keys of the cell, which keeps it within the 1KB the service allows for row keys however
+ * long the keys of the cell are, and the keys themselves are its value.
+ * <p/>
+ * Entries are written before the cells they point to and are not deleted with them, so the index can return cells
+ * which no longer hold the value, but it does not miss cells. Readers verify the candidates against the table and drop
+ * the stale entries they come across, conditionally on the version of the entry they read, so that an entry which was
+ * written again in the meantime is kept. Entries younger than a grace period are kept as well, as the write of their
+ * cell may not have landed yet when the reader read the cell.
+ */
+final class ValueIndex {
+    // neither key codec uses the separator, so it splits the keys held by an entry unambiguously
+    private static final char SEPARATOR = ':';
+    // wide enough for the hashes of the cells of a value not to collide
+    private static final HashFunction HASH = Hashing.murmur3_128();
+    // the grace period covers a write of a cell with its retries, and the clock skew between the client and the service
+    private static final int REQUEST_TIMEOUTS_PER_GRACE_PERIOD = 10;
+    private static final long MIN_GRACE_PERIOD_IN_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    private final String indexTableName;
+    private final AzureTableCloudClient azureTableCloudClient;
+    private final AzureTableRequestFactory azureTableRequestFactory;
+    private final KeyCodec keyCodec;
+    private final long gracePeriodInMillis;
+    private final Function<AzureEntity, Table.Cell<Bytes, Bytes, AzureEntity>> extractCell = new Function<AzureEntity, Table.Cell<Bytes, Bytes, AzureEntity>>() {
+        @Override
+        public Table.Cell<Bytes, Bytes, AzureEntity> apply(AzureEntity input) {
+            String cellKeys = input.getValue();
+            int separatorIndex = cellKeys == null ? -1 : cellKeys.indexOf(SEPARATOR);
+            checkArgument(separatorIndex >= 0, "not a value index entry: %s", input.getRowKey());
+            return Tables.immutableCell(
+                    keyCodec.decode(cellKeys.substring(0, separatorIndex)),
+                    keyCodec.decode(cellKeys.substring(separatorIndex + 1)),
+                    input);
+        }
+    };
+    private final Function<List<AzureEntity>, Callable<Void>> putBatch = new Function<List<AzureEntity>, Callable<Void>>() {
+        @Override
+        public Callable<Void> apply(final List<AzureEntity> batch) {
+            return new Callable<Void>() {
+                @Override
+                public Void call() throws StorageException {
+                    azureTableCloudClient.execute(indexTableName, azureTableRequestFactory.putBatch(batch));
+                    return null;
+                }
+            };
+        }
+    };
+
+    ValueIndex(String indexTableName,
+               AzureTableCloudClient azureTableCloudClient,
+               AzureTableRequestFactory azureTableRequestFactory,
+               KeyCodec keyCodec,
+               long gracePeriodInMillis) {
+        this.indexTableName = indexTableName;
+        this.azureTableCloudClient = azureTableCloudClient;
+        this.azureTableRequestFactory = azureTableRequestFactory;
+        this.keyCodec = keyCodec;
+        this.gracePeriodInMillis = gracePeriodInMillis;
+    }
+
+    /**
+     * The age below which entries are not dropped by readers, for a client which gives up on a request after the given
+     * timeout.
+     */
+    static long gracePeriodInMillis(int requestTimeoutInMs) {
+        return Math.max(MIN_GRACE_PERIOD_IN_MILLIS, REQUEST_TIMEOUTS_PER_GRACE_PERIOD * (long) requestTimeoutInMs);
+    }
+
+    static String partitionOf(Bytes value) {
+        return HASH.hashBytes(value.getBytes()).toString();
+    }
+
+    static AzureEntity entryOf(String rowAsString, String columnAsString, Bytes value) {
+        String cellKeys = rowAsString + SEPARATOR + columnAsString;
+        return new AzureEntity(partitionOf(value), HASH.hashString(cellKeys, Charsets.UTF_8).toString(), cellKeys);
+    }
+
+    String getIndexTableName() {
+        return indexTableName;
+    }
+
+    void add(String rowAsString, String columnAsString, Bytes value) {
+        AzureEntity entry = entryOf(rowAsString, columnAsString, value);
+        try {
+            azureTableCloudClient.execute(indexTableName, azureTableRequestFactory.put(entry));
+        } catch (StorageException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * Writes of the given entries, one per entity group transaction. The entries should be grouped by partition.
+     */
+    Iterable<Callable<Void>> addBatches(Iterable<AzureEntity> entries) {
+        return Iterables.transform(EntityBatches.partitionBatches(entries), putBatch);
+    }
+
+    /**
+     * Deletes an entry, as read by {@link #candidates(Bytes)}, whose cell was found not to hold the value, unless the
+     * entry changed since it was read, which means that the value was written again. Entries younger than the grace
+     * period are kept, as the write of their cell may still be on its way, and so are entries without a timestamp.
+     * Failures are ignored, as stale entries are dropped by the next reader to come across them.
+     */
+    void removeStale(AzureEntity entry) {
+        Date written = entry.getTimestamp();
+        if (written == null || written.getTime() > System.currentTimeMillis() - gracePeriodInMillis) {
+            return;
+        }
+        try {
+            azureTableCloudClient.execute(indexTableName, azureTableRequestFactory.delete(entry));
+        } catch (StorageException ignored) {
+            // the entry is gone, was written again or will be dropped by the next reader to come across it
+        }
+    }
+
+    /**
+     * The cells which may hold the value, a superset of the ones which do, with their entries as values. The entries
+     * are read lazily, a page of the partition query at a time.
+     */
+    Iterable<Table.Cell<Bytes, Bytes, AzureEntity>> candidates(Bytes value) {
+        return Iterables.transform(
+                azureTableCloudClient.execute(azureTableRequestFactory.selectAllForRow(indexTableName, partitionOf(value))),
+                extractCell);
+    }
+
+    /**
+     * Deletes all entries, one entity group transaction at a time. Entries which are already gone are skipped.
+     */
+    void clear() {
+        Iterable<AzureEntity> entries = azureTableCloudClient.execute(azureTableRequestFactory.selectAllKeys(indexTableName));
+        for (List<AzureEntity> batch : EntityBatches.partitionBatches(entries)) {
+            try {
+                deleteInBatch(anyVersionsOf(batch));
+            } catch (StorageException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+    }
+
+    private void deleteEntry(AzureEntity entry) throws StorageException {
+        try {
+            azureTableCloudClient.execute(indexTableName, azureTableRequestFactory.delete(entry));
+        } catch (StorageException e) {
+            if (!notFound(e)) {
+                throw e;
+            }
+        }
+    }
+
+    // a batch fails as a whole when one of its entries is gone, e.g. dropped by a reader, so the rest are deleted one by one
+    private void deleteInBatch(List<AzureEntity> batch) throws StorageException {
+        try {
+            azureTableCloudClient.execute(indexTableName, azureTableRequestFactory.deleteBatch(batch));
+            return;
+        } catch (StorageException e) {
+            if (!notFound(e)) {
+                throw e;
+            }
+        }
+
+        if (batch.size() == 1) {
+            return;
+        }
+
+        for (AzureEntity entry : batch) {
+            deleteEntry(entry);
+        }
+    }
+
+    private static List<AzureEntity> anyVersionsOf(List<AzureEntity> entries) {
+        List<AzureEntity> anyVersions = Lists.newArrayListWithCapacity(entries.size());
+        for (AzureEntity entry : entries) {
+            anyVersions.add(AzureEntityUtil.anyVersionOf(entry.getPartitionKey(), entry.getRowKey()));
+        }
+        return anyVersions;
+    }
+}
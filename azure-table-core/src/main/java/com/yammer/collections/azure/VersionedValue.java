@@ -0,0 +1,41 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.azure;
+
+/**
+ * The value of a cell along with the ETag of the version it was read from, see {@link BaseAzureTable#getVersioned(Bytes, Bytes)}.
+ */
+public final class VersionedValue {
+    private final Bytes value;
+    private final String etag;
+
+    VersionedValue(Bytes value, String etag) {
+        this.value = value;
+        this.etag = etag;
+    }
+
+    public Bytes getValue() {
+        return value;
+    }
+
+    /**
+     * Opaque version of the cell, which changes with every write. Pass it to
+     * {@link BaseAzureTable#replace(Bytes, Bytes, String, Bytes)} to write only if the cell has not changed since.
+     */
+    public String getEtag() {
+        return etag;
+    }
+}
@@ -0,0 +1,354 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.azure;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ForwardingTable;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Table;
+import com.google.common.collect.Tables;
+
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Buffers puts and removes of single cells and writes them to the table later, as batches of at most one request
+ * per row and hundred cells. Repeated writes of the same cell are coalesced, only the last one is sent.
+ * <p/>
+ * Pending writes are flushed once maxPendingCells cells are buffered, every maxAge on the given scheduler,
+ * on {@link #flush()} and on {@link #close()}. At most maxPendingCells cells are buffered, including the ones being
+ * flushed. A write of another cell which finds the buffer full flushes it in the writing thread, which slows writers
+ * down to the rate at which the table accepts writes, and fails with the exception of that flush if it fails, so
+ * the write is either buffered or rejected.
+ * <p/>
+ * Reads of single cells see pending writes. The other reads, such as {@link #row(Bytes)} or {@link #size()},
+ * flush pending writes first, but views obtained earlier do not see later writes until they are flushed.
+ * Writes after {@link #close()} fail with an {@link IllegalStateException}. Writes which are still buffered are
+ * lost if the process dies.
+ */
+@SuppressWarnings("ClassWithTooManyMethods")
+public class WriteBehindTable extends ForwardingTable<Bytes, Bytes, Bytes> implements Closeable {
+    private final BaseAzureTable backingTable;
+    private final int maxPendingCells;
+    private final Object bufferLock = new Object();
+    private final Object flushLock = new Object();
+    // absent values are pending removes
+    private Map<Cell<Bytes, Bytes, Object>, Optional<Bytes>> pending;
+    private Map<Cell<Bytes, Bytes, Object>, Optional<Bytes>> flushing;
+    private ScheduledFuture<?> scheduledFlush;
+    private boolean closed;
+
+    private WriteBehindTable(BaseAzureTable backingTable, int maxPendingCells) {
+        this.backingTable = backingTable;
+        this.maxPendingCells = maxPendingCells;
+        pending = Maps.newLinkedHashMap();
+        flushing = Maps.newLinkedHashMap();
+    }
+
+    /**
+     * @param maxAge    how often pending writes are flushed on the scheduler, which is not shut down by this table
+     */
+    public static WriteBehindTable create(BaseAzureTable backingTable,
+                                          int maxPendingCells,
+                                          long maxAge,
+                                          TimeUnit unit,
+                                          ScheduledExecutorService scheduler) {
+        checkArgument(maxPendingCells > 0, "maxPendingCells has to be positive");
+        checkArgument(maxAge > 0, "maxAge has to be positive");
+        checkNotNull(unit);
+        final WriteBehindTable writeBehindTable = new WriteBehindTable(checkNotNull(backingTable), maxPendingCells);
+        writeBehindTable.scheduledFlush = checkNotNull(scheduler).scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                writeBehindTable.tryFlush();
+            }
+        }, maxAge, maxAge, unit);
+        return writeBehindTable;
+    }
+
+    private static Cell<Bytes, Bytes, Object> keyOf(Bytes row, Bytes column) {
+        return Tables.immutableCell(row, column, null);
+    }
+
+    @Override
+    protected Table<Bytes, Bytes, Bytes> delegate() {
+        return backingTable;
+    }
+
+    /**
+     * Returns the value of the cell's pending write, if any, and null otherwise. Unlike {@link Table#put(Object, Object, Object)}
+     * it does not read the previous value from the table.
+     */
+    @Override
+    public Bytes put(Bytes row, Bytes column, Bytes value) {
+        checkNotNull(row);
+        checkNotNull(column);
+        checkNotNull(value);
+        return buffer(row, column, Optional.of(value));
+    }
+
+    @Override
+    public void putAll(Table<? extends Bytes, ? extends Bytes, ? extends Bytes> table) {
+        for (Cell<? extends Bytes, ? extends Bytes, ? extends Bytes> cell : table.cellSet()) {
+            put(cell.getRowKey(), cell.getColumnKey(), cell.getValue());
+        }
+    }
+
+    /**
+     * Returns the value of the cell's pending write, if any, and null otherwise, like {@link #put(Bytes, Bytes, Bytes)}.
+     */
+    @Override
+    public Bytes remove(Object row, Object column) {
+        if (!(row instanceof Bytes && column instanceof Bytes)) {
+            return null;
+        }
+        return buffer((Bytes) row, (Bytes) column, Optional.<Bytes>absent());
+    }
+
+    @Override
+    public Bytes get(Object row, Object column) {
+        if (!(row instanceof Bytes && column instanceof Bytes)) {
+            return null;
+        }
+
+        Optional<Optional<Bytes>> pendingValue = pendingValue(keyOf((Bytes) row, (Bytes) column));
+        if (pendingValue.isPresent()) {
+            return pendingValue.get().orNull();
+        }
+        return backingTable.get(row, column);
+    }
+
+    @Override
+    public boolean contains(Object row, Object column) {
+        return get(row, column) != null;
+    }
+
+    @Override
+    public void clear() {
+        synchronized (flushLock) {
+            synchronized (bufferLock) {
+                pending = Maps.newLinkedHashMap();
+            }
+            backingTable.clear();
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        flush();
+        return backingTable.isEmpty();
+    }
+
+    @Override
+    public int size() {
+        flush();
+        return backingTable.size();
+    }
+
+    @Override
+    public boolean containsRow(Object row) {
+        flush();
+        return backingTable.containsRow(row);
+    }
+
+    @Override
+    public boolean containsColumn(Object column) {
+        flush();
+        return backingTable.containsColumn(column);
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        flush();
+        return backingTable.containsValue(value);
+    }
+
+    @Override
+    public Set<Cell<Bytes, Bytes, Bytes>> cellSet() {
+        flush();
+        return backingTable.cellSet();
+    }
+
+    @Override
+    public Map<Bytes, Bytes> row(Bytes row) {
+        flush();
+        return backingTable.row(row);
+    }
+
+    @Override
+    public Map<Bytes, Bytes> column(Bytes column) {
+        flush();
+        return backingTable.column(column);
+    }
+
+    @Override
+    public Set<Bytes> rowKeySet() {
+        flush();
+        return backingTable.rowKeySet();
+    }
+
+    @Override
+    public Set<Bytes> columnKeySet() {
+        flush();
+        return backingTable.columnKeySet();
+    }
+
+    @Override
+    public Collection<Bytes> values() {
+        flush();
+        return backingTable.values();
+    }
+
+    @Override
+    public Map<Bytes, Map<Bytes, Bytes>> rowMap() {
+        flush();
+        return backingTable.rowMap();
+    }
+
+    @Override
+    public Map<Bytes, Map<Bytes, Bytes>> columnMap() {
+        flush();
+        return backingTable.columnMap();
+    }
+
+    /**
+     * Writes all pending writes to the table. If a write fails, the writes not superseded in the meantime
+     * stay pending and are retried by the next flush.
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            synchronized (bufferLock) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                flushing = pending;
+                pending = Maps.newLinkedHashMap();
+            }
+
+            try {
+                writeFlushing();
+            } catch (RuntimeException e) {
+                synchronized (bufferLock) {
+                    for (Map.Entry<Cell<Bytes, Bytes, Object>, Optional<Bytes>> write : flushing.entrySet()) {
+                        if (!pending.containsKey(write.getKey())) {
+                            pending.put(write.getKey(), write.getValue());
+                        }
+                    }
+                }
+                throw e;
+            } finally {
+                synchronized (bufferLock) {
+                    flushing = Maps.newLinkedHashMap();
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops accepting writes, stops the scheduled flushes and flushes the pending writes. If that flush fails,
+     * the writes stay pending and later calls to {@link #flush()} retry them.
+     */
+    @Override
+    public void close() {
+        synchronized (bufferLock) {
+            closed = true;
+        }
+        scheduledFlush.cancel(false);
+        flush();
+    }
+
+    private void writeFlushing() {
+        List<Cell<Bytes, Bytes, Bytes>> puts = Lists.newArrayList();
+        List<Cell<Bytes, Bytes, Object>> removes = Lists.newArrayList();
+        for (Map.Entry<Cell<Bytes, Bytes, Object>, Optional<Bytes>> write : flushing.entrySet()) {
+            Cell<Bytes, Bytes, Object> key = write.getKey();
+            if (write.getValue().isPresent()) {
+                puts.add(Tables.immutableCell(key.getRowKey(), key.getColumnKey(), write.getValue().get()));
+            } else {
+                removes.add(key);
+            }
+        }
+
+        // writes of different cells, so their order does not matter
+        if (!puts.isEmpty()) {
+            backingTable.putCells(puts);
+        }
+        if (!removes.isEmpty()) {
+            backingTable.removeCells(removes);
+        }
+    }
+
+    private void tryFlush() {
+        try {
+            flush();
+        } catch (RuntimeException ignored) {
+            // the writes stay pending, the next flush retries them and reports a failure to its caller
+        }
+    }
+
+    private Bytes buffer(Bytes row, Bytes column, Optional<Bytes> value) {
+        Cell<Bytes, Bytes, Object> key = keyOf(row, column);
+        Optional<Bytes> previous;
+        boolean full;
+        while (true) {
+            synchronized (bufferLock) {
+                checkState(!closed, "the table is closed");
+                // a write of a pending cell replaces it, any other write needs room in the buffer
+                if (pending.containsKey(key) || bufferedCells() < maxPendingCells) {
+                    previous = pending.put(key, value);
+                    if (previous == null) {
+                        previous = flushing.get(key);
+                    }
+                    full = bufferedCells() >= maxPendingCells;
+                    break;
+                }
+            }
+            // waits for a flush in progress, a failure rejects the write
+            flush();
+        }
+        if (full) {
+            // the write is buffered already, so a failure is left to the next write or flush to report
+            tryFlush();
+        }
+        return previous == null ? null : previous.orNull();
+    }
+
+    // guarded by bufferLock, failed flushes put their writes back to pending, so both count
+    private int bufferedCells() {
+        return pending.size() + flushing.size();
+    }
+
+    private Optional<Optional<Bytes>> pendingValue(Cell<Bytes, Bytes, Object> key) {
+        synchronized (bufferLock) {
+            Optional<Bytes> value = pending.get(key);
+            if (value == null) {
+                value = flushing.get(key);
+            }
+            return Optional.fromNullable(value);
+        }
+    }
+}
@@ -66,11 +66,10 @@ public class AbstractCollectionViewTest {
 
     @Before
     public void setUp() {
-        abstractCollectionView = new AbstractCollectionView<Long>(
-                LONG_EXTRACTOR) {
+        abstractCollectionView = new AbstractCollectionView<Long>() {
             @Override
-            protected Iterable<AzureEntity> getBackingIterable() {
-                return stringEntityIterableMock;
+            protected Iterable<Long> getBackingIterable() {
+                return Iterables.transform(stringEntityIterableMock, LONG_EXTRACTOR);
             }
         };
     }
@@ -0,0 +1,147 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.azure;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Table;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@SuppressWarnings("InstanceVariableMayNotBeInitialized")
+@RunWith(MockitoJUnitRunner.class)
+public class AsyncAzureTableTest {
+    private static final Bytes ROW_KEY = new Bytes("row_key".getBytes());
+    private static final Bytes COLUMN_KEY = new Bytes("column_key".getBytes());
+    private static final Bytes VALUE = new Bytes("value".getBytes());
+    private static final int MAX_IN_FLIGHT = 2;
+    @Mock
+    private Table<Bytes, Bytes, Bytes> backingTableMock;
+    private AsyncAzureTable asyncAzureTable;
+
+    @Before
+    public void setUp() {
+        asyncAzureTable = AsyncAzureTable.create(backingTableMock, MoreExecutors.sameThreadExecutor(), MAX_IN_FLIGHT);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void backing_table_cannot_be_null() {
+        AsyncAzureTable.create(null, MoreExecutors.sameThreadExecutor(), MAX_IN_FLIGHT);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void max_in_flight_has_to_be_positive() {
+        AsyncAzureTable.create(backingTableMock, MoreExecutors.sameThreadExecutor(), 0);
+    }
+
+    @Test
+    public void get_async_completes_with_value_from_backing_table() throws ExecutionException, InterruptedException {
+        when(backingTableMock.get(ROW_KEY, COLUMN_KEY)).thenReturn(VALUE);
+
+        assertThat(asyncAzureTable.getAsync(ROW_KEY, COLUMN_KEY).get(), is(equalTo(VALUE)));
+    }
+
+    @Test
+    public void put_async_delegates_to_backing_table() throws ExecutionException, InterruptedException {
+        when(backingTableMock.put(ROW_KEY, COLUMN_KEY, VALUE)).thenReturn(VALUE);
+
+        assertThat(asyncAzureTable.putAsync(ROW_KEY, COLUMN_KEY, VALUE).get(), is(equalTo(VALUE)));
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void put_async_of_null_value_not_allowed() {
+        asyncAzureTable.putAsync(ROW_KEY, COLUMN_KEY, null);
+    }
+
+    @Test
+    public void remove_async_delegates_to_backing_table() throws ExecutionException, InterruptedException {
+        when(backingTableMock.remove(ROW_KEY, COLUMN_KEY)).thenReturn(VALUE);
+
+        assertThat(asyncAzureTable.removeAsync(ROW_KEY, COLUMN_KEY).get(), is(equalTo(VALUE)));
+    }
+
+    @Test
+    public void row_async_completes_with_snapshot_of_row() throws ExecutionException, InterruptedException {
+        when(backingTableMock.row(ROW_KEY)).thenReturn(ImmutableMap.of(COLUMN_KEY, VALUE));
+
+        assertThat(asyncAzureTable.rowAsync(ROW_KEY).get(), is(equalTo((Map<Bytes, Bytes>) ImmutableMap.of(COLUMN_KEY, VALUE))));
+    }
+
+    @Test(expected = ExecutionException.class)
+    public void failure_of_backing_table_fails_the_future() throws ExecutionException, InterruptedException {
+        when(backingTableMock.get(ROW_KEY, COLUMN_KEY)).thenThrow(new RuntimeException());
+
+        asyncAzureTable.getAsync(ROW_KEY, COLUMN_KEY).get();
+    }
+
+    @Test
+    public void completed_and_failed_operations_release_their_in_flight_permits() throws ExecutionException, InterruptedException {
+        when(backingTableMock.get(ROW_KEY, COLUMN_KEY)).thenThrow(new RuntimeException());
+        for (int i = 0; i < MAX_IN_FLIGHT + 1; i++) {
+            asyncAzureTable.getAsync(ROW_KEY, COLUMN_KEY);
+        }
+
+        ListenableFuture<Bytes> future = asyncAzureTable.putAsync(ROW_KEY, COLUMN_KEY, VALUE);
+
+        assertThat(future.isDone(), is(equalTo(true)));
+        verify(backingTableMock).put(ROW_KEY, COLUMN_KEY, VALUE);
+    }
+
+    @Test(timeout = 10000)
+    public void operations_cancelled_before_they_run_release_their_in_flight_permits() throws InterruptedException {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        final CountDownLatch blocked = new CountDownLatch(1);
+        try {
+            executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        blocked.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            asyncAzureTable = AsyncAzureTable.create(backingTableMock, executor, MAX_IN_FLIGHT);
+            for (int i = 0; i < MAX_IN_FLIGHT; i++) {
+                asyncAzureTable.getAsync(ROW_KEY, COLUMN_KEY).cancel(false);
+            }
+
+            ListenableFuture<Bytes> future = asyncAzureTable.getAsync(ROW_KEY, COLUMN_KEY);
+
+            assertThat(future.isDone(), is(equalTo(false)));
+        } finally {
+            blocked.countDown();
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.azure;
+
+import com.microsoft.windowsazure.services.core.storage.StorageException;
+import com.microsoft.windowsazure.services.table.client.EntityProperty;
+import org.junit.Test;
+
+import java.util.HashMap;
+
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.hamcrest.core.IsSame.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class AzureEntityTest {
+    private static final Bytes VALUE = new Bytes("value".getBytes());
+
+    private static HashMap<String, EntityProperty> valueProperty(EntityProperty value) {
+        HashMap<String, EntityProperty> properties = new HashMap<>();
+        properties.put(AzureEntity.VALUE, value);
+        return properties;
+    }
+
+    @Test
+    public void string_values_are_read() throws StorageException {
+        AzureEntity entity = new AzureEntity();
+
+        entity.readEntity(valueProperty(new EntityProperty(AzureEntityUtil.encode(VALUE))), null);
+
+        assertThat(entity.getValue(), is(equalTo(AzureEntityUtil.encode(VALUE))));
+        assertThat(AzureEntityUtil.decodeValue(entity), is(equalTo(VALUE)));
+    }
+
+    @Test
+    public void binary_values_are_read() throws StorageException {
+        AzureEntity entity = new AzureEntity();
+
+        entity.readEntity(valueProperty(new EntityProperty(VALUE.getBytes())), null);
+
+        assertThat(entity.getValue(), is(nullValue()));
+        assertThat(AzureEntityUtil.decodeValue(entity), is(equalTo(VALUE)));
+    }
+
+    @Test
+    public void binary_entity_writes_binary_value() throws StorageException {
+        AzureEntity entity = new BinaryAzureEntity("row", "column", VALUE.getBytes());
+
+        EntityProperty written = entity.writeEntity(null).get(AzureEntity.VALUE);
+
+        assertThat(written.getValueAsByteArray(), is(equalTo(VALUE.getBytes())));
+    }
+
+    @Test
+    public void binary_entity_round_trips() throws StorageException {
+        AzureEntity read = new AzureEntity();
+
+        read.readEntity(new BinaryAzureEntity("row", "column", VALUE.getBytes()).writeEntity(null), null);
+
+        assertThat(AzureEntityUtil.decodeValue(read), is(equalTo(VALUE)));
+    }
+
+    @Test
+    public void string_values_are_written_without_reflection() throws StorageException {
+        AzureEntity entity = new AzureEntity("row", "column", AzureEntityUtil.encode(VALUE));
+
+        HashMap<String, EntityProperty> written = entity.writeEntity(null);
+
+        assertThat(written.size(), is(equalTo(1)));
+        assertThat(written.get(AzureEntity.VALUE).getValueAsString(), is(equalTo(AzureEntityUtil.encode(VALUE))));
+    }
+
+    @Test
+    public void properties_are_built_once_until_the_value_changes() throws StorageException {
+        AzureEntity entity = new AzureEntity("row", "column", AzureEntityUtil.encode(VALUE));
+        HashMap<String, EntityProperty> written = entity.writeEntity(null);
+
+        assertThat(entity.writeEntity(null), is(sameInstance(written)));
+
+        entity.setValue("other");
+
+        assertThat(entity.writeEntity(null).get(AzureEntity.VALUE).getValueAsString(), is(equalTo("other")));
+    }
+
+    @Test
+    public void reused_entity_writes_what_it_read_last() throws StorageException {
+        AzureEntity entity = new BinaryAzureEntity("row", "column", VALUE.getBytes());
+        entity.writeEntity(null);
+
+        entity.readEntity(valueProperty(new EntityProperty("read")), null);
+
+        assertThat(entity.writeEntity(null).get(AzureEntity.VALUE).getValueAsString(), is(equalTo("read")));
+    }
+}
@@ -17,21 +17,31 @@ package com.yammer.collections.azure;
 
 
 import com.google.common.base.Function;
+import com.google.common.base.Throwables;
 import com.google.common.collect.Collections2;
 import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Table;
+import com.microsoft.windowsazure.services.core.storage.ResultContinuation;
+import com.microsoft.windowsazure.services.core.storage.ResultSegment;
 import com.microsoft.windowsazure.services.core.storage.StorageException;
 import com.microsoft.windowsazure.services.core.storage.utils.Base64;
+import com.microsoft.windowsazure.services.table.client.EntityProperty;
+import com.microsoft.windowsazure.services.table.client.EntityResolver;
 import com.microsoft.windowsazure.services.table.client.TableOperation;
 import com.microsoft.windowsazure.services.table.client.TableQuery;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -47,18 +57,26 @@ public final class AzureTestUtil {
     private AzureTestUtil() {
     }
 
+    @SuppressWarnings("unchecked")
+    static TableQuery<AzureEntity> queryMock() {
+        return mock(TableQuery.class);
+    }
+
     @SafeVarargs
     static void setAzureTableToContain(String tableName,
                                        AzureTableRequestFactory azureTableRequestFactoryMock,
                                        AzureTableCloudClient azureTableCloudClientMock,
                                        Table.Cell<Bytes, Bytes, Bytes>... cells) throws StorageException {
+        setRequestFactoryToTake(azureTableRequestFactoryMock);
+        setCloudClientToResolve(azureTableCloudClientMock);
+
         // retrieve setup in general
         TableOperation blanketRetrieveOperationMock = mock(TableOperation.class);
         when(azureTableRequestFactoryMock.retrieve(any(String.class), any(String.class))).thenReturn(blanketRetrieveOperationMock);
 
 
         // per entity setup
-        TableQuery<AzureEntity> emptyQuery = mock(TableQuery.class);
+        TableQuery<AzureEntity> emptyQuery = queryMock();
         when(azureTableRequestFactoryMock.containsValueQuery(anyString(), anyString())).thenReturn(emptyQuery);
         when(azureTableCloudClientMock.execute(emptyQuery)).thenReturn(Collections.<AzureEntity>emptyList());
         Collection<AzureEntity> encodedStringEntities = Lists.newArrayList();
@@ -66,20 +84,86 @@ public final class AzureTestUtil {
             encodedStringEntities.add(encodedEntity(cell));
             setAzureTableToRetrieve(tableName, azureTableRequestFactoryMock, azureTableCloudClientMock, cell);
 
-            TableQuery<AzureEntity> valueQuery = mock(TableQuery.class);
+            TableQuery<AzureEntity> valueQuery = queryMock();
             when(azureTableRequestFactoryMock.containsValueQuery(tableName, encode(cell.getValue()))).thenReturn(valueQuery);
             when(azureTableCloudClientMock.execute(valueQuery)).thenReturn(Collections.singleton(ENCODE_CELL.apply(cell)));
         }
 
         // select query
-        TableQuery<AzureEntity> tableQuery = mock(TableQuery.class);
+        TableQuery<AzureEntity> tableQuery = queryMock();
         when(azureTableRequestFactoryMock.selectAll(tableName)).thenReturn(tableQuery);
         when(azureTableCloudClientMock.execute(tableQuery)).thenReturn(encodedStringEntities);
+        TableQuery<AzureEntity> keysQuery = queryMock();
+        when(azureTableRequestFactoryMock.selectAllKeys(tableName)).thenReturn(keysQuery);
+        when(azureTableCloudClientMock.execute(keysQuery)).thenReturn(encodedStringEntities);
 
         setupRowQueries(tableName, azureTableRequestFactoryMock, azureTableCloudClientMock, cells);
         setupColumnQueries(tableName, azureTableRequestFactoryMock, azureTableCloudClientMock, cells);
     }
 
+    /**
+     * Limiting a query returns the query itself, so that limited queries return whatever the query is stubbed to return.
+     */
+    @SuppressWarnings("unchecked")
+    static void setRequestFactoryToTake(AzureTableRequestFactory azureTableRequestFactoryMock) {
+        when(azureTableRequestFactoryMock.take(any(TableQuery.class), anyInt())).thenAnswer(new Answer<TableQuery<AzureEntity>>() {
+            @Override
+            public TableQuery<AzureEntity> answer(InvocationOnMock invocation) {
+                return (TableQuery<AzureEntity>) invocation.getArguments()[0];
+            }
+        });
+    }
+
+    /**
+     * Queries with a resolver resolve whatever the query without one is stubbed to return, so that tests can stub
+     * queries with entities regardless of how they are read.
+     */
+    @SuppressWarnings("unchecked")
+    static void setCloudClientToResolve(final AzureTableCloudClient azureTableCloudClientMock) throws StorageException {
+        when(azureTableCloudClientMock.execute(any(TableQuery.class), any(EntityResolver.class))).thenAnswer(new Answer<Iterable<Object>>() {
+            @Override
+            public Iterable<Object> answer(InvocationOnMock invocation) {
+                Iterable<AzureEntity> entities = azureTableCloudClientMock.execute((TableQuery<AzureEntity>) invocation.getArguments()[0]);
+                return entities == null ? null : Iterables.transform(entities, resolving((EntityResolver<Object>) invocation.getArguments()[1]));
+            }
+        });
+        when(azureTableCloudClientMock.executeSegmented(any(TableQuery.class), any(EntityResolver.class), any(ResultContinuation.class)))
+                .thenAnswer(new Answer<ResultSegment<Object>>() {
+                    @Override
+                    public ResultSegment<Object> answer(InvocationOnMock invocation) throws StorageException {
+                        ResultSegment<AzureEntity> segment = azureTableCloudClientMock.executeSegmented(
+                                (TableQuery<AzureEntity>) invocation.getArguments()[0],
+                                (ResultContinuation) invocation.getArguments()[2]);
+                        if (segment == null) {
+                            return null;
+                        }
+                        return new ResultSegment<>(
+                                Lists.newArrayList(Lists.transform(segment.getResults(), resolving((EntityResolver<Object>) invocation.getArguments()[1]))),
+                                segment.getPageSize(),
+                                segment.getContinuationToken());
+                    }
+                });
+    }
+
+    private static Function<AzureEntity, Object> resolving(final EntityResolver<Object> resolver) {
+        return new Function<AzureEntity, Object>() {
+            @Override
+            public Object apply(AzureEntity entity) {
+                HashMap<String, EntityProperty> properties = new HashMap<>();
+                if (entity.getBinaryValue() != null) {
+                    properties.put(AzureEntity.VALUE, new EntityProperty(entity.getBinaryValue()));
+                } else if (entity.getValue() != null) {
+                    properties.put(AzureEntity.VALUE, new EntityProperty(entity.getValue()));
+                }
+                try {
+                    return resolver.resolve(entity.getPartitionKey(), entity.getRowKey(), entity.getTimestamp(), properties, entity.getEtag());
+                } catch (StorageException e) {
+                    throw Throwables.propagate(e);
+                }
+            }
+        };
+    }
+
     static String encode(Bytes bytesToBeEncoded) {
         return Base64.encode(bytesToBeEncoded.getBytes());
     }
@@ -104,8 +188,9 @@ public final class AzureTestUtil {
                                         AzureTableCloudClient azureTableCloudClientMock,
                                         Table.Cell<Bytes, Bytes, Bytes>... cells) {
 
-        TableQuery<AzureEntity> emptyQueryMock = mock(TableQuery.class);
+        TableQuery<AzureEntity> emptyQueryMock = queryMock();
         when(azureTableRequestFactoryMock.selectAllForRow(anyString(), anyString())).thenReturn(emptyQueryMock);
+        when(azureTableRequestFactoryMock.selectKeysForRow(anyString(), anyString())).thenReturn(emptyQueryMock);
         when(azureTableRequestFactoryMock.containsValueForRowQuery(anyString(), anyString(), anyString())).thenReturn(emptyQueryMock);
         when(azureTableCloudClientMock.execute(emptyQueryMock)).thenReturn(Collections.<AzureEntity>emptyList());
 
@@ -113,7 +198,7 @@ public final class AzureTestUtil {
         for (Table.Cell<Bytes, Bytes, Bytes> cell : cells) {
             rowCellMap.put(cell.getRowKey(), cell);
 
-            TableQuery<AzureEntity> rowValueQueryMock = mock(TableQuery.class);
+            TableQuery<AzureEntity> rowValueQueryMock = queryMock();
             when(
                     azureTableRequestFactoryMock.containsValueForRowQuery(
                             tableName,
@@ -126,9 +211,11 @@ public final class AzureTestUtil {
 
         for (Map.Entry<Bytes, Collection<Table.Cell<Bytes, Bytes, Bytes>>> entry : rowCellMap.asMap().entrySet()) {
             // row query
-            TableQuery<AzureEntity> rowQueryMock = mock(TableQuery.class);
+            TableQuery<AzureEntity> rowQueryMock = queryMock();
             when(azureTableRequestFactoryMock.selectAllForRow(tableName, encode(entry.getKey()))).
                     thenReturn(rowQueryMock);
+            when(azureTableRequestFactoryMock.selectKeysForRow(tableName, encode(entry.getKey()))).
+                    thenReturn(rowQueryMock);
             when(azureTableCloudClientMock.execute(rowQueryMock)).thenReturn(Collections2.transform(entry.getValue(), ENCODE_CELL));
         }
     }
@@ -139,8 +226,9 @@ public final class AzureTestUtil {
                                            AzureTableCloudClient azureTableCloudClientMock,
                                            Table.Cell<Bytes, Bytes, Bytes>... cells) {
 
-        TableQuery<AzureEntity> emptyQueryMock = mock(TableQuery.class);
+        TableQuery<AzureEntity> emptyQueryMock = queryMock();
         when(azureTableRequestFactoryMock.selectAllForColumn(anyString(), anyString())).thenReturn(emptyQueryMock);
+        when(azureTableRequestFactoryMock.selectKeysForColumn(anyString(), anyString())).thenReturn(emptyQueryMock);
         when(azureTableRequestFactoryMock.containsValueForColumnQuery(anyString(), anyString(), anyString())).thenReturn(emptyQueryMock);
         when(azureTableCloudClientMock.execute(emptyQueryMock)).thenReturn(Collections.<AzureEntity>emptyList());
 
@@ -148,7 +236,7 @@ public final class AzureTestUtil {
         for (Table.Cell<Bytes, Bytes, Bytes> cell : cells) {
             columnCellMap.put(cell.getColumnKey(), cell);
 
-            TableQuery<AzureEntity> columnValueQueryMock = mock(TableQuery.class);
+            TableQuery<AzureEntity> columnValueQueryMock = queryMock();
             when(
                     azureTableRequestFactoryMock.containsValueForColumnQuery(
                             tableName,
@@ -161,9 +249,11 @@ public final class AzureTestUtil {
 
         for (Map.Entry<Bytes, Collection<Table.Cell<Bytes, Bytes, Bytes>>> entry : columnCellMap.asMap().entrySet()) {
             // row query
-            TableQuery<AzureEntity> columnQueryMock = mock(TableQuery.class);
+            TableQuery<AzureEntity> columnQueryMock = queryMock();
             when(azureTableRequestFactoryMock.selectAllForColumn(tableName, encode(entry.getKey()))).
                     thenReturn(columnQueryMock);
+            when(azureTableRequestFactoryMock.selectKeysForColumn(tableName, encode(entry.getKey()))).
+                    thenReturn(columnQueryMock);
             when(azureTableCloudClientMock.execute(columnQueryMock)).thenReturn(Collections2.transform(entry.getValue(), ENCODE_CELL));
         }
     }
@@ -126,12 +126,12 @@ public class BaseAzureTableIT {
     }
 
     @Test
+    @SuppressWarnings("unchecked")
     public void cellSet_returns_all_table_cells() throws StorageException {
         setAzureTableToContain(CELL_1, CELL_2);
 
         Set<Table.Cell<Bytes, Bytes, Bytes>> cellSet = baseAzureTable.cellSet();
 
-        //noinspection unchecked
         assertThat(cellSet, containsInAnyOrder(CELL_1, CELL_2));
     }
 
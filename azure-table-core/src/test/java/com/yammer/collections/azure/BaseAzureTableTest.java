@@ -15,31 +15,70 @@
  */
 package com.yammer.collections.azure;
 
+import com.google.common.base.Function;
+import com.google.common.base.Functions;
+import com.google.common.base.Optional;
 import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableTable;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Table;
 import com.google.common.collect.Tables;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.microsoft.windowsazure.services.core.storage.ResultContinuation;
+import com.microsoft.windowsazure.services.core.storage.ResultSegment;
 import com.microsoft.windowsazure.services.core.storage.StorageException;
 import com.microsoft.windowsazure.services.table.client.CloudTableClient;
+import com.microsoft.windowsazure.services.table.client.TableBatchOperation;
 import com.microsoft.windowsazure.services.table.client.TableOperation;
+import com.microsoft.windowsazure.services.table.client.TableQuery;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
 
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.Date;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.SortedMap;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.emptyIterable;
 import static org.hamcrest.core.IsEqual.equalTo;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
 
@@ -50,16 +89,27 @@ public class BaseAzureTableTest {
     private static final Bytes ROW_KEY_2 = new Bytes("row_name_2".getBytes());
     private static final Bytes COLUMN_KEY_1 = new Bytes("column_key_1".getBytes());
     private static final Bytes COLUMN_KEY_2 = new Bytes("column_key_2".getBytes());
+    private static final Bytes COLUMN_KEY_3 = new Bytes("column_3".getBytes());
     private static final Bytes NON_EXISTENT_COLUMN_KEY = new Bytes("non_existent_column_key".getBytes());
     private static final Bytes VALUE_1 = new Bytes("value1".getBytes());
     private static final Bytes VALUE_2 = new Bytes("value3".getBytes());
     private static final String TABLE_NAME = "secretie_table";
+    private static final String INDEX_TABLE_NAME = "secretieIndex";
+    private static final String ETAG = "W/\"datetime'2014-01-01T00%3A00%3A00.0000000Z'\"";
+    private static final Function<Object, Bytes> REPLACE_WITH_VALUE_2 = Functions.constant(VALUE_2);
+    private static final String COLUMN_INDEX_TABLE_NAME = "secretieColumns";
     private static final Table.Cell<Bytes, Bytes, Bytes> CELL_1 = Tables.immutableCell(ROW_KEY_1, COLUMN_KEY_1, VALUE_1);
     private static final Table.Cell<Bytes, Bytes, Bytes> CELL_2 = Tables.immutableCell(ROW_KEY_2, COLUMN_KEY_2, VALUE_2);
     @Mock
     private AzureTableCloudClient azureTableCloudClientMock;
     @Mock
     private AzureTableRequestFactory azureTableRequestFactoryMock;
+    @Captor
+    private ArgumentCaptor<Iterable<String>> columnsCaptor;
+    @Captor
+    private ArgumentCaptor<Iterable<AzureEntity>> putsCaptor;
+    @Captor
+    private ArgumentCaptor<Iterable<AzureEntity>> deletesCaptor;
     private BaseAzureTable baseAzureTable;
 
     private static String encode(Bytes stringToBeEncoded) {
@@ -67,7 +117,8 @@ public class BaseAzureTableTest {
     }
 
     @Before
-    public void setUp() throws IOException {
+    public void setUp() throws IOException, StorageException {
+        AzureTestUtil.setCloudClientToResolve(azureTableCloudClientMock);
         baseAzureTable = new BaseAzureTable(TABLE_NAME, azureTableCloudClientMock, azureTableRequestFactoryMock);
     }
 
@@ -95,6 +146,22 @@ public class BaseAzureTableTest {
         assertThat(columnKeySet, containsInAnyOrder(COLUMN_KEY_1, COLUMN_KEY_2));
     }
 
+    @Test
+    public void when_columnKeySet_exceeds_memory_budget_then_all_keys_returned_once() throws StorageException {
+        baseAzureTable = table(1, ValueFormat.BASE64_STRING, KeyCodec.BASE64, Optional.<ValueIndex>absent(), Optional.<ColumnIndex>absent());
+        setAzureTableToContain(CELL_1, CELL_2, Tables.immutableCell(ROW_KEY_2, COLUMN_KEY_1, VALUE_1));
+
+        Set<Bytes> columnKeySet = baseAzureTable.columnKeySet();
+
+        assertThat(columnKeySet.size(), is(equalTo(2)));
+        assertThat(columnKeySet, containsInAnyOrder(COLUMN_KEY_1, COLUMN_KEY_2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void distinct_memory_budget_has_to_be_positive() throws URISyntaxException {
+        BaseAzureTable.builder(TABLE_NAME, new CloudTableClient(new URI("http://localhost/"), null)).withDistinctMemoryBudget(0);
+    }
+
     @Test
     public void when_rowKeySet_requested_then_all_keys_returned() throws StorageException {
         setAzureTableToContain(CELL_1, CELL_2);
@@ -211,6 +278,170 @@ public class BaseAzureTableTest {
     }
 
     @Test
+    public void when_set_then_value_added_or_replaced_in_azure() throws StorageException {
+        TableOperation putTableOperationMock = mockPutTableOperation(CELL_2);
+
+        baseAzureTable.set(ROW_KEY_2, COLUMN_KEY_2, VALUE_2);
+
+        verify(azureTableCloudClientMock).execute(TABLE_NAME, putTableOperationMock);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void when_set_null_value_then_error() {
+        baseAzureTable.set(ROW_KEY_1, COLUMN_KEY_1, null);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void when_table_client_throws_storage_exception_during_set_then_exception_rethrown() throws StorageException {
+        TableOperation putTableOperationMock = mockPutTableOperation(CELL_1);
+        setupThrowStorageExceptionOnTableOperation(putTableOperationMock);
+
+        baseAzureTable.set(ROW_KEY_1, COLUMN_KEY_1, VALUE_1);
+    }
+
+    @Test
+    public void when_delete_cell_then_deleted_in_azure_without_reading_it() throws StorageException {
+        TableOperation deleteTableOperationMock = mock(TableOperation.class);
+        when(azureTableRequestFactoryMock.delete(encode(ROW_KEY_1), encode(COLUMN_KEY_1))).thenReturn(deleteTableOperationMock);
+
+        assertThat(baseAzureTable.delete(ROW_KEY_1, COLUMN_KEY_1), is(equalTo(true)));
+
+        verify(azureTableCloudClientMock).execute(TABLE_NAME, deleteTableOperationMock);
+        verify(azureTableRequestFactoryMock, never()).retrieve(encode(ROW_KEY_1), encode(COLUMN_KEY_1));
+    }
+
+    @Test
+    public void when_deleted_cell_does_not_exist_then_delete_returns_false() throws StorageException {
+        TableOperation deleteTableOperationMock = mock(TableOperation.class);
+        when(azureTableRequestFactoryMock.delete(encode(ROW_KEY_1), encode(COLUMN_KEY_1))).thenReturn(deleteTableOperationMock);
+        StorageException notFoundException = notFoundException();
+        when(azureTableCloudClientMock.execute(TABLE_NAME, deleteTableOperationMock)).thenThrow(notFoundException);
+
+        assertThat(baseAzureTable.delete(ROW_KEY_1, COLUMN_KEY_1), is(equalTo(false)));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void when_table_client_throws_storage_exception_during_delete_cell_then_exception_rethrown() throws StorageException {
+        TableOperation deleteTableOperationMock = mock(TableOperation.class);
+        when(azureTableRequestFactoryMock.delete(encode(ROW_KEY_1), encode(COLUMN_KEY_1))).thenReturn(deleteTableOperationMock);
+        setupThrowStorageExceptionOnTableOperation(deleteTableOperationMock);
+
+        baseAzureTable.delete(ROW_KEY_1, COLUMN_KEY_1);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void when_delete_cell_with_null_column_key_then_error() {
+        baseAzureTable.delete(ROW_KEY_1, null);
+    }
+
+    @Test
+    public void get_versioned_returns_the_value_with_its_etag() throws StorageException {
+        setCellToHaveEtag(CELL_1, ETAG);
+
+        VersionedValue versionedValue = baseAzureTable.getVersioned(ROW_KEY_1, COLUMN_KEY_1);
+
+        assertThat(versionedValue.getValue(), is(equalTo(VALUE_1)));
+        assertThat(versionedValue.getEtag(), is(equalTo(ETAG)));
+    }
+
+    @Test
+    public void put_if_absent_inserts_without_reading_the_cell() throws StorageException {
+        TableOperation insertOperationMock = mock(TableOperation.class);
+        when(azureTableRequestFactoryMock.insert(any(AzureEntity.class))).thenReturn(insertOperationMock);
+
+        assertThat(baseAzureTable.putIfAbsent(ROW_KEY_1, COLUMN_KEY_1, VALUE_1), is(nullValue()));
+
+        verify(azureTableCloudClientMock).execute(TABLE_NAME, insertOperationMock);
+        verify(azureTableRequestFactoryMock, never()).retrieve(encode(ROW_KEY_1), encode(COLUMN_KEY_1));
+    }
+
+    @Test
+    public void put_if_absent_returns_the_present_value_on_conflict() throws StorageException {
+        setAzureTableToContain(CELL_1);
+        TableOperation insertOperationMock = mock(TableOperation.class);
+        when(azureTableRequestFactoryMock.insert(any(AzureEntity.class))).thenReturn(insertOperationMock);
+        doThrow(new StorageException("EntityAlreadyExists", "exists", 409, null, null)).when(azureTableCloudClientMock).execute(TABLE_NAME, insertOperationMock);
+
+        assertThat(baseAzureTable.putIfAbsent(ROW_KEY_1, COLUMN_KEY_1, VALUE_2), is(equalTo(VALUE_1)));
+    }
+
+    @Test
+    public void replace_writes_with_the_expected_etag() throws StorageException {
+        TableOperation replaceOperationMock = mock(TableOperation.class);
+        when(azureTableRequestFactoryMock.replace(any(AzureEntity.class))).thenReturn(replaceOperationMock);
+        ArgumentCaptor<AzureEntity> entityCaptor = ArgumentCaptor.forClass(AzureEntity.class);
+
+        assertThat(baseAzureTable.replace(ROW_KEY_1, COLUMN_KEY_1, ETAG, VALUE_2), is(equalTo(true)));
+
+        verify(azureTableRequestFactoryMock).replace(entityCaptor.capture());
+        assertThat(entityCaptor.getValue().getEtag(), is(equalTo(ETAG)));
+        assertThat(entityCaptor.getValue().getValue(), is(equalTo(encode(VALUE_2))));
+        verify(azureTableCloudClientMock).execute(TABLE_NAME, replaceOperationMock);
+    }
+
+    @Test
+    public void replace_returns_false_when_the_cell_has_changed() throws StorageException {
+        TableOperation replaceOperationMock = mock(TableOperation.class);
+        when(azureTableRequestFactoryMock.replace(any(AzureEntity.class))).thenReturn(replaceOperationMock);
+        doThrow(conditionFailedException()).when(azureTableCloudClientMock).execute(TABLE_NAME, replaceOperationMock);
+
+        assertThat(baseAzureTable.replace(ROW_KEY_1, COLUMN_KEY_1, ETAG, VALUE_2), is(equalTo(false)));
+    }
+
+    @Test
+    public void compute_applies_the_function_again_after_a_conflict() throws StorageException {
+        setCellToHaveEtag(CELL_1, ETAG);
+        TableOperation replaceOperationMock = mock(TableOperation.class);
+        when(azureTableRequestFactoryMock.replace(any(AzureEntity.class))).thenReturn(replaceOperationMock);
+        when(azureTableCloudClientMock.execute(TABLE_NAME, replaceOperationMock)).thenThrow(conditionFailedException()).thenReturn(null);
+
+        assertThat(baseAzureTable.compute(ROW_KEY_1, COLUMN_KEY_1, REPLACE_WITH_VALUE_2), is(equalTo(VALUE_2)));
+
+        verify(azureTableCloudClientMock, times(2)).execute(TABLE_NAME, replaceOperationMock);
+    }
+
+    @Test
+    public void compute_of_a_missing_cell_inserts_it() throws StorageException {
+        TableOperation insertOperationMock = mock(TableOperation.class);
+        when(azureTableRequestFactoryMock.insert(any(AzureEntity.class))).thenReturn(insertOperationMock);
+
+        assertThat(baseAzureTable.compute(ROW_KEY_1, COLUMN_KEY_1, REPLACE_WITH_VALUE_2), is(equalTo(VALUE_2)));
+
+        verify(azureTableCloudClientMock).execute(TABLE_NAME, insertOperationMock);
+    }
+
+    @Test
+    public void compute_to_null_deletes_the_version_that_was_read() throws StorageException {
+        AzureEntity entity = setCellToHaveEtag(CELL_1, ETAG);
+        TableOperation deleteOperationMock = mock(TableOperation.class);
+        when(azureTableRequestFactoryMock.delete(entity)).thenReturn(deleteOperationMock);
+
+        assertThat(baseAzureTable.compute(ROW_KEY_1, COLUMN_KEY_1, Functions.<Bytes>constant(null)), is(nullValue()));
+
+        verify(azureTableCloudClientMock).execute(TABLE_NAME, deleteOperationMock);
+    }
+
+    @Test(expected = ConcurrentModificationException.class)
+    public void compute_gives_up_when_the_cell_keeps_changing() throws StorageException {
+        setCellToHaveEtag(CELL_1, ETAG);
+        TableOperation replaceOperationMock = mock(TableOperation.class);
+        when(azureTableRequestFactoryMock.replace(any(AzureEntity.class))).thenReturn(replaceOperationMock);
+        when(azureTableCloudClientMock.execute(TABLE_NAME, replaceOperationMock)).thenThrow(conditionFailedException());
+
+        baseAzureTable.compute(ROW_KEY_1, COLUMN_KEY_1, REPLACE_WITH_VALUE_2);
+    }
+
+    private AzureEntity setCellToHaveEtag(Table.Cell<Bytes, Bytes, Bytes> cell, String etag) throws StorageException {
+        AzureEntity entity = new AzureEntity(encode(cell.getRowKey()), encode(cell.getColumnKey()), encode(cell.getValue()));
+        entity.setEtag(etag);
+        TableOperation retrieveOperationMock = mock(TableOperation.class);
+        when(azureTableRequestFactoryMock.retrieve(encode(cell.getRowKey()), encode(cell.getColumnKey()))).thenReturn(retrieveOperationMock);
+        when(azureTableCloudClientMock.execute(TABLE_NAME, retrieveOperationMock)).thenReturn(entity);
+        return entity;
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
     public void cellSet_returns_all_table_cells() throws StorageException {
         setAzureTableToContain(CELL_1, CELL_2);
 
@@ -329,6 +560,515 @@ public class BaseAzureTableTest {
         assertThat(baseAzureTable.isEmpty(), is(equalTo(true)));
     }
 
+    @Test
+    public void existence_checks_read_a_single_key() throws StorageException {
+        setAzureTableToContain(CELL_1);
+
+        baseAzureTable.isEmpty();
+        baseAzureTable.containsValue(VALUE_1);
+        baseAzureTable.containsRow(ROW_KEY_1);
+
+        verify(azureTableRequestFactoryMock).take(azureTableRequestFactoryMock.selectAllKeys(TABLE_NAME), 1);
+        verify(azureTableRequestFactoryMock).take(azureTableRequestFactoryMock.containsValueQuery(TABLE_NAME, encode(VALUE_1)), 1);
+        verify(azureTableRequestFactoryMock).take(azureTableRequestFactoryMock.selectKeysForRow(TABLE_NAME, encode(ROW_KEY_1)), 1);
+        verify(azureTableRequestFactoryMock, never()).selectAll(TABLE_NAME);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void limit_of_a_view_asks_for_no_more_entities() throws StorageException {
+        setAzureTableToContain(CELL_1, CELL_2);
+
+        assertThat(BaseAzureTable.limit(baseAzureTable.values(), 1), contains(VALUE_1));
+        assertThat(BaseAzureTable.limit(baseAzureTable.cellSet(), 1), contains(CELL_1));
+        assertThat(BaseAzureTable.limit(baseAzureTable.row(ROW_KEY_1).keySet(), 1), contains(COLUMN_KEY_1));
+
+        verify(azureTableRequestFactoryMock, times(2)).take(azureTableRequestFactoryMock.selectAll(TABLE_NAME), 1);
+        verify(azureTableRequestFactoryMock).take(azureTableRequestFactoryMock.selectKeysForRow(TABLE_NAME, encode(ROW_KEY_1)), 1);
+    }
+
+    @Test
+    public void limit_of_other_iterables_truncates_them() {
+        assertThat(BaseAzureTable.limit(ImmutableList.of(VALUE_1, VALUE_2), 1), contains(VALUE_1));
+        assertThat(BaseAzureTable.limit(ImmutableList.of(VALUE_1, VALUE_2), 0), is(emptyIterable()));
+    }
+
+    private BaseAzureTable table(long distinctMemoryBudgetInBytes,
+                                 ValueFormat valueFormat,
+                                 KeyCodec keyCodec,
+                                 Optional<ValueIndex> valueIndex,
+                                 Optional<ColumnIndex> columnIndex) {
+        return new BaseAzureTable(TABLE_NAME, azureTableCloudClientMock, azureTableRequestFactoryMock, MoreExecutors.sameThreadExecutor(),
+                distinctMemoryBudgetInBytes, new TableScanner(TABLE_NAME, azureTableCloudClientMock, azureTableRequestFactoryMock),
+                valueFormat, keyCodec, valueIndex, columnIndex);
+    }
+
+    private BaseAzureTable tableWithValueIndex() {
+        return table(BaseAzureTable.DEFAULT_DISTINCT_MEMORY_BUDGET_IN_BYTES, ValueFormat.BASE64_STRING, KeyCodec.BASE64,
+                Optional.of(new ValueIndex(INDEX_TABLE_NAME, azureTableCloudClientMock, azureTableRequestFactoryMock, KeyCodec.BASE64,
+                        INDEX_ENTRY_GRACE_PERIOD_IN_MILLIS)),
+                Optional.<ColumnIndex>absent());
+    }
+
+    private BaseAzureTable tableWithColumnIndex() {
+        return table(BaseAzureTable.DEFAULT_DISTINCT_MEMORY_BUDGET_IN_BYTES, ValueFormat.BASE64_STRING, KeyCodec.BASE64, Optional.<ValueIndex>absent(),
+                Optional.of(new ColumnIndex(COLUMN_INDEX_TABLE_NAME, azureTableCloudClientMock, azureTableRequestFactoryMock)));
+    }
+
+    @Test
+    public void with_column_index_put_writes_the_keys_to_the_index_partition_of_the_column_after_the_cell() throws StorageException {
+        baseAzureTable = tableWithColumnIndex();
+        TableOperation putMock = mock(TableOperation.class);
+        TableOperation indexPutMock = mock(TableOperation.class);
+        when(azureTableRequestFactoryMock.put(encode(ROW_KEY_1), encode(COLUMN_KEY_1), encode(VALUE_1))).thenReturn(putMock);
+        when(azureTableRequestFactoryMock.put(any(AzureEntity.class))).thenReturn(indexPutMock);
+        ArgumentCaptor<AzureEntity> entryCaptor = ArgumentCaptor.forClass(AzureEntity.class);
+
+        baseAzureTable.put(ROW_KEY_1, COLUMN_KEY_1, VALUE_1);
+
+        InOrder inOrder = inOrder(azureTableCloudClientMock);
+        inOrder.verify(azureTableCloudClientMock).execute(TABLE_NAME, putMock);
+        inOrder.verify(azureTableCloudClientMock).execute(COLUMN_INDEX_TABLE_NAME, indexPutMock);
+        verify(azureTableRequestFactoryMock).put(entryCaptor.capture());
+        assertThat(entryCaptor.getValue().getPartitionKey(), is(equalTo(encode(COLUMN_KEY_1))));
+        assertThat(entryCaptor.getValue().getRowKey(), is(equalTo(encode(ROW_KEY_1))));
+    }
+
+    @Test
+    public void with_column_index_a_failed_put_is_not_written_to_the_index() throws StorageException {
+        baseAzureTable = tableWithColumnIndex();
+        TableOperation putMock = mock(TableOperation.class);
+        when(azureTableRequestFactoryMock.put(encode(ROW_KEY_1), encode(COLUMN_KEY_1), encode(VALUE_1))).thenReturn(putMock);
+        doThrow(new StorageException("ServerBusy", "busy", 503, null, null)).when(azureTableCloudClientMock).execute(TABLE_NAME, putMock);
+
+        try {
+            baseAzureTable.put(ROW_KEY_1, COLUMN_KEY_1, VALUE_1);
+            fail("the put should have failed");
+        } catch (RuntimeException expected) {
+            verify(azureTableRequestFactoryMock, never()).put(any(AzureEntity.class));
+        }
+    }
+
+    @Test
+    public void with_column_index_deleting_a_missing_cell_leaves_the_index_alone() throws StorageException {
+        baseAzureTable = tableWithColumnIndex();
+        TableOperation deleteMock = mock(TableOperation.class);
+        when(azureTableRequestFactoryMock.delete(encode(ROW_KEY_1), encode(COLUMN_KEY_1))).thenReturn(deleteMock);
+        doThrow(notFoundException()).when(azureTableCloudClientMock).execute(TABLE_NAME, deleteMock);
+
+        assertThat(baseAzureTable.delete(ROW_KEY_1, COLUMN_KEY_1), is(equalTo(false)));
+
+        verify(azureTableRequestFactoryMock, never()).delete(encode(COLUMN_KEY_1), encode(ROW_KEY_1));
+    }
+
+    @Test
+    public void with_column_index_removing_cells_which_are_already_gone_removes_their_index_entries() throws StorageException {
+        baseAzureTable = tableWithColumnIndex();
+        TableBatchOperation tableDeleteMock = mock(TableBatchOperation.class);
+        TableBatchOperation indexDeleteMock = mock(TableBatchOperation.class);
+        when(azureTableRequestFactoryMock.deleteBatch(anyListOf(AzureEntity.class))).thenReturn(tableDeleteMock, indexDeleteMock);
+        doThrow(notFoundException()).when(azureTableCloudClientMock).execute(TABLE_NAME, tableDeleteMock);
+
+        assertThat(baseAzureTable.removeEntities(ImmutableList.of(AzureEntityUtil.anyVersionOf(encode(ROW_KEY_1), encode(COLUMN_KEY_1)))),
+                is(equalTo(0)));
+
+        verify(azureTableCloudClientMock).execute(COLUMN_INDEX_TABLE_NAME, indexDeleteMock);
+    }
+
+    @Test
+    public void with_column_index_removing_cells_which_changed_keeps_their_index_entries() throws StorageException {
+        baseAzureTable = tableWithColumnIndex();
+        TableBatchOperation tableDeleteMock = mock(TableBatchOperation.class);
+        when(azureTableRequestFactoryMock.deleteBatch(anyListOf(AzureEntity.class))).thenReturn(tableDeleteMock);
+        doThrow(conditionFailedException()).when(azureTableCloudClientMock).execute(TABLE_NAME, tableDeleteMock);
+
+        assertThat(baseAzureTable.removeEntities(ImmutableList.of(new AzureEntity(encode(ROW_KEY_1), encode(COLUMN_KEY_1), encode(VALUE_1)))),
+                is(equalTo(0)));
+
+        verify(azureTableCloudClientMock, never()).execute(eq(COLUMN_INDEX_TABLE_NAME), any(TableBatchOperation.class));
+    }
+
+    @Test
+    public void with_column_index_cells_of_a_column_are_read_from_the_table_and_stale_entries_are_dropped() throws StorageException {
+        baseAzureTable = tableWithColumnIndex();
+        setAzureTableToContain(CELL_1);
+        AzureEntity staleEntry = ColumnIndex.entryOf(encode(ROW_KEY_2), encode(COLUMN_KEY_1));
+        staleEntry.setEtag(INDEX_ENTRY_ETAG);
+        TableQuery<AzureEntity> indexQuery = AzureTestUtil.queryMock();
+        when(azureTableRequestFactoryMock.selectKeysForRow(COLUMN_INDEX_TABLE_NAME, encode(COLUMN_KEY_1))).thenReturn(indexQuery);
+        when(azureTableCloudClientMock.execute(indexQuery)).thenReturn(ImmutableList.of(ColumnIndex.entryOf(encode(ROW_KEY_1), encode(COLUMN_KEY_1)), staleEntry));
+        TableOperation staleDeleteMock = mock(TableOperation.class);
+        when(azureTableRequestFactoryMock.delete(staleEntry)).thenReturn(staleDeleteMock);
+
+        AzureEntity cell = Iterables.getOnlyElement(baseAzureTable.indexedColumn(encode(COLUMN_KEY_1)));
+
+        assertThat(cell.getPartitionKey(), is(equalTo(encode(ROW_KEY_1))));
+        assertThat(AzureEntityUtil.decodeValue(cell), is(equalTo(VALUE_1)));
+        verify(azureTableCloudClientMock).execute(COLUMN_INDEX_TABLE_NAME, staleDeleteMock);
+    }
+
+    @Test
+    public void with_column_index_delete_deletes_the_index_entry() throws StorageException {
+        baseAzureTable = tableWithColumnIndex();
+        TableOperation indexDeleteMock = mock(TableOperation.class);
+        when(azureTableRequestFactoryMock.delete(encode(COLUMN_KEY_1), encode(ROW_KEY_1))).thenReturn(indexDeleteMock);
+
+        baseAzureTable.delete(ROW_KEY_1, COLUMN_KEY_1);
+
+        verify(azureTableCloudClientMock).execute(COLUMN_INDEX_TABLE_NAME, indexDeleteMock);
+    }
+
+    @Test
+    public void with_column_index_clear_clears_the_index_table() throws StorageException {
+        baseAzureTable = tableWithColumnIndex();
+        setAzureTableToContain(CELL_1);
+        TableQuery<AzureEntity> indexKeysQuery = AzureTestUtil.queryMock();
+        when(azureTableRequestFactoryMock.selectAllKeys(COLUMN_INDEX_TABLE_NAME)).thenReturn(indexKeysQuery);
+        when(azureTableCloudClientMock.execute(indexKeysQuery)).thenReturn(ImmutableList.of(new AzureEntity(encode(COLUMN_KEY_1), encode(ROW_KEY_1), null)));
+        TableBatchOperation deleteBatchMock = mock(TableBatchOperation.class);
+        when(azureTableRequestFactoryMock.deleteBatch(anyListOf(AzureEntity.class))).thenReturn(deleteBatchMock);
+
+        baseAzureTable.clear();
+
+        verify(azureTableCloudClientMock).execute(TABLE_NAME, deleteBatchMock);
+        verify(azureTableCloudClientMock).execute(COLUMN_INDEX_TABLE_NAME, deleteBatchMock);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rebuilding_the_column_index_requires_a_column_index() {
+        baseAzureTable.rebuildColumnIndex();
+    }
+
+    private static final String INDEX_ENTRY_ETAG = "W/\"datetime'2014-01-01T00%3A00%3A00Z'\"";
+    private static final long INDEX_ENTRY_GRACE_PERIOD_IN_MILLIS = 60 * 1000;
+
+    @SafeVarargs
+    private final void setValueIndexToContain(Bytes value, Table.Cell<Bytes, Bytes, ?>... cells) {
+        setValueIndexToContain(value, new Date(0), Arrays.asList(cells));
+    }
+
+    private void setValueIndexToContain(Bytes value, Iterable<? extends Table.Cell<Bytes, Bytes, ?>> cells) {
+        setValueIndexToContain(value, new Date(0), cells);
+    }
+
+    private void setValueIndexToContain(Bytes value, Date written, Iterable<? extends Table.Cell<Bytes, Bytes, ?>> cells) {
+        List<AzureEntity> entries = Lists.newArrayList();
+        for (Table.Cell<Bytes, Bytes, ?> cell : cells) {
+            AzureEntity entry = ValueIndex.entryOf(encode(cell.getRowKey()), encode(cell.getColumnKey()), value);
+            entry.setEtag(INDEX_ENTRY_ETAG);
+            entry.setTimestamp(written);
+            entries.add(entry);
+        }
+        TableQuery<AzureEntity> indexQuery = AzureTestUtil.queryMock();
+        when(azureTableRequestFactoryMock.selectAllForRow(INDEX_TABLE_NAME, ValueIndex.partitionOf(value))).thenReturn(indexQuery);
+        when(azureTableCloudClientMock.execute(indexQuery)).thenReturn(entries);
+    }
+
+    @Test
+    public void with_value_index_put_writes_the_index_entry() throws StorageException {
+        baseAzureTable = tableWithValueIndex();
+        ArgumentCaptor<AzureEntity> entryCaptor = ArgumentCaptor.forClass(AzureEntity.class);
+
+        baseAzureTable.put(ROW_KEY_1, COLUMN_KEY_1, VALUE_1);
+
+        verify(azureTableRequestFactoryMock).put(entryCaptor.capture());
+        assertThat(entryCaptor.getValue().getPartitionKey(), is(equalTo(ValueIndex.partitionOf(VALUE_1))));
+        verify(azureTableRequestFactoryMock).put(encode(ROW_KEY_1), encode(COLUMN_KEY_1), encode(VALUE_1));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void find_by_value_returns_the_indexed_cells_which_hold_the_value_and_drops_stale_entries() throws StorageException {
+        baseAzureTable = tableWithValueIndex();
+        setAzureTableToContain(CELL_1, CELL_2);
+        Table.Cell<Bytes, Bytes, Bytes> staleCell = Tables.immutableCell(ROW_KEY_2, COLUMN_KEY_2, VALUE_1);
+        setValueIndexToContain(VALUE_1, CELL_1, staleCell);
+
+        ArgumentCaptor<AzureEntity> entryCaptor = ArgumentCaptor.forClass(AzureEntity.class);
+
+        assertThat(baseAzureTable.findByValue(VALUE_1), contains(CELL_1));
+        assertThat(baseAzureTable.containsValue(VALUE_1), is(equalTo(true)));
+
+        verify(azureTableRequestFactoryMock, atLeastOnce()).delete(entryCaptor.capture());
+        assertThat(entryCaptor.getValue().getPartitionKey(), is(equalTo(ValueIndex.partitionOf(VALUE_1))));
+        assertThat(entryCaptor.getValue().getRowKey(), is(equalTo(ValueIndex.entryOf(encode(ROW_KEY_2), encode(COLUMN_KEY_2), VALUE_1).getRowKey())));
+        assertThat(entryCaptor.getValue().getEtag(), is(equalTo(INDEX_ENTRY_ETAG)));
+        verify(azureTableRequestFactoryMock, never()).containsValueQuery(TABLE_NAME, encode(VALUE_1));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void a_lookup_between_the_index_entry_and_the_write_of_a_cell_keeps_the_entry() throws StorageException {
+        baseAzureTable = tableWithValueIndex();
+        setAzureTableToContain();
+        // the entry the put writes, as the lookup reads it while the write of the cell is on its way
+        setValueIndexToContain(VALUE_1, new Date(), Collections.singleton(CELL_1));
+        final List<Set<Table.Cell<Bytes, Bytes, Bytes>>> lookups = Lists.newArrayList();
+        final List<AzureEntity> writtenCells = Lists.newArrayList();
+        TableOperation putOperation = mock(TableOperation.class);
+        when(azureTableRequestFactoryMock.put(encode(ROW_KEY_1), encode(COLUMN_KEY_1), encode(VALUE_1))).thenReturn(putOperation);
+        when(azureTableCloudClientMock.execute(TABLE_NAME, putOperation)).thenAnswer(new Answer<AzureEntity>() {
+            @Override
+            public AzureEntity answer(InvocationOnMock invocation) {
+                lookups.add(baseAzureTable.findByValue(VALUE_1));
+                writtenCells.add(new AzureEntity(encode(ROW_KEY_1), encode(COLUMN_KEY_1), encode(VALUE_1)));
+                return null;
+            }
+        });
+        TableOperation retrieveOperation = mock(TableOperation.class);
+        when(azureTableRequestFactoryMock.retrieve(encode(ROW_KEY_1), encode(COLUMN_KEY_1))).thenReturn(retrieveOperation);
+        when(azureTableCloudClientMock.execute(TABLE_NAME, retrieveOperation)).thenAnswer(new Answer<AzureEntity>() {
+            @Override
+            public AzureEntity answer(InvocationOnMock invocation) {
+                return Iterables.getFirst(writtenCells, null);
+            }
+        });
+
+        baseAzureTable.put(ROW_KEY_1, COLUMN_KEY_1, VALUE_1);
+
+        assertThat(lookups, contains(Collections.<Table.Cell<Bytes, Bytes, Bytes>>emptySet()));
+        assertThat(baseAzureTable.findByValue(VALUE_1), contains(CELL_1));
+        verify(azureTableRequestFactoryMock, never()).delete(any(AzureEntity.class));
+    }
+
+    @Test
+    public void with_value_index_contains_value_reads_no_further_than_the_first_page_with_a_cell_holding_the_value() throws StorageException {
+        baseAzureTable = tableWithValueIndex();
+        setAzureTableToContain(CELL_1);
+        List<Table.Cell<Bytes, Bytes, Bytes>> candidates = Lists.newArrayList();
+        candidates.add(CELL_1);
+        for (int i = 0; i < BaseAzureTable.VALUE_CANDIDATES_PER_PAGE; i++) {
+            candidates.add(Tables.immutableCell(new Bytes(("row" + i).getBytes()), COLUMN_KEY_1, VALUE_1));
+        }
+        Table.Cell<Bytes, Bytes, Bytes> candidateOfTheSecondPage = Iterables.getLast(candidates);
+        setValueIndexToContain(VALUE_1, candidates);
+
+        assertThat(baseAzureTable.containsValue(VALUE_1), is(equalTo(true)));
+
+        verify(azureTableRequestFactoryMock, never()).retrieve(encode(candidateOfTheSecondPage.getRowKey()), encode(COLUMN_KEY_1));
+    }
+
+    @Test
+    public void with_value_index_contains_value_is_false_without_index_entries() {
+        baseAzureTable = tableWithValueIndex();
+        setValueIndexToContain(VALUE_2);
+
+        assertThat(baseAzureTable.containsValue(VALUE_2), is(equalTo(false)));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void find_by_value_requires_a_value_index() {
+        baseAzureTable.findByValue(VALUE_1);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void for_each_cell_passes_all_cells_to_the_sink() throws StorageException {
+        setAzureTableToContain(CELL_1, CELL_2);
+        final List<Table.Cell<Bytes, Bytes, Bytes>> cells = Lists.newArrayList();
+
+        baseAzureTable.forEachCell(new BaseAzureTable.CellSink() {
+            @Override
+            public void accept(Table.Cell<Bytes, Bytes, Bytes> cell) {
+                cells.add(cell);
+            }
+        });
+
+        assertThat(cells, containsInAnyOrder(CELL_1, CELL_2));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void get_page_returns_cells_and_continuation_of_the_segment() throws StorageException {
+        ResultContinuation next = new ResultContinuation();
+        next.setNextPartitionKey(encode(ROW_KEY_2));
+        next.setNextRowKey(encode(COLUMN_KEY_2));
+        TableQuery<AzureEntity> pageQuery = AzureTestUtil.queryMock();
+        when(azureTableRequestFactoryMock.selectPage(TABLE_NAME, 1)).thenReturn(pageQuery);
+        when(azureTableCloudClientMock.executeSegmented(pageQuery, null)).thenReturn(segment(next, CELL_1));
+
+        CellPage page = baseAzureTable.getPage(1);
+
+        assertThat(page.getCells(), contains(CELL_1));
+        assertThat(page.getContinuation().isPresent(), is(equalTo(true)));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void get_page_resumes_from_continuation_token() throws StorageException {
+        ContinuationToken token = ContinuationToken.parse(encode(ROW_KEY_2) + ':' + encode(COLUMN_KEY_2));
+        TableQuery<AzureEntity> pageQuery = AzureTestUtil.queryMock();
+        when(azureTableRequestFactoryMock.selectPage(TABLE_NAME, 2)).thenReturn(pageQuery);
+        ArgumentCaptor<ResultContinuation> continuationCaptor = ArgumentCaptor.forClass(ResultContinuation.class);
+        when(azureTableCloudClientMock.executeSegmented(eq(pageQuery), continuationCaptor.capture())).thenReturn(segment(null, CELL_2));
+
+        CellPage page = baseAzureTable.getPage(2, token);
+
+        assertThat(page.getCells(), contains(CELL_2));
+        assertThat(page.getContinuation().isPresent(), is(equalTo(false)));
+        assertThat(continuationCaptor.getValue().getNextPartitionKey(), is(equalTo(encode(ROW_KEY_2))));
+        assertThat(continuationCaptor.getValue().getNextRowKey(), is(equalTo(encode(COLUMN_KEY_2))));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void page_size_cannot_exceed_the_service_maximum() {
+        baseAzureTable.getPage(1001);
+    }
+
+    @Test
+    public void with_binary_values_put_writes_a_binary_entity() throws StorageException {
+        baseAzureTable = table(BaseAzureTable.DEFAULT_DISTINCT_MEMORY_BUDGET_IN_BYTES, ValueFormat.BINARY, KeyCodec.BASE64,
+                Optional.<ValueIndex>absent(), Optional.<ColumnIndex>absent());
+        ArgumentCaptor<AzureEntity> entityCaptor = ArgumentCaptor.forClass(AzureEntity.class);
+
+        baseAzureTable.set(ROW_KEY_1, COLUMN_KEY_1, VALUE_1);
+
+        verify(azureTableRequestFactoryMock).put(entityCaptor.capture());
+        assertThat(entityCaptor.getValue().getBinaryValue(), is(equalTo(VALUE_1.getBytes())));
+        verify(azureTableRequestFactoryMock, never()).put(encode(ROW_KEY_1), encode(COLUMN_KEY_1), encode(VALUE_1));
+    }
+
+    @Test
+    public void with_order_preserving_keys_cells_are_written_with_order_preserving_keys() throws StorageException {
+        baseAzureTable = table(BaseAzureTable.DEFAULT_DISTINCT_MEMORY_BUDGET_IN_BYTES, ValueFormat.BASE64_STRING, KeyCodec.ORDER_PRESERVING,
+                Optional.<ValueIndex>absent(), Optional.<ColumnIndex>absent());
+
+        baseAzureTable.set(ROW_KEY_1, COLUMN_KEY_1, VALUE_1);
+
+        verify(azureTableRequestFactoryMock).put(
+                KeyCodec.ORDER_PRESERVING.encode(ROW_KEY_1), KeyCodec.ORDER_PRESERVING.encode(COLUMN_KEY_1), encode(VALUE_1));
+        assertThat(baseAzureTable.row(ROW_KEY_1) instanceof SortedMap, is(equalTo(true)));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void sorted_row_requires_order_preserving_keys() {
+        baseAzureTable.sortedRow(ROW_KEY_1);
+    }
+
+    @Test
+    public void get_all_of_a_row_reads_the_columns_with_one_query() throws StorageException {
+        TableQuery<AzureEntity> columnsQuery = AzureTestUtil.queryMock();
+        when(azureTableRequestFactoryMock.selectColumnsForRow(TABLE_NAME, encode(ROW_KEY_1),
+                ImmutableList.of(encode(COLUMN_KEY_1), encode(COLUMN_KEY_2), encode(NON_EXISTENT_COLUMN_KEY)))).thenReturn(columnsQuery);
+        when(azureTableCloudClientMock.execute(columnsQuery)).thenReturn(ImmutableList.of(
+                AzureTestUtil.encodedEntity(CELL_1),
+                AzureTestUtil.encodedEntity(Tables.immutableCell(ROW_KEY_1, COLUMN_KEY_2, VALUE_2))));
+
+        Map<Bytes, Bytes> values = baseAzureTable.getAll(ROW_KEY_1, ImmutableList.of(COLUMN_KEY_1, COLUMN_KEY_2, NON_EXISTENT_COLUMN_KEY, COLUMN_KEY_1));
+
+        assertThat(values, is(equalTo((Map<Bytes, Bytes>) ImmutableMap.of(COLUMN_KEY_1, VALUE_1, COLUMN_KEY_2, VALUE_2))));
+        verify(azureTableRequestFactoryMock, never()).retrieve(any(String.class), any(String.class));
+    }
+
+    @Test
+    public void get_all_of_a_row_splits_the_columns_into_queries_of_limited_size() {
+        TableQuery<AzureEntity> columnsQuery = AzureTestUtil.queryMock();
+        when(azureTableRequestFactoryMock.selectColumnsForRow(eq(TABLE_NAME), eq(encode(ROW_KEY_1)), anyListOf(String.class))).thenReturn(columnsQuery);
+        when(azureTableCloudClientMock.execute(columnsQuery)).thenReturn(ImmutableList.<AzureEntity>of());
+
+        baseAzureTable.getAll(ROW_KEY_1, columns(BaseAzureTable.MAX_COLUMNS_PER_QUERY + 1));
+
+        verify(azureTableRequestFactoryMock, times(2)).selectColumnsForRow(eq(TABLE_NAME), eq(encode(ROW_KEY_1)), columnsCaptor.capture());
+        assertThat(Iterables.size(columnsCaptor.getAllValues().get(0)), is(equalTo(BaseAzureTable.MAX_COLUMNS_PER_QUERY)));
+        assertThat(Iterables.size(columnsCaptor.getAllValues().get(1)), is(equalTo(1)));
+    }
+
+    @Test
+    public void get_all_of_many_columns_falls_back_to_point_reads() throws StorageException {
+        setAzureTableToContain(CELL_1);
+        List<Bytes> columns = columns(BaseAzureTable.MAX_COLUMNS_PER_QUERY * BaseAzureTable.MAX_QUERIES_PER_MULTI_GET);
+        columns.add(COLUMN_KEY_1);
+
+        Map<Bytes, Bytes> values = baseAzureTable.getAll(ROW_KEY_1, columns);
+
+        assertThat(values, is(equalTo((Map<Bytes, Bytes>) ImmutableMap.of(COLUMN_KEY_1, VALUE_1))));
+        verify(azureTableRequestFactoryMock, never()).selectColumnsForRow(any(String.class), any(String.class), anyListOf(String.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void get_all_cells_queries_rows_with_many_columns_and_reads_single_cells() throws StorageException {
+        setAzureTableToContain(CELL_1, CELL_2);
+        TableQuery<AzureEntity> columnsQuery = AzureTestUtil.queryMock();
+        when(azureTableRequestFactoryMock.selectColumnsForRow(TABLE_NAME, encode(ROW_KEY_1),
+                ImmutableList.of(encode(COLUMN_KEY_1), encode(NON_EXISTENT_COLUMN_KEY)))).thenReturn(columnsQuery);
+        when(azureTableCloudClientMock.execute(columnsQuery)).thenReturn(ImmutableList.of(AzureTestUtil.encodedEntity(CELL_1)));
+
+        ImmutableTable<Bytes, Bytes, Bytes> cells = baseAzureTable.getAll(ImmutableList.of(
+                Tables.immutableCell(ROW_KEY_1, COLUMN_KEY_1, null),
+                Tables.immutableCell(ROW_KEY_2, COLUMN_KEY_2, null),
+                Tables.immutableCell(ROW_KEY_1, NON_EXISTENT_COLUMN_KEY, null)));
+
+        assertThat(cells.cellSet(), containsInAnyOrder(CELL_1, CELL_2));
+        verify(azureTableRequestFactoryMock).retrieve(encode(ROW_KEY_2), encode(COLUMN_KEY_2));
+        verify(azureTableRequestFactoryMock, never()).retrieve(encode(ROW_KEY_1), encode(COLUMN_KEY_1));
+    }
+
+    @Test
+    public void get_all_cells_of_no_cells_sends_no_requests() {
+        assertThat(baseAzureTable.getAll(ImmutableList.<Table.Cell<Bytes, Bytes, Object>>of()).isEmpty(), is(equalTo(true)));
+
+        verifyZeroInteractions(azureTableCloudClientMock);
+    }
+
+    @Test
+    public void update_row_writes_and_removes_in_one_transaction() throws StorageException {
+        TableBatchOperation updateBatchMock = mock(TableBatchOperation.class);
+        when(azureTableRequestFactoryMock.updateBatch(anyListOf(AzureEntity.class), anyListOf(AzureEntity.class))).thenReturn(updateBatchMock);
+
+        baseAzureTable.updateRow(ROW_KEY_1, ImmutableMap.of(COLUMN_KEY_1, VALUE_1, COLUMN_KEY_2, VALUE_2), ImmutableList.of(COLUMN_KEY_3));
+
+        verify(azureTableCloudClientMock).execute(TABLE_NAME, updateBatchMock);
+        verify(azureTableRequestFactoryMock).updateBatch(putsCaptor.capture(), deletesCaptor.capture());
+        assertThat(Iterables.size(putsCaptor.getValue()), is(equalTo(2)));
+        AzureEntity delete = Iterables.getOnlyElement(deletesCaptor.getValue());
+        assertThat(delete.getPartitionKey(), is(equalTo(encode(ROW_KEY_1))));
+        assertThat(delete.getRowKey(), is(equalTo(encode(COLUMN_KEY_3))));
+    }
+
+    @Test
+    public void update_row_splits_more_than_a_hundred_changes_into_transactions() throws StorageException {
+        TableBatchOperation updateBatchMock = mock(TableBatchOperation.class);
+        when(azureTableRequestFactoryMock.updateBatch(anyListOf(AzureEntity.class), anyListOf(AzureEntity.class))).thenReturn(updateBatchMock);
+        Map<Bytes, Bytes> puts = Maps.newLinkedHashMap();
+        for (Bytes column : columns(150)) {
+            puts.put(column, VALUE_1);
+        }
+
+        baseAzureTable.updateRow(ROW_KEY_1, puts, ImmutableList.<Bytes>of());
+
+        verify(azureTableCloudClientMock, times(2)).execute(TABLE_NAME, updateBatchMock);
+    }
+
+    @Test
+    public void update_row_leaves_out_removed_columns_which_do_not_exist() throws StorageException {
+        TableBatchOperation updateBatchMock = mock(TableBatchOperation.class);
+        when(azureTableRequestFactoryMock.updateBatch(anyListOf(AzureEntity.class), anyListOf(AzureEntity.class))).thenReturn(updateBatchMock);
+        doThrow(notFoundException()).doNothing().when(azureTableCloudClientMock).execute(TABLE_NAME, updateBatchMock);
+        TableQuery<AzureEntity> rowKeysQuery = AzureTestUtil.queryMock();
+        when(azureTableRequestFactoryMock.selectKeysForRow(TABLE_NAME, encode(ROW_KEY_1))).thenReturn(rowKeysQuery);
+        when(azureTableCloudClientMock.execute(rowKeysQuery)).thenReturn(ImmutableList.of(new AzureEntity(encode(ROW_KEY_1), encode(COLUMN_KEY_2), null)));
+
+        baseAzureTable.updateRow(ROW_KEY_1, ImmutableMap.of(COLUMN_KEY_1, VALUE_1), ImmutableList.of(COLUMN_KEY_2, COLUMN_KEY_3));
+
+        verify(azureTableRequestFactoryMock, times(2)).updateBatch(anyListOf(AzureEntity.class), deletesCaptor.capture());
+        AzureEntity delete = Iterables.getOnlyElement(deletesCaptor.getAllValues().get(1));
+        assertThat(delete.getRowKey(), is(equalTo(encode(COLUMN_KEY_2))));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void update_row_rejects_a_column_which_is_both_written_and_removed() {
+        baseAzureTable.updateRow(ROW_KEY_1, ImmutableMap.of(COLUMN_KEY_1, VALUE_1), ImmutableList.of(COLUMN_KEY_1));
+    }
+
+    private static List<Bytes> columns(int count) {
+        List<Bytes> columns = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            columns.add(new Bytes(("column_" + i).getBytes()));
+        }
+        return columns;
+    }
+
     @Test
     public void size_returns_correct_size() throws StorageException {
         setAzureTableToContain(CELL_1, CELL_2);
@@ -337,29 +1077,92 @@ public class BaseAzureTableTest {
     }
 
     @Test
-    public void clear_deletes_all_in_cell_set() throws StorageException {
+    public void size_and_key_sets_are_read_with_key_only_queries() throws StorageException {
         setAzureTableToContain(CELL_1, CELL_2);
-        TableOperation deleteTableOperationMock1 = mockDeleteTableOperation(CELL_1);
-        TableOperation deleteTableOperationMock2 = mockDeleteTableOperation(CELL_2);
+
+        baseAzureTable.size();
+        Iterables.size(baseAzureTable.rowKeySet());
+        Iterables.size(baseAzureTable.columnKeySet());
+
+        verify(azureTableRequestFactoryMock, never()).selectAll(TABLE_NAME);
+    }
+
+    @Test
+    public void clear_deletes_all_in_cell_set_in_one_batch_per_row() throws StorageException {
+        setAzureTableToContain(CELL_1, CELL_2);
+        TableBatchOperation deleteBatchMock = mock(TableBatchOperation.class);
+        when(azureTableRequestFactoryMock.deleteBatch(anyListOf(AzureEntity.class))).thenReturn(deleteBatchMock);
 
         baseAzureTable.clear();
 
-        verify(azureTableCloudClientMock).execute(TABLE_NAME, deleteTableOperationMock1);
-        verify(azureTableCloudClientMock).execute(TABLE_NAME, deleteTableOperationMock2);
+        verify(azureTableCloudClientMock, times(2)).execute(TABLE_NAME, deleteBatchMock);
+        verify(azureTableCloudClientMock, never()).execute(eq(TABLE_NAME), any(TableOperation.class));
     }
 
     @Test
-    public void put_all_puts_all_the_values() throws StorageException {
+    public void when_delete_batch_fails_because_an_entity_is_gone_then_entities_deleted_one_by_one() throws StorageException {
+        setAzureTableToContain(CELL_1, Tables.immutableCell(ROW_KEY_1, COLUMN_KEY_2, VALUE_2));
+        TableBatchOperation deleteBatchMock = mock(TableBatchOperation.class);
+        when(azureTableRequestFactoryMock.deleteBatch(anyListOf(AzureEntity.class))).thenReturn(deleteBatchMock);
+        doThrow(notFoundException()).when(azureTableCloudClientMock).execute(TABLE_NAME, deleteBatchMock);
+        TableOperation deleteTableOperationMock = mock(TableOperation.class);
+        when(azureTableRequestFactoryMock.delete(any(AzureEntity.class))).thenReturn(deleteTableOperationMock);
+
+        baseAzureTable.clear();
+
+        verify(azureTableCloudClientMock, times(2)).execute(TABLE_NAME, deleteTableOperationMock);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void when_table_client_throws_storage_exception_during_clear_then_exception_rethrown() throws StorageException {
+        setAzureTableToContain(CELL_1);
+        TableBatchOperation deleteBatchMock = mock(TableBatchOperation.class);
+        when(azureTableRequestFactoryMock.deleteBatch(anyListOf(AzureEntity.class))).thenReturn(deleteBatchMock);
+        doThrow(mock(StorageException.class)).when(azureTableCloudClientMock).execute(TABLE_NAME, deleteBatchMock);
+
+        baseAzureTable.clear();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void put_all_puts_all_the_values_in_one_batch_per_row() throws StorageException {
         Table<Bytes, Bytes, Bytes> sourceTable = HashBasedTable.create();
         sourceTable.put(ROW_KEY_1, COLUMN_KEY_1, VALUE_1);
+        sourceTable.put(ROW_KEY_1, COLUMN_KEY_2, VALUE_2);
         sourceTable.put(ROW_KEY_2, COLUMN_KEY_2, VALUE_2);
-        TableOperation putTableOperationMock1 = mockPutTableOperation(CELL_1);
-        TableOperation putTableOperationMock2 = mockPutTableOperation(CELL_2);
+        TableBatchOperation batchOperationMock = mock(TableBatchOperation.class);
+        when(azureTableRequestFactoryMock.putBatch(anyListOf(AzureEntity.class))).thenReturn(batchOperationMock);
 
         baseAzureTable.putAll(sourceTable);
 
-        verify(azureTableCloudClientMock).execute(TABLE_NAME, putTableOperationMock1);
-        verify(azureTableCloudClientMock).execute(TABLE_NAME, putTableOperationMock2);
+        verify(azureTableCloudClientMock, times(2)).execute(TABLE_NAME, batchOperationMock);
+        assertThat(capturePutBatches(), containsInAnyOrder(
+                containsInAnyOrder(encode(COLUMN_KEY_1), encode(COLUMN_KEY_2)),
+                containsInAnyOrder(encode(COLUMN_KEY_2))
+        ));
+    }
+
+    @Test
+    public void put_all_splits_large_rows_into_batches_of_limited_size() throws StorageException {
+        Table<Bytes, Bytes, Bytes> sourceTable = HashBasedTable.create();
+        for (int i = 0; i < EntityBatches.MAX_BATCH_ENTITIES + 1; i++) {
+            sourceTable.put(ROW_KEY_1, new Bytes(("column_" + i).getBytes()), VALUE_1);
+        }
+        TableBatchOperation batchOperationMock = mock(TableBatchOperation.class);
+        when(azureTableRequestFactoryMock.putBatch(anyListOf(AzureEntity.class))).thenReturn(batchOperationMock);
+
+        baseAzureTable.putAll(sourceTable);
+
+        verify(azureTableCloudClientMock, times(2)).execute(TABLE_NAME, batchOperationMock);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void when_table_client_throws_storage_exception_during_put_all_then_exception_rethrown() throws StorageException {
+        TableBatchOperation batchOperationMock = mock(TableBatchOperation.class);
+        when(azureTableRequestFactoryMock.putBatch(anyListOf(AzureEntity.class))).thenReturn(batchOperationMock);
+        doThrow(mock(StorageException.class)).when(azureTableCloudClientMock).execute(TABLE_NAME, batchOperationMock);
+
+        baseAzureTable.putAll(HashBasedTable.create(ImmutableTable.of(ROW_KEY_1, COLUMN_KEY_1, VALUE_1)));
     }
 
     @Test(expected = NullPointerException.class)
@@ -420,6 +1223,21 @@ public class BaseAzureTableTest {
         assertThat(rowKey2Map.get(COLUMN_KEY_2), is(equalTo(VALUE_2)));
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void rowMap_values_are_read_with_a_single_scan() throws StorageException {
+        Table.Cell<Bytes, Bytes, Bytes> otherCellOfRow1 = Tables.immutableCell(ROW_KEY_1, COLUMN_KEY_2, VALUE_2);
+        setAzureTableToContain(CELL_1, otherCellOfRow1, CELL_2);
+
+        List<Map<Bytes, Bytes>> rows = Lists.newArrayList(baseAzureTable.rowMap().values().iterator());
+
+        assertThat(rows, contains(
+                (Map<Bytes, Bytes>) ImmutableMap.of(COLUMN_KEY_1, VALUE_1, COLUMN_KEY_2, VALUE_2),
+                ImmutableMap.of(COLUMN_KEY_2, VALUE_2)));
+        verify(azureTableRequestFactoryMock, never()).selectAllForRow(anyString(), anyString());
+        verify(azureTableRequestFactoryMock, never()).selectAllKeys(TABLE_NAME);
+    }
+
     //
     // Utility methods
     //
@@ -441,17 +1259,49 @@ public class BaseAzureTableTest {
         assertThat(columnKeyMap2.get(ROW_KEY_2), is(equalTo(VALUE_2)));
     }
 
+    private List<List<String>> capturePutBatches() {
+        verify(azureTableRequestFactoryMock, atLeastOnce()).putBatch(putsCaptor.capture());
+        List<List<String>> columnsPerBatch = Lists.newArrayList();
+        for (Iterable<AzureEntity> batch : putsCaptor.getAllValues()) {
+            List<String> columns = Lists.newArrayList();
+            for (AzureEntity entity : batch) {
+                columns.add(entity.getRowKey());
+            }
+            columnsPerBatch.add(columns);
+        }
+        return columnsPerBatch;
+    }
+
     @SafeVarargs
     private final void setAzureTableToContain(Table.Cell<Bytes, Bytes, Bytes>... cells) throws StorageException {
         AzureTestUtil.setAzureTableToContain(TABLE_NAME, azureTableRequestFactoryMock, azureTableCloudClientMock, cells);
     }
 
+    private static StorageException conditionFailedException() {
+        return new StorageException("UpdateConditionNotSatisfied", "changed", 412, null, null);
+    }
+
+    private static StorageException notFoundException() {
+        StorageException notFoundException = mock(StorageException.class);
+        when(notFoundException.getErrorCode()).thenReturn("ResourceNotFound");
+        return notFoundException;
+    }
+
     private void setToThrowStorageExceptionOnRetrievalOf(Table.Cell<Bytes, Bytes, Bytes> cell) throws StorageException {
         TableOperation retriveTableOperationMock = mock(TableOperation.class);
         when(azureTableRequestFactoryMock.retrieve(encode(cell.getRowKey()), encode(cell.getColumnKey()))).thenReturn(retriveTableOperationMock);
         setupThrowStorageExceptionOnTableOperation(retriveTableOperationMock);
     }
 
+    @SafeVarargs
+    private static ResultSegment<AzureEntity> segment(ResultContinuation continuation, Table.Cell<Bytes, Bytes, Bytes>... cells) {
+        ArrayList<AzureEntity> entities = new ArrayList<>();
+        for (Table.Cell<Bytes, Bytes, Bytes> cell : cells) {
+            entities.add(new AzureEntity(encode(cell.getRowKey()), encode(cell.getColumnKey()), encode(cell.getValue())));
+        }
+        return new ResultSegment<>(entities, entities.size(), continuation);
+    }
+
     private TableOperation mockPutTableOperation(Table.Cell<Bytes, Bytes, Bytes> cell) {
         TableOperation putTableOperationMock = mock(TableOperation.class);
         when(azureTableRequestFactoryMock.put(encode(cell.getRowKey()), encode(cell.getColumnKey()), encode(cell.getValue()))).thenReturn(putTableOperationMock);
@@ -0,0 +1,268 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.azure;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.collect.Table;
+import com.google.common.collect.Tables;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@SuppressWarnings({"ClassWithTooManyMethods", "InstanceVariableMayNotBeInitialized"})
+@RunWith(MockitoJUnitRunner.class)
+public class CachingTableTest {
+    private static final Bytes ROW_KEY = new Bytes("row_key".getBytes());
+    private static final Bytes COLUMN_KEY = new Bytes("column_key".getBytes());
+    private static final Bytes VALUE_1 = new Bytes("value1".getBytes());
+    private static final Bytes VALUE_2 = new Bytes("value2".getBytes());
+    private static final long MAXIMUM_SIZE_IN_BYTES = 1024 * 1024;
+    @Mock
+    private Table<Bytes, Bytes, Bytes> backingTableMock;
+    @Mock
+    private Map<Bytes, Bytes> rowMock;
+    @Mock
+    private Set<Table.Cell<Bytes, Bytes, Bytes>> cellSetMock;
+    private CachingTable cachingTable;
+
+    @Before
+    public void setUp() {
+        cachingTable = CachingTable.create(backingTableMock, MAXIMUM_SIZE_IN_BYTES, 1, TimeUnit.HOURS);
+        when(backingTableMock.get(ROW_KEY, COLUMN_KEY)).thenReturn(VALUE_1);
+        when(backingTableMock.row(ROW_KEY)).thenReturn(rowMock);
+        when(backingTableMock.cellSet()).thenReturn(cellSetMock);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void backing_table_cannot_be_null() {
+        CachingTable.create(null, MAXIMUM_SIZE_IN_BYTES, 1, TimeUnit.HOURS);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void maximum_size_has_to_be_positive() {
+        CachingTable.create(backingTableMock, 0, 1, TimeUnit.HOURS);
+    }
+
+    @Test
+    public void repeated_gets_read_the_backing_table_once() {
+        assertThat(cachingTable.get(ROW_KEY, COLUMN_KEY), is(equalTo(VALUE_1)));
+        assertThat(cachingTable.get(ROW_KEY, COLUMN_KEY), is(equalTo(VALUE_1)));
+        assertThat(cachingTable.contains(ROW_KEY, COLUMN_KEY), is(equalTo(true)));
+
+        verify(backingTableMock, times(1)).get(ROW_KEY, COLUMN_KEY);
+    }
+
+    @Test
+    public void misses_are_cached() {
+        when(backingTableMock.get(ROW_KEY, COLUMN_KEY)).thenReturn(null);
+
+        assertThat(cachingTable.get(ROW_KEY, COLUMN_KEY), is(nullValue()));
+        assertThat(cachingTable.contains(ROW_KEY, COLUMN_KEY), is(equalTo(false)));
+
+        verify(backingTableMock, times(1)).get(ROW_KEY, COLUMN_KEY);
+    }
+
+    @Test
+    public void get_of_non_bytes_keys_returns_null() {
+        assertThat(cachingTable.get(new Object(), COLUMN_KEY), is(nullValue()));
+    }
+
+    @Test
+    public void put_invalidates_the_cached_value() {
+        cachingTable.get(ROW_KEY, COLUMN_KEY);
+        when(backingTableMock.get(ROW_KEY, COLUMN_KEY)).thenReturn(VALUE_2);
+
+        cachingTable.put(ROW_KEY, COLUMN_KEY, VALUE_2);
+
+        assertThat(cachingTable.get(ROW_KEY, COLUMN_KEY), is(equalTo(VALUE_2)));
+        verify(backingTableMock).put(ROW_KEY, COLUMN_KEY, VALUE_2);
+    }
+
+    @Test
+    public void remove_invalidates_the_cached_value() {
+        cachingTable.get(ROW_KEY, COLUMN_KEY);
+        when(backingTableMock.get(ROW_KEY, COLUMN_KEY)).thenReturn(null);
+
+        cachingTable.remove(ROW_KEY, COLUMN_KEY);
+
+        assertThat(cachingTable.get(ROW_KEY, COLUMN_KEY), is(nullValue()));
+    }
+
+    @Test
+    public void clear_invalidates_all_cached_values() {
+        cachingTable.get(ROW_KEY, COLUMN_KEY);
+        when(backingTableMock.get(ROW_KEY, COLUMN_KEY)).thenReturn(null);
+
+        cachingTable.clear();
+
+        assertThat(cachingTable.get(ROW_KEY, COLUMN_KEY), is(nullValue()));
+    }
+
+    @Test
+    public void row_map_reads_through_the_cache() {
+        cachingTable.get(ROW_KEY, COLUMN_KEY);
+
+        assertThat(cachingTable.row(ROW_KEY).get(COLUMN_KEY), is(equalTo(VALUE_1)));
+
+        verify(backingTableMock, times(1)).get(ROW_KEY, COLUMN_KEY);
+    }
+
+    @Test
+    public void put_through_row_map_invalidates_the_cached_value() {
+        cachingTable.get(ROW_KEY, COLUMN_KEY);
+        when(backingTableMock.get(ROW_KEY, COLUMN_KEY)).thenReturn(VALUE_2);
+
+        cachingTable.row(ROW_KEY).putAll(ImmutableMap.of(COLUMN_KEY, VALUE_2));
+
+        assertThat(cachingTable.get(ROW_KEY, COLUMN_KEY), is(equalTo(VALUE_2)));
+        verify(rowMock).putAll(ImmutableMap.of(COLUMN_KEY, VALUE_2));
+    }
+
+    @Test
+    public void remove_through_cell_set_invalidates_the_cached_value() {
+        cachingTable.get(ROW_KEY, COLUMN_KEY);
+        when(backingTableMock.get(ROW_KEY, COLUMN_KEY)).thenReturn(null);
+
+        cachingTable.cellSet().removeAll(ImmutableSet.of(Tables.immutableCell(ROW_KEY, COLUMN_KEY, VALUE_1)));
+
+        assertThat(cachingTable.get(ROW_KEY, COLUMN_KEY), is(nullValue()));
+    }
+
+    @Test
+    public void remove_through_row_key_set_iterator_invalidates_the_cached_value() {
+        cachingTable.get(ROW_KEY, COLUMN_KEY);
+        when(rowMock.keySet()).thenReturn(Sets.newHashSet(COLUMN_KEY));
+        when(backingTableMock.get(ROW_KEY, COLUMN_KEY)).thenReturn(null);
+
+        Iterator<Bytes> columns = cachingTable.row(ROW_KEY).keySet().iterator();
+        columns.next();
+        columns.remove();
+
+        assertThat(cachingTable.get(ROW_KEY, COLUMN_KEY), is(nullValue()));
+    }
+
+    @Test
+    public void set_value_through_row_entry_invalidates_the_cached_value() {
+        cachingTable.get(ROW_KEY, COLUMN_KEY);
+        Map<Bytes, Bytes> backingRow = Maps.newHashMap(ImmutableMap.of(COLUMN_KEY, VALUE_1));
+        when(rowMock.entrySet()).thenReturn(backingRow.entrySet());
+        when(backingTableMock.get(ROW_KEY, COLUMN_KEY)).thenReturn(VALUE_2);
+
+        cachingTable.row(ROW_KEY).entrySet().iterator().next().setValue(VALUE_2);
+
+        assertThat(cachingTable.get(ROW_KEY, COLUMN_KEY), is(equalTo(VALUE_2)));
+        assertThat(backingRow.get(COLUMN_KEY), is(equalTo(VALUE_2)));
+    }
+
+    @Test
+    public void put_through_a_row_of_the_row_map_invalidates_the_cached_value() {
+        cachingTable.get(ROW_KEY, COLUMN_KEY);
+        when(backingTableMock.rowMap()).thenReturn(ImmutableMap.of(ROW_KEY, rowMock));
+        when(backingTableMock.get(ROW_KEY, COLUMN_KEY)).thenReturn(VALUE_2);
+
+        cachingTable.rowMap().get(ROW_KEY).put(COLUMN_KEY, VALUE_2);
+
+        assertThat(cachingTable.get(ROW_KEY, COLUMN_KEY), is(equalTo(VALUE_2)));
+        verify(rowMock).put(COLUMN_KEY, VALUE_2);
+    }
+
+    @Test
+    public void remove_through_row_map_invalidates_the_cached_miss() {
+        Map<Bytes, Map<Bytes, Bytes>> backingRowMap = Maps.newHashMap();
+        backingRowMap.put(ROW_KEY, rowMock);
+        when(backingTableMock.rowMap()).thenReturn(backingRowMap);
+        when(backingTableMock.get(ROW_KEY, COLUMN_KEY)).thenReturn(null);
+        cachingTable.get(ROW_KEY, COLUMN_KEY);
+        when(backingTableMock.get(ROW_KEY, COLUMN_KEY)).thenReturn(VALUE_2);
+
+        cachingTable.rowMap().remove(ROW_KEY);
+
+        assertThat(cachingTable.get(ROW_KEY, COLUMN_KEY), is(equalTo(VALUE_2)));
+        assertThat(backingRowMap.isEmpty(), is(equalTo(true)));
+    }
+
+    @Test
+    public void put_through_an_entry_of_the_column_map_invalidates_the_cached_value() {
+        cachingTable.get(ROW_KEY, COLUMN_KEY);
+        Map<Bytes, Map<Bytes, Bytes>> backingColumnMap = Maps.newHashMap();
+        backingColumnMap.put(COLUMN_KEY, Maps.newHashMap(ImmutableMap.of(ROW_KEY, VALUE_1)));
+        when(backingTableMock.columnMap()).thenReturn(backingColumnMap);
+        when(backingTableMock.get(ROW_KEY, COLUMN_KEY)).thenReturn(VALUE_2);
+
+        cachingTable.columnMap().entrySet().iterator().next().getValue().put(ROW_KEY, VALUE_2);
+
+        assertThat(cachingTable.get(ROW_KEY, COLUMN_KEY), is(equalTo(VALUE_2)));
+        assertThat(backingColumnMap.get(COLUMN_KEY).get(ROW_KEY), is(equalTo(VALUE_2)));
+    }
+
+    @Test
+    public void value_read_concurrently_with_a_put_is_not_cached() {
+        when(backingTableMock.get(ROW_KEY, COLUMN_KEY)).thenAnswer(new Answer<Bytes>() {
+            private boolean first = true;
+
+            @Override
+            public Bytes answer(InvocationOnMock invocation) {
+                if (first) {
+                    first = false;
+                    // the put goes through after the read saw the old value, but before it returns
+                    cachingTable.put(ROW_KEY, COLUMN_KEY, VALUE_2);
+                    return VALUE_1;
+                }
+                return VALUE_2;
+            }
+        });
+
+        assertThat(cachingTable.get(ROW_KEY, COLUMN_KEY), is(equalTo(VALUE_1)));
+        assertThat(cachingTable.get(ROW_KEY, COLUMN_KEY), is(equalTo(VALUE_2)));
+    }
+
+    @Test
+    public void entries_beyond_the_maximum_size_are_evicted() {
+        CachingTable smallTable = CachingTable.create(backingTableMock, 1, 1, TimeUnit.HOURS);
+
+        smallTable.get(ROW_KEY, COLUMN_KEY);
+        smallTable.get(ROW_KEY, COLUMN_KEY);
+
+        verify(backingTableMock, times(2)).get(ROW_KEY, COLUMN_KEY);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void failures_of_the_backing_table_are_propagated_unwrapped() {
+        when(backingTableMock.get(ROW_KEY, COLUMN_KEY)).thenThrow(new IllegalStateException());
+
+        cachingTable.get(ROW_KEY, COLUMN_KEY);
+    }
+}
@@ -25,12 +25,14 @@ import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
 import java.util.Arrays;
+import java.util.Collections;
 
 import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.core.Is.is;
 import static org.hamcrest.core.IsEqual.equalTo;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollection;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -103,6 +105,7 @@ public class CellSetMutableViewTest {
     }
 
     @Test
+    @SuppressWarnings("unchecked")
     public void iterator_contains_contained_entities() throws StorageException {
         setAzureTableToContain(CELL_1, CELL_2);
 
@@ -186,11 +189,10 @@ public class CellSetMutableViewTest {
     }
 
     @Test
-    public void add_all_adds_to_table() {
+    public void add_all_adds_to_table_in_bulk() {
         set.addAll(Arrays.asList(CELL_1, CELL_2));
 
-        verify(baseAzureTable).put(ROW_KEY_1, COLUMN_KEY_1, VALUE_1);
-        verify(baseAzureTable).put(ROW_KEY_2, COLUMN_KEY_2, VALUE_2);
+        verify(baseAzureTable).putCells(Arrays.asList(CELL_1, CELL_2));
     }
 
     @Test(expected = NullPointerException.class)
@@ -199,25 +201,22 @@ public class CellSetMutableViewTest {
     }
 
     @Test
-    public void when_all_values_where_contained_then_return_false() throws StorageException {
-        setAzureTableToContain(CELL_1, CELL_2);
-
-        assertThat(set.addAll(Arrays.asList(CELL_1, CELL_2)), is(equalTo(false)));
+    public void when_nothing_to_add_then_add_all_returns_false() {
+        assertThat(set.addAll(Collections.<Table.Cell<Bytes, Bytes, Bytes>>emptyList()), is(equalTo(false)));
     }
 
     @Test
-    public void when_some_value_was_not_present_then_return_true() throws StorageException {
+    public void when_values_were_written_then_add_all_returns_true() throws StorageException {
         setAzureTableToContain(CELL_1);
 
         assertThat(set.addAll(Arrays.asList(CELL_1, CELL_2)), is(equalTo(true)));
     }
 
     @Test
-    public void remove_all_removes_from_table() {
+    public void remove_all_removes_from_table_in_bulk() {
         set.removeAll(Arrays.asList(CELL_1, CELL_2));
 
-        verify(baseAzureTable).remove(ROW_KEY_1, COLUMN_KEY_1);
-        verify(baseAzureTable).remove(ROW_KEY_2, COLUMN_KEY_2);
+        verify(baseAzureTable).removeCells(Arrays.asList(CELL_1, CELL_2));
     }
 
     @Test(expected = NullPointerException.class)
@@ -240,13 +239,12 @@ public class CellSetMutableViewTest {
     }
 
     @Test
-    public void clear_deletes_contained_entries() throws StorageException {
+    public void clear_clears_table() throws StorageException {
         setAzureTableToContain(CELL_1, CELL_2);
 
         set.clear();
 
-        verify(baseAzureTable).remove(ROW_KEY_1, COLUMN_KEY_1);
-        verify(baseAzureTable).remove(ROW_KEY_2, COLUMN_KEY_2);
+        verify(baseAzureTable).clear();
     }
 
     //----------------------
@@ -262,6 +260,7 @@ public class CellSetMutableViewTest {
             when(baseAzureTable.remove(cell.getRowKey(), cell.getColumnKey())).thenReturn(cell.getValue());
 
         }
+        when(baseAzureTable.removeCells(anyCollection())).thenReturn(cells.length);
         AzureTestUtil.setAzureTableToContain(TABLE_NAME, azureTableRequestFactoryMock, azureTableCloudClientMock, cells);
     }
 
@@ -0,0 +1,147 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.azure;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.microsoft.windowsazure.services.core.storage.StorageException;
+import com.microsoft.windowsazure.services.table.client.TableBatchOperation;
+import com.microsoft.windowsazure.services.table.client.TableOperation;
+import com.microsoft.windowsazure.services.table.client.TableQuery;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@SuppressWarnings("InstanceVariableMayNotBeInitialized")
+@RunWith(MockitoJUnitRunner.class)
+public class ColumnIndexTest {
+    private static final String INDEX_TABLE_NAME = "secretieColumns";
+    private static final String ROW = KeyCodec.BASE64.encode(new Bytes("row".getBytes()));
+    private static final String OTHER_ROW = KeyCodec.BASE64.encode(new Bytes("other_row".getBytes()));
+    private static final String COLUMN = KeyCodec.BASE64.encode(new Bytes("column".getBytes()));
+    @Mock
+    private AzureTableCloudClient azureTableCloudClientMock;
+    @Mock
+    private AzureTableRequestFactory azureTableRequestFactoryMock;
+    @Captor
+    private ArgumentCaptor<Iterable<AzureEntity>> entriesCaptor;
+    @Captor
+    private ArgumentCaptor<AzureEntity> entryCaptor;
+    private ColumnIndex columnIndex;
+
+    @Before
+    public void setUp() {
+        columnIndex = new ColumnIndex(INDEX_TABLE_NAME, azureTableCloudClientMock, azureTableRequestFactoryMock);
+    }
+
+    @Test
+    public void entries_are_partitioned_by_column_and_hold_no_value() {
+        AzureEntity entry = ColumnIndex.entryOf(ROW, COLUMN);
+
+        assertThat(entry.getPartitionKey(), is(equalTo(COLUMN)));
+        assertThat(entry.getRowKey(), is(equalTo(ROW)));
+        assertThat(entry.getValue(), is(equalTo("")));
+    }
+
+    @Test
+    public void add_writes_the_transposed_keys_to_the_index_table() throws StorageException {
+        TableOperation putOperation = mock(TableOperation.class);
+        when(azureTableRequestFactoryMock.put(any(AzureEntity.class))).thenReturn(putOperation);
+
+        columnIndex.add(ROW, COLUMN);
+
+        verify(azureTableCloudClientMock).execute(INDEX_TABLE_NAME, putOperation);
+        verify(azureTableRequestFactoryMock).put(entryCaptor.capture());
+        assertThat(entryCaptor.getValue().getPartitionKey(), is(equalTo(COLUMN)));
+        assertThat(entryCaptor.getValue().getRowKey(), is(equalTo(ROW)));
+    }
+
+    @Test
+    public void keys_of_a_column_are_read_from_its_partition_and_transposed_back() {
+        TableQuery<AzureEntity> partitionQuery = AzureTestUtil.queryMock();
+        when(azureTableRequestFactoryMock.selectKeysForRow(INDEX_TABLE_NAME, COLUMN)).thenReturn(partitionQuery);
+        when(azureTableCloudClientMock.execute(partitionQuery)).thenReturn(ImmutableList.of(ColumnIndex.entryOf(ROW, COLUMN)));
+
+        AzureEntity cell = Iterables.getOnlyElement(columnIndex.keysOf(COLUMN));
+
+        assertThat(cell.getPartitionKey(), is(equalTo(ROW)));
+        assertThat(cell.getRowKey(), is(equalTo(COLUMN)));
+        assertThat(cell.getEtag(), is(equalTo("*")));
+    }
+
+    @Test
+    public void stale_entries_are_deleted_conditionally_on_their_etag_and_failures_are_ignored() throws StorageException {
+        AzureEntity entry = ColumnIndex.entryOf(ROW, COLUMN);
+        entry.setEtag("W/\"datetime'2014-01-01T00%3A00%3A00Z'\"");
+        TableOperation deleteOperation = mock(TableOperation.class);
+        when(azureTableRequestFactoryMock.delete(entry)).thenReturn(deleteOperation);
+        doThrow(new StorageException("UpdateConditionNotSatisfied", "changed", 412, null, null))
+                .when(azureTableCloudClientMock).execute(INDEX_TABLE_NAME, deleteOperation);
+
+        columnIndex.removeStale(entry);
+
+        verify(azureTableCloudClientMock).execute(INDEX_TABLE_NAME, deleteOperation);
+    }
+
+    @Test
+    public void entries_of_removed_cells_are_deleted_in_a_batch_per_column() throws Exception {
+        TableBatchOperation deleteBatch = mock(TableBatchOperation.class);
+        when(azureTableRequestFactoryMock.deleteBatch(anyListOf(AzureEntity.class))).thenReturn(deleteBatch);
+
+        for (Callable<Void> batch : columnIndex.removeBatches(ImmutableList.of(new AzureEntity(ROW, COLUMN, null), new AzureEntity(OTHER_ROW, COLUMN, null)))) {
+            batch.call();
+        }
+
+        verify(azureTableCloudClientMock).execute(INDEX_TABLE_NAME, deleteBatch);
+        verify(azureTableRequestFactoryMock).deleteBatch(entriesCaptor.capture());
+        List<String> deletedRows = Lists.newArrayList();
+        for (AzureEntity entry : entriesCaptor.getValue()) {
+            assertThat(entry.getPartitionKey(), is(equalTo(COLUMN)));
+            deletedRows.add(entry.getRowKey());
+        }
+        assertThat(deletedRows, is(equalTo((List<String>) ImmutableList.of(ROW, OTHER_ROW))));
+    }
+
+    @Test
+    public void removing_a_missing_entry_is_not_an_error() throws Exception {
+        TableOperation deleteOperation = mock(TableOperation.class);
+        when(azureTableRequestFactoryMock.delete(COLUMN, ROW)).thenReturn(deleteOperation);
+        doThrow(new StorageException("ResourceNotFound", "not found", 404, null, null))
+                .when(azureTableCloudClientMock).execute(INDEX_TABLE_NAME, deleteOperation);
+
+        columnIndex.remove(ROW, COLUMN);
+
+        verify(azureTableCloudClientMock).execute(INDEX_TABLE_NAME, deleteOperation);
+    }
+}
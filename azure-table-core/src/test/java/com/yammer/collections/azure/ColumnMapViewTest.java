@@ -213,6 +213,7 @@ public class ColumnMapViewTest {
     }
 
     @Test
+    @SuppressWarnings("unchecked")
     public void values_returns_correct_values() {
         when(backingTableMock.column(1L)).thenReturn(rowMock);
         when(backingTableMock.column(2L)).thenReturn(rowMock2);
@@ -279,7 +280,7 @@ public class ColumnMapViewTest {
             if (this == o) return true;
             if (o == null || !(o instanceof Map.Entry)) return false;
 
-            Map.Entry testEntry = (Map.Entry) o;
+            Map.Entry<?, ?> testEntry = (Map.Entry<?, ?>) o;
 
             if (key != null ? !key.equals(testEntry.getKey()) : testEntry.getKey() != null) return false;
             if (value != null ? !value.equals(testEntry.getValue()) : testEntry.getValue() != null) return false;
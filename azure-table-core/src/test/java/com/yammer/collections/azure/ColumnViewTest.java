@@ -18,21 +18,31 @@ package com.yammer.collections.azure;
 import com.google.common.base.Function;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Table;
 import com.google.common.collect.Tables;
 import com.microsoft.windowsazure.services.core.storage.StorageException;
+import com.microsoft.windowsazure.services.table.client.TableQuery;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Matchers;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Map;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.core.IsEqual.equalTo;
 import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -52,10 +62,10 @@ public class ColumnViewTest {
     private static final Table.Cell<Bytes, Bytes, Bytes> CELL_1 = Tables.immutableCell(ROW_KEY, COLUMN_KEY_1, VALUE_1);
     private static final Table.Cell<Bytes, Bytes, Bytes> CELL_2 = Tables.immutableCell(ROW_KEY, COLUMN_KEY_2, VALUE_2);
     private static final Table.Cell<Bytes, Bytes, Bytes> CELL_WITH_OTHER_ROW_KEY = Tables.immutableCell(OTHER_ROW_KEY, OTHER_COLUMN_KEY, OTHER_VALUE);
-    private static final Function<Map.Entry, TestMapEntry> MAP_TO_ENTRIES = new Function<Map.Entry, TestMapEntry>() {
+    private static final Function<Map.Entry<Bytes, Bytes>, TestMapEntry> MAP_TO_ENTRIES = new Function<Map.Entry<Bytes, Bytes>, TestMapEntry>() {
         @SuppressWarnings("ClassEscapesDefinedScope")
         @Override
-        public TestMapEntry apply(Map.Entry input) {
+        public TestMapEntry apply(Map.Entry<Bytes, Bytes> input) {
             return new TestMapEntry(input);
         }
     };
@@ -65,6 +75,8 @@ public class ColumnViewTest {
     private AzureTableRequestFactory azureTableRequestFactoryMock;
     @Mock
     private BaseAzureTable baseAzureTable;
+    @Captor
+    private ArgumentCaptor<Iterable<AzureEntity>> entitiesCaptor;
     private ColumnView columnView;
 
     @Before
@@ -102,15 +114,15 @@ public class ColumnViewTest {
     }
 
     @Test
-    public void putAll_delegates_to_table() {
-        columnView.putAll(
-                ImmutableMap.of(
-                        COLUMN_KEY_1, VALUE_1,
-                        COLUMN_KEY_2, VALUE_2
-                ));
+    public void putAll_delegates_to_table_as_one_row_update() {
+        Map<Bytes, Bytes> entries = ImmutableMap.of(
+                COLUMN_KEY_1, VALUE_1,
+                COLUMN_KEY_2, VALUE_2
+        );
+
+        columnView.putAll(entries);
 
-        verify(baseAzureTable).put(ROW_KEY, COLUMN_KEY_1, VALUE_1);
-        verify(baseAzureTable).put(ROW_KEY, COLUMN_KEY_2, VALUE_2);
+        verify(baseAzureTable).updateRow(ROW_KEY, entries, Collections.<Bytes>emptySet());
     }
 
     @Test
@@ -127,6 +139,17 @@ public class ColumnViewTest {
         assertThat(columnView.values(), containsInAnyOrder(VALUE_1, VALUE_2));
     }
 
+    @Test
+    public void values_and_size_are_resolved_from_the_query_results_without_building_entities() throws StorageException {
+        setAzureTableToContain(CELL_1, CELL_2, CELL_WITH_OTHER_ROW_KEY);
+
+        assertThat(columnView.values().size(), is(equalTo(2)));
+        assertThat(columnView.values(), containsInAnyOrder(VALUE_1, VALUE_2));
+
+        verify(azureTableCloudClientMock).execute(Matchers.<TableQuery<AzureEntity>>any(), eq(EntityResolvers.VALUE));
+        verify(azureTableCloudClientMock).execute(Matchers.<TableQuery<AzureEntity>>any(), eq(EntityResolvers.PRESENCE));
+    }
+
     @Test
     public void entrySet_returns_contained_entries() throws StorageException {
         setAzureTableToContain(CELL_1, CELL_2, CELL_WITH_OTHER_ROW_KEY);
@@ -139,6 +162,17 @@ public class ColumnViewTest {
                 ));
     }
 
+    @Test
+    public void entry_values_are_the_scanned_ones_without_reading_cells_again() throws StorageException {
+        setAzureTableToContain(CELL_1, CELL_2, CELL_WITH_OTHER_ROW_KEY);
+
+        for (Map.Entry<Bytes, Bytes> entry : columnView.entrySet()) {
+            entry.getValue();
+        }
+
+        verify(baseAzureTable, never()).get(any(), any());
+    }
+
     @Test
     public void setValue_on_entry_updates_backing_table() throws StorageException {
         setAzureTableToContain(CELL_1, CELL_2, CELL_WITH_OTHER_ROW_KEY);
@@ -159,13 +193,17 @@ public class ColumnViewTest {
     }
 
     @Test
-    public void clear_deletes_values_from_key_set() throws StorageException {
+    public void clear_deletes_scanned_entities_in_bulk() throws StorageException {
         setAzureTableToContain(CELL_1, CELL_2, CELL_WITH_OTHER_ROW_KEY);
 
         columnView.clear();
 
-        verify(baseAzureTable).remove(ROW_KEY, COLUMN_KEY_1);
-        verify(baseAzureTable).remove(ROW_KEY, COLUMN_KEY_2);
+        verify(baseAzureTable).removeEntities(entitiesCaptor.capture());
+        Collection<String> deletedKeys = Lists.newArrayList();
+        for (AzureEntity entity : entitiesCaptor.getValue()) {
+            deletedKeys.add(entity.getRowKey());
+        }
+        assertThat(deletedKeys, containsInAnyOrder(AzureTestUtil.encode(COLUMN_KEY_1), AzureTestUtil.encode(COLUMN_KEY_2)));
     }
 
     @Test
@@ -0,0 +1,76 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.azure;
+
+import com.microsoft.windowsazure.services.core.storage.ResultContinuation;
+import com.microsoft.windowsazure.services.core.storage.ResultContinuationType;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class ContinuationTokenTest {
+    private static final String NEXT_PARTITION_KEY = "cm93X2tleQ==";
+    private static final String NEXT_ROW_KEY = "Y29sdW1uX2tleQ==";
+
+    private static ContinuationToken token() {
+        ResultContinuation continuation = new ResultContinuation();
+        continuation.setNextPartitionKey(NEXT_PARTITION_KEY);
+        continuation.setNextRowKey(NEXT_ROW_KEY);
+        return ContinuationToken.from(continuation);
+    }
+
+    @Test
+    public void string_form_can_be_parsed_back() {
+        ContinuationToken token = token();
+
+        assertThat(ContinuationToken.parse(token.asString()), is(equalTo(token)));
+    }
+
+    @Test
+    public void serialized_form_can_be_read_back() throws IOException, ClassNotFoundException {
+        ContinuationToken token = token();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(token);
+        }
+
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            assertThat(in.readObject(), is(equalTo((Object) token)));
+        }
+    }
+
+    @Test
+    public void converts_back_to_table_continuation() {
+        ResultContinuation continuation = token().toResultContinuation();
+
+        assertThat(continuation.getContinuationType(), is(equalTo(ResultContinuationType.TABLE)));
+        assertThat(continuation.getNextPartitionKey(), is(equalTo(NEXT_PARTITION_KEY)));
+        assertThat(continuation.getNextRowKey(), is(equalTo(NEXT_ROW_KEY)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void malformed_token_is_rejected() {
+        ContinuationToken.parse("no_separator");
+    }
+}
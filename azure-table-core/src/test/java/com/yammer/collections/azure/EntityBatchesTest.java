@@ -0,0 +1,82 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.azure;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class EntityBatchesTest {
+    private static final String PARTITION_1 = "partition1";
+    private static final String PARTITION_2 = "partition2";
+    private static final String VALUE = "value";
+
+    @Test
+    public void no_entities_result_in_no_batches() {
+        assertThat(Iterables.isEmpty(EntityBatches.partitionBatches(Collections.<AzureEntity>emptyList())), is(equalTo(true)));
+    }
+
+    @Test
+    public void adjacent_entities_of_the_same_partition_are_batched_together() {
+        List<AzureEntity> entities = Lists.newArrayList(
+                new AzureEntity(PARTITION_1, "c1", VALUE),
+                new AzureEntity(PARTITION_1, "c2", VALUE),
+                new AzureEntity(PARTITION_2, "c1", VALUE));
+
+        List<List<AzureEntity>> batches = Lists.newArrayList(EntityBatches.partitionBatches(entities));
+
+        assertThat(batches.size(), is(equalTo(2)));
+        assertThat(batches.get(0), is(equalTo(entities.subList(0, 2))));
+        assertThat(batches.get(1), is(equalTo(entities.subList(2, 3))));
+    }
+
+    @Test
+    public void batches_do_not_exceed_maximum_number_of_entities() {
+        List<AzureEntity> entities = Lists.newArrayList();
+        for (int i = 0; i < 2 * EntityBatches.MAX_BATCH_ENTITIES + 1; i++) {
+            entities.add(new AzureEntity(PARTITION_1, "c" + i, VALUE));
+        }
+
+        List<List<AzureEntity>> batches = Lists.newArrayList(EntityBatches.partitionBatches(entities));
+
+        assertThat(batches.size(), is(equalTo(3)));
+        assertThat(batches.get(0).size(), is(equalTo(EntityBatches.MAX_BATCH_ENTITIES)));
+        assertThat(batches.get(2).size(), is(equalTo(1)));
+    }
+
+    @Test
+    public void batches_do_not_exceed_maximum_payload() {
+        String largeValue = Strings.repeat("a", EntityBatches.MAX_BATCH_PAYLOAD_IN_BYTES / 3);
+        List<AzureEntity> entities = Lists.newArrayList();
+        for (int i = 0; i < 4; i++) {
+            entities.add(new AzureEntity(PARTITION_1, "c" + i, largeValue));
+        }
+
+        List<List<AzureEntity>> batches = Lists.newArrayList(EntityBatches.partitionBatches(entities));
+
+        assertThat(batches.size(), is(equalTo(2)));
+        assertThat(batches.get(0).size(), is(equalTo(2)));
+        assertThat(batches.get(1).size(), is(equalTo(2)));
+    }
+}
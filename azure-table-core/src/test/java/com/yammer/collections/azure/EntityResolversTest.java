@@ -0,0 +1,83 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.azure;
+
+import com.google.common.collect.Tables;
+import com.microsoft.windowsazure.services.core.storage.StorageException;
+import com.microsoft.windowsazure.services.table.client.EntityProperty;
+import org.junit.Test;
+
+import java.util.HashMap;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class EntityResolversTest {
+    private static final Bytes ROW_KEY = new Bytes("row".getBytes());
+    private static final Bytes COLUMN_KEY = new Bytes("column".getBytes());
+    private static final Bytes VALUE = new Bytes("value".getBytes());
+    private static final String ETAG = "W/\"etag\"";
+
+    private static HashMap<String, EntityProperty> stringValue() {
+        HashMap<String, EntityProperty> properties = new HashMap<>();
+        properties.put(AzureEntity.VALUE, new EntityProperty(AzureTestUtil.encode(VALUE)));
+        return properties;
+    }
+
+    private static HashMap<String, EntityProperty> binaryValue() {
+        HashMap<String, EntityProperty> properties = new HashMap<>();
+        properties.put(AzureEntity.VALUE, new EntityProperty(VALUE.getBytes()));
+        return properties;
+    }
+
+    @Test
+    public void cells_are_resolved_from_the_keys_and_the_string_value() throws StorageException {
+        assertThat(
+                EntityResolvers.cells(KeyCodec.BASE64).resolve(
+                        AzureTestUtil.encode(ROW_KEY), AzureTestUtil.encode(COLUMN_KEY), null, stringValue(), ETAG),
+                is(equalTo(Tables.immutableCell(ROW_KEY, COLUMN_KEY, VALUE))));
+    }
+
+    @Test
+    public void binary_values_are_resolved_as_they_are() throws StorageException {
+        assertThat(EntityResolvers.VALUE.resolve("row", "column", null, binaryValue(), ETAG), is(equalTo(VALUE)));
+    }
+
+    @Test
+    public void keys_are_resolved_from_results_without_values() throws StorageException {
+        HashMap<String, EntityProperty> noProperties = new HashMap<>();
+        String encodedRowKey = KeyCodec.ORDER_PRESERVING.encode(ROW_KEY);
+        String encodedColumnKey = KeyCodec.ORDER_PRESERVING.encode(COLUMN_KEY);
+
+        assertThat(EntityResolvers.rowKeys(KeyCodec.ORDER_PRESERVING).resolve(encodedRowKey, encodedColumnKey, null, noProperties, ETAG),
+                is(equalTo(ROW_KEY)));
+        assertThat(EntityResolvers.columnKeys(KeyCodec.ORDER_PRESERVING).resolve(encodedRowKey, encodedColumnKey, null, noProperties, ETAG),
+                is(equalTo(COLUMN_KEY)));
+        assertThat(EntityResolvers.valueOf(noProperties), is(nullValue()));
+    }
+
+    @Test
+    public void entities_carry_the_value_and_the_etag() throws StorageException {
+        AzureEntity entity = EntityResolvers.ENTITY.resolve("row", "column", null, binaryValue(), ETAG);
+
+        assertThat(entity.getPartitionKey(), is(equalTo("row")));
+        assertThat(entity.getRowKey(), is(equalTo("column")));
+        assertThat(AzureEntityUtil.decodeValue(entity), is(equalTo(VALUE)));
+        assertThat(entity.getEtag(), is(equalTo(ETAG)));
+    }
+}
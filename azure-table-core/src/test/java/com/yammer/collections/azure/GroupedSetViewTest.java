@@ -0,0 +1,84 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.azure;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.Arrays;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.when;
+
+@SuppressWarnings("InstanceVariableMayNotBeInitialized")
+@RunWith(MockitoJUnitRunner.class)
+public class GroupedSetViewTest {
+    private static final Long LONG_VALUE_1 = 1L;
+    private static final Long LONG_VALUE_2 = 2L;
+    private static final Long LONG_VALUE_3 = 3L;
+    @Mock
+    private AbstractCollectionView<Long> abstractCollectionViewMock;
+    private SetView<Long> setView;
+
+    @Before
+    public void setUp() {
+        setView = SetView.fromGroupedCollectionView(abstractCollectionViewMock);
+    }
+
+    @Test
+    public void size_counts_groups_of_equal_elements() {
+        when(abstractCollectionViewMock.iterator()).thenReturn(Arrays.asList(LONG_VALUE_1, LONG_VALUE_1, LONG_VALUE_2, LONG_VALUE_3, LONG_VALUE_3, LONG_VALUE_3).iterator());
+
+        assertThat(setView.size(), is(equalTo(3)));
+    }
+
+    @Test
+    public void isEmpty_delegates() {
+        when(abstractCollectionViewMock.isEmpty()).thenReturn(true);
+
+        assertThat(setView.isEmpty(), is(equalTo(true)));
+    }
+
+    @Test
+    public void contains_delegates() {
+        when(abstractCollectionViewMock.contains(LONG_VALUE_1)).thenReturn(true);
+
+        assertThat(setView.contains(LONG_VALUE_1), is(equalTo(true)));
+    }
+
+    @Test
+    public void adjacent_duplicates_are_skipped_preserving_order() {
+        when(abstractCollectionViewMock.iterator()).thenReturn(Arrays.asList(LONG_VALUE_1, LONG_VALUE_1, LONG_VALUE_2, LONG_VALUE_3, LONG_VALUE_3).iterator());
+
+        assertThat(setView, contains(LONG_VALUE_1, LONG_VALUE_2, LONG_VALUE_3));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void remove_not_supported() {
+        setView.remove(LONG_VALUE_1);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void clear_unsupported() {
+        setView.clear();
+    }
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.azure;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class KeyCodecTest {
+    private static final Bytes KEY = new Bytes(new byte[]{0, 1, (byte) 0x7f, (byte) 0x80, (byte) 0xff});
+
+    private static Bytes randomKey(Random random, int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return new Bytes(bytes);
+    }
+
+    @Test
+    public void base64_keys_are_decoded_to_the_encoded_bytes() {
+        assertThat(KeyCodec.BASE64.decode(KeyCodec.BASE64.encode(KEY)), is(equalTo(KEY)));
+    }
+
+    @Test
+    public void order_preserving_keys_are_decoded_to_the_encoded_bytes_for_every_length() {
+        for (int length = 0; length <= 7; length++) {
+            Bytes key = randomKey(new Random(length), length);
+
+            assertThat(KeyCodec.ORDER_PRESERVING.decode(KeyCodec.ORDER_PRESERVING.encode(key)), is(equalTo(key)));
+        }
+    }
+
+    @Test
+    public void order_preserving_keys_only_use_characters_allowed_in_keys() {
+        String encoded = KeyCodec.ORDER_PRESERVING.encode(KEY);
+
+        assertThat(encoded.matches("[-0-9A-Z_a-z]*"), is(equalTo(true)));
+    }
+
+    @Test
+    public void order_preserving_keys_sort_like_their_unsigned_bytes() {
+        List<Bytes> keys = new ArrayList<>();
+        Random random = new Random(0);
+        for (int i = 0; i < 1000; i++) {
+            keys.add(randomKey(random, random.nextInt(6)));
+        }
+        keys.add(new Bytes(new byte[]{0}));
+        keys.add(new Bytes(new byte[]{0, 0}));
+        keys.add(new Bytes(new byte[]{1}));
+        keys.add(new Bytes(new byte[]{1, 0}));
+
+        List<Bytes> sortedByBytes = new ArrayList<>(keys);
+        Collections.sort(sortedByBytes, KeyCodec.BYTES_ORDER);
+        List<String> sortedEncoded = new ArrayList<>();
+        for (Bytes key : keys) {
+            sortedEncoded.add(KeyCodec.ORDER_PRESERVING.encode(key));
+        }
+        Collections.sort(sortedEncoded);
+
+        for (int i = 0; i < keys.size(); i++) {
+            assertThat(sortedEncoded.get(i), is(equalTo(KeyCodec.ORDER_PRESERVING.encode(sortedByBytes.get(i)))));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void keys_with_characters_outside_of_the_alphabet_are_rejected() {
+        KeyCodec.ORDER_PRESERVING.decode("ab+/");
+    }
+}
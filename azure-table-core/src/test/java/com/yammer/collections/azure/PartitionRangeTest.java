@@ -0,0 +1,99 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.azure;
+
+import com.google.common.base.Optional;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class PartitionRangeTest {
+
+    @Test
+    public void single_range_is_unbounded() {
+        List<PartitionRange> ranges = PartitionRange.split(1);
+
+        assertThat(ranges.size(), is(equalTo(1)));
+        assertThat(ranges.get(0).getLowerInclusive(), is(equalTo(Optional.<String>absent())));
+        assertThat(ranges.get(0).getUpperExclusive(), is(equalTo(Optional.<String>absent())));
+    }
+
+    @Test
+    public void ranges_are_adjacent_and_cover_the_key_space() {
+        List<PartitionRange> ranges = PartitionRange.split(4);
+
+        assertThat(ranges.size(), is(equalTo(4)));
+        assertThat(ranges.get(0).getLowerInclusive(), is(equalTo(Optional.<String>absent())));
+        for (int i = 1; i < ranges.size(); i++) {
+            assertThat(ranges.get(i).getLowerInclusive(), is(equalTo(ranges.get(i - 1).getUpperExclusive())));
+            assertThat(ranges.get(i).getLowerInclusive().isPresent(), is(equalTo(true)));
+        }
+        assertThat(ranges.get(3).getUpperExclusive(), is(equalTo(Optional.<String>absent())));
+    }
+
+    @Test
+    public void range_bounds_are_increasing() {
+        List<PartitionRange> ranges = PartitionRange.split(PartitionRange.MAX_RANGES);
+
+        for (int i = 2; i < ranges.size(); i++) {
+            assertThat(ranges.get(i).getLowerInclusive().get().compareTo(ranges.get(i - 1).getLowerInclusive().get()) > 0, is(equalTo(true)));
+        }
+    }
+
+    @Test
+    public void order_preserving_ranges_are_bounded_by_characters_of_its_alphabet() {
+        List<PartitionRange> ranges = PartitionRange.split(4, KeyCodec.ORDER_PRESERVING);
+
+        assertThat(ranges.get(1).getLowerInclusive(), is(equalTo(Optional.of("F"))));
+        assertThat(ranges.get(2).getLowerInclusive(), is(equalTo(Optional.of("V"))));
+        assertThat(ranges.get(3).getLowerInclusive(), is(equalTo(Optional.of("k"))));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void number_of_ranges_is_limited_by_the_first_character_alphabet() {
+        PartitionRange.split(PartitionRange.MAX_RANGES + 1);
+    }
+
+    @Test
+    public void observed_keys_are_split_past_their_common_prefix() {
+        String lowestKey = KeyCodec.ORDER_PRESERVING.encode(Bytes.of("user:0000".getBytes()));
+        String highestKey = KeyCodec.ORDER_PRESERVING.encode(Bytes.of("user:9999".getBytes()));
+
+        List<PartitionRange> ranges = PartitionRange.split(4, KeyCodec.ORDER_PRESERVING, lowestKey, highestKey);
+
+        assertThat(ranges.size(), is(equalTo(4)));
+        assertThat(ranges.get(0).getLowerInclusive(), is(equalTo(Optional.<String>absent())));
+        assertThat(ranges.get(3).getUpperExclusive(), is(equalTo(Optional.<String>absent())));
+        for (int i = 1; i < ranges.size(); i++) {
+            String bound = ranges.get(i).getLowerInclusive().get();
+            assertThat(bound.compareTo(lowestKey) > 0 && bound.compareTo(highestKey) < 0, is(equalTo(true)));
+            assertThat(bound, is(equalTo(ranges.get(i - 1).getUpperExclusive().get())));
+        }
+    }
+
+    @Test
+    public void keys_which_cannot_be_told_apart_give_a_single_range() {
+        String key = KeyCodec.BASE64.encode(Bytes.of("user".getBytes()));
+
+        List<PartitionRange> ranges = PartitionRange.split(4, KeyCodec.BASE64, key, key);
+
+        assertThat(ranges.size(), is(equalTo(1)));
+    }
+}
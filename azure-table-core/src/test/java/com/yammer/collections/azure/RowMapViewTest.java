@@ -16,6 +16,8 @@
 package com.yammer.collections.azure;
 
 
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Table;
@@ -31,12 +33,14 @@ import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.nullValue;
 import static org.hamcrest.core.Is.is;
 import static org.hamcrest.core.IsEqual.equalTo;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyInt;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -215,6 +219,7 @@ public class RowMapViewTest {
     }
 
     @Test
+    @SuppressWarnings("unchecked")
     public void values_returns_correct_values() {
         when(backingTableMock.row(1)).thenReturn(columnMock);
         when(backingTableMock.row(2)).thenReturn(columnMock2);
@@ -248,6 +253,19 @@ public class RowMapViewTest {
         }
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void values_and_entries_iterate_the_scanned_rows_instead_of_querying_every_row() {
+        Map.Entry<Integer, Map<Long, String>> scannedRow1 = new TestEntry<>(1, columnMock);
+        Map.Entry<Integer, Map<Long, String>> scannedRow2 = new TestEntry<>(2, columnMock2);
+        Iterable<Map.Entry<Integer, Map<Long, String>>> scannedRows = ImmutableList.of(scannedRow1, scannedRow2);
+        rowMapView = new RowMapView<>(backingTableMock, Optional.of(scannedRows));
+
+        assertThat(rowMapView.values(), contains(columnMock, columnMock2));
+        assertThat(rowMapView.entrySet(), contains(scannedRow1, scannedRow2));
+        verify(backingTableMock, never()).row(anyInt());
+    }
+
 
     // ------------------------------
     // Utilities
@@ -282,7 +300,7 @@ public class RowMapViewTest {
             if (this == o) return true;
             if (o == null || !(o instanceof Map.Entry)) return false;
 
-            Map.Entry testEntry = (Map.Entry) o;
+            Map.Entry<?, ?> testEntry = (Map.Entry<?, ?>) o;
 
             if (key != null ? !key.equals(testEntry.getKey()) : testEntry.getKey() != null) return false;
             if (value != null ? !value.equals(testEntry.getValue()) : testEntry.getValue() != null) return false;
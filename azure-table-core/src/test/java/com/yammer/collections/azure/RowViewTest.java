@@ -16,23 +16,35 @@
 package com.yammer.collections.azure;
 
 import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Table;
 import com.google.common.collect.Tables;
 import com.microsoft.windowsazure.services.core.storage.StorageException;
+import com.microsoft.windowsazure.services.table.client.TableQuery;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
+import java.util.Collection;
 import java.util.Map;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.core.IsEqual.equalTo;
 import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -49,13 +61,14 @@ public class RowViewTest {
     private static final Bytes OTHER_COLUMN_KEY = new Bytes("otherKey".getBytes());
     private static final Bytes OTHER_VALUE = new Bytes("otherValue".getBytes());
     private static final String TABLE_NAME = "table";
+    private static final String INDEX_TABLE_NAME = "columnIndex";
     private static final Table.Cell<Bytes, Bytes, Bytes> CELL_1 = Tables.immutableCell(ROW_KEY_1, COLUMN_KEY, VALUE_1);
     private static final Table.Cell<Bytes, Bytes, Bytes> CELL_2 = Tables.immutableCell(ROW_KEY_2, COLUMN_KEY, VALUE_2);
     private static final Table.Cell<Bytes, Bytes, Bytes> CELL_WITH_OTHER_COLUMN_KEY = Tables.immutableCell(OTHER_ROW_KEY, OTHER_COLUMN_KEY, OTHER_VALUE);
-    private static final Function<Map.Entry, TestMapEntry> MAP_TO_ENTRIES = new Function<Map.Entry, TestMapEntry>() {
+    private static final Function<Map.Entry<Bytes, Bytes>, TestMapEntry> MAP_TO_ENTRIES = new Function<Map.Entry<Bytes, Bytes>, TestMapEntry>() {
         @SuppressWarnings("ClassEscapesDefinedScope")
         @Override
-        public TestMapEntry apply(Map.Entry input) {
+        public TestMapEntry apply(Map.Entry<Bytes, Bytes> input) {
             return new TestMapEntry(input);
         }
     };
@@ -65,11 +78,14 @@ public class RowViewTest {
     private AzureTableRequestFactory azureTableRequestFactoryMock;
     @Mock
     private BaseAzureTable baseAzureTable;
+    @Captor
+    private ArgumentCaptor<Iterable<AzureEntity>> entitiesCaptor;
     private RowView rowView;
 
     @Before
     public void setUp() {
         when(baseAzureTable.getTableName()).thenReturn(TABLE_NAME);
+        when(baseAzureTable.getColumnIndex()).thenReturn(Optional.<ColumnIndex>absent());
         rowView = new RowView(baseAzureTable, COLUMN_KEY, azureTableCloudClientMock, azureTableRequestFactoryMock);
     }
 
@@ -139,6 +155,17 @@ public class RowViewTest {
                 ));
     }
 
+    @Test
+    public void entry_values_are_the_scanned_ones_without_reading_cells_again() throws StorageException {
+        setAzureTableToContain(CELL_1, CELL_2, CELL_WITH_OTHER_COLUMN_KEY);
+
+        for (Map.Entry<Bytes, Bytes> entry : rowView.entrySet()) {
+            entry.getValue();
+        }
+
+        verify(baseAzureTable, never()).get(any(), any());
+    }
+
     @Test
     public void setValue_on_entry_updates_backing_table() throws StorageException {
         setAzureTableToContain(CELL_1, CELL_2, CELL_WITH_OTHER_COLUMN_KEY);
@@ -159,13 +186,17 @@ public class RowViewTest {
     }
 
     @Test
-    public void clear_deletes_values_from_key_set() throws StorageException {
+    public void clear_deletes_scanned_entities_in_bulk() throws StorageException {
         setAzureTableToContain(CELL_1, CELL_2, CELL_WITH_OTHER_COLUMN_KEY);
 
         rowView.clear();
 
-        verify(baseAzureTable).remove(ROW_KEY_1, COLUMN_KEY);
-        verify(baseAzureTable).remove(ROW_KEY_2, COLUMN_KEY);
+        verify(baseAzureTable).removeEntities(entitiesCaptor.capture());
+        Collection<String> deletedKeys = Lists.newArrayList();
+        for (AzureEntity entity : entitiesCaptor.getValue()) {
+            deletedKeys.add(entity.getPartitionKey());
+        }
+        assertThat(deletedKeys, containsInAnyOrder(AzureTestUtil.encode(ROW_KEY_1), AzureTestUtil.encode(ROW_KEY_2)));
     }
 
     @Test
@@ -203,11 +234,78 @@ public class RowViewTest {
         assertThat(rowView.containsValue(new Object()), is(equalTo(false)));
     }
 
+    @Test
+    public void with_column_index_keys_and_size_are_read_from_the_index() throws StorageException {
+        setAzureTableToContain(CELL_1, CELL_2, CELL_WITH_OTHER_COLUMN_KEY);
+        setColumnIndexToContain(CELL_1);
+
+        assertThat(rowView.keySet(), containsInAnyOrder(ROW_KEY_1));
+        assertThat(rowView.size(), is(equalTo(1)));
+        assertThat(rowView.isEmpty(), is(equalTo(false)));
+        verify(azureTableRequestFactoryMock, never()).selectKeysForColumn(anyString(), anyString());
+    }
+
+    @Test
+    public void with_column_index_keys_and_size_leave_out_entries_whose_cell_is_gone() throws StorageException {
+        setAzureTableToContain(CELL_1, CELL_WITH_OTHER_COLUMN_KEY);
+        setColumnIndexToContain(CELL_1, CELL_2);
+        // the index still lists CELL_2, the table does not hold it
+        when(baseAzureTable.indexedColumn(AzureTestUtil.encode(COLUMN_KEY))).thenReturn(ImmutableList.of(AzureTestUtil.encodedEntity(CELL_1)));
+
+        assertThat(rowView.keySet(), containsInAnyOrder(ROW_KEY_1));
+        assertThat(rowView.size(), is(equalTo(1)));
+        assertThat(rowView.size(), is(equalTo(rowView.entrySet().size())));
+    }
+
+    @Test
+    public void with_column_index_values_are_read_for_the_rows_listed_in_the_index() throws StorageException {
+        setAzureTableToContain(CELL_1, CELL_2, CELL_WITH_OTHER_COLUMN_KEY);
+        setColumnIndexToContain(CELL_1, CELL_2);
+
+        assertThat(rowView.values(), containsInAnyOrder(VALUE_1, VALUE_2));
+        verify(azureTableRequestFactoryMock, never()).selectAllForColumn(anyString(), anyString());
+    }
+
+    @Test
+    public void with_column_index_clear_deletes_the_cells_of_the_index_entries() throws StorageException {
+        setAzureTableToContain(CELL_1, CELL_2, CELL_WITH_OTHER_COLUMN_KEY);
+        setColumnIndexToContain(CELL_1, CELL_2);
+
+        rowView.clear();
+
+        verify(baseAzureTable).removeEntities(entitiesCaptor.capture());
+        Collection<String> deletedCells = Lists.newArrayList();
+        for (AzureEntity entity : entitiesCaptor.getValue()) {
+            deletedCells.add(entity.getPartitionKey() + "/" + entity.getRowKey());
+        }
+        assertThat(deletedCells, containsInAnyOrder(
+                AzureTestUtil.encode(ROW_KEY_1) + "/" + AzureTestUtil.encode(COLUMN_KEY),
+                AzureTestUtil.encode(ROW_KEY_2) + "/" + AzureTestUtil.encode(COLUMN_KEY)));
+    }
+
 
     //----------------------
     // Utilities
     //----------------------
 
+    @SafeVarargs
+    private final void setColumnIndexToContain(Table.Cell<Bytes, Bytes, Bytes>... cells) {
+        when(baseAzureTable.getColumnIndex()).thenReturn(Optional.of(
+                new ColumnIndex(INDEX_TABLE_NAME, azureTableCloudClientMock, azureTableRequestFactoryMock)));
+        Collection<AzureEntity> entries = Lists.newArrayList();
+        Collection<AzureEntity> indexedCells = Lists.newArrayList();
+        for (Table.Cell<Bytes, Bytes, Bytes> cell : cells) {
+            entries.add(ColumnIndex.entryOf(AzureTestUtil.encode(cell.getRowKey()), AzureTestUtil.encode(cell.getColumnKey())));
+            indexedCells.add(new AzureEntity(AzureTestUtil.encode(cell.getRowKey()), AzureTestUtil.encode(cell.getColumnKey()),
+                    AzureTestUtil.encode(cell.getValue())));
+        }
+        when(baseAzureTable.indexedColumn(AzureTestUtil.encode(COLUMN_KEY))).thenReturn(indexedCells);
+        when(baseAzureTable.indexedColumn(eq(AzureTestUtil.encode(COLUMN_KEY)), anyInt())).thenReturn(indexedCells);
+        TableQuery<AzureEntity> indexQuery = AzureTestUtil.queryMock();
+        when(azureTableRequestFactoryMock.selectKeysForRow(INDEX_TABLE_NAME, AzureTestUtil.encode(COLUMN_KEY))).thenReturn(indexQuery);
+        when(azureTableCloudClientMock.execute(indexQuery)).thenReturn(entries);
+    }
+
     @SafeVarargs
     private final void setAzureTableToContain(Table.Cell<Bytes, Bytes, Bytes>... cells) throws StorageException {
         for (Table.Cell<Bytes, Bytes, Bytes> cell : cells) {
@@ -0,0 +1,95 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.azure;
+
+import com.google.common.collect.Maps;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.Map;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+@SuppressWarnings("InstanceVariableMayNotBeInitialized")
+@RunWith(MockitoJUnitRunner.class)
+public class ScannedCellEntryTest {
+    private static final Bytes ROW_KEY = new Bytes("row".getBytes());
+    private static final Bytes COLUMN_KEY = new Bytes("column".getBytes());
+    private static final Bytes VALUE = new Bytes("value".getBytes());
+    private static final Bytes OTHER_VALUE = new Bytes("other_value".getBytes());
+    private static final AzureEntity ENTITY = new AzureEntity(
+            KeyCodec.BASE64.encode(ROW_KEY), KeyCodec.BASE64.encode(COLUMN_KEY), AzureEntityUtil.encode(VALUE));
+    @Mock
+    private BaseAzureTable baseAzureTableMock;
+
+    @Test
+    public void value_is_decoded_from_the_scanned_entity() {
+        Map.Entry<Bytes, Bytes> entry = ScannedCellEntry.columnEntry(baseAzureTableMock, ROW_KEY, COLUMN_KEY, ENTITY);
+
+        assertThat(entry.getKey(), is(equalTo(COLUMN_KEY)));
+        assertThat(entry.getValue(), is(equalTo(VALUE)));
+        verifyZeroInteractions(baseAzureTableMock);
+    }
+
+    @Test
+    public void entities_without_value_are_read_from_the_table() {
+        when(baseAzureTableMock.get(ROW_KEY, COLUMN_KEY)).thenReturn(VALUE);
+        AzureEntity keysOnlyEntity = new AzureEntity(KeyCodec.BASE64.encode(ROW_KEY), KeyCodec.BASE64.encode(COLUMN_KEY), null);
+
+        Map.Entry<Bytes, Bytes> entry = ScannedCellEntry.rowEntry(baseAzureTableMock, ROW_KEY, COLUMN_KEY, keysOnlyEntity);
+
+        assertThat(entry.getKey(), is(equalTo(ROW_KEY)));
+        assertThat(entry.getValue(), is(equalTo(VALUE)));
+    }
+
+    @Test
+    public void the_value_of_an_entity_without_value_whose_cell_was_deleted_is_null_and_read_once() {
+        AzureEntity keysOnlyEntity = new AzureEntity(KeyCodec.BASE64.encode(ROW_KEY), KeyCodec.BASE64.encode(COLUMN_KEY), null);
+        Map.Entry<Bytes, Bytes> entry = ScannedCellEntry.rowEntry(baseAzureTableMock, ROW_KEY, COLUMN_KEY, keysOnlyEntity);
+
+        assertThat(entry.getValue(), is(nullValue()));
+        assertThat(entry.getValue(), is(nullValue()));
+        verify(baseAzureTableMock, times(1)).get(ROW_KEY, COLUMN_KEY);
+    }
+
+    @Test
+    public void set_value_writes_through_and_replaces_the_scanned_value() {
+        when(baseAzureTableMock.put(ROW_KEY, COLUMN_KEY, OTHER_VALUE)).thenReturn(VALUE);
+        Map.Entry<Bytes, Bytes> entry = ScannedCellEntry.columnEntry(baseAzureTableMock, ROW_KEY, COLUMN_KEY, ENTITY);
+
+        assertThat(entry.setValue(OTHER_VALUE), is(equalTo(VALUE)));
+
+        verify(baseAzureTableMock).put(ROW_KEY, COLUMN_KEY, OTHER_VALUE);
+        assertThat(entry.getValue(), is(equalTo(OTHER_VALUE)));
+    }
+
+    @Test
+    public void entries_are_equal_to_other_entries_with_the_same_key_and_value() {
+        Map.Entry<Bytes, Bytes> entry = ScannedCellEntry.columnEntry(baseAzureTableMock, ROW_KEY, COLUMN_KEY, ENTITY);
+
+        assertThat(entry.equals(Maps.immutableEntry(COLUMN_KEY, VALUE)), is(equalTo(true)));
+        assertThat(entry.hashCode(), is(equalTo(Maps.immutableEntry(COLUMN_KEY, VALUE).hashCode())));
+    }
+}
@@ -0,0 +1,154 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.azure;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@SuppressWarnings("InstanceVariableMayNotBeInitialized")
+@RunWith(MockitoJUnitRunner.class)
+public class ScannedRowsTest {
+    private static final Bytes ROW_KEY_1 = new Bytes("row1".getBytes());
+    private static final Bytes ROW_KEY_2 = new Bytes("row2".getBytes());
+    private static final Bytes COLUMN_KEY_1 = new Bytes("column1".getBytes());
+    private static final Bytes COLUMN_KEY_2 = new Bytes("column2".getBytes());
+    private static final Bytes VALUE_1 = new Bytes("value1".getBytes());
+    private static final Bytes VALUE_2 = new Bytes("value2".getBytes());
+    @Mock
+    private BaseAzureTable baseAzureTableMock;
+    @Mock
+    private Map<Bytes, Bytes> rowViewMock;
+
+    private static AzureEntity entity(Bytes row, Bytes column, Bytes value) {
+        return new AzureEntity(KeyCodec.BASE64.encode(row), KeyCodec.BASE64.encode(column), AzureEntityUtil.encode(value));
+    }
+
+    private ScannedRows scannedRows(int maxCellsPerRow) {
+        return new ScannedRows(baseAzureTableMock, ImmutableList.of(
+                entity(ROW_KEY_1, COLUMN_KEY_1, VALUE_1),
+                entity(ROW_KEY_1, COLUMN_KEY_2, VALUE_2),
+                entity(ROW_KEY_2, COLUMN_KEY_1, VALUE_2)
+        ), KeyCodec.BASE64, maxCellsPerRow);
+    }
+
+    @Test
+    public void adjacent_entities_of_a_row_are_grouped_into_one_entry() {
+        List<Map.Entry<Bytes, Map<Bytes, Bytes>>> rows = ImmutableList.copyOf(scannedRows(10));
+
+        assertThat(rows.size(), is(equalTo(2)));
+        assertThat(rows.get(0).getKey(), is(equalTo(ROW_KEY_1)));
+        assertThat(rows.get(0).getValue(), is(equalTo((Map<Bytes, Bytes>) ImmutableMap.of(COLUMN_KEY_1, VALUE_1, COLUMN_KEY_2, VALUE_2))));
+        assertThat(rows.get(1).getKey(), is(equalTo(ROW_KEY_2)));
+        assertThat(rows.get(1).getValue(), is(equalTo((Map<Bytes, Bytes>) ImmutableMap.of(COLUMN_KEY_1, VALUE_2))));
+    }
+
+    @Test
+    public void the_first_iteration_of_a_row_with_too_many_cells_goes_on_with_the_scan() {
+        Iterator<Map.Entry<Bytes, Map<Bytes, Bytes>>> rows = scannedRows(1).iterator();
+
+        Map<Bytes, Bytes> row = rows.next().getValue();
+
+        assertThat(columnsOf(row), is(equalTo((List<Bytes>) ImmutableList.of(COLUMN_KEY_1, COLUMN_KEY_2))));
+        assertThat(rows.next().getKey(), is(equalTo(ROW_KEY_2)));
+        assertThat(rows.hasNext(), is(equalTo(false)));
+        verify(baseAzureTableMock, never()).row(ROW_KEY_1);
+    }
+
+    @Test
+    public void rows_with_too_many_cells_are_read_from_the_table_once_the_scan_moved_on() {
+        when(baseAzureTableMock.row(ROW_KEY_1)).thenReturn(rowViewMock);
+        when(rowViewMock.entrySet()).thenReturn(ImmutableMap.of(COLUMN_KEY_1, VALUE_1, COLUMN_KEY_2, VALUE_2).entrySet());
+
+        List<Map.Entry<Bytes, Map<Bytes, Bytes>>> rows = ImmutableList.copyOf(scannedRows(1));
+
+        assertThat(rows.get(1).getKey(), is(equalTo(ROW_KEY_2)));
+        assertThat(columnsOf(rows.get(0).getValue()), is(equalTo((List<Bytes>) ImmutableList.of(COLUMN_KEY_1, COLUMN_KEY_2))));
+    }
+
+    @Test
+    public void a_row_with_too_many_cells_which_is_iterated_as_the_scan_moves_on_reads_the_rest_from_the_table() {
+        when(baseAzureTableMock.row(ROW_KEY_1)).thenReturn(rowViewMock);
+        when(rowViewMock.entrySet()).thenReturn(ImmutableMap.of(COLUMN_KEY_1, VALUE_1, COLUMN_KEY_2, VALUE_2).entrySet());
+        Iterator<Map.Entry<Bytes, Map<Bytes, Bytes>>> rows = scannedRows(1).iterator();
+        Iterator<Bytes> columns = rows.next().getValue().keySet().iterator();
+
+        assertThat(columns.next(), is(equalTo(COLUMN_KEY_1)));
+        assertThat(rows.next().getKey(), is(equalTo(ROW_KEY_2)));
+        assertThat(columns.next(), is(equalTo(COLUMN_KEY_2)));
+        assertThat(columns.hasNext(), is(equalTo(false)));
+    }
+
+    @Test
+    public void writes_to_a_scanned_row_go_to_the_table() {
+        when(baseAzureTableMock.put(ROW_KEY_1, COLUMN_KEY_1, VALUE_2)).thenReturn(VALUE_1);
+        Map<Bytes, Bytes> row = Iterables.getFirst(scannedRows(10), null).getValue();
+
+        assertThat(row.put(COLUMN_KEY_1, VALUE_2), is(equalTo(VALUE_1)));
+
+        verify(baseAzureTableMock).put(ROW_KEY_1, COLUMN_KEY_1, VALUE_2);
+        assertThat(row.get(COLUMN_KEY_1), is(equalTo(VALUE_2)));
+    }
+
+    @Test
+    public void removing_entries_of_a_scanned_row_removes_the_cells_from_the_table() {
+        Map<Bytes, Bytes> row = Iterables.getFirst(scannedRows(10), null).getValue();
+
+        Iterator<Map.Entry<Bytes, Bytes>> entries = row.entrySet().iterator();
+        entries.next();
+        entries.remove();
+        row.keySet().remove(COLUMN_KEY_2);
+
+        verify(baseAzureTableMock).remove(ROW_KEY_1, COLUMN_KEY_1);
+        verify(baseAzureTableMock).remove(ROW_KEY_1, COLUMN_KEY_2);
+        assertThat(row.isEmpty(), is(equalTo(true)));
+    }
+
+    @Test
+    public void setting_the_value_of_an_entry_of_a_scanned_row_writes_it_to_the_table() {
+        when(baseAzureTableMock.put(ROW_KEY_1, COLUMN_KEY_1, VALUE_2)).thenReturn(VALUE_1);
+        Map<Bytes, Bytes> row = Iterables.getFirst(scannedRows(10), null).getValue();
+
+        assertThat(row.entrySet().iterator().next().setValue(VALUE_2), is(equalTo(VALUE_1)));
+
+        verify(baseAzureTableMock).put(ROW_KEY_1, COLUMN_KEY_1, VALUE_2);
+        assertThat(row.get(COLUMN_KEY_1), is(equalTo(VALUE_2)));
+    }
+
+    private static List<Bytes> columnsOf(Map<Bytes, Bytes> row) {
+        List<Bytes> columns = Lists.newArrayList();
+        for (Map.Entry<Bytes, Bytes> cell : row.entrySet()) {
+            columns.add(cell.getKey());
+        }
+        return columns;
+    }
+}
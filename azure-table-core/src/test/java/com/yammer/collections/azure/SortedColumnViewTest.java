@@ -0,0 +1,156 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.azure;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.microsoft.windowsazure.services.table.client.TableQuery;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.SortedMap;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+@SuppressWarnings("InstanceVariableMayNotBeInitialized")
+@RunWith(MockitoJUnitRunner.class)
+public class SortedColumnViewTest {
+    private static final String TABLE_NAME = "secretie_table";
+    private static final Bytes ROW_KEY = new Bytes("rowKey".getBytes());
+    private static final Bytes COLUMN_KEY_1 = new Bytes(new byte[]{1});
+    private static final Bytes COLUMN_KEY_2 = new Bytes(new byte[]{2});
+    private static final Bytes COLUMN_KEY_3 = new Bytes(new byte[]{(byte) 0xff});
+    private static final Bytes VALUE = new Bytes("value".getBytes());
+    private static final KeyCodec KEY_CODEC = KeyCodec.ORDER_PRESERVING;
+    @Mock
+    private AzureTableCloudClient azureTableCloudClientMock;
+    @Mock
+    private AzureTableRequestFactory azureTableRequestFactoryMock;
+    @Mock
+    private BaseAzureTable baseAzureTable;
+    private SortedColumnView sortedColumnView;
+
+    @Before
+    public void setUp() {
+        when(baseAzureTable.getTableName()).thenReturn(TABLE_NAME);
+        AzureTestUtil.setRequestFactoryToTake(azureTableRequestFactoryMock);
+        sortedColumnView = new SortedColumnView(baseAzureTable, ROW_KEY, azureTableCloudClientMock, azureTableRequestFactoryMock, KEY_CODEC);
+    }
+
+    private static AzureEntity entity(Bytes columnKey) {
+        return new AzureEntity(KEY_CODEC.encode(ROW_KEY), KEY_CODEC.encode(columnKey), AzureEntityUtil.encode(VALUE));
+    }
+
+    private void setRangeToContain(Optional<Bytes> lowerInclusive, Optional<Bytes> upperExclusive, Bytes... columnKeys) {
+        List<AzureEntity> entities = Lists.newArrayList();
+        for (Bytes columnKey : columnKeys) {
+            entities.add(entity(columnKey));
+        }
+        Optional<String> lower = lowerInclusive.isPresent() ? Optional.of(KEY_CODEC.encode(lowerInclusive.get())) : Optional.<String>absent();
+        Optional<String> upper = upperExclusive.isPresent() ? Optional.of(KEY_CODEC.encode(upperExclusive.get())) : Optional.<String>absent();
+        TableQuery<AzureEntity> rangeQuery = AzureTestUtil.queryMock();
+        TableQuery<AzureEntity> keysQuery = AzureTestUtil.queryMock();
+        when(azureTableRequestFactoryMock.selectRangeForRow(TABLE_NAME, KEY_CODEC.encode(ROW_KEY), lower, upper)).thenReturn(rangeQuery);
+        when(azureTableRequestFactoryMock.selectKeysInRangeForRow(TABLE_NAME, KEY_CODEC.encode(ROW_KEY), lower, upper)).thenReturn(keysQuery);
+        when(azureTableCloudClientMock.execute(rangeQuery)).thenReturn(ImmutableList.copyOf(entities));
+        when(azureTableCloudClientMock.execute(keysQuery)).thenReturn(ImmutableList.copyOf(entities));
+    }
+
+    @Test
+    public void keys_are_returned_in_the_order_of_the_service() {
+        setRangeToContain(Optional.<Bytes>absent(), Optional.<Bytes>absent(), COLUMN_KEY_1, COLUMN_KEY_2, COLUMN_KEY_3);
+
+        assertThat(sortedColumnView.keySet(), contains(COLUMN_KEY_1, COLUMN_KEY_2, COLUMN_KEY_3));
+        assertThat(sortedColumnView.firstKey(), is(equalTo(COLUMN_KEY_1)));
+        assertThat(sortedColumnView.lastKey(), is(equalTo(COLUMN_KEY_3)));
+        assertThat(sortedColumnView.size(), is(equalTo(3)));
+    }
+
+    @Test
+    public void entries_carry_the_values_of_the_query() {
+        setRangeToContain(Optional.<Bytes>absent(), Optional.<Bytes>absent(), COLUMN_KEY_1);
+
+        assertThat(sortedColumnView.entrySet().iterator().next().getValue(), is(equalTo(VALUE)));
+        verify(baseAzureTable, never()).get(ROW_KEY, COLUMN_KEY_1);
+    }
+
+    @Test
+    public void sub_map_queries_its_range_of_columns() {
+        setRangeToContain(Optional.of(COLUMN_KEY_2), Optional.of(COLUMN_KEY_3), COLUMN_KEY_2);
+
+        assertThat(sortedColumnView.subMap(COLUMN_KEY_2, COLUMN_KEY_3).keySet(), contains(COLUMN_KEY_2));
+    }
+
+    @Test
+    public void head_and_tail_maps_of_a_sub_map_keep_its_other_bound() {
+        setRangeToContain(Optional.of(COLUMN_KEY_1), Optional.of(COLUMN_KEY_2), COLUMN_KEY_1);
+        setRangeToContain(Optional.of(COLUMN_KEY_2), Optional.of(COLUMN_KEY_3), COLUMN_KEY_2);
+        SortedMap<Bytes, Bytes> subMap = sortedColumnView.subMap(COLUMN_KEY_1, COLUMN_KEY_3);
+
+        assertThat(subMap.headMap(COLUMN_KEY_2).keySet(), contains(COLUMN_KEY_1));
+        assertThat(subMap.tailMap(COLUMN_KEY_2).keySet(), contains(COLUMN_KEY_2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sub_map_cannot_exceed_the_range_of_its_map() {
+        sortedColumnView.headMap(COLUMN_KEY_2).subMap(COLUMN_KEY_1, COLUMN_KEY_3);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void put_outside_of_the_range_is_rejected() {
+        sortedColumnView.headMap(COLUMN_KEY_2).put(COLUMN_KEY_3, VALUE);
+    }
+
+    @Test
+    public void get_outside_of_the_range_does_not_query_the_table() {
+        assertThat(sortedColumnView.tailMap(COLUMN_KEY_2).get(COLUMN_KEY_1), is(equalTo(null)));
+
+        verifyZeroInteractions(azureTableCloudClientMock);
+        verify(baseAzureTable, never()).get(ROW_KEY, COLUMN_KEY_1);
+    }
+
+    @Test
+    public void get_within_the_range_delegates_to_table() {
+        when(baseAzureTable.get(ROW_KEY, COLUMN_KEY_1)).thenReturn(VALUE);
+
+        assertThat(sortedColumnView.headMap(COLUMN_KEY_2).get(COLUMN_KEY_1), is(equalTo(VALUE)));
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void first_key_of_an_empty_range_does_not_exist() {
+        setRangeToContain(Optional.of(COLUMN_KEY_3), Optional.<Bytes>absent());
+
+        sortedColumnView.tailMap(COLUMN_KEY_3).firstKey();
+    }
+
+    @Test
+    public void comparator_orders_unsigned_bytes() {
+        assertThat(sortedColumnView.comparator().compare(COLUMN_KEY_1, COLUMN_KEY_3) < 0, is(equalTo(true)));
+    }
+}
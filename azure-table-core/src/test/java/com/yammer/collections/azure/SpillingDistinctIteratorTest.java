@@ -0,0 +1,105 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.azure;
+
+import com.google.common.collect.Lists;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class SpillingDistinctIteratorTest {
+    private static final Bytes B1 = Bytes.of(new byte[]{1});
+    private static final Bytes B2 = Bytes.of(new byte[]{2});
+    private static final Bytes B3 = Bytes.of(new byte[]{3});
+    private static final Bytes B4 = Bytes.of(new byte[]{(byte) 0xff});
+    private static final List<Bytes> WITH_DUPLICATES = Arrays.asList(B3, B1, B3, B2, B4, B1, B2, B4, B3);
+    private static final long LARGE_BUDGET = 1024 * 1024;
+    // fits a single element, so that every other distinct element spills
+    private static final long SMALL_BUDGET = SpillingDistinctIterator.ELEMENT_OVERHEAD_IN_BYTES + 1;
+    @Rule
+    public TemporaryFolder runDirectory = new TemporaryFolder();
+
+    private static List<Bytes> distinct(List<Bytes> elements, long memoryBudgetInBytes) {
+        return Lists.newArrayList(new SpillingDistinctIterator(elements.iterator(), memoryBudgetInBytes));
+    }
+
+    @Test
+    public void empty_iterator_has_no_elements() {
+        assertThat(distinct(Collections.<Bytes>emptyList(), SMALL_BUDGET), is(empty()));
+    }
+
+    @Test
+    public void within_budget_duplicates_are_skipped_in_encounter_order() {
+        assertThat(distinct(WITH_DUPLICATES, LARGE_BUDGET), is(equalTo(Arrays.asList(B3, B1, B2, B4))));
+    }
+
+    @Test
+    public void beyond_budget_every_element_is_returned_once() {
+        List<Bytes> distinct = distinct(WITH_DUPLICATES, SMALL_BUDGET);
+
+        assertThat(distinct.size(), is(equalTo(4)));
+        assertThat(distinct, containsInAnyOrder(B1, B2, B3, B4));
+    }
+
+    @Test
+    public void beyond_budget_many_elements_are_returned_once() {
+        List<Bytes> elements = Lists.newArrayList();
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 1000; i++) {
+                elements.add(Bytes.of(Integer.toString(i).getBytes()));
+            }
+        }
+
+        List<Bytes> distinct = distinct(elements, 100 * SMALL_BUDGET);
+
+        assertThat(distinct.size(), is(equalTo(1000)));
+        assertThat(distinct, containsInAnyOrder(elements.subList(0, 1000).toArray(new Bytes[1000])));
+    }
+
+    @Test
+    public void runs_are_deleted_once_the_merge_has_opened_them() {
+        SpillingDistinctIterator iterator = new SpillingDistinctIterator(WITH_DUPLICATES.iterator(), SMALL_BUDGET, runDirectory.getRoot());
+        // the first two elements are returned as they are seen, the third one by the merge
+        iterator.next();
+        iterator.next();
+        iterator.next();
+
+        assertThat(runDirectory.getRoot().list().length, is(equalTo(0)));
+    }
+
+    @Test
+    public void closing_an_abandoned_iterator_deletes_its_runs() {
+        SpillingDistinctIterator iterator = new SpillingDistinctIterator(WITH_DUPLICATES.iterator(), SMALL_BUDGET, runDirectory.getRoot());
+        iterator.next();
+        iterator.next();
+        assertThat(runDirectory.getRoot().list().length, is(equalTo(1)));
+
+        iterator.close();
+
+        assertThat(runDirectory.getRoot().list().length, is(equalTo(0)));
+        assertThat(iterator.hasNext(), is(equalTo(false)));
+    }
+}
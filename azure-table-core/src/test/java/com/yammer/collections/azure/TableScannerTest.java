@@ -0,0 +1,225 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.azure;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.microsoft.windowsazure.services.core.storage.ResultContinuation;
+import com.microsoft.windowsazure.services.core.storage.ResultSegment;
+import com.microsoft.windowsazure.services.core.storage.StorageException;
+import com.microsoft.windowsazure.services.table.client.EntityProperty;
+import com.microsoft.windowsazure.services.table.client.EntityResolver;
+import com.microsoft.windowsazure.services.table.client.TableQuery;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@SuppressWarnings("InstanceVariableMayNotBeInitialized")
+@RunWith(MockitoJUnitRunner.class)
+public class TableScannerTest {
+    private static final String TABLE_NAME = "secretie_table";
+    private static final int RANGES = 3;
+    private static final AzureEntity ENTITY_1 = new AzureEntity("a", "c1", "v1");
+    private static final AzureEntity ENTITY_2 = new AzureEntity("b", "c1", "v2");
+    private static final AzureEntity ENTITY_3 = new AzureEntity("z", "c1", "v3");
+    private static final EntityResolver<String> PARTITION_KEY = new EntityResolver<String>() {
+        @Override
+        public String resolve(String partitionKey, String rowKey, Date timestamp, HashMap<String, EntityProperty> properties, String etag) {
+            return partitionKey;
+        }
+    };
+    @Mock
+    private AzureTableCloudClient azureTableCloudClientMock;
+    @Mock
+    private AzureTableRequestFactory azureTableRequestFactoryMock;
+    private TableQuery<AzureEntity> firstRangeQuery;
+    private TableQuery<AzureEntity> secondRangeQuery;
+    private TableQuery<AzureEntity> thirdRangeQuery;
+    private TableScanner tableScanner;
+
+    private static ResultSegment<AzureEntity> segment(ResultContinuation continuation, AzureEntity... entities) {
+        return new ResultSegment<>(new ArrayList<>(Arrays.asList(entities)), entities.length, continuation);
+    }
+
+    private static ResultContinuation continuation() {
+        ResultContinuation continuation = new ResultContinuation();
+        continuation.setNextPartitionKey("next_partition");
+        continuation.setNextRowKey("next_row");
+        return continuation;
+    }
+
+    @Before
+    public void setUp() throws StorageException {
+        AzureTestUtil.setCloudClientToResolve(azureTableCloudClientMock);
+        firstRangeQuery = AzureTestUtil.queryMock();
+        secondRangeQuery = AzureTestUtil.queryMock();
+        thirdRangeQuery = AzureTestUtil.queryMock();
+        when(azureTableRequestFactoryMock.selectAll(eq(TABLE_NAME), any(PartitionRange.class)))
+                .thenReturn(firstRangeQuery).thenReturn(secondRangeQuery).thenReturn(thirdRangeQuery);
+        when(azureTableRequestFactoryMock.selectAllKeys(eq(TABLE_NAME), any(PartitionRange.class)))
+                .thenReturn(firstRangeQuery).thenReturn(secondRangeQuery).thenReturn(thirdRangeQuery);
+        // no keys to split, so that the ranges are split on the alphabet
+        TableQuery<AzureEntity> firstKeyQuery = AzureTestUtil.queryMock();
+        when(azureTableRequestFactoryMock.selectFirstKey(eq(TABLE_NAME), Matchers.<Optional<String>>any())).thenReturn(firstKeyQuery);
+        when(azureTableCloudClientMock.execute(firstKeyQuery)).thenReturn(Collections.<AzureEntity>emptyList());
+        tableScanner = new TableScanner(TABLE_NAME, azureTableCloudClientMock, azureTableRequestFactoryMock,
+                MoreExecutors.sameThreadExecutor(), RANGES);
+    }
+
+    @Test
+    public void sequential_scan_runs_a_single_query() {
+        TableQuery<AzureEntity> query = AzureTestUtil.queryMock();
+        when(azureTableRequestFactoryMock.selectAll(TABLE_NAME)).thenReturn(query);
+        when(azureTableCloudClientMock.execute(query)).thenReturn(Arrays.asList(ENTITY_1, ENTITY_2));
+
+        TableScanner sequentialScanner = new TableScanner(TABLE_NAME, azureTableCloudClientMock, azureTableRequestFactoryMock);
+
+        assertThat(sequentialScanner.scan(PARTITION_KEY, false), contains("a", "b"));
+    }
+
+    @Test
+    public void parallel_scan_returns_ranges_in_key_order_following_continuations() throws StorageException {
+        ResultContinuation continuation = continuation();
+        when(azureTableCloudClientMock.executeSegmented(eq(firstRangeQuery), (ResultContinuation) isNull())).thenReturn(segment(continuation, ENTITY_1));
+        when(azureTableCloudClientMock.executeSegmented(firstRangeQuery, continuation)).thenReturn(segment(null, ENTITY_2));
+        when(azureTableCloudClientMock.executeSegmented(eq(secondRangeQuery), (ResultContinuation) isNull())).thenReturn(segment(null));
+        when(azureTableCloudClientMock.executeSegmented(eq(thirdRangeQuery), (ResultContinuation) isNull())).thenReturn(segment(null, ENTITY_3));
+
+        assertThat(tableScanner.scan(PARTITION_KEY, false), contains("a", "b", "z"));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void failure_of_a_range_fails_the_iteration() throws StorageException {
+        when(azureTableCloudClientMock.executeSegmented(eq(firstRangeQuery), (ResultContinuation) isNull())).thenReturn(segment(null, ENTITY_1));
+        when(azureTableCloudClientMock.executeSegmented(eq(secondRangeQuery), (ResultContinuation) isNull())).thenThrow(new StorageException("code", "message", 500, null, null));
+        when(azureTableCloudClientMock.executeSegmented(eq(thirdRangeQuery), (ResultContinuation) isNull())).thenReturn(segment(null, ENTITY_3));
+
+        Lists.newArrayList(tableScanner.scan(PARTITION_KEY, false));
+    }
+
+    @Test
+    public void parallel_count_adds_up_the_ranges() {
+        when(azureTableCloudClientMock.execute(firstRangeQuery)).thenReturn(Arrays.asList(ENTITY_1, ENTITY_2));
+        when(azureTableCloudClientMock.execute(secondRangeQuery)).thenReturn(Collections.<AzureEntity>emptyList());
+        when(azureTableCloudClientMock.execute(thirdRangeQuery)).thenReturn(Arrays.asList(ENTITY_3));
+
+        assertThat(tableScanner.count(), is(equalTo(3)));
+    }
+
+    @Test
+    public void parallel_for_each_passes_every_result_to_the_sink() {
+        when(azureTableCloudClientMock.execute(firstRangeQuery)).thenReturn(Arrays.asList(ENTITY_1, ENTITY_2));
+        when(azureTableCloudClientMock.execute(secondRangeQuery)).thenReturn(Collections.<AzureEntity>emptyList());
+        when(azureTableCloudClientMock.execute(thirdRangeQuery)).thenReturn(Arrays.asList(ENTITY_3));
+        final List<String> received = Collections.synchronizedList(new ArrayList<String>());
+
+        tableScanner.forEach(PARTITION_KEY, new TableScanner.Sink<String>() {
+            @Override
+            public void accept(String partitionKey) {
+                received.add(partitionKey);
+            }
+        });
+
+        assertThat(received, contains("a", "b", "z"));
+    }
+
+    @Test
+    public void entities_are_resolved_with_their_values() {
+        TableQuery<AzureEntity> query = AzureTestUtil.queryMock();
+        when(azureTableRequestFactoryMock.selectAll(TABLE_NAME)).thenReturn(query);
+        when(azureTableCloudClientMock.execute(query)).thenReturn(Arrays.asList(ENTITY_1));
+
+        AzureEntity entity = new TableScanner(TABLE_NAME, azureTableCloudClientMock, azureTableRequestFactoryMock).entities().iterator().next();
+
+        assertThat(entity.getPartitionKey(), is(equalTo("a")));
+        assertThat(entity.getRowKey(), is(equalTo("c1")));
+        assertThat(entity.getValue(), is(equalTo("v1")));
+    }
+
+    @Test
+    public void parallel_scan_splits_the_keys_between_the_lowest_and_the_highest_one() {
+        // the service returns keys in the order of their encoding
+        final List<String> keys = Ordering.natural().sortedCopy(ImmutableList.of(
+                KeyCodec.BASE64.encode(Bytes.of("user:100".getBytes())),
+                KeyCodec.BASE64.encode(Bytes.of("user:500".getBytes())),
+                KeyCodec.BASE64.encode(Bytes.of("user:999".getBytes()))));
+        final Map<TableQuery<AzureEntity>, Optional<String>> firstKeyQueries = Maps.newHashMap();
+        when(azureTableRequestFactoryMock.selectFirstKey(eq(TABLE_NAME), Matchers.<Optional<String>>any())).thenAnswer(new Answer<TableQuery<AzureEntity>>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public TableQuery<AzureEntity> answer(InvocationOnMock invocation) {
+                TableQuery<AzureEntity> query = AzureTestUtil.queryMock();
+                firstKeyQueries.put(query, (Optional<String>) invocation.getArguments()[1]);
+                return query;
+            }
+        });
+        when(azureTableCloudClientMock.execute(Matchers.<TableQuery<AzureEntity>>any())).thenAnswer(new Answer<Iterable<AzureEntity>>() {
+            @Override
+            public Iterable<AzureEntity> answer(InvocationOnMock invocation) {
+                Optional<String> lowerInclusive = firstKeyQueries.get(invocation.getArguments()[0]);
+                if (lowerInclusive == null) {
+                    return Collections.emptyList();
+                }
+                for (String key : keys) {
+                    if (!lowerInclusive.isPresent() || key.compareTo(lowerInclusive.get()) >= 0) {
+                        return Collections.singletonList(new AzureEntity(key, "c1", null));
+                    }
+                }
+                return Collections.emptyList();
+            }
+        });
+        ArgumentCaptor<PartitionRange> rangeCaptor = ArgumentCaptor.forClass(PartitionRange.class);
+
+        tableScanner.count();
+
+        verify(azureTableRequestFactoryMock, atLeastOnce()).selectAllKeys(eq(TABLE_NAME), rangeCaptor.capture());
+        List<PartitionRange> ranges = rangeCaptor.getAllValues();
+        assertThat(ranges.size(), is(equalTo(RANGES)));
+        for (PartitionRange range : ranges.subList(1, RANGES)) {
+            String bound = range.getLowerInclusive().get();
+            assertThat(bound.compareTo(keys.get(0)) > 0 && bound.compareTo(keys.get(2)) < 0, is(equalTo(true)));
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.azure;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Tables;
+import com.microsoft.windowsazure.services.core.storage.StorageException;
+import com.microsoft.windowsazure.services.table.client.TableBatchOperation;
+import com.microsoft.windowsazure.services.table.client.TableOperation;
+import com.microsoft.windowsazure.services.table.client.TableQuery;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.Date;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+@SuppressWarnings("InstanceVariableMayNotBeInitialized")
+@RunWith(MockitoJUnitRunner.class)
+public class ValueIndexTest {
+    private static final String INDEX_TABLE_NAME = "secretieIndex";
+    private static final Bytes ROW_KEY = new Bytes("row".getBytes());
+    private static final Bytes COLUMN_KEY = new Bytes("column".getBytes());
+    private static final Bytes VALUE = new Bytes("value".getBytes());
+    private static final Bytes OTHER_VALUE = new Bytes("other_value".getBytes());
+    // the service takes keys of up to 1KB, the longest keys which encode to less than that
+    private static final int MAX_ROW_KEY_LENGTH = 1024;
+    private static final int MAX_KEY_BYTES = 765;
+    private static final long GRACE_PERIOD_IN_MILLIS = 60 * 1000;
+    @Mock
+    private AzureTableCloudClient azureTableCloudClientMock;
+    @Mock
+    private AzureTableRequestFactory azureTableRequestFactoryMock;
+    private ValueIndex valueIndex;
+
+    @Before
+    public void setUp() {
+        valueIndex = new ValueIndex(INDEX_TABLE_NAME, azureTableCloudClientMock, azureTableRequestFactoryMock, KeyCodec.BASE64, GRACE_PERIOD_IN_MILLIS);
+    }
+
+    private static final String ETAG = "W/\"datetime'2014-01-01T00%3A00%3A00Z'\"";
+
+    private static AzureEntity entry() {
+        return entryWrittenAt(new Date(0));
+    }
+
+    private static AzureEntity entryWrittenAt(Date timestamp) {
+        AzureEntity entry = ValueIndex.entryOf(KeyCodec.BASE64.encode(ROW_KEY), KeyCodec.BASE64.encode(COLUMN_KEY), VALUE);
+        entry.setEtag(ETAG);
+        entry.setTimestamp(timestamp);
+        return entry;
+    }
+
+    @Test
+    public void entries_of_a_value_share_a_partition() {
+        AzureEntity otherEntry = ValueIndex.entryOf(KeyCodec.BASE64.encode(COLUMN_KEY), KeyCodec.BASE64.encode(ROW_KEY), VALUE);
+
+        assertThat(entry().getPartitionKey(), is(equalTo(otherEntry.getPartitionKey())));
+        assertThat(entry().getPartitionKey().equals(ValueIndex.partitionOf(OTHER_VALUE)), is(equalTo(false)));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void candidates_are_the_cells_of_the_entries_in_the_partition_of_the_value_with_their_entries() {
+        AzureEntity entry = entry();
+        TableQuery<AzureEntity> partitionQuery = AzureTestUtil.queryMock();
+        when(azureTableRequestFactoryMock.selectAllForRow(INDEX_TABLE_NAME, ValueIndex.partitionOf(VALUE))).thenReturn(partitionQuery);
+        when(azureTableCloudClientMock.execute(partitionQuery)).thenReturn(ImmutableList.of(entry));
+
+        assertThat(valueIndex.candidates(VALUE), contains(Tables.immutableCell(ROW_KEY, COLUMN_KEY, entry)));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void entries_of_cells_with_keys_as_long_as_a_row_key_can_be_fit_in_a_row_key_and_hold_the_keys() {
+        Bytes longRowKey = new Bytes(new byte[MAX_KEY_BYTES]);
+        Bytes longColumnKey = new Bytes(new byte[MAX_KEY_BYTES]);
+        AzureEntity entry = ValueIndex.entryOf(KeyCodec.BASE64.encode(longRowKey), KeyCodec.BASE64.encode(longColumnKey), VALUE);
+        TableQuery<AzureEntity> partitionQuery = AzureTestUtil.queryMock();
+        when(azureTableRequestFactoryMock.selectAllForRow(INDEX_TABLE_NAME, ValueIndex.partitionOf(VALUE))).thenReturn(partitionQuery);
+        when(azureTableCloudClientMock.execute(partitionQuery)).thenReturn(ImmutableList.of(entry));
+
+        assertThat(entry.getRowKey().length() <= MAX_ROW_KEY_LENGTH, is(equalTo(true)));
+        assertThat(valueIndex.candidates(VALUE), contains(Tables.immutableCell(longRowKey, longColumnKey, entry)));
+    }
+
+    @Test
+    public void add_writes_the_entry_to_the_index_table() throws StorageException {
+        TableOperation putOperation = mock(TableOperation.class);
+        when(azureTableRequestFactoryMock.put(any(AzureEntity.class))).thenReturn(putOperation);
+        ArgumentCaptor<AzureEntity> entryCaptor = ArgumentCaptor.forClass(AzureEntity.class);
+
+        valueIndex.add(KeyCodec.BASE64.encode(ROW_KEY), KeyCodec.BASE64.encode(COLUMN_KEY), VALUE);
+
+        verify(azureTableCloudClientMock).execute(INDEX_TABLE_NAME, putOperation);
+        verify(azureTableRequestFactoryMock).put(entryCaptor.capture());
+        assertThat(entryCaptor.getValue().getPartitionKey(), is(equalTo(entry().getPartitionKey())));
+        assertThat(entryCaptor.getValue().getRowKey(), is(equalTo(entry().getRowKey())));
+    }
+
+    @Test
+    public void stale_entries_are_deleted_conditionally_on_the_etag_they_were_read_with() throws StorageException {
+        TableOperation deleteOperation = mock(TableOperation.class);
+        when(azureTableRequestFactoryMock.delete(any(AzureEntity.class))).thenReturn(deleteOperation);
+        ArgumentCaptor<AzureEntity> entryCaptor = ArgumentCaptor.forClass(AzureEntity.class);
+
+        valueIndex.removeStale(entry());
+
+        verify(azureTableCloudClientMock).execute(INDEX_TABLE_NAME, deleteOperation);
+        verify(azureTableRequestFactoryMock).delete(entryCaptor.capture());
+        assertThat(entryCaptor.getValue().getPartitionKey(), is(equalTo(entry().getPartitionKey())));
+        assertThat(entryCaptor.getValue().getRowKey(), is(equalTo(entry().getRowKey())));
+        assertThat(entryCaptor.getValue().getEtag(), is(equalTo(ETAG)));
+    }
+
+    @Test
+    public void failures_to_remove_a_stale_entry_are_ignored() throws StorageException {
+        TableOperation deleteOperation = mock(TableOperation.class);
+        when(azureTableRequestFactoryMock.delete(any(AzureEntity.class))).thenReturn(deleteOperation);
+        doThrow(new StorageException("UpdateConditionNotSatisfied", "changed", 412, null, null))
+                .when(azureTableCloudClientMock).execute(INDEX_TABLE_NAME, deleteOperation);
+
+        valueIndex.removeStale(entry());
+    }
+
+    @Test
+    public void entries_younger_than_the_grace_period_are_not_removed() {
+        valueIndex.removeStale(entryWrittenAt(new Date(System.currentTimeMillis() - GRACE_PERIOD_IN_MILLIS / 2)));
+        valueIndex.removeStale(entryWrittenAt(null));
+
+        verifyZeroInteractions(azureTableCloudClientMock, azureTableRequestFactoryMock);
+    }
+
+    @Test
+    public void the_grace_period_is_a_multiple_of_the_request_timeout_and_at_least_a_few_minutes() {
+        assertThat(ValueIndex.gracePeriodInMillis(90 * 1000), is(equalTo(15 * 60 * 1000L)));
+        assertThat(ValueIndex.gracePeriodInMillis(1000), is(equalTo(5 * 60 * 1000L)));
+    }
+
+    @Test
+    public void clear_deletes_all_entries_of_the_index_table() throws StorageException {
+        TableQuery<AzureEntity> keysQuery = AzureTestUtil.queryMock();
+        TableBatchOperation deleteBatch = mock(TableBatchOperation.class);
+        when(azureTableRequestFactoryMock.selectAllKeys(INDEX_TABLE_NAME)).thenReturn(keysQuery);
+        when(azureTableCloudClientMock.execute(keysQuery)).thenReturn(ImmutableList.of(entry()));
+        when(azureTableRequestFactoryMock.deleteBatch(anyListOf(AzureEntity.class))).thenReturn(deleteBatch);
+
+        valueIndex.clear();
+
+        verify(azureTableCloudClientMock).execute(INDEX_TABLE_NAME, deleteBatch);
+    }
+
+    @Test
+    public void clear_deletes_the_rest_of_a_batch_one_by_one_when_an_entry_of_it_is_already_gone() throws StorageException {
+        AzureEntity otherEntry = ValueIndex.entryOf(KeyCodec.BASE64.encode(COLUMN_KEY), KeyCodec.BASE64.encode(ROW_KEY), VALUE);
+        TableQuery<AzureEntity> keysQuery = AzureTestUtil.queryMock();
+        TableBatchOperation deleteBatch = mock(TableBatchOperation.class);
+        TableOperation deleteOperation = mock(TableOperation.class);
+        TableOperation otherDeleteOperation = mock(TableOperation.class);
+        when(azureTableRequestFactoryMock.selectAllKeys(INDEX_TABLE_NAME)).thenReturn(keysQuery);
+        when(azureTableCloudClientMock.execute(keysQuery)).thenReturn(ImmutableList.of(entry(), otherEntry));
+        when(azureTableRequestFactoryMock.deleteBatch(anyListOf(AzureEntity.class))).thenReturn(deleteBatch);
+        when(azureTableRequestFactoryMock.delete(any(AzureEntity.class))).thenReturn(deleteOperation, otherDeleteOperation);
+        StorageException notFound = new StorageException("ResourceNotFound", "not found", 404, null, null);
+        doThrow(notFound).when(azureTableCloudClientMock).execute(INDEX_TABLE_NAME, deleteBatch);
+        doThrow(notFound).when(azureTableCloudClientMock).execute(INDEX_TABLE_NAME, deleteOperation);
+
+        valueIndex.clear();
+
+        verify(azureTableCloudClientMock).execute(INDEX_TABLE_NAME, otherDeleteOperation);
+    }
+}
@@ -0,0 +1,259 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, EITHER
+ * EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS
+ * OF TITLE, FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under
+ * the License.
+ */
+package com.yammer.collections.azure;
+
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Table;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@SuppressWarnings({"ClassWithTooManyMethods", "InstanceVariableMayNotBeInitialized"})
+@RunWith(MockitoJUnitRunner.class)
+public class WriteBehindTableTest {
+    private static final Bytes ROW_KEY = new Bytes("row_key".getBytes());
+    private static final Bytes COLUMN_KEY_1 = new Bytes("column_key_1".getBytes());
+    private static final Bytes COLUMN_KEY_2 = new Bytes("column_key_2".getBytes());
+    private static final Bytes VALUE_1 = new Bytes("value1".getBytes());
+    private static final Bytes VALUE_2 = new Bytes("value2".getBytes());
+    private static final int MAX_PENDING_CELLS = 3;
+    private static final long MAX_AGE_IN_SECONDS = 5;
+    @Mock
+    private BaseAzureTable backingTableMock;
+    @Mock
+    private ScheduledExecutorService schedulerMock;
+    @Mock
+    private ScheduledFuture<?> scheduledFutureMock;
+    @Captor
+    private ArgumentCaptor<Iterable<Table.Cell<Bytes, Bytes, Bytes>>> putsCaptor;
+    @Captor
+    private ArgumentCaptor<Iterable<?>> removesCaptor;
+    private WriteBehindTable writeBehindTable;
+
+    @Before
+    public void setUp() {
+        doReturn(scheduledFutureMock).when(schedulerMock)
+                .scheduleWithFixedDelay(any(Runnable.class), eq(MAX_AGE_IN_SECONDS), eq(MAX_AGE_IN_SECONDS), eq(TimeUnit.SECONDS));
+        writeBehindTable = WriteBehindTable.create(backingTableMock, MAX_PENDING_CELLS, MAX_AGE_IN_SECONDS, TimeUnit.SECONDS, schedulerMock);
+    }
+
+    private static Iterable<Table.Cell<Bytes, Bytes, Bytes>> anyCells() {
+        return any();
+    }
+
+    private Iterable<Table.Cell<Bytes, Bytes, Bytes>> capturePuts() {
+        verify(backingTableMock).putCells(putsCaptor.capture());
+        return putsCaptor.getValue();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void max_pending_cells_has_to_be_positive() {
+        WriteBehindTable.create(backingTableMock, 0, MAX_AGE_IN_SECONDS, TimeUnit.SECONDS, schedulerMock);
+    }
+
+    @Test
+    public void put_is_not_written_before_flush() {
+        writeBehindTable.put(ROW_KEY, COLUMN_KEY_1, VALUE_1);
+
+        verify(backingTableMock, never()).putCells(anyCells());
+        verify(backingTableMock, never()).put(any(Bytes.class), any(Bytes.class), any(Bytes.class));
+    }
+
+    @Test
+    public void repeated_puts_of_a_cell_are_coalesced_to_the_last_one() {
+        writeBehindTable.put(ROW_KEY, COLUMN_KEY_1, VALUE_1);
+        writeBehindTable.put(ROW_KEY, COLUMN_KEY_1, VALUE_2);
+
+        writeBehindTable.flush();
+
+        Table.Cell<Bytes, Bytes, Bytes> written = Iterables.getOnlyElement(capturePuts());
+        assertThat(written.getValue(), is(equalTo(VALUE_2)));
+    }
+
+    @Test
+    public void put_returns_value_of_pending_write() {
+        assertThat(writeBehindTable.put(ROW_KEY, COLUMN_KEY_1, VALUE_1), is(nullValue()));
+        assertThat(writeBehindTable.put(ROW_KEY, COLUMN_KEY_1, VALUE_2), is(equalTo(VALUE_1)));
+    }
+
+    @Test
+    public void pending_writes_are_read_from_the_buffer() {
+        writeBehindTable.put(ROW_KEY, COLUMN_KEY_1, VALUE_1);
+        writeBehindTable.remove(ROW_KEY, COLUMN_KEY_2);
+
+        assertThat(writeBehindTable.get(ROW_KEY, COLUMN_KEY_1), is(equalTo(VALUE_1)));
+        assertThat(writeBehindTable.contains(ROW_KEY, COLUMN_KEY_2), is(equalTo(false)));
+        verify(backingTableMock, never()).get(any(), any());
+    }
+
+    @Test
+    public void cells_without_pending_writes_are_read_from_the_table() {
+        when(backingTableMock.get(ROW_KEY, COLUMN_KEY_1)).thenReturn(VALUE_1);
+
+        assertThat(writeBehindTable.get(ROW_KEY, COLUMN_KEY_1), is(equalTo(VALUE_1)));
+    }
+
+    @Test
+    public void removes_are_flushed_as_deletes() {
+        writeBehindTable.put(ROW_KEY, COLUMN_KEY_1, VALUE_1);
+        writeBehindTable.remove(ROW_KEY, COLUMN_KEY_1);
+
+        writeBehindTable.flush();
+
+        verify(backingTableMock).removeCells(removesCaptor.capture());
+        Table.Cell<?, ?, ?> removed = (Table.Cell<?, ?, ?>) Iterables.getOnlyElement(removesCaptor.getValue());
+        assertThat(removed.getColumnKey(), is(equalTo((Object) COLUMN_KEY_1)));
+        verify(backingTableMock, never()).putCells(anyCells());
+    }
+
+    @Test
+    public void full_buffer_is_flushed_by_the_writer() {
+        for (int i = 0; i < MAX_PENDING_CELLS; i++) {
+            writeBehindTable.put(ROW_KEY, new Bytes(("column" + i).getBytes()), VALUE_1);
+        }
+
+        assertThat(Iterables.size(capturePuts()), is(equalTo(MAX_PENDING_CELLS)));
+    }
+
+    @Test
+    public void scheduled_flush_writes_pending_writes() {
+        ArgumentCaptor<Runnable> flushCaptor = ArgumentCaptor.forClass(Runnable.class);
+        verify(schedulerMock).scheduleWithFixedDelay(flushCaptor.capture(), anyLong(), anyLong(), any(TimeUnit.class));
+        writeBehindTable.put(ROW_KEY, COLUMN_KEY_1, VALUE_1);
+
+        flushCaptor.getValue().run();
+
+        assertThat(Iterables.size(capturePuts()), is(equalTo(1)));
+    }
+
+    @Test
+    public void failed_flush_keeps_writes_pending() {
+        writeBehindTable.put(ROW_KEY, COLUMN_KEY_1, VALUE_1);
+        doThrow(new IllegalStateException()).when(backingTableMock).putCells(anyCells());
+        try {
+            writeBehindTable.flush();
+            fail();
+        } catch (IllegalStateException ignored) {
+            // expected
+        }
+
+        assertThat(writeBehindTable.get(ROW_KEY, COLUMN_KEY_1), is(equalTo(VALUE_1)));
+        try {
+            writeBehindTable.flush();
+        } catch (IllegalStateException ignored) {
+            // still failing
+        }
+        verify(backingTableMock, times(2)).putCells(anyCells());
+    }
+
+    @Test
+    public void write_to_a_full_buffer_fails_with_the_flush_failure_and_is_not_buffered() {
+        doThrow(new IllegalStateException()).when(backingTableMock).putCells(anyCells());
+        for (int i = 0; i < MAX_PENDING_CELLS; i++) {
+            writeBehindTable.put(ROW_KEY, new Bytes(("column" + i).getBytes()), VALUE_1);
+        }
+
+        try {
+            writeBehindTable.put(ROW_KEY, COLUMN_KEY_1, VALUE_1);
+            fail();
+        } catch (IllegalStateException ignored) {
+            // expected
+        }
+
+        assertThat(writeBehindTable.get(ROW_KEY, COLUMN_KEY_1), is(nullValue()));
+        verify(backingTableMock, times(2)).putCells(anyCells());
+    }
+
+    @Test
+    public void write_of_a_pending_cell_to_a_full_buffer_replaces_it() {
+        doThrow(new IllegalStateException()).when(backingTableMock).putCells(anyCells());
+        for (int i = 0; i < MAX_PENDING_CELLS; i++) {
+            writeBehindTable.put(ROW_KEY, new Bytes(("column" + i).getBytes()), VALUE_1);
+        }
+        Bytes pendingColumn = new Bytes("column0".getBytes());
+
+        writeBehindTable.put(ROW_KEY, pendingColumn, VALUE_2);
+
+        assertThat(writeBehindTable.get(ROW_KEY, pendingColumn), is(equalTo(VALUE_2)));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void put_after_close_fails() {
+        writeBehindTable.close();
+
+        writeBehindTable.put(ROW_KEY, COLUMN_KEY_1, VALUE_1);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void remove_after_close_fails() {
+        writeBehindTable.close();
+
+        writeBehindTable.remove(ROW_KEY, COLUMN_KEY_1);
+    }
+
+    @Test
+    public void size_flushes_pending_writes_first() {
+        writeBehindTable.put(ROW_KEY, COLUMN_KEY_1, VALUE_1);
+        when(backingTableMock.size()).thenReturn(1);
+
+        assertThat(writeBehindTable.size(), is(equalTo(1)));
+        assertThat(Iterables.size(capturePuts()), is(equalTo(1)));
+    }
+
+    @Test
+    public void close_cancels_scheduled_flushes_and_flushes() {
+        writeBehindTable.put(ROW_KEY, COLUMN_KEY_1, VALUE_1);
+
+        writeBehindTable.close();
+
+        verify(scheduledFutureMock).cancel(false);
+        assertThat(Iterables.size(capturePuts()), is(equalTo(1)));
+    }
+
+    @Test
+    public void clear_drops_pending_writes() {
+        writeBehindTable.put(ROW_KEY, COLUMN_KEY_1, VALUE_1);
+
+        writeBehindTable.clear();
+        writeBehindTable.flush();
+
+        verify(backingTableMock).clear();
+        verify(backingTableMock, never()).putCells(anyCells());
+    }
+}
@@ -27,12 +27,14 @@ import com.microsoft.windowsazure.services.table.client.CloudTable;
 import com.microsoft.windowsazure.services.table.client.CloudTableClient;
 import com.yammer.collections.azure.BaseAzureTable;
 import com.yammer.collections.azure.Bytes;
+import com.yammer.collections.azure.CachingTable;
 import com.yammer.collections.azure.serialization.json.JsonSerializingTable;
 import com.yammer.collections.metrics.MeteredTable;
 import com.yammer.collections.transforming.TransformingTable;
 
 import java.net.URISyntaxException;
 import java.security.InvalidKeyException;
+import java.util.concurrent.TimeUnit;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -158,7 +160,7 @@ public final class AzureTables {
     }
 
     public static class TableBuilder {
-        private final Table<Bytes, Bytes, Bytes> backingTable;
+        private Table<Bytes, Bytes, Bytes> backingTable;
         @SuppressWarnings("InstanceVariableMayNotBeInitialized")
         private Optional<MetricRegistry> metrics = Optional.absent();
 
@@ -171,6 +173,15 @@ public final class AzureTables {
             return this;
         }
 
+        /**
+         * Caches reads of single cells, see {@link CachingTable}. The cache holds serialized cells,
+         * so it is bounded by their size in bytes regardless of the serialization chosen.
+         */
+        public TableBuilder andAddCaching(long maximumSizeInBytes, long expireAfterWrite, TimeUnit unit) {
+            backingTable = CachingTable.create(backingTable, maximumSizeInBytes, expireAfterWrite, unit);
+            return this;
+        }
+
         public <R, C, V> Table<R, C, V> buildWithJsonSerialization(Class<R> rowClass, Class<C> columnClass, Class<V> valueClass) {
             return addMetricsIfChosen(
                     JsonSerializingTable.create(